@@ -103,6 +103,10 @@ public interface JMC extends RhythmValues, Pitches, Frequencies, Tunings,
    * Constant for no instrument
    */
   int NO_INSTRUMENT = -1;
+  /**
+   * Constant for no effect bus send level
+   */
+  double NO_SEND = -1.0;
 
   //----------------------------------------------
   // Audio constants
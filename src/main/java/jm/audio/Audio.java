@@ -36,11 +36,16 @@ import java.io.StreamTokenizer;
 import java.util.Enumeration;
 import java.util.Stack;
 
+import javax.sound.sampled.AudioFormat;
+
+import jm.audio.io.MixFile;
+import jm.audio.io.PCMCodec;
 import jm.audio.io.SampleOut;
 import jm.music.data.Note;
 import jm.music.data.Part;
 import jm.music.data.Phrase;
 import jm.music.data.Score;
+import jm.music.data.TempoMap;
 
 /**
  * The Audio class provides a number of static methods to help pass
@@ -74,6 +79,46 @@ public final class Audio implements jm.JMC {
    * @param score the score to take data from
    */
   public static void processScore(Score score, Instrument[] instList, String fileName) {
+    processScore(score, instList, null, fileName);
+  }
+
+  /**
+   * Renders all the notes of the score as processScore(score, instList,
+   * fileName) does, also sending each phrase to the effect buses at the
+   * send levels set on it or its part. Once all the notes are rendered
+   * each bus's effects are run over everything sent to it and added to
+   * the mix.
+   *
+   * @param score    the score to take data from
+   * @param instList the instruments, by instrument number
+   * @param busList  the effect buses, by bus number, or null for none
+   */
+  public static void processScore(Score score, Instrument[] instList, EffectBus[] busList,
+                                  String fileName) {
+    processScore(score, instList, busList, null, fileName);
+  }
+
+  /**
+   * Renders all the notes of the score as processScore(score, instList,
+   * busList, fileName) does, also writing each part's notes to its own
+   * stem. Every note is rendered once, for both the mix and its stem.
+   * The stems hold only the parts' own notes, the effect bus returns
+   * are in the mix alone.
+   *
+   * @param score    the score to take data from
+   * @param instList the instruments, by instrument number
+   * @param busList  the effect buses, by bus number, or null for none
+   * @param stems    the stem for each part, by part number, or null for none
+   */
+  public static void processScore(Score score, Instrument[] instList, EffectBus[] busList,
+                                  MixFile[] stems, String fileName) {
+    if (busList != null) {
+      for (EffectBus bus : busList) {
+        if (bus != null) {
+          bus.clear();
+        }
+      }
+    }
     Stack inst = new Stack();
     // add an instrument to avoid errors from no instrument assignment by user
     inst.push(instList[0]);
@@ -94,10 +139,13 @@ public final class Audio implements jm.JMC {
     Enumeration enum1 = score.getPartList().elements();
     //set score tempo
     double score_ratio = 60.0 / score.getTempo();
+    //the score's tempo changes, for parts and phrases without a tempo of their own
+    TempoMap tempoMap = score.getTempoMap();
     int partCounter = 0;
         /* Enumerate through all parts */
     while (enum1.hasMoreElements()) {
       Part part = (Part) enum1.nextElement();
+      MixFile stem = (stems == null) ? null : stems[partCounter];
 
       //set part tempo
       double part_ratio = score_ratio;
@@ -140,8 +188,19 @@ public final class Audio implements jm.JMC {
               " the phrase named " + phr.getTitle() + ".");
           }
         }
+        /* Get the send level to each effect bus for this phrase */
+        float[] sendLevels = null;
+        if (busList != null) {
+          sendLevels = new float[busList.length];
+          for (int i = 0; i < busList.length; i++) {
+            double level = phr.getSend(i);
+            sendLevels[i] = (float) ((level == NO_SEND) ? part.getSend(i) : level);
+          }
+        }
         double time = part_ratio * phr.getStartTime(); //start time of phrase
         double ntime = 0.0; //notes distance from phrases start time
+        TempoMap phraseMap = (part.getTempo() > 0.0 || phr.getTempo() > 0.0) ? null : tempoMap;
+        double beat = phr.getStartTime(); //beat the note starts at
 
         System.out.print("    Phrase " + phraseCounter++ + " '" + phr.getTitle() + "'" +
           " starting at beat " + phr.getStartTime() + ": ");
@@ -151,6 +210,7 @@ public final class Audio implements jm.JMC {
         for (Note note : phr.getNoteList()) {
           if (note.getFrequency() == (double) REST) { //This a rest ???
             ntime += phrase_ratio * note.getRhythm();
+            beat += note.getRhythm();
             continue;
           }
           phraseNoteCounter++;
@@ -161,15 +221,26 @@ public final class Audio implements jm.JMC {
           }
           Note new_note = note.copy();
           //System.out.println("new note pitch = " + new_note.getPitch());
-          new_note.setDuration(phrase_ratio * note.getDuration());
-          new_note.setRhythm(phrase_ratio * note.getRhythm());
+          double start = time + ntime;
+          if (phraseMap != null) {
+            //the note's times in seconds from the tempo changes
+            start = phraseMap.getSeconds(beat);
+            new_note.setDuration(phraseMap.getDuration(beat, note.getDuration()));
+            new_note.setRhythm(phraseMap.getDuration(beat, note.getRhythm()));
+          } else {
+            new_note.setDuration(phrase_ratio * note.getDuration());
+            new_note.setRhythm(phrase_ratio * note.getRhythm());
+          }
           Instrument currInst = (Instrument) inst.peek();
           currInst.setBlock(false);
+          currInst.setSends(busList, sendLevels);
+          currInst.setStem(stem);
           currInst.setFinished(true);
-          currInst.renderNote(new_note, (time + ntime));
+          currInst.renderNote(new_note, start);
           currInst.setFinished(false);
           currInst.iterateChain();
           ntime += phrase_ratio * note.getRhythm();
+          beat += note.getRhythm();
         }
         System.out.println();
         if (phr.getInstrument() != NO_INSTRUMENT) {
@@ -178,6 +249,26 @@ public final class Audio implements jm.JMC {
       }
 
     }
+    for (Instrument anInstList : instList) {
+      if (anInstList != null) {
+        anInstList.setSends(null, null);
+        anInstList.setStem(null);
+      }
+    }
+    if (busList == null) {
+      return;
+    }
+    /* Run each bus's effects once over everything sent to it */
+    for (int i = 0; i < busList.length; i++) {
+      if (busList[i] != null && busList[i].getLength() > 0) {
+        System.out.println("Effect bus " + i + ".");
+        try {
+          busList[i].render();
+        } catch (AOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
   }
 
   /**
@@ -272,6 +363,48 @@ public final class Audio implements jm.JMC {
     }
   }
 
+  /**
+   * Converts the floating point mix and the stems made by processScore
+   * into integer audio files. The mix is normalised by its own peak. Each
+   * stem is normalised either by its own peak or, if sharedPeak is true,
+   * by the largest peak of the mix and all the stems, which is then used
+   * for the mix too, so that the stems add up to the mix. Stems which
+   * end before the mix are padded with silence, so every file lines up.
+   *
+   * @param tmpFile    the floating point mix
+   * @param fileOut    the audio file to write the mix to
+   * @param stems      the stem of each part
+   * @param stemFiles  the audio file to write each stem to
+   * @param sharedPeak normalise all the files by the same peak?
+   */
+  public static void combineStems(String tmpFile, String fileOut, MixFile[] stems,
+                                  String[] stemFiles, boolean sharedPeak) {
+    Audio.sampleRate = SampleOut.samprate;
+    Audio.channels = SampleOut.numofchan;
+    float peak = SampleOut.max;
+    if (sharedPeak) {
+      for (MixFile stem : stems) {
+        peak = Math.max(peak, stem.getMax());
+      }
+    }
+    System.out.println("Bit Depth: 16" + " Sample rate: " + SampleOut.samprate +
+      " Channels: " + SampleOut.numofchan + " Stems: " + stems.length);
+    // the stems of parts which end early are padded to the length of the mix
+    long length = new File(tmpFile).length() / 4;
+    addEmUp(tmpFile, fileOut, peak);
+    for (int i = 0; i < stems.length; i++) {
+      try {
+        stems[i].pad(length);
+        stems[i].close();
+      } catch (IOException ioe) {
+        ioe.printStackTrace();
+      }
+      float stemPeak = sharedPeak ? peak : stems[i].getMax();
+      // a silent stem has nothing to normalise
+      addEmUp(stems[i].getFileName(), stemFiles[i], (stemPeak > 0.0f) ? stemPeak : 1.0f);
+    }
+  }
+
   private static float getAudio(String fileName, long position, int length,
                                 float max, RandomAccessFile raf) {
     FileInputStream fis = null;
@@ -381,50 +514,61 @@ public final class Audio implements jm.JMC {
       //raf.seek(0);
 
       double tt = System.currentTimeMillis();
-      try {
-        for (; ; ) {
-          float samp = dis.readFloat();
+      // convert a block of samples at a time
+      AudioFormat inFormat = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT,
+        Audio.sampleRate, 32, Audio.channels, 4 * Audio.channels, Audio.sampleRate, true);
+      AudioFormat outFormat = new AudioFormat(Audio.sampleRate, 16, Audio.channels, true, true);
+      byte[] inBytes = new byte[4096 * 4];
+      byte[] outBytes = new byte[4096 * 2];
+      float[] block = new float[4096];
+      int filled = 0;
+      int read;
+      while ((read = dis.read(inBytes, filled, inBytes.length - filled)) != -1) {
+        filled += read;
+        int count = filled / 4;
+        PCMCodec.decode(inFormat, inBytes, 0, block, 0, count);
+        for (int i = 0; i < count; i++) {
+          float samp = block[i];
           float outgoing = samp / max;
           if (outgoing < (float) -1.0 || outgoing > (float) 1.0) {
             System.out.println("Outgoing= " + outgoing +
               "  SAMPLE: " + samp + "  MAX: " + max +
               "  SampleOut.max: " + SampleOut.max);
           }
-          //dos.writeFloat(outgoing);
-          dos.writeShort((short) (outgoing * 32767));
-          numOfBytes += 2;
-          //System.out.println((short)(dis.readFloat()/max)*32767);
+          block[i] = outgoing;
         }
-      } catch (EOFException eofe) {
-        //expected
-        double ttt = System.currentTimeMillis();
-        System.out
-          .println("Finished writing the audio file in " + (((ttt - tt)) / 1000.0) + " seconds");
-        dos.flush();
-        fos.flush();
-        bos.flush();
-        dos.close();
-        fos.close();
-        bos.close();
-        fin.close();
-        bin.close();
-        dis.close();
-        tmpF.delete();
-        // Thanks to Francois Pinot for this work around
-        if (tmpF.exists()) { // set to empty (to avoid subsequent overlaying)
-          RandomAccessFile raf = new RandomAccessFile(tmpFileName, "rw");
-          raf.setLength(0);
-          raf.close();
-        }
-        // Added FP nov 2004
-        RandomAccessFile auxraf = new RandomAccessFile(fileName, "rw");
-        auxraf.seek(8);
-        auxraf.writeInt(numOfBytes);
-        auxraf.close();
-        // End added FP nov 2004
-      } catch (IOException ioe) {
-        ioe.printStackTrace();
+        PCMCodec.encode(outFormat, block, 0, outBytes, 0, count);
+        dos.write(outBytes, 0, count * 2);
+        numOfBytes += count * 2;
+        // keep any part of a sample for the next read
+        System.arraycopy(inBytes, count * 4, inBytes, 0, filled - count * 4);
+        filled -= count * 4;
+      }
+      double ttt = System.currentTimeMillis();
+      System.out
+        .println("Finished writing the audio file in " + (((ttt - tt)) / 1000.0) + " seconds");
+      dos.flush();
+      fos.flush();
+      bos.flush();
+      dos.close();
+      fos.close();
+      bos.close();
+      fin.close();
+      bin.close();
+      dis.close();
+      tmpF.delete();
+      // Thanks to Francois Pinot for this work around
+      if (tmpF.exists()) { // set to empty (to avoid subsequent overlaying)
+        RandomAccessFile raf = new RandomAccessFile(tmpFileName, "rw");
+        raf.setLength(0);
+        raf.close();
       }
+      // Added FP nov 2004
+      RandomAccessFile auxraf = new RandomAccessFile(fileName, "rw");
+      auxraf.seek(8);
+      auxraf.writeInt(numOfBytes);
+      auxraf.close();
+      // End added FP nov 2004
     } catch (IOException ioe) {
       ioe.printStackTrace();
       System.out.println(ioe);
@@ -0,0 +1,395 @@
+/*
+
+<This Java Class is part of the jMusic API version 1.5, March 2004.>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+package jm.audio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compiled form of an Instrument's audio chain, made by
+ * Instrument.compileChain() before the chain is first run.
+ * <p>
+ * Compiling walks the chain back from the finalAO and puts its
+ * AudioObjects in the order they are first worked in, each after all
+ * of its inputs, rejecting chains that loop back on themselves. The
+ * chain is still run by each AudioObject pulling samples from its
+ * inputs, but the AudioObjects read by more than one other are
+ * de-duplicated: a shared AudioObject is only worked for samples none
+ * of its readers has had yet, and each of its inputs to another object
+ * reads through it at its own place, where the plain pull chain would
+ * work it again (and move it on again) for every read. So each reader
+ * gets every sample once, even one which, like ReSample, reads more
+ * than once per block.
+ * <p>
+ * The samples of a shared AudioObject are kept until every reader has
+ * read them. A reader which falls more than MAX_LAG samples behind the
+ * others loses the oldest of them, so that readers reading at different
+ * rates can not make the kept samples grow without end.
+ */
+public final class AudioGraph {
+
+  /**
+   * The most samples of a shared AudioObject kept for
+   * readers which are behind the others
+   */
+  public static final int MAX_LAG = 1 << 16;
+
+  /**
+   * The last AudioObject in the chain
+   */
+  private final AudioObject finalAO;
+  /**
+   * Every AudioObject in the chain, each after its inputs
+   */
+  private final AudioObject[] schedule;
+  /**
+   * The number of reads of each AudioObject per block
+   */
+  private final int[] consumers;
+  /**
+   * The kept samples of each shared AudioObject, null for the others
+   */
+  private final Shared[] shared;
+  /**
+   * The AudioObjects being worked, the last being the one reading
+   */
+  private final AudioObject[] working;
+  private int depth = 0;
+  /**
+   * The number of AudioObjects making their inputs' samples in one loop
+   */
+  private int fusedCount = 0;
+
+  /**
+   * The samples of a shared AudioObject not yet read by all its readers.
+   */
+  private static final class Shared {
+    /**
+     * The reader of each input from the object, as places in the
+     * schedule, and how many samples each input has read
+     */
+    final int[] readers;
+    final long[] cursors;
+    /**
+     * The samples kept, from the sample at start on
+     */
+    float[] samples = new float[0];
+    long start = 0;
+    int length = 0;
+    /**
+     * The samples kept which a work made but did not return, as pairs
+     * of the first sample and the one after the last
+     */
+    long[] gaps = new long[0];
+    int gapCount = 0;
+    /**
+     * The buffer the object is worked into
+     */
+    float[] out = new float[0];
+
+    Shared(int reads) {
+      this.readers = new int[reads];
+      this.cursors = new long[reads];
+    }
+  }
+
+  /**
+   * Compiles the chain that ends with finalAO.
+   *
+   * @param finalAO the last AudioObject in the chain
+   * @param fuse    if true, AudioObjects may make their inputs' samples
+   *                in one loop, see AudioObject.fuseInputs
+   * @throws AOException if the chain loops back on itself
+   */
+  AudioGraph(AudioObject finalAO, boolean fuse) throws AOException {
+    this.finalAO = finalAO;
+    // depth first walk back from the final object, an object is placed
+    // once all its inputs have been, which is the order it is first worked in
+    Map<AudioObject, Integer> order = new IdentityHashMap<AudioObject, Integer>();
+    Map<AudioObject, Integer> reads = new IdentityHashMap<AudioObject, Integer>();
+    Map<AudioObject, Boolean> visiting = new IdentityHashMap<AudioObject, Boolean>();
+    List<AudioObject> placed = new ArrayList<AudioObject>();
+    List<AudioObject> stack = new ArrayList<AudioObject>();
+    List<Integer> nextInput = new ArrayList<Integer>();
+    stack.add(finalAO);
+    nextInput.add(0);
+    visiting.put(finalAO, Boolean.TRUE);
+    while (!stack.isEmpty()) {
+      int top = stack.size() - 1;
+      AudioObject ao = stack.get(top);
+      int input = nextInput.get(top);
+      if (ao.previous != null && input < ao.previous.length) {
+        nextInput.set(top, input + 1);
+        AudioObject in = ao.previous[input];
+        Integer count = reads.get(in);
+        reads.put(in, count == null ? 1 : count + 1);
+        if (visiting.containsKey(in)) {
+          throw new AOException(in.name,
+            " is an input to itself, audio chains can not loop.");
+        }
+        if (!order.containsKey(in)) {
+          stack.add(in);
+          nextInput.add(0);
+          visiting.put(in, Boolean.TRUE);
+        }
+      } else {
+        stack.remove(top);
+        nextInput.remove(top);
+        visiting.remove(ao);
+        order.put(ao, placed.size());
+        placed.add(ao);
+      }
+    }
+    this.schedule = placed.toArray(new AudioObject[placed.size()]);
+
+    int n = schedule.length;
+    this.consumers = new int[n];
+    this.shared = new Shared[n];
+    this.working = new AudioObject[n + 1];
+    for (int i = 0; i < n; i++) {
+      AudioObject ao = schedule[i];
+      Integer count = reads.get(ao);
+      consumers[i] = (count == null) ? 0 : count;
+      if (consumers[i] > 1) {
+        shared[i] = new Shared(consumers[i]);
+      }
+      ao.graph = this;
+      ao.graphIndex = i;
+    }
+    int[] edges = new int[n];
+    for (int i = 0; i < n; i++) {
+      AudioObject ao = schedule[i];
+      if (ao.previous != null) {
+        for (AudioObject in : ao.previous) {
+          int j = order.get(in);
+          if (shared[j] != null) {
+            shared[j].readers[edges[j]++] = i;
+          }
+        }
+      }
+    }
+    for (AudioObject ao : schedule) {
+      if (ao.fuseInputs(this, fuse)) {
+        fusedCount++;
+      }
+    }
+  }
+
+  /**
+   * Works an AudioObject of the chain. A shared AudioObject is only
+   * worked for samples none of its readers has had yet, the reader
+   * being the object being worked, and is otherwise given samples
+   * already made.
+   */
+  int pull(AudioObject ao, float[] buffer) throws AOException {
+    Shared s = shared[ao.graphIndex];
+    if (s == null) {
+      return work(ao, buffer);
+    }
+    int edge = edgeOf(s, depth > 0 ? working[depth - 1] : null);
+    long start = s.cursors[edge];
+    long end = start + buffer.length;
+    long made = s.start + s.length;
+    if (end > made) {
+      // work a whole block, keeping what this reader does not need yet
+      if (s.out.length != buffer.length) {
+        s.out = new float[buffer.length];
+      } else {
+        Arrays.fill(s.out, 0.0f);
+      }
+      keep(s, made, work(ao, s.out));
+    }
+    System.arraycopy(s.samples, (int) (start - s.start), buffer, 0, buffer.length);
+    s.cursors[edge] = end;
+    int returned = buffer.length - shortfall(s, start, end);
+    trim(s);
+    return returned;
+  }
+
+  private int work(AudioObject ao, float[] buffer) throws AOException {
+    working[depth++] = ao;
+    try {
+      return ao.work(buffer);
+    } finally {
+      depth--;
+    }
+  }
+
+  /**
+   * Returns the input from a shared AudioObject that the reader reads
+   * through, the one that has read least if it reads the object more
+   * than once. Reads from outside the chain go through the input that
+   * has read least.
+   */
+  private int edgeOf(Shared s, AudioObject reader) {
+    int edge = -1;
+    for (int e = 0; e < s.readers.length; e++) {
+      if ((reader == null || schedule[s.readers[e]] == reader)
+        && (edge == -1 || s.cursors[e] < s.cursors[edge])) {
+        edge = e;
+      }
+    }
+    return edge == -1 ? edgeOf(s, null) : edge;
+  }
+
+  /**
+   * Adds the samples just worked into out, the first being the sample
+   * at made, to those kept. Readers which would then be more than
+   * MAX_LAG samples behind are moved on, losing their oldest samples.
+   */
+  private void keep(Shared s, long made, int returned) {
+    int length = s.out.length;
+    long end = made + length;
+    long oldest = end - Math.max(MAX_LAG, 2 * length);
+    for (int e = 0; e < s.cursors.length; e++) {
+      if (s.cursors[e] < oldest) {
+        s.cursors[e] = oldest;
+      }
+    }
+    trim(s);
+    int needed = s.length + length;
+    if (s.samples.length < needed) {
+      s.samples = Arrays.copyOf(s.samples, Math.max(needed, s.samples.length * 2));
+    }
+    System.arraycopy(s.out, 0, s.samples, s.length, length);
+    s.length = needed;
+    if (returned < length) {
+      if (s.gaps.length < s.gapCount + 2) {
+        s.gaps = Arrays.copyOf(s.gaps, Math.max(4, s.gaps.length * 2));
+      }
+      s.gaps[s.gapCount++] = made + Math.max(returned, 0);
+      s.gaps[s.gapCount++] = end;
+    }
+  }
+
+  /**
+   * Returns the number of samples between start and end that the
+   * works of a shared AudioObject made but did not return.
+   */
+  private static int shortfall(Shared s, long start, long end) {
+    long missing = 0;
+    for (int g = 0; g < s.gapCount; g += 2) {
+      missing += Math.max(0, Math.min(end, s.gaps[g + 1]) - Math.max(start, s.gaps[g]));
+    }
+    return (int) missing;
+  }
+
+  /**
+   * Drops the samples of a shared AudioObject that every reader has read.
+   */
+  private static void trim(Shared s) {
+    long read = Long.MAX_VALUE;
+    for (long cursor : s.cursors) {
+      read = Math.min(read, cursor);
+    }
+    int drop = (int) (read - s.start);
+    if (drop <= 0) {
+      return;
+    }
+    s.length -= drop;
+    s.start = read;
+    System.arraycopy(s.samples, drop, s.samples, 0, s.length);
+    int kept = 0;
+    for (int g = 0; g < s.gapCount; g += 2) {
+      if (s.gaps[g + 1] > read) {
+        s.gaps[kept++] = s.gaps[g];
+        s.gaps[kept++] = s.gaps[g + 1];
+      }
+    }
+    s.gapCount = kept;
+  }
+
+  /**
+   * Starts the chain again for a new note, dropping the samples kept
+   * from the last. Called by the Instrument before each note.
+   */
+  void reset() {
+    depth = 0;
+    for (Shared s : shared) {
+      if (s != null) {
+        Arrays.fill(s.cursors, 0);
+        s.start = 0;
+        s.length = 0;
+        s.gapCount = 0;
+      }
+    }
+  }
+
+  /**
+   * Returns the last AudioObject in the chain.
+   */
+  public AudioObject getFinalAO() {
+    return this.finalAO;
+  }
+
+  /**
+   * Returns every AudioObject in the chain, each after all of its inputs.
+   */
+  public AudioObject[] getSchedule() {
+    return this.schedule.clone();
+  }
+
+  /**
+   * Returns the number of times an AudioObject is read by the
+   * others in the chain, or 0 if it is not in the chain.
+   */
+  public int getReaderCount(AudioObject ao) {
+    return (ao.graph == this) ? consumers[ao.graphIndex] : 0;
+  }
+
+  /**
+   * Returns the single input of an AudioObject of the chain if
+   * nothing else in the chain reads it, otherwise null.
+   */
+  public AudioObject getOnlyInput(AudioObject ao) {
+    if (ao.inputs != 1 || ao.previous == null || ao.previous.length != 1) {
+      return null;
+    }
+    AudioObject in = ao.previous[0];
+    return (getReaderCount(in) == 1) ? in : null;
+  }
+
+  /**
+   * Returns the number of AudioObjects in the chain which are
+   * read by more than one other AudioObject.
+   */
+  public int getSharedCount() {
+    int count = 0;
+    for (int c : consumers) {
+      if (c > 1) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of AudioObjects in the chain which make
+   * their inputs' samples along with their own in one loop.
+   */
+  public int getFusedCount() {
+    return this.fusedCount;
+  }
+}
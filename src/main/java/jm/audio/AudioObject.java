@@ -21,6 +21,7 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 */
 package jm.audio;
 
+import jm.audio.math.XorShiftRandom;
 import jm.music.data.Note;
 
 /**
@@ -101,6 +102,12 @@ public abstract class AudioObject implements jm.JMC {
   protected boolean finished = true;
   /* Local buffer counter */
   private int returned;
+  /* This objects random number generator, created when first needed */
+  private XorShiftRandom random = null;
+  /* The compiled chain this object is in, if any */
+  AudioGraph graph = null;
+  /* This object's place in the compiled chain */
+  int graphIndex;
 
   //----------------------------------------------
   // Constructors
@@ -202,16 +209,30 @@ public abstract class AudioObject implements jm.JMC {
   //----------------------------------------------
 
   /**
-   *
+   * Fills the buffer with this object's next samples and passes on
+   * whether it has finished to the Instrument.
    */
   public int nextWork(float[] buffer) throws AOException {
     returned = 0;
-    returned = this.work(buffer);
+    returned = this.pullWork(buffer);
     //if(!this.finished)System.out.println(this.name);
     this.inst.setFinished(this.finished);
     return returned;
   }
 
+  /**
+   * Fills the buffer with this object's next samples. If the object is
+   * read by more than one other object in a compiled chain it is only
+   * worked for samples none of its readers has had, and each reader is
+   * given the samples it has not read yet.
+   */
+  public int pullWork(float[] buffer) throws AOException {
+    if (graph != null) {
+      return graph.pull(this, buffer);
+    }
+    return this.work(buffer);
+  }
+
   /**
    * The buildNext method decimates information down
    * through the audio chain passing data such as
@@ -261,6 +282,22 @@ public abstract class AudioObject implements jm.JMC {
     //default build method does nothing.
   }
 
+  /**
+   * Called on every AudioObject of a chain when the chain is compiled.
+   * An AudioObject may then make its inputs' samples along with its own
+   * in a single loop, if fuse is true and graph.getOnlyInput shows that
+   * nothing else reads them, and should go back to working its inputs
+   * as usual if fuse is false.
+   *
+   * @param graph the compiled chain
+   * @param fuse  may inputs be fused? See Instrument.setFuseChains
+   * @return true if this object makes its inputs' samples
+   */
+  protected boolean fuseInputs(AudioGraph graph, boolean fuse) {
+    //by default inputs are worked as usual.
+    return false;
+  }
+
   //----------------------------------------------
   // Public Methods
   //----------------------------------------------
@@ -283,6 +320,39 @@ public abstract class AudioObject implements jm.JMC {
       this.numOfSamples);
   }
 
+  /**
+   * Returns the random number generator used by this Audio Object.
+   * Each Audio Object has its own generator so that stochastic objects
+   * rendering on different threads do not contend for a shared one.
+   *
+   * @return this Audio Object's random number generator
+   */
+  public XorShiftRandom getRandom() {
+    if (this.random == null) {
+      this.random = new XorShiftRandom();
+    }
+    return this.random;
+  }
+
+  /**
+   * Replaces the random number generator used by this Audio Object.
+   *
+   * @param random the random number generator to use
+   */
+  public void setRandom(XorShiftRandom random) {
+    this.random = random;
+  }
+
+  /**
+   * Seeds this Audio Object's random number generator so that
+   * renders which use it can be reproduced.
+   *
+   * @param seed the seed to use
+   */
+  public void setSeed(long seed) {
+    getRandom().setSeed(seed);
+  }
+
   /**
    * getSampleRate returns an Audio Objects samples rate
    *
@@ -0,0 +1,237 @@
+/*
+
+<This Java Class is part of the jMusic API version 1.5, March 2004.>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+package jm.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import jm.audio.io.MixFile;
+import jm.audio.io.SampleOut;
+import jm.music.data.Note;
+
+/**
+ * A send/return effect bus for rendering a score to an audio file.
+ * <p>
+ * Parts and phrases set how much of their sound is sent to each bus
+ * with setSend(bus, level), where bus is the bus's place in the array
+ * of buses handed to Write.au or Audio.processScore. While the score's
+ * notes are rendered each note's samples are written to the mix as
+ * usual and, scaled by the send level, added into the bus. Once every
+ * note has been rendered the bus's effect chain is run a single time
+ * over the summed signal and its output (the return) is added to the
+ * mix. So a reverb on a bus costs the same for a score of five notes
+ * as for five thousand, where a reverb in an Instrument's chain is run
+ * again for every note.
+ * <p>
+ * A bus is an Instrument whose chain starts with the summed send signal.
+ * Subclasses build their effects in createEffects, for example
+ * <pre>
+ *   EffectBus reverb = new EffectBus(44100, 2) {
+ *     protected AudioObject createEffects(AudioObject input) {
+ *       AudioObject[] combs = {new Comb(input, 29, 0.7), new Comb(input, 37, 0.7)};
+ *       return new AllPass(new Add(combs), 5, 0.7);
+ *     }
+ *   };
+ * </pre>
+ * The sum is mixed into a temporary file, as a stem is, so only a block
+ * of it is held in memory at a time. Its channels are those of the
+ * Instruments sending to the bus, which should match the bus's own.
+ */
+public abstract class EffectBus extends Instrument {
+
+  /**
+   * The default length of the tail, in seconds
+   */
+  public static final double DEFAULT_TAIL = 2.0;
+
+  /**
+   * The sample rate of the bus
+   */
+  private final int sampleRate;
+  /**
+   * The number of channels of the bus
+   */
+  private final int channels;
+  /**
+   * How long the effects are run for after the last sample sent to the bus
+   */
+  private double tail = DEFAULT_TAIL;
+  /**
+   * The summed send signal, interleaved, or null when nothing has been sent
+   */
+  private MixFile sum = null;
+  /**
+   * Holds a block of samples scaled by the send level, reused for each block
+   */
+  private float[] scaled = new float[0];
+  /**
+   * How many samples of sum have been sent to
+   */
+  private int length = 0;
+
+  /**
+   * @param sampleRate the sample rate of the bus
+   * @param channels   the number of channels of the bus
+   */
+  protected EffectBus(int sampleRate, int channels) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+  }
+
+  /**
+   * Builds the bus's effects reading from input, the summed send signal.
+   *
+   * @param input the AudioObject that plays the summed send signal
+   * @return the last AudioObject of the effects
+   */
+  protected abstract AudioObject createEffects(AudioObject input) throws AOException;
+
+  /**
+   * Creates the bus's chain, the summed send signal
+   * through the effects and out to the mix.
+   */
+  public final void createChain() throws AOException {
+    AudioObject effects = createEffects(new Return(this));
+    new SampleOut(effects);
+  }
+
+  /**
+   * Returns how long the effects are run for after
+   * the last sample sent to the bus, in seconds.
+   */
+  public double getTail() {
+    return this.tail;
+  }
+
+  /**
+   * Sets how long the effects are run for after the last sample sent to
+   * the bus, in seconds. This should be long enough for a reverb or
+   * delay to die away.
+   */
+  public void setTail(double tail) {
+    this.tail = tail;
+  }
+
+  /**
+   * Returns the number of samples sent to the bus since it was last rendered.
+   */
+  public int getLength() {
+    return this.length;
+  }
+
+  /**
+   * Adds samples to the bus.
+   *
+   * @param position the place of the first sample, in samples from the start of the score
+   * @param buffer   the samples
+   * @param count    how many samples of buffer to add
+   * @param level    how much to scale the samples by
+   */
+  void send(int position, float[] buffer, int count, float level) throws IOException {
+    if (sum == null) {
+      File file = File.createTempFile("jmusic_bus", ".tmp");
+      file.deleteOnExit();
+      sum = new MixFile(file.getPath());
+    }
+    if (scaled.length < count) {
+      scaled = new float[count];
+    }
+    for (int i = 0; i < count; i++) {
+      scaled[i] = buffer[i] * level;
+    }
+    sum.add(position, scaled, count);
+    int end = position + count;
+    if (end > length) {
+      length = end;
+    }
+  }
+
+  /**
+   * Runs the effects over everything sent to the bus since it was last
+   * rendered, adding the return to the mix, and empties the bus.
+   */
+  void render() throws AOException {
+    if (length == 0) {
+      return;
+    }
+    if (!getInitialised()) {
+      createChain();
+      setInitialised(true);
+    }
+    double seconds = (double) length / channels / sampleRate + tail;
+    Note note = Note.newBuilder().rhythm(seconds).duration(seconds).build();
+    setBlock(false);
+    setFinished(true);
+    renderNote(note, 0.0);
+    setFinished(false);
+    iterateChain();
+    clear();
+  }
+
+  /**
+   * Empties the bus without rendering it, deleting its temporary file.
+   */
+  public void clear() {
+    length = 0;
+    if (sum == null) {
+      return;
+    }
+    try {
+      sum.close();
+    } catch (IOException ioe) {
+      ioe.printStackTrace();
+    }
+    new File(sum.getFileName()).delete();
+    sum = null;
+  }
+
+  /**
+   * Plays the summed send signal of a bus, then silence.
+   */
+  private static final class Return extends AudioObject {
+    private final EffectBus bus;
+    private int position;
+
+    Return(EffectBus bus) {
+      super(bus, bus.sampleRate, "[Return]");
+      this.bus = bus;
+      this.channels = bus.channels;
+    }
+
+    public void build() {
+      position = 0;
+    }
+
+    public int work(float[] buffer) throws AOException {
+      int count = Math.max(0, Math.min(buffer.length, bus.length - position));
+      try {
+        bus.sum.read(position, buffer, count);
+      } catch (IOException ioe) {
+        throw new AOException(this.name, ioe.toString());
+      }
+      Arrays.fill(buffer, count, buffer.length, 0.0f);
+      position += buffer.length;
+      return buffer.length;
+    }
+  }
+}
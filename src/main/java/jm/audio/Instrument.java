@@ -22,9 +22,15 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 
 package jm.audio;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.util.Vector;
 
+import jm.audio.io.MixFile;
 import jm.music.data.Note;
 import jm.music.rt.RTLine;
 
@@ -132,6 +138,16 @@ public abstract class Instrument extends Thread implements Runnable, jm.JMC {
   private int returned;
   /* tempory sample bufer */
   private float[] buffer;
+  /* The compiled audio chain */
+  private AudioGraph graph = null;
+  /* Should common chains be worked by a single fused loop? */
+  private boolean fuseChains = false;
+  /* The effect buses the notes being rendered are sent to */
+  private EffectBus[] sends = null;
+  /* How much of the notes being rendered is sent to each bus */
+  private float[] sendLevels = null;
+  /* The stem the notes being rendered are also written to */
+  private MixFile stem = null;
 
   //----------------------------------------------
   // Constructors
@@ -211,6 +227,60 @@ public abstract class Instrument extends Thread implements Runnable, jm.JMC {
     }
   }
 
+  /**
+   * Sets the effect buses that the notes rendered from now on are sent
+   * to, and how much of them is sent to each. Audio.processScore sets
+   * these from the send levels of each phrase and its part.
+   *
+   * @param buses  the buses, or null to send to none
+   * @param levels the send level for each bus, 0.0 sends nothing to it
+   */
+  public void setSends(EffectBus[] buses, float[] levels) {
+    this.sends = buses;
+    this.sendLevels = levels;
+  }
+
+  /**
+   * Sets the stem that the notes rendered from now on are written to
+   * as well as to the mix. Audio.processScore sets this to the stem of
+   * the part being rendered.
+   *
+   * @param stem the stem, or null to write to the mix only
+   */
+  public void setStem(MixFile stem) {
+    this.stem = stem;
+  }
+
+  /**
+   * Adds rendered samples to the stem and the effect buses this instrument
+   * sends to. This is called by SampleOut with each block it writes to the mix.
+   *
+   * @param position the place of the first sample, in samples from the start of the score
+   * @param buffer   the samples
+   * @param count    how many samples of buffer to send
+   */
+  public void send(int position, float[] buffer, int count) throws AOException {
+    if (stem != null) {
+      try {
+        stem.add(position, buffer, count);
+      } catch (IOException ioe) {
+        throw new AOException("[Stem]", ioe.toString());
+      }
+    }
+    if (sends == null) {
+      return;
+    }
+    for (int i = 0; i < sends.length; i++) {
+      if (sends[i] != null && sendLevels[i] != 0.0f) {
+        try {
+          sends[i].send(position, buffer, count, sendLevels[i]);
+        } catch (IOException ioe) {
+          throw new AOException("[EffectBus]", ioe.toString());
+        }
+      }
+    }
+  }
+
   /**
    * Return the finished state of this note
    */
@@ -443,6 +513,54 @@ public abstract class Instrument extends Thread implements Runnable, jm.JMC {
    */
   public abstract void createChain() throws AOException;
 
+  /**
+   * Compiles the audio chain made by createChain, checking that it does
+   * not loop and finding the AudioObjects read by more than one other so
+   * that they are only worked once per block. Common chains are fused
+   * into a single loop if setFuseChains(true) has been called. This is
+   * called before the first note is rendered, and again if the chain's
+   * finalAO changes.
+   *
+   * @return the compiled chain
+   * @throws AOException if the chain loops back on itself
+   */
+  public AudioGraph compileChain() throws AOException {
+    AudioObject last = this.finalAO;
+    if (last == null) {
+      if (primaryAO.isEmpty()) {
+        throw new AOException("jMusic Instrument error: ",
+          "there are no AudioObjects in the audio chain to compile.");
+      }
+      // follow the chain from the first primary object to its end
+      last = (AudioObject) primaryAO.firstElement();
+      Set<AudioObject> seen = Collections.newSetFromMap(new IdentityHashMap<AudioObject, Boolean>());
+      while (last.next != null) {
+        if (!seen.add(last)) {
+          throw new AOException(last.name,
+            " is an input to itself, audio chains can not loop.");
+        }
+        last = last.next[0];
+      }
+    }
+    this.graph = new AudioGraph(last, fuseChains);
+    return this.graph;
+  }
+
+  /**
+   * Sets whether Oscillator, Envelope, Volume and StereoPan chains are
+   * worked by a single fused loop, which is faster but makes the same
+   * samples. This is off by default.
+   *
+   * @param fuseChains true to fuse common chains, false to work every
+   *                   AudioObject separately
+   */
+  public void setFuseChains(boolean fuseChains) {
+    if (this.fuseChains != fuseChains) {
+      this.fuseChains = fuseChains;
+      this.graph = null;
+    }
+  }
+
   //----------------------------------------------
   // Private Methods
   //----------------------------------------------
@@ -458,28 +576,27 @@ public abstract class Instrument extends Thread implements Runnable, jm.JMC {
     }
     returned = 0;
     int i;
+    if (!restNote && finalAO != null) {
+      try {
+        if (graph == null || graph.getFinalAO() != finalAO) {
+          compileChain();
+        }
+      } catch (AOException aoe) {
+        System.out.println(aoe);
+        System.exit(1);
+      }
+    }
+    if (graph != null) {
+      graph.reset();
+    }
     while (!finished) {
       finished = true; //finish unless proved otherwise
       //finished = false;
-      buffer = null;
-      if (iterations > bufsize || iterations <= 0) {
-        //System.out.println("BufferSizeA = " + bufsize);
-        buffer = new float[bufsize];
-
-                        /*
-                        for(i=0; i<buffer.length; i++){
-                            buffer[i] = 0.0f;
-                        }
-                        */
+      int length = (iterations > bufsize || iterations <= 0) ? bufsize : iterations;
+      if (buffer == null || buffer.length != length) {
+        buffer = new float[length];
       } else {
-        //System.out.println("BufferSizeB = " + iterations);
-        buffer = new float[iterations];
-
-                        /*
-                        for(i=0; i<buffer.length; i++){
-                            buffer[i] = 0.0f;
-                        }
-                         */
+        Arrays.fill(buffer, 0.0f);
       }
       try {
         if (restNote) {
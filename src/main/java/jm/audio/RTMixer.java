@@ -21,15 +21,14 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 */
 package jm.audio;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
+import java.util.Arrays;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
 import javax.sound.sampled.SourceDataLine;
 
+import jm.audio.io.PCMCodec;
 import jm.music.rt.RTLine;
 
 /**
@@ -87,13 +86,13 @@ public class RTMixer implements AudioChainListener {
    */
   private float[] sampleArray;
   /**
-   * bos is used to convert sampleArray into a byte stream
+   * byteArray holds sampleArray converted to bytes for the line
    */
-  private ByteArrayOutputStream bos;
+  private byte[] byteArray = new byte[0];
   /**
-   * dos is used to help convert sampleArray into bos
+   * format is the sample format of dline
    */
-  private DataOutputStream dos;
+  private AudioFormat format;
   /**
    * dline is the JFM java sound object which we write sampleArray to
    */
@@ -165,8 +164,6 @@ public class RTMixer implements AudioChainListener {
       }
     }
     initJMFSound(bufferSize);
-    bos = new ByteArrayOutputStream();
-    dos = new DataOutputStream(bos);
   }
 
   //-------------------------------------
@@ -288,20 +285,19 @@ public class RTMixer implements AudioChainListener {
    * @param length the number of samples to write
    */
   private void writeOutAudio(final int length) {
-    bos.reset();
-    for (int i = 0; i < length; i++) {
-      // scale to avoid clipping
-      if (this.totLines > 1) {
-        this.sampleArray[i] = this.sampleArray[i] / (this.totLines * 0.75f);
+    // scale to avoid clipping
+    if (this.totLines > 1) {
+      float scale = 1.0f / (this.totLines * 0.75f);
+      for (int i = 0; i < length; i++) {
+        this.sampleArray[i] *= scale;
       }
-      try {
-        dos.writeShort((short) (this.sampleArray[i] * 32767));
-      } catch (IOException ioe) {
-        ioe.printStackTrace();
-      }
-      this.sampleArray[i] = (float) 0.0;
     }
-    int returned = this.dline.write(bos.toByteArray(), 0, bos.size());
+    if (this.byteArray.length < length * 2) {
+      this.byteArray = new byte[length * 2];
+    }
+    PCMCodec.encode(this.format, this.sampleArray, 0, this.byteArray, 0, length);
+    Arrays.fill(this.sampleArray, 0, length, 0.0f);
+    int returned = this.dline.write(this.byteArray, 0, length * 2);
     this.currentTime += (long) length;
   }
 
@@ -319,6 +315,7 @@ public class RTMixer implements AudioChainListener {
     AudioFormat af = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
       (float) this.sampleRate, 16, this.channels, this.channels * 2,
       this.sampleRate, true);
+    this.format = af;
     DataLine.Info info = new DataLine.Info(SourceDataLine.class, af);
     //System.out.println("Setting for audio line: "+info);
     if (!AudioSystem.isLineSupported(info)) {
@@ -339,11 +336,6 @@ public class RTMixer implements AudioChainListener {
 
   public void finalize() {
     System.out.println("RTMixer finalizing...");
-    try {
-      dos.close();
-      bos.close();
-    } catch (IOException e) {
-    }
     dline.stop();
     dline.close();
   }
@@ -0,0 +1,40 @@
+/*
+
+<This Java Class is part of the jMusic API version 1.5, March 2004.>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+package jm.audio.io;
+
+/**
+ * Receives the sample data of an audio file one block at a time,
+ * see AudioFileIn.read(int, AudioBlockListener).
+ */
+public interface AudioBlockListener {
+
+  /**
+   * Called for each block of samples read.  The buffer is reused for
+   * the next block, so it must be copied to be kept.
+   *
+   * @param buffer   the interleaved sample data
+   * @param length   the number of samples in the buffer to use
+   * @param position the position in the file of the first sample in the buffer,
+   *                 counted in samples (not frames)
+   */
+  void audioBlock(float[] buffer, int length, long position);
+}
@@ -22,11 +22,12 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 
 package jm.audio.io;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Vector;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
@@ -43,6 +44,11 @@ import javax.sound.sampled.UnsupportedAudioFileException;
  * This class deals with some the current (at time of writing) incompletness
  * in the javaSound package, including converting bytes from a file into
  * floats for both big and little endian formats, and support for 24 bit files.
+ * <p>
+ * The whole file can be read into one array with getSampleData(), or it can
+ * be streamed a block at a time with read(float[], int, int) or
+ * read(int, AudioBlockListener), which use a fixed amount of memory however
+ * long the file is.
  *
  * @author Andrew Brown, Andrew Sorensen and Tim opie
  */
@@ -67,8 +73,18 @@ public class AudioFileIn {
   private long duration;
   // The number of bytes long each sample is. 1 = 8 bit, 2 = 16 bit etc.
   private int sampleSize;
-  // Audio intput stream, will hold the byte array of sample data.
-  private AudioInputStream is;
+  // The stream being read from, an AudioInputStream for audio files.
+  private InputStream is;
+  // The encoding of the audio data being read
+  private AudioFormat.Encoding encoding;
+  // The bytes read from the file that are waiting to be decoded
+  private byte[] bytes;
+  // A view of bytes in the file's byte order
+  private ByteBuffer byteBuffer;
+  // The number of bytes in the bytes array
+  private int byteCount;
+  // The number of samples read so far
+  private long position;
   // the float Array with the sample in it
   private float[] sampleData;
   // Is the file an audio file?
@@ -98,6 +114,7 @@ public class AudioFileIn {
       this.channels = 1;
       this.sampleSize = 1;
       this.sampleRate = 0;
+      this.duration = this.file.length();
     } catch (IOException ioe) {
       System.err.println("jMusic AudioFileIn error: Cannot read the specified file: " + fileName);
       System.err.println("Most likely the file does not exist at this location. Exiting...");
@@ -107,51 +124,171 @@ public class AudioFileIn {
 
   // get the sample data from the file and put it into a float arrray.
   private void readFile() {
-    if (audioFileSpecified) {
-      try {
-        this.is = AudioSystem.getAudioInputStream(this.file);
-        byte[] tmp = new byte[(int) this.duration * this.sampleSize];
-        this.is.read(tmp);
-        this.is.close();
-        ByteArrayInputStream bis = new ByteArrayInputStream(tmp);
-        // convert to floats
-        this.sampleData = new float[(int) this.duration];
-        byte[] sampleWord = new byte[sampleSize];
-        for (int i = 0; i < this.duration; i++) {
-          if (bis.read(sampleWord) == -1) {
-            //this.finished = true;
-            System.out.println("Ran out of samples to read");
-          } else {
-            sampleData[i] = this.getFloat(sampleWord);
+    if (this.duration > Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException("jMusic AudioFileIn error: '" + fileName
+        + "' is too long to read into one array, read it in blocks instead.");
+    }
+    try {
+      close();
+      float[] data = new float[(int) Math.max(this.duration, 0)];
+      float[] spare = new float[4096];
+      int count = 0;
+      int read;
+      while (true) {
+        if (count < data.length) {
+          read = read(data, count, data.length - count);
+        } else {
+          // the array is full, only grow it if there is more to read,
+          // which there is when the length in the header was wrong
+          read = read(spare, 0, spare.length);
+          if (read > 0) {
+            float[] tmp = new float[Math.max(count * 2, count + read)];
+            System.arraycopy(data, 0, tmp, 0, count);
+            System.arraycopy(spare, 0, tmp, count, read);
+            data = tmp;
           }
         }
-        bis.close();
-      } catch (UnsupportedAudioFileException uafe) {
-        //??
-      } catch (IOException ioe) {
-        ioe.printStackTrace();
-      }
-    } else { // read any file as raw byte=sample data
-      Vector buffer = new Vector();
-      try {
-        FileInputStream fis = new FileInputStream(this.fileName);
-        int val = fis.read();
-        while (val != -1) {
-          buffer.addElement((float) val / 255f);
-          val = fis.read();
+        if (read <= 0) {
+          break;
         }
-        fis.close();
-      } catch (IOException ioe) {
-        ioe.printStackTrace();
+        count += read;
+      }
+      close();
+      if (count < this.duration && audioFileSpecified) {
+        System.out.println("Ran out of samples to read");
+      }
+      if (count != data.length) {
+        float[] tmp = new float[count];
+        System.arraycopy(data, 0, tmp, 0, count);
+        data = tmp;
+      }
+      this.sampleData = data;
+    } catch (UnsupportedAudioFileException uafe) {
+      //??
+    } catch (IOException ioe) {
+      ioe.printStackTrace();
+      if (!audioFileSpecified) {
         System.exit(1);
       }
-      // convert to float array
-      int max = buffer.size();
-      this.sampleData = new float[max];
-      for (int i = 0; i < max; i++) {
-        sampleData[i] = (((Float) buffer.elementAt(i)).floatValue());
+    }
+  }
+
+  /**
+   * Reads the next samples from the file into a block. The file is
+   * opened by the first call and read a block at a time from then on;
+   * use close() to start again from the beginning.<br>
+   * Audio data is interleaved, so for a stereo file the first sample
+   * is from the left channel, the second from the right channel and so on.
+   *
+   * @param block  the array to read samples into
+   * @param offset the position in block of the first sample to read
+   * @param length the largest number of samples to read
+   * @return the number of samples read, or -1 at the end of the file
+   */
+  public int read(float[] block, int offset, int length)
+    throws IOException, UnsupportedAudioFileException {
+    if (this.is == null) {
+      open();
+    }
+    int count = 0;
+    while (count < length) {
+      int wanted = Math.min(length - count, bytes.length / sampleSize) * sampleSize;
+      // fill the byte buffer with whole samples
+      while (byteCount < wanted) {
+        int read = is.read(bytes, byteCount, wanted - byteCount);
+        if (read == -1) {
+          break;
+        }
+        byteCount += read;
+      }
+      int samples = byteCount / sampleSize;
+      if (samples == 0) {
+        break;
+      }
+      if (audioFileSpecified) {
+        byteBuffer.clear();
+        PCMCodec.decode(byteBuffer, encoding, sampleSize, block, offset + count, samples);
+      } else {
+        for (int i = 0; i < samples; i++) {
+          block[offset + count + i] = (float) (bytes[i] & 0xFF) / 255f;
+        }
+      }
+      count += samples;
+      // keep any part sample for the next read
+      int left = byteCount - samples * sampleSize;
+      System.arraycopy(bytes, samples * sampleSize, bytes, 0, left);
+      byteCount = left;
+      if (samples * sampleSize < wanted) {
+        break; // end of file
+      }
+    }
+    position += count;
+    return (count == 0 && length > 0) ? -1 : count;
+  }
+
+  /**
+   * Reads the whole file one block at a time, passing each block to
+   * the listener. Only one block of samples is held in memory at
+   * a time, so files of any length can be read.
+   *
+   * @param blockSize the number of samples in each block, at least
+   *                  one frame (one sample per channel)
+   * @param listener  the listener to pass the blocks to
+   * @throws IllegalArgumentException if blockSize is less than one frame
+   */
+  public void read(int blockSize, AudioBlockListener listener)
+    throws IOException, UnsupportedAudioFileException {
+    if (blockSize < Math.max(channels, 1)) {
+      throw new IllegalArgumentException("jMusic AudioFileIn error: the "
+        + "block size must be at least one frame of " + channels + " samples");
+    }
+    close();
+    float[] block = new float[blockSize - blockSize % Math.max(channels, 1)];
+    long start = 0;
+    int read;
+    try {
+      while ((read = read(block, 0, block.length)) > 0) {
+        listener.audioBlock(block, read, start);
+        start += read;
       }
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Closes the file if it is being read, the next read
+   * will start from the beginning again.
+   */
+  public void close() throws IOException {
+    if (this.is != null) {
+      this.is.close();
+      this.is = null;
     }
+    this.byteCount = 0;
+    this.position = 0;
+  }
+
+  /**
+   * Opens the file to be read from the start.
+   */
+  private void open() throws IOException, UnsupportedAudioFileException {
+    ByteOrder order = ByteOrder.BIG_ENDIAN;
+    if (audioFileSpecified) {
+      AudioInputStream ais = AudioSystem.getAudioInputStream(this.file);
+      this.encoding = ais.getFormat().getEncoding();
+      order = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+      this.is = ais;
+    } else {
+      this.is = new FileInputStream(this.file);
+    }
+    if (bytes == null) {
+      bytes = new byte[8192 * sampleSize];
+      byteBuffer = ByteBuffer.wrap(bytes);
+    }
+    byteBuffer.order(order);
+    this.byteCount = 0;
+    this.position = 0;
   }
 
   /**
@@ -178,50 +315,6 @@ public class AudioFileIn {
     return depth;
   }
 
-  /**
-   * BigEndian conversion
-   */
-  private float getFloat(byte[] b) {
-    float sample = 0.0f;
-    int ret = 0;
-    int length = b.length;
-    for (int i = 0; i < b.length; i++, length--) {
-      ret |= ((b[i] & 0xFF) << ((((bigEndian) ? length : (i + 1)) * 8) - 8));
-    }
-    switch (sampleSize) {
-      case 1:
-        if (ret > 0x7F) {
-          ret = ~ret;
-          ret &= 0x7F;
-          ret = ~ret + 1;
-        }
-        sample = (float) ret / (float) Byte.MAX_VALUE;
-        break;
-      case 2:
-        if (ret > 0x7FFF) {
-          ret = ~ret;
-          ret &= 0x7FFF;
-          ret = ~ret + 1;
-        }
-        sample = (float) ret / (float) Short.MAX_VALUE;
-        break;
-      case 3:
-        if (ret > 0x7FFFFF) {
-          ret = ~ret;
-          ret &= 0x7FFFFF;
-          ret = ~ret + 1;
-        }
-        sample = (float) ret / 8388608f;
-        break;
-      case 4:
-        sample = (float) ((double) ret / (double) Integer.MAX_VALUE);
-        break;
-      default:
-        System.err.println("Format not accepted");
-    }
-    return sample;
-  }
-
   /**
    * Provides a single array with the raw sample data in the format of the
    * source file. Check the number of channels and file type if required.
@@ -292,4 +385,23 @@ public class AudioFileIn {
     return (int) this.duration;
   }
 
+  /**
+   * Access the number of samples in the file, for files
+   * too long for getDuration().
+   *
+   * @return duration - The total number of samples.
+   */
+  public long getSampleCount() {
+    return this.duration;
+  }
+
+  /**
+   * Access the number of samples read so far by read().
+   *
+   * @return the number of samples read since the file was opened
+   */
+  public long getPosition() {
+    return this.position;
+  }
+
 }
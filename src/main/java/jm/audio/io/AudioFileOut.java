@@ -22,30 +22,40 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 
 package jm.audio.io;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
 
 /**
  * Audio file writing class for jMusic.
- * The class utilises the JavaSound file writing classes.
  * It works indepdently of the jMusic audio architecture used
  * for rendering scores, and is intended for use by simple file
  * manipulation utility programs operating asychronously (non real time).
+ * <p>
+ * Sample data can be written all at once with the
+ * AudioFileOut(float[], String, ...) constructors, or streamed a block at
+ * a time with open(), write() and close(). Either way the samples are
+ * converted and written through one small buffer, and the sizes in the
+ * file header are filled in by close(), so files of any length can be
+ * written in a fixed amount of memory.
  *
  * @author Andrew Brown
  */
 
 public class AudioFileOut {
 
-  // the name of the file to read from.
+  // the number of samples converted and written at a time
+  private static final int BLOCK_SIZE = 8192;
+
+  // the name of the file to write to.
   private String fileName;
-  // the file object to read from
+  // the file object to write to
   private File file;
   // audio file type, au or aiff or wav
   private AudioFileFormat.Type fileType = AudioFileFormat.Type.AU;
@@ -58,14 +68,17 @@ public class AudioFileOut {
   private int channels;
   // The file's sample rate as samples per second.
   private int sampleRate;
-  // The number of samples in the file
+  // The number of samples written to the file
   private long duration;
   // The number of bytes long each sample is. 1 = 8 bit, 2 = 16 bit etc.
   private int sampleSize;
-  // Audio intput stream, will hold the byte array of sample data.
-  private AudioInputStream ais;
-  // The float Array with the sample data in it
-  private float[] sampleData;
+  // The file being written to while it is open
+  private RandomAccessFile raf;
+  private FileChannel channel;
+  // Holds the bytes of converted samples on their way to the file
+  private ByteBuffer byteBuffer;
+  // The length of the header at the start of the file
+  private int headerLength;
 
   public AudioFileOut(float[] sampleData, String fileName) {
     this(sampleData, fileName, 1, 44100, 16);
@@ -73,12 +86,32 @@ public class AudioFileOut {
 
   public AudioFileOut(float[] sampleData, String fileName, int channels,
                       int sampleRate, int sampleSizeInBits) {
-    this.sampleData = sampleData;
-    this.duration = sampleData.length;
+    this(fileName);
+    if (sampleSizeInBits < 8 || sampleSizeInBits > 32 || sampleSizeInBits % 8 != 0) {
+      System.err.println("jMusic AudioFileOut error: " +
+        sampleSizeInBits +
+        " bit audio output file format not supported, sorry :(");
+      System.exit(0); // ugly but necessary.
+    }
+    // writing
+    try {
+      open(new AudioFormat(sampleRate, sampleSizeInBits, channels, true, bigEndian));
+      write(sampleData, 0, sampleData.length);
+      close();
+    } catch (IOException ioe) {
+      System.out.println("error writing audio file.");
+    }
+  }
+
+  /**
+   * Prepares to write an audio file, use open(), write() and close()
+   * to write the sample data. The type of file is taken from the
+   * file name's suffix, .wav, .aif or .au, and is .au for any other suffix.
+   *
+   * @param fileName the name of the file to write
+   */
+  public AudioFileOut(String fileName) {
     this.fileName = fileName;
-    this.channels = channels;
-    this.sampleRate = sampleRate;
-    this.sampleSize = sampleSizeInBits / 8;
     // choose file type from file name
     if (fileName.endsWith(".au")) {
       fileType = AudioFileFormat.Type.AU;
@@ -90,72 +123,217 @@ public class AudioFileOut {
       fileType = AudioFileFormat.Type.AIFF;
       this.bigEndian = true;
     } else { // default
-      fileName = fileName + ".au";
       this.bigEndian = true;
     }
-    // set up
     this.file = new File(this.fileName);
-    // convert floats to bytes
-    byte[] tmp = new byte[sampleData.length * this.sampleSize];
-    for (int i = 0; i < sampleData.length; i++) {
-      int ival = -1;
-      switch (sampleSize) {
-        case 1: // 8 bit
-          tmp[i] = new Float(sampleData[i] * (float) Byte.MAX_VALUE).byteValue();
-          break;
-        case 2: // 16 bit
-          short sval = new Float(sampleData[i] * (float) Short.MAX_VALUE).shortValue();
-          if (bigEndian) {
-            tmp[i * 2] = (byte) ((sval & 0x0000ff00) >> 8);
-            tmp[i * 2 + 1] = (byte) (sval & 0x000000ff);
-          } else {
-            tmp[i * 2] = (byte) (sval & 0x000000ff);
-            tmp[i * 2 + 1] = (byte) ((sval & 0x0000ff00) >> 8);
-          }
-          break;
-        case 3: // 24 bit
-          ival = new Float(sampleData[i] * (float) 8388608).intValue();
-          if (bigEndian) {
-            tmp[i * 3] = (byte) ((ival & 0x00ff0000) >> (8 * 2));
-            tmp[i * 3 + 1] = (byte) ((ival & 0x0000ff00) >> 8);
-            tmp[i * 3 + 2] = (byte) (ival & 0x000000ff);
-          } else {
-            tmp[i * 3] = (byte) (ival & 0x000000ff);
-            tmp[i * 3 + 1] = (byte) ((ival & 0x0000ff00) >> 8);
-            tmp[i * 3 + 2] = (byte) ((ival & 0x00ff0000) >> (8 * 2));
-          }
-          break;
-        case 4: // 32 bit
-          ival = new Float(sampleData[i] * (float) Integer.MAX_VALUE).intValue();
-          if (bigEndian) {
-            tmp[i * 4] = (byte) ((ival & 0xff000000) >> (8 * 3));
-            tmp[i * 4 + 1] = (byte) ((ival & 0x00ff0000) >> (8 * 2));
-            tmp[i * 4 + 2] = (byte) ((ival & 0x0000ff00) >> 8);
-            tmp[i * 4 + 3] = (byte) (ival & 0x000000ff);
-          } else {
-            tmp[i * 4] = (byte) (ival & 0x000000ff);
-            tmp[i * 4 + 1] = (byte) ((ival & 0x0000ff00) >> 8);
-            tmp[i * 4 + 2] = (byte) ((ival & 0x00ff0000) >> (8 * 2));
-            tmp[i * 4 + 3] = (byte) ((ival & 0xff000000) >> (8 * 3));
-          }
-          break;
-        default:
-          System.err.println("jMusic AudioFileOut error: " +
-            sampleSizeInBits +
-            " bit audio output file format not supported, sorry :(");
-          System.exit(0); // ugly but necessary.
-      }
+  }
+
+  /**
+   * Creates the file and writes its header, ready for write().
+   * The sample rate, number of channels, sample size and whether the
+   * samples are integers or floats are taken from the format. The byte
+   * order and signedness are those the file type requires.
+   *
+   * @param format the format of the samples to write
+   * @throws IOException              if the file can not be created
+   * @throws IllegalArgumentException if the file type can not hold
+   *                                  samples of this format
+   */
+  public void open(AudioFormat format) throws IOException {
+    if (this.channel != null) {
+      close();
+    }
+    int bits = format.getSampleSizeInBits();
+    boolean isFloat = AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding());
+    if (bits < 8 || bits > 32 || bits % 8 != 0 || (isFloat && bits != 32)) {
+      throw new IllegalArgumentException("jMusic AudioFileOut error: "
+        + bits + " bit " + format.getEncoding() + " samples are not supported.");
+    }
+    if (isFloat && fileType == AudioFileFormat.Type.AIFF) {
+      throw new IllegalArgumentException("jMusic AudioFileOut error: "
+        + "float samples can not be written to AIFF files.");
+    }
+    this.channels = format.getChannels();
+    this.sampleRate = (int) format.getSampleRate();
+    this.sampleSize = bits / 8;
+    AudioFormat.Encoding encoding;
+    if (isFloat) {
+      encoding = AudioFormat.Encoding.PCM_FLOAT;
+    } else if (fileType == AudioFileFormat.Type.WAVE && bits == 8) {
+      encoding = AudioFormat.Encoding.PCM_UNSIGNED; // 8 bit wav files are unsigned
+    } else {
+      encoding = AudioFormat.Encoding.PCM_SIGNED;
+    }
+    this.format = new AudioFormat(encoding, this.sampleRate, bits, this.channels,
+      this.sampleSize * this.channels, this.sampleRate, this.bigEndian);
+    this.duration = 0;
+    if (this.byteBuffer == null) {
+      this.byteBuffer = ByteBuffer.allocate(BLOCK_SIZE * 4);
+    }
+    this.byteBuffer.order(this.bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    this.raf = new RandomAccessFile(this.file, "rw");
+    this.raf.setLength(0);
+    this.channel = this.raf.getChannel();
+    // write a header with empty sizes, they are filled in by close()
+    ByteBuffer header = header(0);
+    this.headerLength = header.remaining();
+    writeFully(header, 0);
+  }
+
+  /**
+   * Writes a block of samples to the end of the file.
+   * Audio data is interleaved, so for a stereo file the first sample
+   * is for the left channel, the second for the right channel and so on.
+   *
+   * @param block  the samples to write
+   * @param offset the position in block of the first sample to write
+   * @param length the number of samples to write
+   * @throws IOException           if the file can not be written
+   * @throws IllegalStateException if the file is not open
+   */
+  public void write(float[] block, int offset, int length) throws IOException {
+    if (this.channel == null) {
+      throw new IllegalStateException("jMusic AudioFileOut error: '" + fileName
+        + "' is not open.");
+    }
+    if (dataLength(this.duration + length) > 0xFFFFFFFFL - this.headerLength) {
+      throw new IOException("jMusic AudioFileOut error: '" + fileName
+        + "' is too long for the file type.");
+    }
+    int perBlock = this.byteBuffer.capacity() / this.sampleSize;
+    for (int done = 0; done < length; ) {
+      int count = Math.min(perBlock, length - done);
+      this.byteBuffer.clear();
+      PCMCodec.encode(block, offset + done, count, this.byteBuffer,
+        this.format.getEncoding(), this.sampleSize);
+      this.byteBuffer.flip();
+      writeFully(this.byteBuffer, this.headerLength + dataLength(this.duration + done));
+      done += count;
+    }
+    this.duration += length;
+  }
+
+  /**
+   * Fills in the sizes in the file header and closes the file.
+   * Does nothing if the file is not open.
+   *
+   * @throws IOException if the file can not be written
+   */
+  public void close() throws IOException {
+    if (this.channel == null) {
+      return;
     }
-    ByteArrayInputStream bis = new ByteArrayInputStream(tmp);
-    // specify file format
-    this.format = new AudioFormat(this.sampleRate, sampleSizeInBits, this.channels, true,
-      this.bigEndian);
-    AudioInputStream ais = new AudioInputStream(bis, this.format, this.duration / this.channels);
-    // writing
     try {
-      AudioSystem.write(ais, fileType, file);
-    } catch (IOException ioe) {
-      System.out.println("error writing audio file.");
+      long dataLength = dataLength(this.duration);
+      if (dataLength % 2 == 1 && fileType != AudioFileFormat.Type.AU) {
+        // chunks in wav and aiff files are padded to an even length
+        writeFully(ByteBuffer.wrap(new byte[1]), this.headerLength + dataLength);
+      }
+      writeFully(header(dataLength), 0);
+    } finally {
+      this.channel = null;
+      this.raf.close();
+      this.raf = null;
+    }
+  }
+
+  /**
+   * Access the format of the samples in the file, which is set by open().
+   *
+   * @return the file's sample format
+   */
+  public AudioFormat getFormat() {
+    return this.format;
+  }
+
+  /**
+   * Access the number of samples written to the file so far.
+   *
+   * @return the number of samples written since the file was opened
+   */
+  public long getDuration() {
+    return this.duration;
+  }
+
+  /**
+   * Returns the number of bytes taken by a number of samples.
+   */
+  private long dataLength(long samples) {
+    return samples * this.sampleSize;
+  }
+
+  /**
+   * Writes all of a buffer to the file at the given position.
+   */
+  private void writeFully(ByteBuffer bb, long position) throws IOException {
+    while (bb.hasRemaining()) {
+      position += this.channel.write(bb, position);
+    }
+  }
+
+  /**
+   * Makes the file header for the given number of bytes of sample data.
+   */
+  private ByteBuffer header(long dataLength) {
+    ByteBuffer bb = ByteBuffer.allocate(64);
+    int frameSize = this.sampleSize * this.channels;
+    boolean isFloat = AudioFormat.Encoding.PCM_FLOAT.equals(this.format.getEncoding());
+    if (fileType == AudioFileFormat.Type.WAVE) {
+      long padded = dataLength + dataLength % 2;
+      bb.order(ByteOrder.LITTLE_ENDIAN);
+      bb.put(new byte[]{'R', 'I', 'F', 'F'});
+      bb.putInt((int) (36 + padded));
+      bb.put(new byte[]{'W', 'A', 'V', 'E'});
+      bb.put(new byte[]{'f', 'm', 't', ' '});
+      bb.putInt(16);
+      bb.putShort((short) (isFloat ? 3 : 1)); // IEEE float or PCM
+      bb.putShort((short) this.channels);
+      bb.putInt(this.sampleRate);
+      bb.putInt(this.sampleRate * frameSize);
+      bb.putShort((short) frameSize);
+      bb.putShort((short) (this.sampleSize * 8));
+      bb.put(new byte[]{'d', 'a', 't', 'a'});
+      bb.putInt((int) dataLength);
+    } else if (fileType == AudioFileFormat.Type.AIFF) {
+      long padded = dataLength + dataLength % 2;
+      bb.put(new byte[]{'F', 'O', 'R', 'M'});
+      bb.putInt((int) (46 + padded));
+      bb.put(new byte[]{'A', 'I', 'F', 'F'});
+      bb.put(new byte[]{'C', 'O', 'M', 'M'});
+      bb.putInt(18);
+      bb.putShort((short) this.channels);
+      bb.putInt((int) (dataLength / frameSize));
+      bb.putShort((short) (this.sampleSize * 8));
+      putExtended(bb, this.sampleRate);
+      bb.put(new byte[]{'S', 'S', 'N', 'D'});
+      bb.putInt((int) (8 + dataLength));
+      bb.putInt(0); // offset
+      bb.putInt(0); // block size
+    } else {
+      bb.put(new byte[]{'.', 's', 'n', 'd'});
+      bb.putInt(24); // offset to the data
+      bb.putInt((int) dataLength);
+      // linear 8, 16, 24, 32 bit are 2 to 5, float is 6
+      bb.putInt(isFloat ? 6 : this.sampleSize + 1);
+      bb.putInt(this.sampleRate);
+      bb.putInt(this.channels);
+    }
+    bb.flip();
+    return bb;
+  }
+
+  /**
+   * Puts a whole number as an 80 bit IEEE 754 extended precision
+   * value, which is how AIFF files hold the sample rate.
+   */
+  private static void putExtended(ByteBuffer bb, int value) {
+    if (value <= 0) {
+      bb.putShort((short) 0);
+      bb.putLong(0L);
+      return;
     }
+    int shift = Long.numberOfLeadingZeros(value);
+    bb.putShort((short) (16383 + 63 - shift));
+    bb.putLong((long) value << shift);
   }
 }
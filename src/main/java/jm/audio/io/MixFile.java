@@ -0,0 +1,157 @@
+/*
+
+<This Java Class is part of the jMusic API version 1.5, March 2004.>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+package jm.audio.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A temporary file of 32 bit floating point samples which blocks of
+ * samples are mixed into, each at its own place, in the same format
+ * as the mix SampleOut writes. It is used for the per part stems of
+ * a render, which Audio.combineStems turns into audio files, and for
+ * the summed send signal of an EffectBus.
+ * The largest sample value is kept for normalising the file.
+ */
+public final class MixFile {
+
+  /**
+   * The name of the file
+   */
+  private final String fileName;
+  /**
+   * The file the samples are mixed into
+   */
+  private RandomAccessFile raf;
+  /**
+   * The largest sample value, either side of zero
+   */
+  private float max = 0.0f;
+  /**
+   * Holds the samples being mixed, reused for each block
+   */
+  private byte[] bytes = new byte[0];
+
+  /**
+   * Creates the file, emptying it if it is already there.
+   *
+   * @param fileName the name of the file
+   */
+  public MixFile(String fileName) throws IOException {
+    this.fileName = fileName;
+    this.raf = new RandomAccessFile(fileName, "rw");
+    this.raf.setLength(0);
+  }
+
+  /**
+   * Returns the name of the file.
+   */
+  public String getFileName() {
+    return this.fileName;
+  }
+
+  /**
+   * Returns the largest sample value mixed into the file, either side of zero.
+   */
+  public float getMax() {
+    return this.max;
+  }
+
+  /**
+   * Adds a block of samples to those already in the file.
+   *
+   * @param position the place of the first sample, in samples from the start of the file
+   * @param buffer   the samples
+   * @param count    how many samples of buffer to add
+   */
+  public void add(int position, float[] buffer, int count) throws IOException {
+    int length = count * 4;
+    if (bytes.length < length) {
+      bytes = new byte[length];
+    }
+    long start = (long) position * 4;
+    // the part of the block that is already in the file, the rest is silence
+    int existing = (int) Math.max(0, Math.min(length, raf.length() - start));
+    if (existing > 0) {
+      raf.seek(start);
+      raf.readFully(bytes, 0, existing);
+    }
+    ByteBuffer samples = ByteBuffer.wrap(bytes, 0, length);
+    for (int i = 0; i < count; i++) {
+      float sample = buffer[i] + (i * 4 < existing ? samples.getFloat(i * 4) : 0.0f);
+      if (max < Math.abs(sample)) {
+        max = Math.abs(sample);
+      }
+      samples.putFloat(i * 4, sample);
+    }
+    raf.seek(start);
+    raf.write(bytes, 0, length);
+  }
+
+  /**
+   * Reads a block of samples from the file. Samples past the end
+   * of the file are silence.
+   *
+   * @param position the place of the first sample, in samples from the start of the file
+   * @param buffer   the buffer to read the samples into
+   * @param count    how many samples to read
+   * @return the number of samples read from the file, the rest of count are silence
+   */
+  public int read(int position, float[] buffer, int count) throws IOException {
+    long start = (long) position * 4;
+    int existing = (int) Math.max(0, Math.min(count * 4L, raf.length() - start)) / 4;
+    if (bytes.length < existing * 4) {
+      bytes = new byte[existing * 4];
+    }
+    if (existing > 0) {
+      raf.seek(start);
+      raf.readFully(bytes, 0, existing * 4);
+    }
+    ByteBuffer samples = ByteBuffer.wrap(bytes, 0, existing * 4);
+    for (int i = 0; i < existing; i++) {
+      buffer[i] = samples.getFloat(i * 4);
+    }
+    Arrays.fill(buffer, existing, count, 0.0f);
+    return existing;
+  }
+
+  /**
+   * Pads the file with silence to the given number of samples,
+   * if it is shorter.
+   *
+   * @param length the number of samples the file should have at least
+   */
+  public void pad(long length) throws IOException {
+    if (raf.length() < length * 4) {
+      raf.setLength(length * 4);
+    }
+  }
+
+  /**
+   * Closes the file, leaving it on disk.
+   */
+  public void close() throws IOException {
+    raf.close();
+  }
+}
@@ -0,0 +1,223 @@
+/*
+
+<This Java Class is part of the jMusic API version 1.5, March 2004.>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+
+package jm.audio.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Converts blocks of samples between jMusic's float values (-1.0 to 1.0)
+ * and the PCM bytes used by audio files and sound cards.
+ * 8, 16, 24 and 32 bit integer samples, signed or unsigned, and 32 bit
+ * float samples are supported in either byte order.
+ * <p>
+ * Whole blocks are converted in one call through a ByteBuffer, so no
+ * objects are made per sample. When floats are converted to integers
+ * values outside -1.0 to 1.0 are clipped rather than wrapped around.
+ */
+public final class PCMCodec {
+
+  // multipliers from integer samples to floats
+  private static final float SCALE_8 = 1f / 127f;
+  private static final float SCALE_16 = 1f / 32767f;
+  private static final float SCALE_24 = 1f / 8388608f;
+  private static final double SCALE_32 = 1.0 / Integer.MAX_VALUE;
+
+  private PCMCodec() {
+  }
+
+  /**
+   * Decodes samples from a byte array.
+   *
+   * @param format    the format of the bytes
+   * @param src       the bytes to decode
+   * @param srcOffset the position in src of the first byte
+   * @param dst       the array to put the samples in
+   * @param dstOffset the position in dst of the first sample
+   * @param count     the number of samples to decode
+   */
+  public static void decode(AudioFormat format, byte[] src, int srcOffset,
+                            float[] dst, int dstOffset, int count) {
+    int sampleSize = format.getSampleSizeInBits() / 8;
+    ByteBuffer bb = ByteBuffer.wrap(src, srcOffset, count * sampleSize);
+    bb.order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    decode(bb, format.getEncoding(), sampleSize, dst, dstOffset, count);
+  }
+
+  /**
+   * Decodes samples from the buffer's position onwards, in the
+   * buffer's byte order. The position is moved past the samples read.
+   *
+   * @param bb         the bytes to decode
+   * @param encoding   PCM_SIGNED, PCM_UNSIGNED or PCM_FLOAT
+   * @param sampleSize the number of bytes in each sample, 1 to 4
+   * @param dst        the array to put the samples in
+   * @param offset     the position in dst of the first sample
+   * @param count      the number of samples to decode
+   */
+  public static void decode(ByteBuffer bb, AudioFormat.Encoding encoding, int sampleSize,
+                            float[] dst, int offset, int count) {
+    boolean unsigned = AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding);
+    switch (sampleSize) {
+      case 1:
+        if (unsigned) {
+          for (int i = 0; i < count; i++) {
+            dst[offset + i] = (float) ((bb.get() & 0xFF) - 128) * SCALE_8;
+          }
+        } else {
+          for (int i = 0; i < count; i++) {
+            dst[offset + i] = (float) bb.get() * SCALE_8;
+          }
+        }
+        break;
+      case 2:
+        if (unsigned) {
+          for (int i = 0; i < count; i++) {
+            dst[offset + i] = (float) ((bb.getShort() & 0xFFFF) - 32768) * SCALE_16;
+          }
+        } else {
+          for (int i = 0; i < count; i++) {
+            dst[offset + i] = (float) bb.getShort() * SCALE_16;
+          }
+        }
+        break;
+      case 3:
+        boolean big = bb.order() == ByteOrder.BIG_ENDIAN;
+        int hi = big ? 0 : 2;
+        int lo = 2 - hi;
+        int pos = bb.position();
+        for (int i = 0; i < count; i++, pos += 3) {
+          int value = ((bb.get(pos + hi) & 0xFF) << 16) | ((bb.get(pos + 1) & 0xFF) << 8)
+            | (bb.get(pos + lo) & 0xFF);
+          // sign extend from 24 bits
+          value = unsigned ? value - 0x800000 : (value << 8) >> 8;
+          dst[offset + i] = (float) value * SCALE_24;
+        }
+        bb.position(pos);
+        break;
+      case 4:
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) {
+          bb.asFloatBuffer().get(dst, offset, count);
+          bb.position(bb.position() + count * 4);
+        } else {
+          int flip = unsigned ? 0x80000000 : 0;
+          for (int i = 0; i < count; i++) {
+            dst[offset + i] = (float) ((bb.getInt() ^ flip) * SCALE_32);
+          }
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("jMusic PCMCodec error: "
+          + (sampleSize * 8) + " bit samples are not supported.");
+    }
+  }
+
+  /**
+   * Encodes samples into a byte array.
+   *
+   * @param format    the format to encode to
+   * @param src       the samples to encode
+   * @param srcOffset the position in src of the first sample
+   * @param dst       the array to put the bytes in
+   * @param dstOffset the position in dst of the first byte
+   * @param count     the number of samples to encode
+   */
+  public static void encode(AudioFormat format, float[] src, int srcOffset,
+                            byte[] dst, int dstOffset, int count) {
+    int sampleSize = format.getSampleSizeInBits() / 8;
+    ByteBuffer bb = ByteBuffer.wrap(dst, dstOffset, count * sampleSize);
+    bb.order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    encode(src, srcOffset, count, bb, format.getEncoding(), sampleSize);
+  }
+
+  /**
+   * Encodes samples into the buffer from its position onwards, in the
+   * buffer's byte order. The position is moved past the samples written.
+   *
+   * @param src        the samples to encode
+   * @param offset     the position in src of the first sample
+   * @param count      the number of samples to encode
+   * @param bb         the buffer to put the bytes in
+   * @param encoding   PCM_SIGNED, PCM_UNSIGNED or PCM_FLOAT
+   * @param sampleSize the number of bytes in each sample, 1 to 4
+   */
+  public static void encode(float[] src, int offset, int count, ByteBuffer bb,
+                            AudioFormat.Encoding encoding, int sampleSize) {
+    boolean unsigned = AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding);
+    switch (sampleSize) {
+      case 1: {
+        int bias = unsigned ? 128 : 0;
+        for (int i = 0; i < count; i++) {
+          bb.put((byte) (clip((int) (src[offset + i] * 127f), 127) + bias));
+        }
+        break;
+      }
+      case 2: {
+        int bias = unsigned ? 32768 : 0;
+        for (int i = 0; i < count; i++) {
+          bb.putShort((short) (clip((int) (src[offset + i] * 32767f), 32767) + bias));
+        }
+        break;
+      }
+      case 3: {
+        int bias = unsigned ? 0x800000 : 0;
+        boolean big = bb.order() == ByteOrder.BIG_ENDIAN;
+        int hi = big ? 0 : 2;
+        int lo = 2 - hi;
+        int pos = bb.position();
+        for (int i = 0; i < count; i++, pos += 3) {
+          int value = clip((int) (src[offset + i] * 8388608f), 8388607) + bias;
+          bb.put(pos + hi, (byte) (value >> 16));
+          bb.put(pos + 1, (byte) (value >> 8));
+          bb.put(pos + lo, (byte) value);
+        }
+        bb.position(pos);
+        break;
+      }
+      case 4:
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) {
+          bb.asFloatBuffer().put(src, offset, count);
+          bb.position(bb.position() + count * 4);
+        } else {
+          int flip = unsigned ? 0x80000000 : 0;
+          for (int i = 0; i < count; i++) {
+            // the double to int cast clips at the int range
+            bb.putInt((int) ((double) src[offset + i] * (double) Integer.MAX_VALUE) ^ flip);
+          }
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("jMusic PCMCodec error: "
+          + (sampleSize * 8) + " bit samples are not supported.");
+    }
+  }
+
+  /**
+   * Keeps a value within -(max + 1) to max.
+   */
+  private static int clip(int value, int max) {
+    return value > max ? max : (value < -max - 1 ? -max - 1 : value);
+  }
+}
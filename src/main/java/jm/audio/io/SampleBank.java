@@ -0,0 +1,260 @@
+/*
+
+<This Java Class is part of the jMusic API version 1.5, March 2004.>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+
+package jm.audio.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * A process wide store of decoded audio files.
+ * Each file is decoded once into an array of interleaved float samples
+ * which is then shared by every SampleIn (or anyone else) reading that
+ * file, so an instrument which reads the same file several times, or
+ * renders many notes from it, neither decodes nor holds it more than once.
+ * Samples are held by soft references, so they are dropped again if
+ * memory runs short, and they are reloaded if the file changes.
+ */
+public final class SampleBank {
+
+  /**
+   * Decoded samples keyed by canonical file path
+   */
+  private static final Map<String, SoftReference<Sample>> samples =
+    new HashMap<String, SoftReference<Sample>>();
+
+  private SampleBank() {
+  }
+
+  /**
+   * Returns the decoded sample data for a file, decoding it if it is
+   * not already in the bank.
+   *
+   * @param file the audio file to read
+   * @return the shared sample data for the file
+   * @throws IOException                   if the file can not be read, or is too long
+   *                                       to be held in memory
+   * @throws UnsupportedAudioFileException if JavaSound can not read the file
+   */
+  public static Sample getSample(File file) throws IOException, UnsupportedAudioFileException {
+    String key = file.getCanonicalPath();
+    synchronized (samples) {
+      Sample sample = cached(file, key);
+      if (sample != null) {
+        return sample;
+      }
+    }
+    // decode without holding the lock, so that other files can be
+    // read from the bank meanwhile
+    Sample sample = decode(file);
+    synchronized (samples) {
+      // keep the samples of a thread which decoded the file first
+      Sample first = cached(file, key);
+      if (first != null) {
+        return first;
+      }
+      samples.put(key, new SoftReference<Sample>(sample));
+      return sample;
+    }
+  }
+
+  /**
+   * Returns the samples in the bank for a file, or null if they are
+   * not there or the file has changed since they were decoded.
+   * Must be called holding the lock on samples.
+   */
+  private static Sample cached(File file, String key) {
+    SoftReference<Sample> ref = samples.get(key);
+    Sample sample = (ref == null) ? null : ref.get();
+    if (sample == null || sample.lastModified != file.lastModified()
+      || sample.fileLength != file.length()) {
+      return null;
+    }
+    return sample;
+  }
+
+  /**
+   * Drops a file from the bank, it will be decoded again
+   * the next time it is asked for.
+   *
+   * @param file the file to drop
+   */
+  public static void remove(File file) throws IOException {
+    synchronized (samples) {
+      samples.remove(file.getCanonicalPath());
+    }
+  }
+
+  /**
+   * Drops every file from the bank.
+   */
+  public static void clear() {
+    synchronized (samples) {
+      samples.clear();
+    }
+  }
+
+  /**
+   * Reads and decodes a whole file.
+   */
+  private static Sample decode(File file) throws IOException, UnsupportedAudioFileException {
+    AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file);
+    AudioInputStream is = AudioSystem.getAudioInputStream(file);
+    try {
+      AudioFormat format = is.getFormat();
+      AudioFormat.Encoding encoding = format.getEncoding();
+      if (!AudioFormat.Encoding.PCM_SIGNED.equals(encoding)
+        && !AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding)
+        && !AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) {
+        // let JavaSound decode compressed formats
+        is = AudioSystem.getAudioInputStream(AudioFormat.Encoding.PCM_SIGNED, is);
+        format = is.getFormat();
+        encoding = format.getEncoding();
+      }
+      int channels = format.getChannels();
+      int sampleSize = format.getSampleSizeInBits() / 8;
+      long frameLength = is.getFrameLength();
+      long length = (frameLength == AudioSystem.NOT_SPECIFIED)
+        ? 1 << 16 : frameLength * channels;
+      if (length > Integer.MAX_VALUE - 8) {
+        throw new IOException("jMusic SampleBank error: " + file
+          + " is too long to hold in memory.");
+      }
+      float[] data = new float[(int) length];
+      int count = 0;
+      byte[] bytes = new byte[(1 << 16) * sampleSize];
+      ByteBuffer bb = ByteBuffer.wrap(bytes);
+      bb.order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+      int filled = 0;
+      int read;
+      while ((read = is.read(bytes, filled, bytes.length - filled)) != -1) {
+        filled += read;
+        int whole = filled / sampleSize;
+        if (count + whole > data.length) {
+          long grown = Math.max((long) data.length * 2, (long) count + whole);
+          if (grown > Integer.MAX_VALUE - 8) {
+            throw new IOException("jMusic SampleBank error: " + file
+              + " is too long to hold in memory.");
+          }
+          float[] tmp = new float[(int) grown];
+          System.arraycopy(data, 0, tmp, 0, count);
+          data = tmp;
+        }
+        bb.clear();
+        PCMCodec.decode(bb, encoding, sampleSize, data, count, whole);
+        count += whole;
+        // keep any part of a sample for the next read
+        int left = filled - whole * sampleSize;
+        System.arraycopy(bytes, whole * sampleSize, bytes, 0, left);
+        filled = left;
+      }
+      count -= count % channels;
+      if (count != data.length) {
+        float[] tmp = new float[count];
+        System.arraycopy(data, 0, tmp, 0, count);
+        data = tmp;
+      }
+      return new Sample(data, channels, (int) format.getSampleRate(), sampleSize,
+        fileFormat, file.lastModified(), file.length());
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * The decoded contents of one audio file. The sample data is
+   * shared, it must not be changed by anyone using it.
+   */
+  public static final class Sample {
+    private final float[] data;
+    private final int channels;
+    private final int sampleRate;
+    private final int sampleSize;
+    private final AudioFileFormat fileFormat;
+    private final long lastModified;
+    private final long fileLength;
+
+    private Sample(float[] data, int channels, int sampleRate, int sampleSize,
+                   AudioFileFormat fileFormat, long lastModified, long fileLength) {
+      this.data = data;
+      this.channels = channels;
+      this.sampleRate = sampleRate;
+      this.sampleSize = sampleSize;
+      this.fileFormat = fileFormat;
+      this.lastModified = lastModified;
+      this.fileLength = fileLength;
+    }
+
+    /**
+     * The interleaved sample data, which must not be changed.
+     */
+    public float[] getData() {
+      return this.data;
+    }
+
+    /**
+     * The number of channels, 1 = mono, 2 = stereo etc.
+     */
+    public int getChannels() {
+      return this.channels;
+    }
+
+    /**
+     * The number of sample frames, i.e. samples per channel.
+     */
+    public int getFrames() {
+      return this.data.length / this.channels;
+    }
+
+    /**
+     * The sample rate in samples per second.
+     */
+    public int getSampleRate() {
+      return this.sampleRate;
+    }
+
+    /**
+     * The number of bytes each sample took up in the file.
+     */
+    public int getSampleSize() {
+      return this.sampleSize;
+    }
+
+    /**
+     * The format of the file the samples were read from.
+     */
+    public AudioFileFormat getFileFormat() {
+      return this.fileFormat;
+    }
+  }
+}
@@ -41,6 +41,10 @@ import jm.audio.Instrument;
  * The class utilises the JavaSound file reading classes.
  * It can be used as the primary audio object in a chain to generate
  * audio sample data for playabck and or later processing.
+ * The file is decoded once into the shared SampleBank and each SampleIn
+ * reads from that, so there is no file access at the start of each note
+ * and several SampleIn objects reading one file share one copy of it.
+ * Files too long to be held in memory are streamed from disk instead.
  *
  * @author Andrew Sorensen and Andrew Brown (at the same time ;) clipping error fixed by Tim Opie
  */
@@ -65,9 +69,25 @@ public class SampleIn extends AudioObject implements jm.JMC {
    */
   private long duration;
   /**
-   * Input Stream
+   * Input Stream, only used if the file could not be put in the sample bank
    */
   private InputStream is;
+  /**
+   * The decoded file from the sample bank
+   */
+  private float[] data;
+  /**
+   * The number of frames in data
+   */
+  private int frames;
+  /**
+   * The next frame to be read from data
+   */
+  private int frame;
+  /**
+   * The number of samples read since the note started
+   */
+  private long samplesRead;
   /**
    * Play a whole file, or only note length?
    */
@@ -141,7 +161,7 @@ public class SampleIn extends AudioObject implements jm.JMC {
    */
   public SampleIn(Instrument inst, String fileName, boolean cache,
                   boolean wholeFile, int loop) {
-    this(inst, fileName, cache, wholeFile, 0, 0, 0);
+    this(inst, fileName, cache, wholeFile, loop, 0, 0);
   }
 
   /**
@@ -155,8 +175,8 @@ public class SampleIn extends AudioObject implements jm.JMC {
    *                  regardless of the note duration.
    * @param loop      - The number of time to reapeatedly playback the file (0 is no loop, -1 is
    *                  infinite).
-   * @param loopStart - The sample from which to start looping.
-   * @param loopEnd   - The sample at which to end the loop.
+   * @param loopStart - The sample frame from which to start looping.
+   * @param loopEnd   - The sample frame at which to end the loop.
    */
   public SampleIn(Instrument inst, String fileName, boolean cache,
                   boolean wholeFile, int loop, int loopStart, int loopEnd) {
@@ -181,12 +201,19 @@ public class SampleIn extends AudioObject implements jm.JMC {
       //if(wholeFile) this.duration = Long.MAX_VALUE;
       this.sampleSize = (format.getSampleSizeInBits()) / 8;
       fileType = fileFormat.toString();
-      this.is = AudioSystem.getAudioInputStream(this.file);
-      if (this.cache) {
-        byte[] tmp = new byte[(int) this.duration * this.sampleSize];
-        this.is.read(tmp);
-        this.is.close();
-        this.is = new ByteArrayInputStream(tmp);
+      try {
+        SampleBank.Sample sample = SampleBank.getSample(this.file);
+        this.data = sample.getData();
+        this.frames = sample.getFrames();
+      } catch (IOException ioe) {
+        // too long for the bank, stream it instead
+        this.is = AudioSystem.getAudioInputStream(this.file);
+        if (this.cache) {
+          byte[] tmp = new byte[(int) this.duration * this.sampleSize];
+          this.is.read(tmp);
+          this.is.close();
+          this.is = new ByteArrayInputStream(tmp);
+        }
       }
     } catch (UnsupportedAudioFileException uafe) {
       //??
@@ -196,6 +223,9 @@ public class SampleIn extends AudioObject implements jm.JMC {
   }
 
   public void finalize() {
+    if (this.is == null) {
+      return;
+    }
     try {
       this.is.close();
     } catch (IOException ioe) {
@@ -215,6 +245,7 @@ public class SampleIn extends AudioObject implements jm.JMC {
         (double) this.sampleRate * (double) this.channels);
     }
     this.loopCount = this.loop;
+    this.samplesRead = 0;
     reset(0);
   }
 
@@ -223,6 +254,10 @@ public class SampleIn extends AudioObject implements jm.JMC {
    */
   public void reset(int spot) {
     this.streamPosition = 0;
+    if (data != null) {
+      this.frame = Math.max(0, spot);
+      return;
+    }
     try {
       if (cache) {
         this.is.reset();
@@ -251,21 +286,19 @@ public class SampleIn extends AudioObject implements jm.JMC {
   public int work(float[] buffer) throws AOException {
     //System.out.println("SampleIn is working ...");
     this.finished = false;
+    if (data != null) {
+      return readBank(buffer);
+    }
     byte[] tmp = new byte[sampleSize * this.channels];
-    byte[] sampleTmp = new byte[sampleSize];
-    for (int i = 0; i < buffer.length - channels; i += channels) {
+    for (int i = 0; i <= buffer.length - channels; i += channels) {
       //System.out.println("i = " +i + " " + channels + " Buffer = " + buffer.length);
       try { // javaSound reads an entire sample frame
         if (is.read(tmp) == -1) { // end of file reached
           this.finished = true;
         } else {
+          PCMCodec.decode(this.format, tmp, 0, buffer, i, channels);
           // treat each channel in the frame separately
           for (int j = 0; j < channels; j++) {
-            // split the frame into channels
-            System.arraycopy(tmp, 0 + j * sampleSize, sampleTmp, 0, sampleSize);
-            //System.out.println(i+j);
-            buffer[i + j] = this.getFloat(sampleTmp);
-
             //System.out.println(i+"- SampleIn value - " + buffer[i]);
             if (++this.streamPosition == loopStart && loop > 0) {
               this.is.mark(loopStart);
@@ -288,6 +321,39 @@ public class SampleIn extends AudioObject implements jm.JMC {
   }
 
 
+  /**
+   * Copy frames from the sample bank into the buffer, stopping
+   * at the loop end to jump back to the loop start.
+   */
+  private int readBank(float[] buffer) {
+    int count = 0;
+    int bufferFrames = buffer.length / channels;
+    while (count < bufferFrames) {
+      if (frame >= frames) { // end of file reached
+        this.finished = true;
+        break;
+      }
+      boolean looping = loop != 0 && loopEnd > frame && (loop < 0 || loopCount > 1);
+      int end = looping ? Math.min(loopEnd, frames) : frames;
+      int n = Math.min(end - frame, bufferFrames - count);
+      System.arraycopy(data, frame * channels, buffer, count * channels, n * channels);
+      frame += n;
+      count += n;
+      if (looping && frame == loopEnd) {
+        if (loop > 0) {
+          loopCount--;
+        }
+        frame = loopStart;
+      }
+    }
+    this.streamPosition = frame;
+    samplesRead += (long) count * channels;
+    if (samplesRead >= this.duration) {
+      this.finished = true;
+    }
+    return buffer.length;
+  }
+
   /**
    * Specify weather or not to read the whole file before
    * finishing. If not, then the note length will determine the
@@ -358,50 +424,6 @@ public class SampleIn extends AudioObject implements jm.JMC {
     return depth;
   }
 
-  /**
-   * BigEndian conversion
-   */
-  private float getFloat(byte[] b) {
-    float sample = 0.0f;
-    int ret = 0;
-    int length = b.length;
-    for (int i = 0; i < b.length; i++, length--) {
-      ret |= ((b[i] & 0xFF) << ((((bigEndian) ? length : (i + 1)) * 8) - 8));
-    }
-    switch (sampleSize) {
-      case 1:
-        if (ret > 0x7F) {
-          ret = ~ret;
-          ret &= 0x7F;
-          ret = ~ret + 1;
-        }
-        sample = (float) ret / (float) Byte.MAX_VALUE;
-        break;
-      case 2:
-        if (ret > 0x7FFF) {
-          ret = ~ret;
-          ret &= 0x7FFF;
-          ret = ~ret + 1;
-        }
-        sample = (float) ret / (float) Short.MAX_VALUE;
-        break;
-      case 3:
-        if (ret > 0x7FFFFF) {
-          ret = ~ret;
-          ret &= 0x7FFFFF;
-          ret = ~ret + 1;
-        }
-        sample = (float) ret / 8388608f;
-        break;
-      case 4:
-        sample = (float) ((double) ret / (double) Integer.MAX_VALUE);
-        break;
-      default:
-        System.err.println("Format not accepted");
-    }
-    return sample;
-  }
-
   /**
    * Specify the starting point for the audio loop.
    * The number of loops will need to be set to be greater
@@ -428,7 +450,7 @@ public class SampleIn extends AudioObject implements jm.JMC {
    * Specify the number of times the looped section should repeat.
    * The number of loops will need to be set to be greater
    * than 0 for the loop to go, and 0 is no loop, -1 is infinite loops until
-   * the note ends.
+   * the note ends. Takes effect from the next note.
    *
    * @param times The number of times the looped section should play.
    */
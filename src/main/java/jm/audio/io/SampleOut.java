@@ -270,6 +270,7 @@ public final class SampleOut extends AudioObject implements JMC {
       }
       //if((++count%4096==0)||((i+1)==returned/*this.numOfSamples<=count)*/)){System.out.println("NUM: "+i);write(i);}
     }
+    this.inst.send(position / 4, buffer, returned);
     write(returned);
     return returned;
   }
@@ -0,0 +1,55 @@
+package jm.audio.math;
+
+/**
+ * Keeps the state of feedback audio objects (comb and all pass delay
+ * lines, filter histories and the like) out of the subnormal range.
+ * <p>
+ * As a feedback loop dies away in a note's tail or in silence its values
+ * keep shrinking until they become subnormal floats or doubles, which
+ * most CPUs handle many times more slowly than normal numbers. Every
+ * value a feedback object keeps for later is passed through flush, which
+ * sets values quieter than THRESHOLD (about -300dB, far below anything
+ * that can be heard or written to a file) to exactly zero. Delay lines
+ * are flushed as each value is written to them, small histories such as
+ * a filter's are flushed at the end of each block.
+ */
+public final class Denormals {
+
+  /**
+   * Values smaller than this, either side of zero, are flushed to zero
+   */
+  public static final float THRESHOLD = 1.0e-15f;
+
+  private Denormals() {
+  }
+
+  /**
+   * Returns the value, or zero if it is smaller than THRESHOLD.
+   */
+  public static float flush(float value) {
+    return (value < THRESHOLD && value > -THRESHOLD) ? 0.0f : value;
+  }
+
+  /**
+   * Returns the value, or zero if it is smaller than THRESHOLD.
+   */
+  public static double flush(double value) {
+    return (value < THRESHOLD && value > -THRESHOLD) ? 0.0 : value;
+  }
+
+  /**
+   * Sets the values of part of an array that are smaller
+   * than THRESHOLD to zero.
+   *
+   * @param state the values to flush
+   * @param from  the first value to flush
+   * @param to    one past the last value to flush
+   */
+  public static void flush(double[] state, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (state[i] < THRESHOLD && state[i] > -THRESHOLD) {
+        state[i] = 0.0;
+      }
+    }
+  }
+}
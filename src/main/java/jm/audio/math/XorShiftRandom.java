@@ -0,0 +1,126 @@
+package jm.audio.math;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small, fast and seedable pseudo random number generator for use by
+ * stochastic audio objects.  It implements the xorshift64* algorithm and
+ * keeps all of its state in one field, so every audio object can own a
+ * generator and render threads never contend on a shared one (as they do
+ * with Math.random()).  Instances are not thread safe.
+ * <p>
+ * Two generators created with the same seed produce the same sequence,
+ * which makes renders that use them reproducible.
+ */
+public class XorShiftRandom {
+
+  /**
+   * Used to hand out distinct seeds to generators created without one
+   */
+  private static final AtomicLong seedUniquifier = new AtomicLong(0x2545F4914F6CDD1DL);
+
+  private long state;
+
+  private double nextGaussian;
+  private boolean haveNextGaussian = false;
+
+  /**
+   * Creates a generator with a seed that differs from any other
+   * generator created by this constructor.
+   */
+  public XorShiftRandom() {
+    this(seedUniquifier.addAndGet(0x9E3779B97F4A7C15L) ^ System.nanoTime());
+  }
+
+  /**
+   * Creates a generator with the given seed.
+   *
+   * @param seed the initial seed
+   */
+  public XorShiftRandom(long seed) {
+    setSeed(seed);
+  }
+
+  /**
+   * Resets this generator so that it produces the sequence for the given seed.
+   *
+   * @param seed the new seed
+   */
+  public void setSeed(long seed) {
+    // mix the seed so that similar seeds give unrelated sequences,
+    // and keep it away from zero which xorshift can not leave
+    long z = seed + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    z = z ^ (z >>> 31);
+    this.state = (z == 0) ? 0x9E3779B97F4A7C15L : z;
+    this.haveNextGaussian = false;
+  }
+
+  /**
+   * Returns the next 64 random bits.
+   */
+  public long nextLong() {
+    long x = state;
+    x ^= x >>> 12;
+    x ^= x << 25;
+    x ^= x >>> 27;
+    state = x;
+    return x * 0x2545F4914F6CDD1DL;
+  }
+
+  /**
+   * Returns a random int between 0 (inclusive) and bound (exclusive).
+   *
+   * @param bound the upper bound, must be positive
+   */
+  public int nextInt(int bound) {
+    if (bound <= 0) {
+      throw new IllegalArgumentException("bound must be positive: " + bound);
+    }
+    return (int) (((nextLong() >>> 33) * bound) >>> 31);
+  }
+
+  /**
+   * Returns a random double between 0.0 (inclusive) and 1.0 (exclusive).
+   */
+  public double nextDouble() {
+    return (nextLong() >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * Returns a random float between 0.0 (inclusive) and 1.0 (exclusive).
+   */
+  public float nextFloat() {
+    return (nextLong() >>> 40) * 0x1.0p-24f;
+  }
+
+  /**
+   * Returns a random float between -1.0 (inclusive) and 1.0 (exclusive),
+   * the range of a sample value.
+   */
+  public float nextBipolar() {
+    return (nextLong() >> 40) * 0x1.0p-23f;
+  }
+
+  /**
+   * Returns a normally distributed value with a mean of 0.0 and a
+   * standard deviation of 1.0, using the polar method.
+   */
+  public double nextGaussian() {
+    if (haveNextGaussian) {
+      haveNextGaussian = false;
+      return nextGaussian;
+    }
+    double v1, v2, s;
+    do {
+      v1 = 2 * nextDouble() - 1;
+      v2 = 2 * nextDouble() - 1;
+      s = v1 * v1 + v2 * v2;
+    } while (s >= 1 || s == 0);
+    double multiplier = Math.sqrt(-2 * Math.log(s) / s);
+    nextGaussian = v2 * multiplier;
+    haveNextGaussian = true;
+    return v1 * multiplier;
+  }
+}
@@ -62,10 +62,12 @@ public class ADSR extends AudioObject implements JMC {
    * points on the graph
    */
   private EnvPoint[] graphPoints;
-  /**
-   * a calculated graph with all points filled in
-   */
-  private float[] graphShape;
+  // the length in samples of the envelope shape, without the release
+  private int shapeSamples;
+  // the step per sample of the attack and decay sections
+  private double attackInc, decayDiff;
+  // the starting value and the step per sample of the release section
+  private double releaseStart, releaseInc;
   /**
    * is the a primary object?
    */
@@ -163,13 +165,9 @@ public class ADSR extends AudioObject implements JMC {
       int returned = buffer.length;
       //int chancount=1;
       for (int i = 0; i < returned; i += channels) {
-        for (int j = 0; j < channels; j++) {
-          try {
-            buffer[i + j] = graphShape[this.position];
-            //System.out.println("buffer = " + buffer[i]);
-          } catch (ArrayIndexOutOfBoundsException aob) {
-            buffer[i + j] = 0.0f;
-          }
+        float value = getValue(this.position);
+        for (int j = 0; j < channels && i + j < returned; j++) {
+          buffer[i + j] = value;
         }
         this.position++;
       }
@@ -260,41 +258,39 @@ public class ADSR extends AudioObject implements JMC {
     // extend note to account for release
     // note; numOfSamples is in mono
     totalSamples = this.numOfSamples + (int) releaseSamps;
+    shapeSamples = this.numOfSamples;
 
-    graphShape = new float[totalSamples];
     // Attack
     maxAttackCount = Math.min((int) attackSamps, this.numOfSamples);
-    //if (primary) {
-    double inc = 1.0 / (double) maxAttackCount;
-    for (int i = 0; i < maxAttackCount; i++) {
-      graphShape[i] = (float) (inc * i);
-    }
-    //}
+    attackInc = 1.0 / (double) maxAttackCount;
     // decay
     maxDecayCount = maxAttackCount;
     if (sustain < 1.0) {
       maxDecayCount = Math.min((int) attackSamps + (int) decaySamps, this.numOfSamples);
-      //if(primary) {
-      double diff = (1.0 - sustain) / (double) (maxDecayCount - maxAttackCount);
-      for (int i = maxAttackCount; i < maxDecayCount; i++) {
-        graphShape[i] = (float) (1.0 - diff * (i - maxAttackCount));
-      }
-      //}
+      decayDiff = (1.0 - sustain) / (double) (maxDecayCount - maxAttackCount);
     }
-    // sustain
-    //if (primary) {
-    for (int i = maxDecayCount; i < this.numOfSamples; i++) {
-      graphShape[i] = (float) (sustain);
-    }
-    //}
     // release
-    //if (primary) {
-    double startVal = (double) graphShape[this.numOfSamples - 1];
-    double inc2 = startVal / releaseSamps;
-    for (int i = this.numOfSamples; i < totalSamples; i++) {
-      graphShape[i] = (float) (startVal - inc2 * (i - this.numOfSamples));
-    }
-    //}
+    releaseStart = (double) getValue(this.numOfSamples - 1);
+    releaseInc = releaseStart / releaseSamps;
     this.finished = false;
   }
+
+  /**
+   * Returns the value of the envelope at a sample position,
+   * the envelope is worked out as it is needed rather than
+   * being stored for the whole note.
+   */
+  private float getValue(int pos) {
+    if (pos < 0 || pos >= totalSamples) {
+      return 0.0f;
+    } else if (pos < maxAttackCount) {
+      return (float) (attackInc * pos);
+    } else if (pos < maxDecayCount) {
+      return (float) (1.0 - decayDiff * (pos - maxAttackCount));
+    } else if (pos < shapeSamples) {
+      return (float) (sustain);
+    } else {
+      return (float) (releaseStart - releaseInc * (pos - shapeSamples));
+    }
+  }
 }
@@ -22,6 +22,8 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 
 package jm.audio.synth;
 
+import java.util.Arrays;
+
 import jm.audio.AOException;
 import jm.audio.AudioObject;
 
@@ -33,6 +35,11 @@ import jm.audio.AudioObject;
  */
 
 public final class Add extends AudioObject {
+  /**
+   * Holds each input's samples in turn, kept from block to block
+   */
+  private float[] scratch;
+
   //----------------------------------------------
   // Constructors
   //----------------------------------------------
@@ -60,21 +67,32 @@ public final class Add extends AudioObject {
    * @param input any number of incoming samples
    */
   public int work(float[] buffer) throws AOException {
-    float[][] buf = new float[this.inputs][];
-    buf[0] = new float[buffer.length];
-    int returned = this.previous[0].nextWork(buf[0]);
+    float[] in = scratch(buffer.length);
+    int returned = this.previous[0].nextWork(in);
+    for (int ret = 0; ret < returned; ret++) {
+      buffer[ret] += in[ret];
+    }
     for (int i = 1; i < inputs; i++) {
-      buf[i] = new float[returned];
-      if (returned != this.previous[i].nextWork(buf[i])) {
+      in = scratch(returned);
+      if (returned != this.previous[i].nextWork(in)) {
         throw new AOException(this.name, 0);
       }
-    }
-    int ret = 0;
-    for (; ret < returned; ret++) {
-      for (int j = 0; j < inputs; j++) {
-        buffer[ret] += buf[j][ret];
+      for (int ret = 0; ret < returned; ret++) {
+        buffer[ret] += in[ret];
       }
     }
-    return ret;
+    return returned;
+  }
+
+  /**
+   * Returns the scratch buffer cleared and the given length.
+   */
+  private float[] scratch(int length) {
+    if (scratch == null || scratch.length != length) {
+      scratch = new float[length];
+    } else {
+      Arrays.fill(scratch, 0.0f);
+    }
+    return scratch;
   }
 }
@@ -24,6 +24,7 @@ package jm.audio.synth;
 
 import jm.audio.AOException;
 import jm.audio.AudioObject;
+import jm.audio.math.Denormals;
 
 /**
  * AllPass filters ...
@@ -81,7 +82,7 @@ public final class AllPass extends AudioObject {
       buffer[i] += delayLine[delayIndex] * decay;
       float a = buffer[i] * -decay;
       float b = delayLine[delayIndex];
-      delayLine[delayIndex] = buffer[i];
+      delayLine[delayIndex] = Denormals.flush(buffer[i]);
       buffer[i] = a + b;
       if (delayIndex >= delayLine.length) {
         delayIndex = 0;
@@ -24,6 +24,7 @@ package jm.audio.synth;
 
 import jm.audio.AOException;
 import jm.audio.AudioObject;
+import jm.audio.math.Denormals;
 
 /**
  * Comb filters ...
@@ -80,7 +81,7 @@ public final class Comb extends AudioObject {
     for (; i < returned; i++) {
       float t = this.delayLine[delayIndex];
       buffer[i] += t * this.decay;
-      this.delayLine[delayIndex++] = buffer[i];
+      this.delayLine[delayIndex++] = Denormals.flush(buffer[i]);
       if (delayIndex >= delayLine.length) {
         delayIndex = 0;
       }
@@ -46,7 +46,11 @@ import jm.music.data.Note;
  * a processor object the envelopes only possible function is to
  * alter amplitude. But when used as a generator the Envelope can
  * be used to send data to any AudioObjects input. (the volume of a
- * volume object for example for doing crescendos on each note)
+ * volume object for example for doing crescendos on each note)<br>
+ * The envelope is not rendered into a table, each value is worked out
+ * as the note is processed by walking along the envelope's segments,
+ * so a long note costs no more memory than a short one. Segments are
+ * linear unless setExponential(true) is used.
  *
  * @author Andrew Sorensen
  * @version 1.0, Sun Feb 25 18:42:47  2001
@@ -60,13 +64,56 @@ public class Envelope extends AudioObject implements JMC {
    */
   private EnvPoint[] graphPoints;
   /**
-   * a calculated graph with all points filled in
+   * The offset added to exponential segments so that
+   * they can reach and leave zero (-60dB)
    */
-  private float[] graphShape;
+  private static final float EXP_OFFSET = 0.001f;
+  /**
+   * the last sample of each segment, a segment starts
+   * at the last sample of the one before it
+   */
+  private int[] segmentEnd = new int[0];
+  /**
+   * the gradient of each linear segment
+   */
+  private float[] gradient = new float[0];
+  /**
+   * the y intercept of each linear segment
+   */
+  private float[] yintercept = new float[0];
+  /**
+   * the number of segments in use for the current note
+   */
+  private int segments;
+  /**
+   * the segment that the current position falls in
+   */
+  private int segment;
+  /**
+   * is the envelope flat because the note is very short?
+   */
+  private boolean flat;
+  /**
+   * are the segments exponential rather than linear?
+   */
+  private boolean exponential = false;
+  /**
+   * the value and per sample ratio of the current exponential segment
+   */
+  private double expValue, expRatio;
+  /**
+   * the segment that expValue was worked out for
+   */
+  private int expSegment = -1;
+  /**
+   * the position and value last worked out by getValue
+   */
+  private int lastPosition = -1;
+  private float lastValue;
   /**
    * how far through the envelope shape we are
    */
-  private int position = 1;
+  int position = 0;
   /**
    * is the a primary object?
    */
@@ -196,6 +243,18 @@ public class Envelope extends AudioObject implements JMC {
     breakPointsToGraphPoints(breakPoints);
   }
 
+  /**
+   * Use exponential rather than linear segments between the
+   * envelope's points, which sounds more natural for amplitude.
+   * Exponential segments are offset by -60dB so they can reach
+   * zero, segments with a negative point stay linear.
+   *
+   * @param exponential true for exponential segments
+   */
+  public void setExponential(boolean exponential) {
+    this.exponential = exponential;
+  }
+
   //----------------------------------------------
   // Protected Methods
   //----------------------------------------------
@@ -226,45 +285,35 @@ public class Envelope extends AudioObject implements JMC {
    */
   public int work(float[] buffer) throws AOException {
     // pass on data unchanged after the end of the envelope
-    if (this.finished == true && this.inst.iterations <= 0) {
+    if (isPassing()) {
       return buffer.length;
     }
     // process data
     if (primary) {
-      //System.out.println("in primary. Graph size = " + graphShape.length + " Postion = " + position);
       int returned = buffer.length;
       int chancount = 1;
+      float value = getValue(this.position);
       for (int i = 0; i < returned; i++) {
-        try {
-          buffer[i] = graphShape[this.position];
-          //System.out.println("buffer = " + buffer[i]);
-        } catch (ArrayIndexOutOfBoundsException aob) {
-          buffer[i] = 0.0f;
-        }
+        buffer[i] = value;
         if (chancount == channels) {
           chancount = 1;
           this.position++;
-          //System.out.println("Position incremeted to" + position);
+          value = getValue(this.position);
         } else {
           chancount++;
         }
       }
       return returned;
     } else {
-      //System.out.println("in NOT primary");
       int returned = this.previous[0].nextWork(buffer);
       int chancount = 1;
+      float value = getValue(this.position);
       for (int i = 0; i < returned; i++) {
-        try {
-          buffer[i] = buffer[i] * graphShape[this.position];
-        } catch (ArrayIndexOutOfBoundsException aob) {
-          //System.out.println("POS: "+this.position+"  LENGTH: "+graphShape.length);
-          //System.exit(1);
-          buffer[i] = 0.0f;
-        }
+        buffer[i] = buffer[i] * value;
         if (chancount == channels) {
           chancount = 1;
           this.position++;
+          value = getValue(this.position);
         } else {
           chancount++;
         }
@@ -278,19 +327,85 @@ public class Envelope extends AudioObject implements JMC {
   //----------------------------------------------
 
   /**
-   * Calculates the sampleData for this Envelope
+   * Is the note over, so that data is passed on unchanged?
+   */
+  boolean isPassing() {
+    return this.finished == true && this.inst.iterations <= 0;
+  }
+
+  /**
+   * Returns the envelope's value at a sample position. Positions
+   * are expected to move forward through the note, the current
+   * segment is only ever advanced.
+   */
+  float getValue(int pos) {
+    if (pos == lastPosition) {
+      return lastValue;
+    }
+    float value;
+    if (pos < 0 || pos >= numOfSamples) {
+      value = 0.0f;
+    } else if (flat) {
+      value = 1.0f;
+    } else {
+      while (segment < segments - 1 && pos >= segmentEnd[segment]) {
+        segment++;
+      }
+      if (segments == 0 || pos > segmentEnd[segment]) {
+        value = 0.0f;
+      } else if (exponential && isExponential(segment)) {
+        value = getExpValue(pos);
+      } else {
+        value = (gradient[segment] * (float) pos) + yintercept[segment];
+      }
+    }
+    lastPosition = pos;
+    lastValue = value;
+    return value;
+  }
+
+  /**
+   * Can the segment be drawn as an exponential curve?
+   */
+  private boolean isExponential(int seg) {
+    return graphPoints[seg].y >= 0.0f && graphPoints[seg + 1].y >= 0.0f
+      && graphPoints[seg + 1].X > graphPoints[seg].X;
+  }
+
+  /**
+   * Returns the value of the current exponential segment,
+   * stepping on from the last value when it can.
+   */
+  private float getExpValue(int pos) {
+    EnvPoint start = graphPoints[segment];
+    EnvPoint end = graphPoints[segment + 1];
+    if (expSegment != segment || pos != lastPosition + 1) {
+      double a = start.y + EXP_OFFSET;
+      double b = end.y + EXP_OFFSET;
+      expRatio = Math.pow(b / a, 1.0 / (end.X - start.X));
+      expValue = a * Math.pow(expRatio, pos - start.X);
+      expSegment = segment;
+    } else {
+      expValue *= expRatio;
+    }
+    return (float) (expValue - EXP_OFFSET);
+  }
+
+  /**
+   * Works out the segments of this Envelope for the current note
    */
   public void build() {
     if (this.useNotePoints) {
       breakPointsToGraphPoints(this.currentNote.getBreakPoints(notePointIndex));
     }
-    //System.out.println("samps = " + numOfSamples + " Graph points = " + graphPoints.length);
-    graphShape = new float[numOfSamples];
+    this.position = 0;
+    this.segment = 0;
+    this.segments = 0;
+    this.expSegment = -1;
+    this.lastPosition = -1;
     // flat envelope for VERY short notes
-    if (numOfSamples <= graphPoints.length * 4) {
-      for (int i = 0; i < graphShape.length; i++) {
-        graphShape[i] = 1.0f;
-      }
+    this.flat = numOfSamples <= graphPoints.length * 4;
+    if (flat) {
       return;
     }
     // otherwise
@@ -304,30 +419,25 @@ public class Envelope extends AudioObject implements JMC {
       }
     }
 
-    //Make the new wave shape
     //Calculate linear lines between EnvPoints
-    //graphShape = new float[(numOfSamples)];
+    int count = this.graphPoints.length - 1;
+    if (segmentEnd.length < count) {
+      segmentEnd = new int[count];
+      gradient = new float[count];
+      yintercept = new float[count];
+    }
     int j = 0;
-    for (int i = 0; i < (this.graphPoints.length) - 1; i++) {
-      float gradient =
+    for (int i = 0; i < count; i++) {
+      gradient[i] =
         (this.graphPoints[i].y - this.graphPoints[i + 1].y) /
           (this.graphPoints[i].X - this.graphPoints[i + 1].X);
-      float yintercept = this.graphPoints[i + 1].y -
-        (gradient * this.graphPoints[i + 1].X);
-      for (; ; ) {
-        //This could be a problem as I don't think the last sample is
-        //set properly.
-        //moving it to other side of graphShape setting.
-        //if(j == this.graphPoints[i+1].X) break;
-        this.graphShape[j] = (gradient * (float) j) + yintercept;
-        //System.out.println(this.graphShape[j] + " " + j);
-        if (j >= this.graphPoints[i + 1].X) {
-          break;
-        }
-        j++;
-      }
+      yintercept[i] = this.graphPoints[i + 1].y -
+        (gradient[i] * this.graphPoints[i + 1].X);
+      //each segment covers at least one sample, the last sample
+      //of a segment is shared with the start of the next one
+      j = Math.max(j, this.graphPoints[i + 1].X);
+      segmentEnd[i] = j;
     }
-    this.position = 0; //this is set to -1 to start channels at 0
-    //System.out.println("START OF POS: "+this.position);
+    this.segments = count;
   }
 }
@@ -24,6 +24,7 @@ package jm.audio.synth;
 
 import jm.audio.AOException;
 import jm.audio.AudioObject;
+import jm.audio.math.Denormals;
 
 /**
  * Chebyshev filters are a recursive or IIR (infinite impulse response) filter.  * They provide a
@@ -274,6 +275,11 @@ public final class Filter extends AudioObject {
         chan = 0;
       }
     }
+    // keep the filter's history out of the subnormal range in tails
+    for (int c = 0; c < this.channels; c++) {
+      Denormals.flush(xbuf[c], 0, (int) poles + 1);
+      Denormals.flush(ybuf[c], 0, (int) poles + 1);
+    }
     return i;
   }
 
@@ -0,0 +1,144 @@
+/*
+
+<This Java Class is part of the jMusic API version 1.5, March 2004.>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+
+package jm.audio.synth;
+
+import java.util.Arrays;
+
+import jm.audio.AOException;
+import jm.audio.AudioGraph;
+import jm.audio.AudioObject;
+
+/**
+ * Works an Oscillator, Envelope, Volume and StereoPan chain, the most
+ * common chain in the jMusic instruments, in one loop that makes each
+ * sample from start to finish, rather than as four work methods that
+ * each pass over the whole buffer in turn.
+ * <p>
+ * When an Instrument's chain is compiled with setFuseChains(true), a
+ * StereoPan uses a FusedChain in place of its work method if it finds
+ * the four objects one after the other with nothing else reading from
+ * them. The Oscillator may
+ * have a frequency input, as in FM instruments, which is worked as
+ * usual before the loop. The samples made are exactly the same as
+ * those of the four work methods. Blocks the loop does not handle,
+ * such as those after the end of the Envelope, are passed to the
+ * StereoPan's work method instead.
+ */
+public final class FusedChain {
+
+  private final Oscillator osc;
+  private final Envelope env;
+  private final Volume vol;
+  private final StereoPan pan;
+  /**
+   * Does the Oscillator have a frequency input?
+   */
+  private final boolean fm;
+  /**
+   * Values from the Oscillator's frequency input
+   */
+  private float[] frequencies = new float[0];
+
+  private FusedChain(Oscillator osc, Envelope env, Volume vol, StereoPan pan) {
+    this.osc = osc;
+    this.env = env;
+    this.vol = vol;
+    this.pan = pan;
+    this.fm = osc.hasFrequencyInput();
+  }
+
+  /**
+   * Makes a FusedChain for the Oscillator, Envelope, Volume and StereoPan
+   * chain ending with pan, if each object is the single input of the next
+   * and is read by nothing else. Only these exact classes are fused, as
+   * subclasses may work differently.
+   *
+   * @return the FusedChain, or null if the chain is not one that can be fused
+   */
+  static FusedChain fuse(StereoPan pan, AudioGraph graph) {
+    if (graph.getReaderCount(pan) > 1) {
+      return null;
+    }
+    AudioObject vol = onlyInput(pan, Volume.class, graph);
+    AudioObject env = onlyInput(vol, Envelope.class, graph);
+    AudioObject osc = onlyInput(env, Oscillator.class, graph);
+    if (osc == null || !((Oscillator) osc).isFusable()) {
+      return null;
+    }
+    return new FusedChain((Oscillator) osc, (Envelope) env, (Volume) vol, pan);
+  }
+
+  /**
+   * Returns the single input of ao if it is of the given class
+   * and read by nothing else, otherwise null.
+   */
+  private static AudioObject onlyInput(AudioObject ao, Class<?> type, AudioGraph graph) {
+    if (ao == null) {
+      return null;
+    }
+    AudioObject in = graph.getOnlyInput(ao);
+    return (in != null && in.getClass() == type) ? in : null;
+  }
+
+  /**
+   * Fills the buffer with the StereoPan's next samples.
+   *
+   * @param buffer the buffer to fill
+   * @return the number of samples made
+   */
+  public int work(float[] buffer) throws AOException {
+    int channels = pan.getChannels();
+    if (channels > 2 || osc.getChannels() != channels || env.getChannels() != channels
+      || vol.getChannels() != channels
+      || buffer.length % channels != 0 || env.isPassing()
+      || (channels == 2 && !pan.isLeftNext())) {
+      return pan.workSeparately(buffer);
+    }
+    int frames = buffer.length / channels;
+    if (fm) {
+      if (frequencies.length != frames) {
+        frequencies = new float[frames];
+      } else {
+        Arrays.fill(frequencies, 0.0f);
+      }
+      osc.pullFrequencies(frequencies);
+    }
+    float volume = vol.volume;
+    float value = env.getValue(env.position);
+    int i = 0;
+    for (int f = 0; f < frames; f++) {
+      float sample = fm ? osc.nextSample(frequencies[f]) : osc.nextSample();
+      sample = sample * value;
+      sample = sample * volume;
+      if (channels == 1) {
+        buffer[i++] = sample;
+      } else {
+        buffer[i++] = pan.left(sample);
+        buffer[i++] = pan.right(sample);
+      }
+      env.position++;
+      value = env.getValue(env.position);
+    }
+    return buffer.length;
+  }
+}
@@ -22,11 +22,24 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 
 package jm.audio.synth;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import jm.audio.AOException;
 import jm.audio.AudioObject;
 
 /**
  * An AudioObject for granulating input.
+ * <p>
+ * Working buffers (the current input block, the look ahead block, the grain
+ * tail accumulator and the grain buffer itself) are kept between calls to
+ * work and are only reallocated when the block size or the grain duration
+ * grows, so a granulator running at a high grain density does not produce
+ * garbage.  Grain envelopes are looked up from tables cached per envelope
+ * type and grain duration, the few most recently used being kept by each
+ * granulator, and grains are scattered using this object's
+ * own random number generator (see setSeed).
  *
  * @author Andrew Sorensen
  * @version 1.0, Sun Feb 25 18:42:48  2001 Revised and modified extensively by Timothy Opie Last
@@ -38,18 +51,35 @@ public final class Granulator extends AudioObject {
   //----------------------------------------------
   // Attributes
   //----------------------------------------------
+  /**
+   * How many envelope tables each granulator keeps
+   */
+  private static final int ENVELOPE_TABLES = 8;
+
+  /**
+   * Recently used envelope tables, keyed by envelope type and grain
+   * duration, the least recently used first
+   */
+  private final Map<Long, float[]> envelopeTables =
+    new LinkedHashMap<Long, float[]>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Long, float[]> eldest) {
+        return size() > ENVELOPE_TABLES;
+      }
+    };
+
   private int grainDuration = 1323;
   private int envelopeType = 1;
   private int nog; //number of grains
   private float cfm; //current frequency modifier
   private int cgd; //counter for grain duration
-  private float[] grain; //grain buffer
+  private float[] grain; //grain buffer, only ever grows
   private float[] newbuf; //output buffer
   private int grainCnt = 0;
   private int grainsPerSecond = 10;
   private float[] tailBuf; //so we don't get cut off between buffers
   private float freqMod = 1.0f;
-  private float[] inBuffer = null;
+  private float[] inBuffer = null; //look ahead buffer
+  private boolean inBufFilled = false; //does inBuffer hold the next block
   private boolean inBufActive = false;
   private boolean ri = false; //random indexing
   private boolean rgd = false; //random grain duration
@@ -60,6 +90,8 @@ public final class Granulator extends AudioObject {
   private boolean rf = false; //random frequency
   private float rfb = 0.99f; //the lowest random frequency
   private float rft = 1.01f; //the highest random frequency + rfb
+  private float[] envelope; //envelope table for the current grain
+  private int envelopeTableType = -1; //envelope type of the table above
 
   private float[] durationArray; //premapped grain duration
   private float[] gpsArray; //premapped grains per second
@@ -106,15 +138,23 @@ public final class Granulator extends AudioObject {
    * @return The number of samples processed.
    */
   public int work(float[] buffer) throws AOException {
-    if (inBuffer == null) {
-      newbuf = new float[buffer.length];
+    if (!inBufFilled) {
+      if (newbuf == null || newbuf.length != buffer.length) {
+        newbuf = new float[buffer.length];
+      } else {
+        Arrays.fill(newbuf, 0.0f);
+      }
       this.previous[0].nextWork(newbuf);
+    } else if (inBuffer.length == buffer.length) {
+      //the look ahead block becomes the current block
+      float[] tmp = newbuf;
+      newbuf = inBuffer;
+      inBuffer = tmp;
+      inBufFilled = false;
     } else {
       newbuf = new float[buffer.length];
-      for (int i = 0; (i < inBuffer.length) && (i < newbuf.length); i++) {
-        newbuf[i] = inBuffer[i];
-      }
-      inBuffer = null;
+      System.arraycopy(inBuffer, 0, newbuf, 0, Math.min(inBuffer.length, newbuf.length));
+      inBufFilled = false;
     }
     //number of grains to fit in buffer
     if (grainsPerSecond <= 0) {
@@ -136,26 +176,22 @@ public final class Granulator extends AudioObject {
     for (int i = 0; (i < buffer.length) && (i < tailBuf.length); i++) {
       buffer[i] += tailBuf[i];
     }
-    tailBuf = new float[newbuf.length];
+    if (tailBuf.length != newbuf.length) {
+      tailBuf = new float[newbuf.length];
+    } else {
+      Arrays.fill(tailBuf, 0.0f);
+    }
     inBufActive = true;
     //add all new grains
     for (int i = 0; i < nog; i++) {
       if (rdist > 0) {
-        rdisttemp = (int) (Math.random() * rdist);
+        rdisttemp = (int) (getRandom().nextDouble() * rdist);
       } else {
         rdisttemp = 0;
       }
       int index = ((i * tbg) + rdisttemp);
       setGrain(index - rdisttemp);
-      for (int j = 0; j < grain.length; j++) {
-        if (index >= buffer.length) {
-          tailBuf[index - buffer.length] += grain[j];
-        } else {
-          buffer[index] += grain[j];
-        }
-        index++;
-        grainCnt++;
-      }
+      addGrain(buffer, index);
     }
     inBufActive = false;
     return buffer.length;
@@ -250,16 +286,70 @@ public final class Granulator extends AudioObject {
   // Private Methods
   //----------------------------------------
 
+  /**
+   * Envelope the current grain and add it to the buffer starting at index.
+   * Any part of the grain which runs past the end of the buffer is added
+   * to the tail buffer.
+   */
+  private void addGrain(float[] buffer, int index) {
+    if (envelopeType == 3) {
+      int half = cgd / 2;
+      for (int j = 0; j < cgd; j++) {
+        float value = (j < half) ? grain[j] * 2 : grain[j] * -2 + 2;
+        if (index >= buffer.length) {
+          tailBuf[index - buffer.length] += value;
+        } else {
+          buffer[index] += value;
+        }
+        index++;
+      }
+    } else {
+      float[] env = envelope;
+      for (int j = 0; j < cgd; j++) {
+        if (index >= buffer.length) {
+          tailBuf[index - buffer.length] += grain[j] * env[j];
+        } else {
+          buffer[index] += grain[j] * env[j];
+        }
+        index++;
+      }
+    }
+    grainCnt += cgd;
+  }
+
+  /**
+   * Returns the envelope table for the given envelope type and grain
+   * duration, building it if it is not one of the recently used tables.
+   */
+  private float[] getEnvelopeTable(int type, int length) {
+    Long key = Long.valueOf(((long) type << 32) | (length & 0xFFFFFFFFL));
+    float[] table = envelopeTables.get(key);
+    if (table == null) {
+      table = new float[length];
+      if (type <= 1) {
+        for (int i = 0; i < length; i++) {
+          table[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / length));
+        }
+      } else {
+        for (int i = 0; i < length; i++) {
+          table[i] = (float) (Math.sin(Math.PI * i / length));
+        }
+      }
+      envelopeTables.put(key, table);
+    }
+    return table;
+  }
+
   /**
    * Set the grain
    */
   private void setGrain(int index) throws AOException {
     if (ri) {
-      index = (int) (Math.random() * (double) newbuf.length);
+      index = (int) (getRandom().nextDouble() * (double) newbuf.length);
     }
     float[] buf = newbuf; //reference to the active buffer
     if (rgd) {
-      this.cgd = gdb + (int) (Math.random() * gdt);
+      this.cgd = gdb + (int) (getRandom().nextDouble() * gdt);
     } else /* { if (premapped) {
             this.cgd = (int)durationArray[grainCnt];
 		    } else { */ {
@@ -274,14 +364,26 @@ public final class Granulator extends AudioObject {
     //	//System.out.println("cfm" + cfm);
     //}
     if (rf) {
-      cfm = (float) (rfb + (Math.random() * (rft - rfb)));
+      cfm = (float) (rfb + (getRandom().nextDouble() * (rft - rfb)));
     }
     if (inBufActive) {
-      inBuffer = new float[newbuf.length];
+      if (inBuffer == null || inBuffer.length != newbuf.length) {
+        inBuffer = new float[newbuf.length];
+      } else {
+        Arrays.fill(inBuffer, 0.0f);
+      }
       int ret = this.previous[0].nextWork(inBuffer);
+      inBufFilled = true;
       inBufActive = false;
     }
-    this.grain = new float[cgd];
+    if (this.grain.length < cgd) {
+      this.grain = new float[cgd];
+    }
+    if (envelopeType != 3 && (envelope == null || envelope.length != cgd
+      || envelopeTableType != envelopeType)) {
+      envelope = getEnvelopeTable(envelopeType, cgd);
+      envelopeTableType = envelopeType;
+    }
     int count = 0;
     float tmp = 0.0f;
     //positive values of skip are the iterations to skip
@@ -337,33 +439,5 @@ public final class Granulator extends AudioObject {
         break;
       }
     }
-
-    //Envelope our new grain
-    if (envelopeType <= 1) {
-      for (int i = 0; i < cgd; i++) {
-        this.grain[i] = this.grain[i] * (float) (0.5 - 0.5 *
-          Math.cos(2 * Math.PI * i / cgd));
-      }
-    }
-    //else if (envelopeType == 2) //{
-    //       for(int i=0;i<cgd;i++){
-    //                this.grain[i] = this.grain[i] * (float)
-    //				  (Math.sin(Math.PI*i/cgd));
-    //        }
-    //}
-    else if (envelopeType == 3) {
-      for (int i = 0; i < cgd / 2; i++) {
-        this.grain[i] = this.grain[i] * 2;
-      }
-      for (int i = cgd / 2; i < cgd; i++) {
-        this.grain[i] = this.grain[i] * -2 + 2;
-      }
-    } else {
-      for (int i = 0; i < cgd; i++) {
-        this.grain[i] = this.grain[i] * (float)
-          (Math.sin(Math.PI * i / cgd));
-
-      }
-    }
   }
 }
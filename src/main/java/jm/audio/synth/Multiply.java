@@ -22,16 +22,23 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 
 package jm.audio.synth;
 
+import java.util.Arrays;
+
 import jm.audio.AOException;
 import jm.audio.AudioObject;
 
 /**
- * Sums any number of inputs.
+ * Multiplies any number of inputs together.
  *
  * @author Andrew Brown
  */
 
 public final class Multiply extends AudioObject {
+  /**
+   * Holds the samples of each input after the first, kept from block to block
+   */
+  private float[] scratch;
+
   //----------------------------------------------
   // Constructors
   //----------------------------------------------
@@ -59,22 +66,22 @@ public final class Multiply extends AudioObject {
    * @param input any number of incoming samples
    */
   public int work(float[] buffer) throws AOException {
-    float[][] buf = new float[this.inputs][];
-    buf[0] = new float[buffer.length];
-    int returned = this.previous[0].nextWork(buf[0]);
+    // the first input is read straight into the buffer
+    Arrays.fill(buffer, 0.0f);
+    int returned = this.previous[0].nextWork(buffer);
     for (int i = 1; i < inputs; i++) {
-      buf[i] = new float[returned];
-      if (returned != this.previous[i].nextWork(buf[i])) {
+      if (scratch == null || scratch.length != returned) {
+        scratch = new float[returned];
+      } else {
+        Arrays.fill(scratch, 0.0f);
+      }
+      if (returned != this.previous[i].nextWork(scratch)) {
         throw new AOException(this.name, 0);
       }
-    }
-    int ret = 0;
-    for (; ret < returned; ret++) {
-      buffer[ret] = buf[0][ret];
-      for (int j = 1; j < inputs; j++) {
-        buffer[ret] *= buf[j][ret];
+      for (int ret = 0; ret < returned; ret++) {
+        buffer[ret] *= scratch[ret];
       }
     }
-    return ret;
+    return returned;
   }
 }
@@ -25,10 +25,13 @@ package jm.audio.synth;
 import jm.audio.AOException;
 import jm.audio.AudioObject;
 import jm.audio.Instrument;
+import jm.audio.math.XorShiftRandom;
 
 /**
  * The Noise class contains various noise waveform generators,
  * incluidng white noise and fractal noise.
+ * Random values come from this object's own generator, use setSeed
+ * to make the noise reproducible.
  *
  * @author Andrew Brown
  * @version 1.0, Sun Feb 25 18:42:52  2001
@@ -49,15 +52,19 @@ public class Noise extends AudioObject {
     WALK_NOISE = 6,
     GENDYN_NOISE = 7;
   // for fractal math
-  private static float sum;
-  private static float[] rg = new float[16];
-  private static int k, kg, ng, threshold;
-  private static int np = 1;
-  private static int nbits = 1;
-  private static int numbPoints = 48000; //number of notes
-  private static float nr = (float) (numbPoints);
-  private static float result;
-  private static int counter = 0;
+  private static final int numbPoints = 48000; //number of notes
+  private float sum;
+  private float[] rg = new float[16];
+  private int k, kg, ng, threshold;
+  private int np = 1;
+  private int nbits = 1;
+  private float result;
+  private int counter = 0;
+  /**
+   * Whether the fractal or gendyn state has been made, which is
+   * done on the first work so that it comes from the seeded generator
+   */
+  private boolean noiseSetUp = false;
   /**
    * A variable to choose different noise properties
    * 0 = white noise
@@ -117,7 +124,6 @@ public class Noise extends AudioObject {
    */
   private int walkNoiseDensityStepSize = 100;
   // gendyn noise variables
-  private java.util.Random RandomGenerator = new java.util.Random();
   private int gendynAmpGranularity = 128;//50; // more or less quantisation noise
   private double gendynPrevTime = 50;
   private int gendynTimeMirror = 80;
@@ -220,14 +226,6 @@ public class Noise extends AudioObject {
     super(inst, sampleRate, "[WaveTable]");
     this.noiseType = noiseType;
     this.channels = channels;
-    // setup math for fractal noise
-    if (noiseType == FRACTAL_NOISE) {
-      setUpFractalMath();
-    }
-    // setup array for gendyn noise
-    if (noiseType == GENDYN_NOISE) {
-      makeGendynArray();
-    }
     for (int i = 0; i < gendynPointSize; i++) {
       gendynAmpArray[i] = 50;
     }
@@ -249,9 +247,23 @@ public class Noise extends AudioObject {
     this.amp = amp;
   }
 
+  /**
+   * Seeds this object's random number generator, and makes the
+   * fractal or gendyn state again from it on the next work.
+   *
+   * @param seed the seed to use
+   */
+  public void setSeed(long seed) {
+    super.setSeed(seed);
+    noiseSetUp = false;
+  }
+
   private void setUpFractalMath() {
     // setup math for fractal noise
-    nr = nr / 2;
+    float nr = numbPoints / 2.0f;
+    np = 1;
+    nbits = 1;
+    counter = 0;
 
     while (nr > 1) {
       nbits++;
@@ -259,20 +271,33 @@ public class Noise extends AudioObject {
       nr = nr / 2;
     }
 
+    XorShiftRandom random = getRandom();
     for (kg = 0; kg < nbits; kg++) {
-      rg[kg] = (float) (Math.random());
+      rg[kg] = random.nextFloat();
     }
   }
 
   public int work(float[] buffer) throws AOException {
     int ret = 0; //the number of samples to return
+    XorShiftRandom random = getRandom();
+    if (!noiseSetUp) {
+      // setup math for fractal noise
+      if (noiseType == FRACTAL_NOISE) {
+        setUpFractalMath();
+      }
+      // setup array for gendyn noise
+      if (noiseType == GENDYN_NOISE) {
+        makeGendynArray();
+      }
+      noiseSetUp = true;
+    }
     // run the appropiate code for the chosen noise type
     //System.out.println("noise = " + noiseType);
     switch (this.noiseType) {
       case WHITE_NOISE:
         for (; ret < buffer.length; ) {
           for (int j = 0; j < channels; j++) {
-            buffer[ret++] = (float) (Math.random() * 2.0 - 1.0) * amp;
+            buffer[ret++] = random.nextBipolar() * amp;
           }
         }
         break;
@@ -283,7 +308,7 @@ public class Noise extends AudioObject {
         float brownValue, current;
         for (; ret < buffer.length; ) {
           for (int j = 0; j < channels; j++) {
-            current = (float) (Math.random() * 2.0 - 1.0) * amp;
+            current = random.nextBipolar() * amp;
             brownValue = (prev0 + prev1 + prev2 + current) / 4.0f;
             buffer[ret++] = brownValue;
             // update values
@@ -297,12 +322,12 @@ public class Noise extends AudioObject {
         // low sample resolution noise (RandH noise)
         // has greater energy in the low frequency spectrum
         int density = this.noiseDensity;
-        float temp = (float) (Math.random() * 2.0 - 1.0) * amp;
+        float temp = random.nextBipolar() * amp;
         for (; ret < buffer.length; ) {
           for (int j = 0; j < channels; j++) {
             if (ret % density == 0) {
               temp =
-                (float) (Math.random() * 2.0 - 1.0) * amp;
+                random.nextBipolar() * amp;
             }
             buffer[ret++] = temp;
           }
@@ -312,14 +337,14 @@ public class Noise extends AudioObject {
         // interpolated noise (RandI noise)
         // has an even greater emphasis on low frrquency energy
         density = this.noiseDensity;
-        temp = (float) (Math.random() * 2.0 - 1.0) * amp;
-        float temp2 = (float) (Math.random() * 2.0 - 1.0) * amp;
+        temp = random.nextBipolar() * amp;
+        float temp2 = random.nextBipolar() * amp;
         for (; ret < buffer.length; ) {
           for (int j = 0; j < channels; j++) {
             if ((ret + 1) % density == 0) {
               buffer[ret++] = temp2;
               temp = temp2;
-              temp2 = (float) (Math.random() * 2.0 - 1.0) * amp;
+              temp2 = random.nextBipolar() * amp;
             } else {
               buffer[ret++] = temp +
                 ((temp2 - temp) / density * (ret % density));
@@ -340,7 +365,7 @@ public class Noise extends AudioObject {
               sum = 0;
               for (kg = 0; kg < nbits; kg++) {
                 if (kg < ng) {
-                  rg[kg] = (float) (Math.random());
+                  rg[kg] = random.nextFloat();
                 }
                 sum += rg[kg];
               }
@@ -360,11 +385,10 @@ public class Noise extends AudioObject {
         }
         break;
       case GAUSSIAN_NOISE:
-        java.util.Random RNG = new java.util.Random();
         float gaussValue;
         for (; ret < buffer.length; ) {
           for (int j = 0; j < channels; j++) {
-            gaussValue = (float) (RNG.nextGaussian() *
+            gaussValue = (float) (random.nextGaussian() *
               standardDeviation + mean);
             if (gaussValue < -1.0f) {
               gaussValue = -1.0f;
@@ -383,7 +407,7 @@ public class Noise extends AudioObject {
             walkDensityCounter++;
             if ((int) walkDensityCounter % walkNoiseDensity == 0) {
               // update value
-              walkLastValue += (float) (Math.random()) * walkStepSize * 2.0f - walkStepSize;
+              walkLastValue += random.nextFloat() * walkStepSize * 2.0f - walkStepSize;
               while (walkLastValue > walkMax || walkLastValue < walkMin) {
                 if (walkLastValue > walkMax) {
                   walkLastValue -= (walkLastValue - walkMax) * 2.0f;
@@ -395,7 +419,7 @@ public class Noise extends AudioObject {
               // vary the denisty value if required
               if (walkVaryDensity) {
                 // a random walk of the denisty (root frequency)
-                walkNoiseDensity += (int) (Math.random() *
+                walkNoiseDensity += (int) (random.nextDouble() *
                   walkNoiseDensityStepSize * 2.0 - walkNoiseDensityStepSize);
                 if (walkNoiseDensity < walkNoiseDensityMin) {
                   walkNoiseDensity = walkNoiseDensityMin;
@@ -551,9 +575,9 @@ public class Noise extends AudioObject {
                           final boolean timeWalk) {
     rwNewVal = 0;
     if (gendynGaussian) {
-      rwNewVal = prevVal + (RandomGenerator.nextGaussian() * stepSize);
+      rwNewVal = prevVal + (getRandom().nextGaussian() * stepSize);
     } else {
-      rwNewVal = prevVal + (RandomGenerator.nextDouble() * stepSize * 2.0 - stepSize);
+      rwNewVal = prevVal + (getRandom().nextDouble() * stepSize * 2.0 - stepSize);
     }
     // keep inside range
     if (timeWalk) {
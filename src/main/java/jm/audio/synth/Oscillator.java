@@ -273,7 +273,7 @@ public class Oscillator extends AudioObject {
       float[] ampbuf = new float[buffneed];
       int returned = this.previous[0].nextWork(ampbuf);
       float[] freqbuf = new float[returned];
-      if (returned != this.previous[1].work(freqbuf)) {
+      if (returned != this.previous[1].pullWork(freqbuf)) {
         throw new AOException(this.name, 0);
       }
       for (int i = 0; ret < buffer.length; i++) {
@@ -295,10 +295,9 @@ public class Oscillator extends AudioObject {
     } else if (inputs == 1 && choice == FREQUENCY) { //Frq only
       //System.out.println("Frq only");
       float[] frqbuf = new float[buffneed];
-      int returned = this.previous[0].work(frqbuf);
+      int returned = this.previous[0].pullWork(frqbuf);
       for (int i = 0; i < buffneed; i++) {
-        setSI(frqbuf[i] * frqRatio);
-        float sample = getWaveSample() * this.amp;
+        float sample = nextSample(frqbuf[i]);
         for (int j = 0; j < channels; j++) {
           buffer[ret++] = sample;
         }
@@ -306,10 +305,7 @@ public class Oscillator extends AudioObject {
     } else { //no inputs
       //System.out.println("no inputs");
       for (; ret < buffer.length; ) {
-        if (choice == FREQUENCY) {
-          setSI(this.frq * this.frqRatio);
-        }
-        float sample = getWaveSample() * this.amp;//Oscillator[(int)phase]*this.amp;
+        float sample = nextSample();
         for (int j = 0; j < channels; j++) {
           try {
             buffer[ret++] = sample;
@@ -328,6 +324,47 @@ public class Oscillator extends AudioObject {
     return ret;
   }
 
+  /**
+   * Returns the next sample when this Oscillator has no inputs.
+   */
+  float nextSample() {
+    if (choice == FREQUENCY) {
+      setSI(this.frq * this.frqRatio);
+    }
+    return getWaveSample() * this.amp;
+  }
+
+  /**
+   * Returns the next sample when this Oscillator's
+   * frequency input is at the given value.
+   */
+  float nextSample(float frequency) {
+    setSI(frequency * frqRatio);
+    return getWaveSample() * this.amp;
+  }
+
+  /**
+   * Can FusedChain make this Oscillator's samples? It can if there
+   * are no inputs or only a frequency input.
+   */
+  boolean isFusable() {
+    return inputs == 0 || (inputs == 1 && choice == FREQUENCY);
+  }
+
+  /**
+   * Is the Oscillator's frequency set by an input?
+   */
+  boolean hasFrequencyInput() {
+    return inputs == 1 && choice == FREQUENCY;
+  }
+
+  /**
+   * Fills the buffer from the frequency input.
+   */
+  int pullFrequencies(float[] buffer) throws AOException {
+    return this.previous[0].pullWork(buffer);
+  }
+
   /**
    */
   public void build() {
@@ -24,6 +24,8 @@ package jm.audio.synth;
 import jm.audio.AOException;
 import jm.audio.AudioObject;
 import jm.audio.Instrument;
+import jm.audio.math.Denormals;
+import jm.audio.math.XorShiftRandom;
 
 /**
  * @author Andrew Sorensen and Andrew Brown
@@ -131,9 +133,10 @@ public final class Pluck extends AudioObject {
     double freq = currentNote.getFrequency();
     int length = (int) ((double) sampleRate / freq);
     this.kernel = new float[length];
+    XorShiftRandom random = getRandom();
     for (int i = 0; i < length; i++) {
       if (primary) {
-        kernel[i] = (float) (Math.random() * 2.0 - 1.0); // start with noise
+        kernel[i] = random.nextBipolar(); // start with noise
       } else {
         kernel[i] = 0.0f; // fill with slience
       }
@@ -168,14 +171,14 @@ public final class Pluck extends AudioObject {
           }
           float a = buffer[i] * -decay;
           float b = delayLine[delayIndex];
-          delayLine[delayIndex] = buffer[i];
+          delayLine[delayIndex] = Denormals.flush(buffer[i]);
           buffer[i] = a + b;
           if (delayIndex >= delayLine.length) {
             delayIndex = 0;
           }
           i++;
         }
-        kernel[index] = (kernel[index] + prevSample) * feedback;
+        kernel[index] = Denormals.flush((kernel[index] + prevSample) * feedback);
         prevSample = temp;
         index++;
         if (index >= kernel.length) {
@@ -16,10 +16,25 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 
 package jm.audio.synth;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 import jm.audio.AOException;
 import jm.audio.AudioObject;
 
 /**
+ * Changes the pitch of its input by reading it faster or slower than
+ * it was recorded, so that the input's base frequency is heard at the
+ * frequency of the note being rendered.<br>
+ * The input is interpolated with one of several kernels, from linear
+ * interpolation to a 32 point windowed sinc filter. The sinc kernels
+ * are taken from tables shared between ReSample objects and are scaled
+ * to remove aliasing when the pitch is raised. The read position and
+ * the input samples still needed are kept between calls to work, so
+ * blocks join up exactly and nothing is allocated once a note is
+ * running.
+ *
  * @author Andrew Sorensen
  */
 public final class ReSample extends AudioObject {
@@ -27,22 +42,99 @@ public final class ReSample extends AudioObject {
   //----------------------------------------------
   // Attributes
   //----------------------------------------------
+  /**
+   * Interpolation quality constants
+   */
+  public static final int LINEAR = 0,
+    CUBIC = 1,
+    SINC_8 = 2,
+    SINC_32 = 3;
+  /**
+   * The number of fractional positions in each sinc table
+   */
+  private static final int PHASES = 256;
+  /**
+   * The number of cutoff frequencies sinc tables are made for
+   */
+  private static final int CUTOFFS = 64;
+  /**
+   * Sinc tables shared by all ReSample objects, keyed by size and cutoff
+   */
+  private static final Map<Integer, float[]> sincTables = new HashMap<Integer, float[]>();
+
   private double baseFreq = 0.0;
   private double newFreq = 0.0;
   private boolean noteFreq = true;
+  private int quality = SINC_8;
+  /**
+   * The number of input frames used for each output frame
+   */
+  private int taps;
+  /**
+   * The sinc table in use, or null for linear and cubic interpolation
+   */
+  private float[] sinc;
+  /**
+   * The interpolated coefficients for the current output frame
+   */
+  private float[] coeff = new float[0];
+  /**
+   * Input frames (interleaved) waiting to be used
+   */
+  private float[] fifo = new float[0];
+  /**
+   * The number of frames held in fifo
+   */
+  private int fifoFrames;
+  /**
+   * The read position in fifo, in frames
+   */
+  private double position;
+  /**
+   * The block last read from the input
+   */
+  private float[] inBuf = new float[0];
 
   //----------------------------------------------
   // Constructors
   //----------------------------------------------
   public ReSample(AudioObject ao, double baseFreq) {
+    this(ao, baseFreq, SINC_8);
+  }
+
+  /**
+   * @param ao       the single AudioObject to use as input.
+   * @param baseFreq the frequency of the input
+   * @param quality  the interpolation to use; LINEAR, CUBIC, SINC_8 or SINC_32
+   */
+  public ReSample(AudioObject ao, double baseFreq, int quality) {
     super(ao, "[ReSample]");
     this.baseFreq = baseFreq;
+    setQuality(quality);
   }
 
   //----------------------------------------------
   // Public Methods
   //----------------------------------------------
 
+  /**
+   * Set the interpolation used; LINEAR, CUBIC, SINC_8 or SINC_32.
+   * Takes effect from the next note.
+   */
+  public void setQuality(int quality) {
+    if (quality < LINEAR || quality > SINC_32) {
+      throw new IllegalArgumentException("jMusic ReSample error: unknown quality " + quality);
+    }
+    this.quality = quality;
+  }
+
+  /**
+   * Return the interpolation being used
+   */
+  public int getQuality() {
+    return this.quality;
+  }
+
   /**
    */
   public void build() {
@@ -50,6 +142,37 @@ public final class ReSample extends AudioObject {
       this.newFreq = this.currentNote.getFrequency();
     }
     this.finished = true;
+    // start reading the new note from scratch
+    switch (quality) {
+      case LINEAR:
+        taps = 2;
+        sinc = null;
+        break;
+      case CUBIC:
+        taps = 4;
+        sinc = null;
+        break;
+      case SINC_8:
+        taps = 8;
+        sinc = getSincTable(taps, newFreq / baseFreq);
+        break;
+      default:
+        taps = 32;
+        sinc = getSincTable(taps, newFreq / baseFreq);
+    }
+    if (coeff.length < taps) {
+      coeff = new float[taps];
+    }
+    // pad the start with silence so the first input frame is
+    // the first one heard
+    int chans = Math.max(channels, 1);
+    int pad = taps / 2 - 1;
+    if (fifo.length < pad * chans) {
+      fifo = new float[pad * chans];
+    }
+    Arrays.fill(fifo, 0, pad * chans, 0.0f);
+    fifoFrames = pad;
+    position = pad;
   }
 
   //----------------------------------------------
@@ -57,66 +180,158 @@ public final class ReSample extends AudioObject {
   //----------------------------------------------
 
   /**
-   * This is nextWork method simply needs to skip over
-   * the right number of samples to cause a shorter
-   * wave period. This means that the pitch goes up.
-   * The number of samples to skip is calculated by
-   * the setPhaseInt() method which is the real
-   * nextWork horse of this class.
+   * Fills the buffer by reading the input at the rate needed
+   * to change its base frequency to the note's frequency,
+   * interpolating between input frames.
    *
-   * @param input a single Audio Object input.
+   * @param buffer the buffer to fill
    */
   public int work(float[] buffer) throws AOException {
     double cfm = newFreq / baseFreq;
-    double skip = -1.0 / ((1.0 - cfm) / cfm);
-    double remains = 0.0;
-    int upSample = 0; //value 0 is upsample
-    if (skip < 0) {
-      skip = -1.0 / skip;
-      upSample = 1;
-    }//value 1 is downsample
-    if (skip == 0) {
-      upSample = 2;
-      skip = 1;
-    }//value 2 is no resample
-    float[] tmpBuf = new float[(int) (buffer.length * cfm + 0.5) + 1]; // +1
-    int ret = this.previous[0].nextWork(tmpBuf);
-    float tmp = 0.0f; //holds previous sample for interpolation
-    int count = 0, index = 0;
-    for (int i = 0; true; i++) {
-      if (upSample == 0) { //Remove Samples
-        if (++index >= (int) (skip + remains)) {
-          remains = (skip + remains) % 1.0;
-          index = 0;
-          continue;
-        }
-        if (count >= buffer.length) {
-          break;
+    int chans = Math.max(channels, 1);
+    if (!(cfm > 0.0) || Double.isInfinite(cfm)) {
+      Arrays.fill(buffer, 0.0f);
+      return buffer.length;
+    }
+    int half = taps / 2;
+    int frames = buffer.length / chans;
+    int count = 0;
+    for (int f = 0; f < frames; f++) {
+      int base = (int) position;
+      // make sure all the frames this output frame needs are here
+      while (base + half >= fifoFrames) {
+        base -= readInput(buffer.length, base - half + 1);
+      }
+      int first = base - half + 1;
+      setCoefficients(position - (int) position);
+      for (int c = 0; c < chans; c++) {
+        float sum = 0.0f;
+        int idx = first * chans + c;
+        for (int t = 0; t < taps; t++) {
+          sum += fifo[idx] * coeff[t];
+          idx += chans;
         }
-        buffer[count++] = tmpBuf[i];
-      } else if (upSample == 1) { //Add Samples
-        if ((skip + remains) >= 1.0) { //add extra interpolated sample
-          float increment = (tmpBuf[i] - tmp) / (float) (skip + remains);
-          for (int k = 0; k < (int) (skip + remains); k++) {
-            buffer[count++] = tmp + (increment * k);
-            if (count == buffer.length) {
-              break;
-            }
+        buffer[count++] = sum;
+      }
+      position += cfm;
+    }
+    // leave any samples which do not make up a whole frame silent
+    while (count < buffer.length) {
+      buffer[count++] = 0.0f;
+    }
+    return buffer.length;
+  }
+
+  //----------------------------------------------
+  // Private Methods
+  //----------------------------------------------
+
+  /**
+   * Drops frames before keep from the fifo and adds the
+   * next input block to its end.
+   *
+   * @return the number of frames dropped
+   */
+  private int readInput(int blockLength, int keep) throws AOException {
+    int chans = Math.max(channels, 1);
+    int drop = Math.max(0, Math.min(keep, fifoFrames));
+    if (drop > 0) {
+      System.arraycopy(fifo, drop * chans, fifo, 0, (fifoFrames - drop) * chans);
+      fifoFrames -= drop;
+      position -= drop;
+    }
+    if (inBuf.length != blockLength) {
+      inBuf = new float[blockLength];
+    } else {
+      Arrays.fill(inBuf, 0.0f);
+    }
+    int ret = this.previous[0].nextWork(inBuf);
+    int newFrames = Math.max(1, Math.min(ret, blockLength) / chans);
+    int needed = (fifoFrames + newFrames) * chans;
+    if (fifo.length < needed) {
+      float[] tmp = new float[needed];
+      System.arraycopy(fifo, 0, tmp, 0, fifoFrames * chans);
+      fifo = tmp;
+    }
+    System.arraycopy(inBuf, 0, fifo, fifoFrames * chans, newFrames * chans);
+    fifoFrames += newFrames;
+    return drop;
+  }
+
+  /**
+   * Works out the kernel coefficients for an output
+   * frame which falls phase of the way between two
+   * input frames.
+   */
+  private void setCoefficients(double phase) {
+    if (sinc != null) {
+      // interpolate between the two nearest table rows, the last
+      // row pair also covering a phase which rounds up to one
+      double p = phase * PHASES;
+      int row = Math.min((int) p, PHASES - 1);
+      float mix = (float) (p - row);
+      int a = row * taps;
+      int b = a + taps;
+      for (int t = 0; t < taps; t++) {
+        coeff[t] = sinc[a + t] + (sinc[b + t] - sinc[a + t]) * mix;
+      }
+      return;
+    }
+    float frac = (float) phase;
+    if (taps == 2) {
+      coeff[0] = 1.0f - frac;
+      coeff[1] = frac;
+    } else {
+      // Catmull-Rom cubic
+      float f2 = frac * frac;
+      float f3 = f2 * frac;
+      coeff[0] = -0.5f * f3 + f2 - 0.5f * frac;
+      coeff[1] = 1.5f * f3 - 2.5f * f2 + 1.0f;
+      coeff[2] = -1.5f * f3 + 2.0f * f2 + 0.5f * frac;
+      coeff[3] = 0.5f * f3 - 0.5f * f2;
+    }
+  }
+
+  /**
+   * Returns the Blackman windowed sinc table for the given
+   * number of taps, with its cutoff lowered to avoid aliasing
+   * when reading the input ratio times faster than normal.
+   * Row r of the table holds the coefficients for an output
+   * frame r / PHASES of the way between two input frames.
+   */
+  private static float[] getSincTable(int taps, double ratio) {
+    // round the cutoff down so it is never above what is needed
+    int cutoffIndex = (ratio <= 1.0) ? CUTOFFS
+      : Math.max(1, (int) (CUTOFFS / ratio));
+    Integer key = Integer.valueOf(taps * (CUTOFFS + 1) + cutoffIndex);
+    synchronized (sincTables) {
+      float[] table = sincTables.get(key);
+      if (table == null) {
+        double cutoff = (double) cutoffIndex / CUTOFFS;
+        int half = taps / 2;
+        table = new float[(PHASES + 1) * taps];
+        for (int r = 0; r <= PHASES; r++) {
+          double frac = (double) r / PHASES;
+          double sum = 0.0;
+          for (int t = 0; t < taps; t++) {
+            double d = t - half + 1 - frac;
+            double x = cutoff * d;
+            double sincValue = (x == 0.0) ? 1.0 : Math.sin(Math.PI * x) / (Math.PI * x);
+            double w = d / half;
+            double window = (Math.abs(w) >= 1.0) ? 0.0
+              : 0.42 + 0.5 * Math.cos(Math.PI * w) + 0.08 * Math.cos(2 * Math.PI * w);
+            double value = cutoff * sincValue * window;
+            table[r * taps + t] = (float) value;
+            sum += value;
+          }
+          // unity gain at DC
+          for (int t = 0; t < taps; t++) {
+            table[r * taps + t] = (float) (table[r * taps + t] / sum);
           }
         }
-        if (count == buffer.length) {
-          break;
-        }
-        buffer[count++] = tmpBuf[i];
-        tmp = tmpBuf[i];
-        remains = (skip + remains) % 1.0;
-      } else { //Do Nothing
-        buffer[count++] = tmpBuf[i];
-      }
-      if (count == buffer.length) {
-        break;
+        sincTables.put(key, table);
       }
+      return table;
     }
-    return buffer.length;
   }
 }
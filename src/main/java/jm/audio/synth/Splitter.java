@@ -28,48 +28,23 @@ import jm.audio.AudioObject;
 /**
  * The Splitter AudioObject is responsible for splitting in input
  * signal into multiple output signals.
+ * Each block is only worked once however many outputs read it, as the
+ * Instrument's compiled chain hands the same samples to every output.
  *
  * @author Andrew Sorensen
  * @version 1.0, Sun Feb 25 18:42:51  2001
  */
 
 public final class Splitter extends AudioObject {
-  //----------------------------------------------
-  // Attributes
-  //----------------------------------------------
-  /**
-   * Stored buffer of samples
-   */
-  float[] buf = null;
-  /**
-   * The number of outputs that have currently requested buffers
-   */
-  int count = 0;
-  /**
-   * The number of outputs to service
-   */
-  int outputs = 0;
-
   //----------------------------------------------
   // Constructors
   //----------------------------------------------
 
   /**
-   * @param ao      the single AudioObject taken as input.
-   * @param outputs the number of outputs to support.
+   * @param ao the single AudioObject taken as input.
    */
   public Splitter(AudioObject ao) {
-    super(ao, "[Volume]");
-  }
-
-  //----------------------------------------------
-  // Public Methods
-  //----------------------------------------------
-
-  /**
-   */
-  public void build() {
-    this.outputs = this.next.length;
+    super(ao, "[Splitter]");
   }
 
   //----------------------------------------------
@@ -79,14 +54,6 @@ public final class Splitter extends AudioObject {
   /**
    */
   public int work(float[] buffer) throws AOException {
-    if (count == 0) {
-      this.buf = new float[buffer.length];
-      this.previous[0].nextWork(buf);
-    }
-    if (++count == outputs) {
-      count = 0;
-    }
-    System.arraycopy(this.buf, 0, buffer, 0, this.buf.length);
-    return this.buf.length;
+    return this.previous[0].nextWork(buffer);
   }
 }
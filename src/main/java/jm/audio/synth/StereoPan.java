@@ -23,6 +23,7 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 package jm.audio.synth;
 
 import jm.audio.AOException;
+import jm.audio.AudioGraph;
 import jm.audio.AudioObject;
 
 /**
@@ -51,6 +52,10 @@ public final class StereoPan extends AudioObject {
    * a marker for channels
    */
   private int channel = 1;
+  /**
+   * The loop that makes this object's samples along with its inputs, if any
+   */
+  private FusedChain fused = null;
 
   //----------------------------------------------
   // Constructors
@@ -124,7 +129,26 @@ public final class StereoPan extends AudioObject {
    * @param input the incoming data.
    */
   public int work(float[] buffer) throws AOException {
-    int returned = this.previous[0].work(buffer);
+    if (fused != null) {
+      return fused.work(buffer);
+    }
+    return workSeparately(buffer);
+  }
+
+  /**
+   * Fuses this StereoPan with the Volume, Envelope and Oscillator
+   * before it, if that is what comes before it, see FusedChain.
+   */
+  protected boolean fuseInputs(AudioGraph graph, boolean fuse) {
+    fused = fuse ? FusedChain.fuse(this, graph) : null;
+    return fused != null;
+  }
+
+  /**
+   * Pans the samples of the input, working it as usual.
+   */
+  int workSeparately(float[] buffer) throws AOException {
+    int returned = this.previous[0].pullWork(buffer);
     // don't do anything for mono data
     if (channels == 1) {
       return returned;
@@ -132,14 +156,10 @@ public final class StereoPan extends AudioObject {
     // change volume for stereo files
     for (int i = 0; i < returned; i++) {
       if (channel == 1) {
-        if (this.pan > 0.5) {
-          buffer[i] = buffer[i] * (1.0f - (this.pan - 0.5f) * 2.0f);
-        }
+        buffer[i] = left(buffer[i]);
         channel = 2;
       } else {
-        if (this.pan < 0.5) {
-          buffer[i] = buffer[i] * this.pan * 2.0f;
-        }
+        buffer[i] = right(buffer[i]);
         channel = 1;
       }
 
@@ -147,6 +167,33 @@ public final class StereoPan extends AudioObject {
     return returned;
   }
 
+  /**
+   * Is the next sample for the left channel?
+   */
+  boolean isLeftNext() {
+    return channel == 1;
+  }
+
+  /**
+   * Pans a left channel sample.
+   */
+  float left(float sample) {
+    if (this.pan > 0.5) {
+      return sample * (1.0f - (this.pan - 0.5f) * 2.0f);
+    }
+    return sample;
+  }
+
+  /**
+   * Pans a right channel sample.
+   */
+  float right(float sample) {
+    if (this.pan < 0.5) {
+      return sample * this.pan * 2.0f;
+    }
+    return sample;
+  }
+
   /*
    * Set a new pan position.
    * @param pan The new pan position (0.0 - 1.0)
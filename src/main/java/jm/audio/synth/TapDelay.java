@@ -24,6 +24,7 @@ package jm.audio.synth;
 
 import jm.audio.AOException;
 import jm.audio.AudioObject;
+import jm.audio.math.Denormals;
 
 /**
  * Tap Delay ...
@@ -95,7 +96,7 @@ public final class TapDelay extends AudioObject {
         if (tapIndex >= delayLine.length) {
           tapIndex -= delayLine.length;
         }
-        delayLine[tapIndex] += buffer[i] * (decay / k);
+        delayLine[tapIndex] = Denormals.flush(delayLine[tapIndex] + buffer[i] * (decay / k));
       }
       buffer[i] += delayLine[delayIndex];
       delayLine[delayIndex] = 0.0f;
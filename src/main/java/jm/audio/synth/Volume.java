@@ -22,6 +22,8 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 
 package jm.audio.synth;
 
+import java.util.Arrays;
+
 import jm.audio.AOException;
 import jm.audio.AudioObject;
 
@@ -127,9 +129,7 @@ public final class Volume extends AudioObject {
       if (tmp == null || tmp.length != buffer.length) {
         tmp = new float[buffer.length];
       } else {
-        for (index = 0; index < tmp.length; index++) {
-          tmp[index] = 0.0f;
-        }
+        Arrays.fill(tmp, 0.0f);
       }
       if (returned != this.previous[1].nextWork(tmp)) {
         throw new AOException(this.name, 0);
@@ -336,7 +336,7 @@ public class WaveTable extends AudioObject {
 
       float[] freqbuf = new float[returned];
 
-      if (returned != this.previous[1].work(freqbuf)) {
+      if (returned != this.previous[1].pullWork(freqbuf)) {
 
         throw new AOException(this.name, 0);
 
@@ -400,7 +400,7 @@ public class WaveTable extends AudioObject {
 
       float[] frqbuf = new float[buffneed];
 
-      int returned = this.previous[0].work(frqbuf);
+      int returned = this.previous[0].pullWork(frqbuf);
 
       for (int i = 0; i < buffneed; i++) {
 
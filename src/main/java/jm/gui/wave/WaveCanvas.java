@@ -39,6 +39,9 @@ public class WaveCanvas extends Canvas {
   protected Graphics g;
   //private SampleIn si;
   private float[] data;
+  // the lowest and highest values under each pixel, used instead of data when set
+  private float[] peakMin;
+  private float[] peakMax;
   private int segmentSize = 0;
   private int resolution = 125;
   private int height = 200;
@@ -60,6 +63,19 @@ public class WaveCanvas extends Canvas {
   public void setData(float[] data) {
     this.data = data;
     this.segmentSize = data.length;
+    this.peakMin = null;
+    this.peakMax = null;
+  }
+
+  /*
+   * Set the lowest and highest sample values to be displayed at each
+   * pixel, for resolutions too coarse to draw every sample.
+   */
+  public void setPeaks(float[] min, float[] max) {
+    this.peakMin = min;
+    this.peakMax = max;
+    this.data = null;
+    this.segmentSize = 0;
   }
 
   /**
@@ -156,12 +172,34 @@ public class WaveCanvas extends Canvas {
     }
     clearImage(g);
     int h2 = height / 2 - 1;
-    float drawMax, drawMin, currData;
     // mid line
     g.setColor(Color.black);
     g.drawLine(0, h2, this.getSize().width, h2);
     // draw wave
 
+    if (peakMin != null) {
+      g.setColor(waveColor);
+      for (int x = 0; x < peakMin.length && x < this.getSize().width; x++) {
+        g.drawLine(x, (int) (h2 - peakMax[x] * h2 * amplitude),
+          x, (int) (h2 - peakMin[x] * h2 * amplitude));
+      }
+    } else {
+      drawData(g, h2);
+    }
+    // base line
+    g.setColor(Color.lightGray);
+    //g.drawLine(0, 0, this.getSize().width, 0);
+    g.drawLine(0, height, this.getSize().width, height);
+
+		/* Draw completed buffer to g */
+    graphics.drawImage(image, 0, 0, null);
+    clearImage(g);
+    // reset cursor
+    this.setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
+  }
+
+  private void drawData(Graphics g, int h2) {
+    float drawMax, drawMin, currData;
     //int pixCount = Math.min(data.length-resolution, this.getSize().width * resolution);
     final int xMax = this.getSize().width * resolution;
     final int dataMax = data.length - resolution;
@@ -216,16 +254,6 @@ public class WaveCanvas extends Canvas {
         }
       }
     }
-    // base line
-    g.setColor(Color.lightGray);
-    //g.drawLine(0, 0, this.getSize().width, 0);
-    g.drawLine(0, height, this.getSize().width, height);
-
-		/* Draw completed buffer to g */
-    graphics.drawImage(image, 0, 0, null);
-    clearImage(g);
-    // reset cursor
-    this.setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
   }
 
   private void clearImage(Graphics g) {
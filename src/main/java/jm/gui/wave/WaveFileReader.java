@@ -25,23 +25,39 @@ package jm.gui.wave;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
+import jm.audio.io.PCMCodec;
+
 /**
  * Audio file reading for jMusic.
  * The class utilises the JavaSound file reading classes.
  * It supports the audio waveform display package, jm.gui.wave
  * Written February 2004
+ * <p>
+ * The sample data of uncompressed wav, aiff and au files is memory mapped,
+ * so samples can be read from anywhere in the file without reading the
+ * samples before them, however long the file is. Other files are read
+ * through JavaSound.
  *
  * @author Andrew Sorensen and Andrew Brown
  */
 
 public class WaveFileReader implements jm.JMC {
 
+  /**
+   * The largest number of bytes mapped by one buffer
+   */
+  private static final long MAP_SIZE = 1L << 30;
+
   private File file;
   private AudioFileFormat fileFormat;
   private AudioFormat format;
@@ -59,10 +75,6 @@ public class WaveFileReader implements jm.JMC {
    * Duration of the sound file in samples
    */
   private long duration;
-  /**
-   * Input Stream
-   */
-  private InputStream is;
   /**
    * Play a whole file, or only note length?
    */
@@ -76,18 +88,21 @@ public class WaveFileReader implements jm.JMC {
    */
   private int channels;
   private int sampleRate;
+  /**
+   * The sample data mapped into memory, each buffer holds
+   * mapSize bytes except the last, or null if the file is not mapped
+   */
+  private ByteBuffer[] maps;
+  /**
+   * The number of bytes in each mapped buffer
+   */
+  private long mapSize;
 
   /**
    * Read in the data from the specified file as input to
    * an audio ren dering process.
    *
-   * @param inst      - The instrument for which this audio object is a part.
    * @param fileName  - The name of the file to be used.
-   * @param cache     - A flag to say weather or not to hold sample data in memory.
-   * @param wholeFile - A flag to indicate weather the file should be played all the way through,
-   *                  regardless of the note duration.
-   * @param loop      - The number of time to reapeatedly playback the file (0 is no loop, -1 is
-   *                  infinite).
    */
   public WaveFileReader(String fileName) {
     try {
@@ -100,7 +115,7 @@ public class WaveFileReader implements jm.JMC {
       this.duration = (long) this.fileFormat.getFrameLength() * this.channels;
       this.bits = (format.getSampleSizeInBits()) / 8;
       fileType = fileFormat.toString();
-      this.is = AudioSystem.getAudioInputStream(this.file);
+      map();
     } catch (UnsupportedAudioFileException uafe) {
       //??
     } catch (IOException ioe) {
@@ -108,14 +123,106 @@ public class WaveFileReader implements jm.JMC {
     }
   }
 
-  public void finalize() {
+  /**
+   * Maps the sample data of uncompressed files into memory.
+   */
+  private void map() throws IOException {
+    AudioFormat.Encoding encoding = format.getEncoding();
+    if (!AudioFormat.Encoding.PCM_SIGNED.equals(encoding)
+      && !AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding)
+      && !AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) {
+      return;
+    }
+    RandomAccessFile raf = new RandomAccessFile(this.file, "r");
     try {
-      this.is.close();
-    } catch (IOException ioe) {
-      ioe.printStackTrace();
+      FileChannel channel = raf.getChannel();
+      long[] chunk = findData(channel);
+      if (chunk == null) {
+        return;
+      }
+      long frameSize = (long) this.bits * this.channels;
+      if (frameSize <= 0) {
+        return;
+      }
+      long length = Math.min(chunk[1], channel.size() - chunk[0]);
+      length -= length % frameSize;
+      this.duration = length / this.bits;
+      // keep whole frames in each buffer
+      this.mapSize = MAP_SIZE - MAP_SIZE % frameSize;
+      ByteBuffer[] buffers = new ByteBuffer[(int) ((length + mapSize - 1) / mapSize)];
+      for (int i = 0; i < buffers.length; i++) {
+        long start = i * mapSize;
+        buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, chunk[0] + start,
+          Math.min(mapSize, length - start));
+      }
+      this.maps = buffers;
+    } finally {
+      // the mapping stays valid after the file is closed
+      raf.close();
     }
   }
 
+  /**
+   * Finds the sample data in a wav, aiff or au file.
+   *
+   * @return the offset and length in bytes of the sample data,
+   * or null if it can not be found
+   */
+  private long[] findData(FileChannel channel) throws IOException {
+    ByteBuffer bb = ByteBuffer.allocate(16);
+    long size = channel.size();
+    if (read(channel, bb, 0, 12) < 12) {
+      return null;
+    }
+    String id = chunkId(bb, 0);
+    if (id.equals(".snd")) {
+      long offset = bb.getInt(4) & 0xFFFFFFFFL;
+      return new long[]{offset, size - offset};
+    }
+    boolean riff = id.equals("RIFF");
+    if (!riff && !id.equals("FORM")) {
+      return null;
+    }
+    ByteOrder order = riff ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+    long position = 12;
+    while (position + 8 <= size) {
+      bb.order(order);
+      read(channel, bb, position, 16);
+      id = chunkId(bb, 0);
+      long length = bb.getInt(4) & 0xFFFFFFFFL;
+      if (riff && id.equals("data")) {
+        return new long[]{position + 8, length};
+      }
+      if (!riff && id.equals("SSND")) {
+        long offset = bb.getInt(8) & 0xFFFFFFFFL;
+        return new long[]{position + 16 + offset, length - 8 - offset};
+      }
+      // chunks are padded to an even length
+      position += 8 + length + (length & 1);
+    }
+    return null;
+  }
+
+  private static int read(FileChannel channel, ByteBuffer bb, long position, int length)
+    throws IOException {
+    bb.clear();
+    bb.limit(length);
+    int total = 0;
+    int read;
+    while (bb.hasRemaining() && (read = channel.read(bb, position + total)) > 0) {
+      total += read;
+    }
+    return total;
+  }
+
+  private static String chunkId(ByteBuffer bb, int index) {
+    char[] id = new char[4];
+    for (int i = 0; i < 4; i++) {
+      id[i] = (char) (bb.get(index + i) & 0xFF);
+    }
+    return new String(id);
+  }
+
   /**
    * Provide an array of samples from a specific sample start point.
    *
@@ -126,21 +233,73 @@ public class WaveFileReader implements jm.JMC {
    */
   public float[] getSamples(int segmentSize, int startPos) {
     float[] samples = new float[segmentSize];
-    // reset to start of file
+    read(samples, 0, segmentSize, startPos);
+    return samples;
+  }
+
+  /**
+   * Reads samples from anywhere in the file. Audio data is interleaved,
+   * so for a stereo file the first sample is from the left channel, the
+   * second from the right channel and so on.
+   *
+   * @param samples  the array to read samples into
+   * @param offset   the position in samples of the first sample to read
+   * @param length   the number of samples to read
+   * @param startPos the number of samples from the beginning of the file to start reading from
+   * @return the number of samples read, which is less than length at the end of the file
+   */
+  public int read(float[] samples, int offset, int length, long startPos) {
+    if (startPos < 0 || startPos >= duration) {
+      return 0;
+    }
+    length = (int) Math.min(length, duration - startPos);
+    if (maps == null) {
+      return readStream(samples, offset, length, startPos);
+    }
+    ByteOrder order = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    int count = 0;
+    while (count < length) {
+      long position = (startPos + count) * this.bits;
+      ByteBuffer map = maps[(int) (position / mapSize)].duplicate();
+      map.order(order);
+      map.position((int) (position % mapSize));
+      int n = Math.min(length - count, map.remaining() / this.bits);
+      PCMCodec.decode(map, format.getEncoding(), this.bits, samples, offset + count, n);
+      count += n;
+    }
+    return count;
+  }
+
+  /**
+   * Reads samples through JavaSound, for files that are not mapped.
+   */
+  private int readStream(float[] samples, int offset, int length, long startPos) {
+    int count = 0;
     try {
-      this.is = AudioSystem.getAudioInputStream(this.file);
-      // jump to the read start location
-      this.is.read(new byte[startPos * this.bits]);
-      //read the data
-      byte[] byteArray = new byte[this.bits * segmentSize];
-      this.is.read(byteArray);
-      // process into floats
-      for (int i = 0, k = 0; i < segmentSize; i++) {
-        byte[] tempBytes = new byte[this.bits];
-        for (int j = 0; j < this.bits; j++) {
-          tempBytes[j] = byteArray[k++];
+      InputStream is = AudioSystem.getAudioInputStream(this.file);
+      try {
+        // jump to the read start location
+        long skip = startPos * this.bits;
+        while (skip > 0) {
+          long skipped = is.skip(skip);
+          if (skipped <= 0) {
+            return 0;
+          }
+          skip -= skipped;
+        }
+        //read the data
+        byte[] byteArray = new byte[this.bits * length];
+        int filled = 0;
+        int read;
+        while (filled < byteArray.length
+          && (read = is.read(byteArray, filled, byteArray.length - filled)) != -1) {
+          filled += read;
         }
-        samples[i] = getFloat(tempBytes);
+        // process into floats
+        count = filled / this.bits;
+        PCMCodec.decode(this.format, byteArray, 0, samples, offset, count);
+      } finally {
+        is.close();
       }
     } catch (UnsupportedAudioFileException uafe) {
       System.out.println("jMusic WaveFileReader error: This file format is not supported.");
@@ -148,9 +307,15 @@ public class WaveFileReader implements jm.JMC {
     } catch (IOException ioe) {
       ioe.printStackTrace();
     }
-    return samples;
+    return count;
   }
 
+  /**
+   * Return the audio file being read.
+   */
+  public File getFile() {
+    return this.file;
+  }
 
   /*
   * Returns the number of samples in one track of the file.
@@ -160,6 +325,14 @@ public class WaveFileReader implements jm.JMC {
     return (int) (duration / channels);
   }
 
+  /**
+   * Returns the number of samples in all tracks of the file,
+   * for files too long for getWaveSize().
+   */
+  public long getSampleCount() {
+    return this.duration;
+  }
+
   /**
    * Return the length of the sample in Bytes.
    */
@@ -213,48 +386,4 @@ public class WaveFileReader implements jm.JMC {
     }
     return depth;
   }
-
-  /**
-   * BigEndian conversion
-   */
-  private float getFloat(byte[] b) {
-    float sample = 0.0f;
-    int ret = 0;
-    int length = b.length;
-    for (int i = 0; i < b.length; i++, length--) {
-      ret |= ((b[i] & 0xFF) << ((((bigEndian) ? length : (i + 1)) * 8) - 8));
-    }
-    switch (bits) {
-      case 1:
-        if (ret > 0x7F) {
-          ret = ~ret + 1;
-          ret &= 0x7F;
-          ret = ~ret + 1;
-        }
-        sample = (float) ret / (float) Byte.MAX_VALUE;
-        break;
-      case 2:
-        if (ret > 0x7FFF) {
-          ret = ~ret + 1;
-          ret &= 0x7FFF;
-          ret = ~ret + 1;
-        }
-        sample = (float) ret / (float) Short.MAX_VALUE;
-        break;
-      case 3:
-        if (ret > 0x7FFFFF) {
-          ret = ~ret + 1;
-          ret &= 0x7FFFFF;
-          ret = ~ret + 1;
-        }
-        sample = (float) ret / 8388608f;
-        break;
-      case 4:
-        sample = (float) ret / (float) Integer.MAX_VALUE;
-        break;
-      default:
-        System.err.println("Format not accepted");
-    }
-    return sample;
-  }
 }
@@ -0,0 +1,355 @@
+/*
+
+<This Java Class is part of the jMusic API>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+
+package jm.gui.wave;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The highest and lowest sample values of an audio file at a series of
+ * resolutions, so a waveform can be drawn at any zoom level without
+ * reading every sample on screen.
+ * The finest level holds the peaks of each BLOCK_SIZE frames of each
+ * channel, and each level above it holds the peaks of twice as many
+ * frames as the one below. Finer resolutions than BLOCK_SIZE are read
+ * from the file itself.
+ * <p>
+ * Working out the peaks reads the whole file once, so they can be saved
+ * to a sidecar file next to the audio file and loaded from there the next
+ * time the file is viewed.
+ * A part of the jMusic audio wave file viewing package
+ */
+public class WavePeaks {
+
+  /**
+   * The number of frames summarised by each peak in the finest level
+   */
+  public static final int BLOCK_SIZE = 256;
+
+  /**
+   * Identifies sidecar files, "JMPK"
+   */
+  private static final int MAGIC = 0x4A4D504B;
+  private static final int VERSION = 1;
+
+  private WaveFileReader reader;
+  private int channels;
+  private long frames;
+  /**
+   * levels[level][channel] holds a min and max pair for each block,
+   * scaled so that 32767 is a sample value of 1.0
+   */
+  private short[][][] levels;
+  /**
+   * Holds samples read for resolutions finer than BLOCK_SIZE
+   */
+  private float[] scratch = new float[0];
+
+  /**
+   * Works out the peaks of a file by reading all of it.
+   *
+   * @param reader the file to find the peaks of
+   */
+  public WavePeaks(WaveFileReader reader) {
+    this.reader = reader;
+    this.channels = reader.getChannels();
+    this.frames = reader.getSampleCount() / channels;
+    int blocks = (int) ((frames + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    short[][] finest = new short[channels][2 * blocks];
+    float[] buffer = new float[BLOCK_SIZE * 64 * channels];
+    long position = 0;
+    int block = 0;
+    int read;
+    while ((read = reader.read(buffer, 0, buffer.length, position)) > 0) {
+      position += read;
+      int readFrames = read / channels;
+      for (int start = 0; start < readFrames; start += BLOCK_SIZE, block++) {
+        int end = Math.min(start + BLOCK_SIZE, readFrames);
+        for (int c = 0; c < channels; c++) {
+          float min = 0.0f;
+          float max = 0.0f;
+          for (int i = start * channels + c; i < end * channels; i += channels) {
+            float value = buffer[i];
+            if (value < min) {
+              min = value;
+            }
+            if (value > max) {
+              max = value;
+            }
+          }
+          finest[c][2 * block] = toShort((float) Math.floor(min * 32767.0));
+          finest[c][2 * block + 1] = toShort((float) Math.ceil(max * 32767.0));
+        }
+      }
+    }
+    this.levels = buildLevels(finest);
+  }
+
+  private WavePeaks(WaveFileReader reader, long frames, short[][][] levels) {
+    this.reader = reader;
+    this.channels = reader.getChannels();
+    this.frames = frames;
+    this.levels = levels;
+  }
+
+  /**
+   * Returns the peaks of a file, loading them from the file's sidecar
+   * if there is an up to date one, otherwise working them out.
+   *
+   * @param reader      the file to find the peaks of
+   * @param useSidecar  if true, a new sidecar is saved when the peaks are worked out
+   * @return the peaks of the file
+   */
+  public static WavePeaks forFile(WaveFileReader reader, boolean useSidecar) {
+    File sidecar = getSidecar(reader.getFile());
+    if (useSidecar || sidecar.exists()) {
+      try {
+        WavePeaks peaks = load(reader, sidecar);
+        if (peaks != null) {
+          return peaks;
+        }
+      } catch (IOException ioe) {
+        // work them out again
+      }
+    }
+    WavePeaks peaks = new WavePeaks(reader);
+    if (useSidecar) {
+      try {
+        peaks.save(sidecar);
+      } catch (IOException ioe) {
+        System.err.println("jMusic WavePeaks warning: Could not save '" + sidecar
+          + "': " + ioe.getMessage());
+      }
+    }
+    return peaks;
+  }
+
+  /**
+   * Returns the name of the sidecar file that holds the peaks of an audio file.
+   *
+   * @param audioFile the audio file
+   * @return the audio file's name with .peaks added
+   */
+  public static File getSidecar(File audioFile) {
+    return new File(audioFile.getPath() + ".peaks");
+  }
+
+  /**
+   * Loads peaks from a sidecar file.
+   *
+   * @param reader  the file the peaks are for
+   * @param sidecar the file to load the peaks from
+   * @return the peaks, or null if the sidecar is missing, from an
+   * older version or for a different or changed audio file
+   */
+  public static WavePeaks load(WaveFileReader reader, File sidecar) throws IOException {
+    if (!sidecar.exists()) {
+      return null;
+    }
+    File audioFile = reader.getFile();
+    RandomAccessFile raf = new RandomAccessFile(sidecar, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      ByteBuffer bb = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (bb.remaining() < 44 || bb.getInt() != MAGIC || bb.getInt() != VERSION
+        || bb.getLong() != audioFile.length() || bb.getLong() != audioFile.lastModified()
+        || bb.getInt() != reader.getChannels() || bb.getInt() != BLOCK_SIZE) {
+        return null;
+      }
+      long frames = bb.getLong();
+      if (frames != reader.getSampleCount() / reader.getChannels()) {
+        return null;
+      }
+      int levelCount = bb.getInt();
+      short[][][] levels = new short[levelCount][reader.getChannels()][];
+      for (int level = 0; level < levelCount; level++) {
+        int length = bb.getInt();
+        for (int c = 0; c < levels[level].length; c++) {
+          levels[level][c] = new short[length];
+          bb.asShortBuffer().get(levels[level][c]);
+          bb.position(bb.position() + 2 * length);
+        }
+      }
+      return new WavePeaks(reader, frames, levels);
+    } catch (RuntimeException re) {
+      // a damaged sidecar
+      return null;
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Saves these peaks to a sidecar file.
+   *
+   * @param sidecar the file to save to
+   */
+  public void save(File sidecar) throws IOException {
+    File audioFile = reader.getFile();
+    DataOutputStream dos = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(sidecar), 65536));
+    try {
+      dos.writeInt(MAGIC);
+      dos.writeInt(VERSION);
+      dos.writeLong(audioFile.length());
+      dos.writeLong(audioFile.lastModified());
+      dos.writeInt(channels);
+      dos.writeInt(BLOCK_SIZE);
+      dos.writeLong(frames);
+      dos.writeInt(levels.length);
+      for (short[][] level : levels) {
+        dos.writeInt(level[0].length);
+        for (short[] peaks : level) {
+          for (short peak : peaks) {
+            dos.writeShort(peak);
+          }
+        }
+      }
+    } finally {
+      dos.close();
+    }
+  }
+
+  /**
+   * Finds the lowest and highest sample values of one channel
+   * for each pixel of a waveform display.
+   *
+   * @param channel        the channel, 0 is the first
+   * @param startFrame     the frame at the left of the display
+   * @param framesPerPixel the number of frames shown by each pixel
+   * @param min            receives the lowest value under each pixel
+   * @param max            receives the highest value under each pixel
+   * @param pixels         the number of pixels to fill
+   */
+  public void getPeaks(int channel, long startFrame, int framesPerPixel,
+                       float[] min, float[] max, int pixels) {
+    if (framesPerPixel < BLOCK_SIZE) {
+      readPeaks(channel, startFrame, framesPerPixel, min, max, pixels);
+      return;
+    }
+    // use the coarsest level with blocks no bigger than a pixel
+    int level = 0;
+    while (level + 1 < levels.length && (long) BLOCK_SIZE << (level + 1) <= framesPerPixel) {
+      level++;
+    }
+    long blockFrames = (long) BLOCK_SIZE << level;
+    short[] peaks = levels[level][channel];
+    int blocks = peaks.length / 2;
+    for (int p = 0; p < pixels; p++) {
+      long start = startFrame + (long) p * framesPerPixel;
+      long first = start / blockFrames;
+      long last = Math.min((start + framesPerPixel - 1) / blockFrames, blocks - 1);
+      int low = 0;
+      int high = 0;
+      for (long b = first; b <= last; b++) {
+        low = Math.min(low, peaks[(int) (2 * b)]);
+        high = Math.max(high, peaks[(int) (2 * b + 1)]);
+      }
+      min[p] = low / 32767f;
+      max[p] = high / 32767f;
+    }
+  }
+
+  /**
+   * Finds peaks by reading the samples from the file.
+   */
+  private void readPeaks(int channel, long startFrame, int framesPerPixel,
+                         float[] min, float[] max, int pixels) {
+    int length = pixels * framesPerPixel * channels;
+    if (scratch.length < length) {
+      scratch = new float[length];
+    }
+    int read = Math.max(reader.read(scratch, 0, length, startFrame * channels), 0);
+    for (int p = 0; p < pixels; p++) {
+      float low = 0.0f;
+      float high = 0.0f;
+      int end = Math.min((p + 1) * framesPerPixel * channels, read);
+      for (int i = p * framesPerPixel * channels + channel; i < end; i += channels) {
+        if (scratch[i] < low) {
+          low = scratch[i];
+        }
+        if (scratch[i] > high) {
+          high = scratch[i];
+        }
+      }
+      min[p] = low;
+      max[p] = high;
+    }
+  }
+
+  /**
+   * Returns the number of frames in the file.
+   */
+  public long getFrames() {
+    return this.frames;
+  }
+
+  /**
+   * Returns the number of levels of peaks.
+   */
+  public int getLevels() {
+    return this.levels.length;
+  }
+
+  /**
+   * Adds coarser levels above the finest one until a level has one block.
+   */
+  private static short[][][] buildLevels(short[][] finest) {
+    int count = 1;
+    for (int blocks = finest[0].length / 2; blocks > 1; blocks = (blocks + 1) / 2) {
+      count++;
+    }
+    short[][][] levels = new short[count][][];
+    levels[0] = finest;
+    for (int level = 1; level < count; level++) {
+      short[][] below = levels[level - 1];
+      int blocks = (below[0].length / 2 + 1) / 2;
+      levels[level] = new short[below.length][2 * blocks];
+      for (int c = 0; c < below.length; c++) {
+        short[] from = below[c];
+        short[] to = levels[level][c];
+        for (int b = 0; b < blocks; b++) {
+          int i = 4 * b;
+          if (i + 2 < from.length) {
+            to[2 * b] = (short) Math.min(from[i], from[i + 2]);
+            to[2 * b + 1] = (short) Math.max(from[i + 1], from[i + 3]);
+          } else {
+            to[2 * b] = from[i];
+            to[2 * b + 1] = from[i + 1];
+          }
+        }
+      }
+    }
+    return levels;
+  }
+
+  private static short toShort(float value) {
+    return (short) Math.max(-32768, Math.min(32767, value));
+  }
+}
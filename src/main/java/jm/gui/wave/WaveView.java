@@ -43,6 +43,10 @@ public class WaveView implements ActionListener, ComponentListener {
   private String lastFileName = "Drunk.au";
   private String lastDirectory = "";
   private WaveFileReader afr;
+  /* The peak values of the file, for coarse resolutions */
+  private WavePeaks peaks;
+  /* Should the peaks be saved to and loaded from a sidecar file? */
+  private boolean peakFiles = false;
   /* Dimensions of the frame */
   private int width = 600;
   /* Height on one wave panel */
@@ -75,6 +79,8 @@ public class WaveView implements ActionListener, ComponentListener {
    */
   private RTMixer mixer;
   private int lastStartPos = -1;
+  private int lastResolution = -1;
+  private int lastWidth = -1;
 
   /*
 * A constructor that prompts the user for a file to be displayed.
@@ -124,6 +130,7 @@ public class WaveView implements ActionListener, ComponentListener {
       lastFileName = fileName;
       lastDirectory = loadFile.getDirectory();
       afr = new WaveFileReader(lastDirectory + fileName);
+      peaks = null;
       updateScrollInfo();
       init();
       setupPanel();
@@ -154,11 +161,6 @@ public class WaveView implements ActionListener, ComponentListener {
         "Files with more than 8 channels are not supported :(");
       System.exit(1);
     }
-    //segmentSize = samples; // the whole file
-    segmentSize = width * resolution * channels;
-    //data = new float[segmentSize];
-    // Fill array from a sample start point
-    data = afr.getSamples(segmentSize, startPos);
     setupChannels();
     if (channels <= 2) {
       setHeight(200);
@@ -320,24 +322,18 @@ public class WaveView implements ActionListener, ComponentListener {
 
   private void setupChannels() {
     channels = afr.getChannels();
-    float[][] tracks = new float[channels][segmentSize / channels];
-    int counter = 0;
-    for (int i = 0; i < segmentSize; i += channels) {
-      for (int j = 0; j < channels; j++) {
-        tracks[j][counter] = data[i + j];
-      }
-      counter++;
-    }
     // set up canvases for each channel
     for (int i = 0; i < channels; i++) {
       canvases[i] = new WaveCanvas();
       canvases[i].setSize(new Dimension(this.width, this.channelHeight + 1));
-      canvases[i].setData(tracks[i]);
       canvases[i].setResolution(this.resolution);
       canvases[i].setHeight(this.channelHeight);
       canvases[i].setAmplitude(this.amplitude);
       canvases[i].setWaveSize(afr.getWaveSize());
     }
+    // fill the new canvases
+    lastStartPos = -1;
+    reRead();
   }
 
   /*
@@ -367,20 +363,43 @@ public class WaveView implements ActionListener, ComponentListener {
   }
 
   private void reRead() {
-    segmentSize = width * resolution * channels;
-    if (segmentSize < 0) {
-      return; // avoid bad values
-    }
-    // stop unnessesarily excessive array sizes
-    if (segmentSize > afr.getWaveSize() * channels * resolution) {
-      segmentSize = afr.getWaveSize() * channels * resolution;
+    if (startPos == lastStartPos && resolution == lastResolution && width == lastWidth) {
+      return;
     }
-    //data = new float[segmentSize];
-    // Fill array from a sample startPos point
-    if (startPos != lastStartPos) {
+    if (resolution >= WavePeaks.BLOCK_SIZE) {
+      updateChannelPeaks();
+    } else {
+      segmentSize = width * resolution * channels;
+      if (segmentSize < 0) {
+        return; // avoid bad values
+      }
+      // stop unnessesarily excessive array sizes
+      if (segmentSize > afr.getWaveSize() * channels * resolution) {
+        segmentSize = afr.getWaveSize() * channels * resolution;
+      }
+      // Fill array from a sample startPos point
       data = afr.getSamples(segmentSize, startPos);
       updateChannelData();
-      lastStartPos = startPos;
+    }
+    lastStartPos = startPos;
+    lastResolution = resolution;
+    lastWidth = width;
+  }
+
+  /*
+   * Show the peak values under each pixel, read from the
+   * peak pyramid rather than the file.
+   */
+  private void updateChannelPeaks() {
+    if (peaks == null) {
+      peaks = WavePeaks.forFile(afr, peakFiles);
+    }
+    for (int i = 0; i < channels; i++) {
+      float[] min = new float[width];
+      float[] max = new float[width];
+      peaks.getPeaks(i, startPos / channels, resolution, min, max, width);
+      canvases[i].setPeaks(min, max);
+      canvases[i].setResolution(this.resolution);
     }
   }
 
@@ -522,6 +541,18 @@ public class WaveView implements ActionListener, ComponentListener {
     }
   }
 
+  /**
+   * Choose whether the waveform peaks of each file are saved to a
+   * sidecar file (the file name with .peaks added) and loaded from it
+   * the next time the file is viewed. Sidecar files that already exist
+   * are always used.
+   *
+   * @param state true to save peak files
+   */
+  public void setPeakFiles(boolean state) {
+    this.peakFiles = state;
+  }
+
   /**
    * Pass on the sample rate of the currently displayed file.
    */
@@ -90,7 +90,9 @@ public final class SimpleFMInst extends jm.audio.Instrument {
     Envelope ampEnv = new Envelope(carrier, new double[]{0.0, 0.0, 0.02, 1.0, 1.0, 0.0});
     Volume amp = new Volume(ampEnv);
     StereoPan pan = new StereoPan(amp);
-    SampleOut sout = new SampleOut(pan);
+    if (output == RENDER) {
+      SampleOut sout = new SampleOut(pan);
+    }
   }
 }
 
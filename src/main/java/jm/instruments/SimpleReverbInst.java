@@ -78,15 +78,13 @@ public final class SimpleReverbInst extends jm.audio.Instrument {
    */
   public void createChain() {
     //define the chain
+    // the compiled chain reads the sample once per block for all four combs
     SampleIn sin = new SampleIn(this, fileName);
-    SampleIn sin2 = new SampleIn(this, fileName);
-    SampleIn sin3 = new SampleIn(this, fileName);
-    SampleIn sin4 = new SampleIn(this, fileName);
 
     Comb comb = new Comb(sin, 20, 0.5);
-    Comb comb2 = new Comb(sin2, 100, 0.4);
-    Comb comb3 = new Comb(sin3, 70, 0.6);
-    Comb comb4 = new Comb(sin4, 50, 0.5);
+    Comb comb2 = new Comb(sin, 100, 0.4);
+    Comb comb3 = new Comb(sin, 70, 0.6);
+    Comb comb4 = new Comb(sin, 50, 0.5);
     AudioObject[] array = {comb, comb2, comb3, comb4};
     Add add = new Add(array);
     //AllPass ap = new AllPass(add,50,0.9);
@@ -0,0 +1,201 @@
+/*
+
+<This Java Class is part of the jMusic API version 1.5, March 2004.>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+package jm.midi;
+
+import java.util.Arrays;
+
+/**
+ * Counts how late events were, in microseconds, in buckets of a fixed
+ * width, with the times beyond the last bucket counted together. It
+ * keeps the count, smallest, largest and mean lateness, and can give
+ * the lateness a percentage of the events were within, to the width of
+ * a bucket. MidiScheduler keeps one of when its events are sent.
+ */
+public class JitterHistogram {
+
+  /**
+   * The width of a bucket, in microseconds
+   */
+  private final long bucketMicros;
+  /**
+   * The number of events in each bucket, the last for those later still
+   */
+  private final long[] buckets;
+  private long count;
+  private long min = Long.MAX_VALUE;
+  private long max = Long.MIN_VALUE;
+  private double sum;
+
+  /**
+   * Makes a histogram of 100 microsecond buckets up to 20 milliseconds.
+   */
+  public JitterHistogram() {
+    this(100, 200);
+  }
+
+  /**
+   * @param bucketMicros the width of a bucket, in microseconds
+   * @param bucketCount  the number of buckets before the one for later times
+   */
+  public JitterHistogram(long bucketMicros, int bucketCount) {
+    if (bucketMicros <= 0 || bucketCount <= 0) {
+      throw new IllegalArgumentException("jMusic JitterHistogram error: "
+        + "bucket width and count must be positive");
+    }
+    this.bucketMicros = bucketMicros;
+    this.buckets = new long[bucketCount + 1];
+  }
+
+  /**
+   * Counts an event. Early events are counted in the first bucket.
+   *
+   * @param micros how late the event was, in microseconds
+   */
+  public synchronized void record(long micros) {
+    long bucket = Math.max(micros, 0) / bucketMicros;
+    buckets[(int) Math.min(bucket, buckets.length - 1)]++;
+    count++;
+    min = Math.min(min, micros);
+    max = Math.max(max, micros);
+    sum += micros;
+  }
+
+  /**
+   * Forgets the events counted so far.
+   */
+  public synchronized void clear() {
+    Arrays.fill(buckets, 0);
+    count = 0;
+    min = Long.MAX_VALUE;
+    max = Long.MIN_VALUE;
+    sum = 0.0;
+  }
+
+  /**
+   * Returns a copy of the histogram as it is now.
+   */
+  public synchronized JitterHistogram copy() {
+    JitterHistogram copy = new JitterHistogram(bucketMicros, buckets.length - 1);
+    System.arraycopy(buckets, 0, copy.buckets, 0, buckets.length);
+    copy.count = count;
+    copy.min = min;
+    copy.max = max;
+    copy.sum = sum;
+    return copy;
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the least lateness, or 0 if nothing was counted.
+   */
+  public synchronized long getMin() {
+    return count == 0 ? 0 : min;
+  }
+
+  /**
+   * Returns the greatest lateness, or 0 if nothing was counted.
+   */
+  public synchronized long getMax() {
+    return count == 0 ? 0 : max;
+  }
+
+  public synchronized double getMean() {
+    return count == 0 ? 0.0 : sum / count;
+  }
+
+  public long getBucketMicros() {
+    return bucketMicros;
+  }
+
+  /**
+   * Returns the number of buckets, including the last for the latest times.
+   */
+  public int getBucketCount() {
+    return buckets.length;
+  }
+
+  /**
+   * Returns the number of events in a bucket.
+   *
+   * @param bucket the bucket, from 0 for the events that were least late
+   */
+  public synchronized long getBucket(int bucket) {
+    return buckets[bucket];
+  }
+
+  /**
+   * Returns the lateness that a percentage of the events were within,
+   * as the end of the bucket it falls in, or the greatest lateness if
+   * that is sooner or it falls in the last bucket.
+   *
+   * @param percent the percentage of events, 0 to 100
+   */
+  public synchronized long getPercentile(double percent) {
+    if (count == 0) {
+      return 0;
+    }
+    long wanted = (long) Math.ceil(count * Math.min(Math.max(percent, 0.0), 100.0) / 100.0);
+    long seen = 0;
+    for (int i = 0; i < buckets.length - 1; i++) {
+      seen += buckets[i];
+      if (seen >= Math.max(wanted, 1)) {
+        return Math.min((i + 1) * bucketMicros, max);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Returns the counts and a line for each bucket that has events in it.
+   */
+  public synchronized String toString() {
+    StringBuilder text = new StringBuilder();
+    text.append("events ").append(count)
+      .append(", min ").append(getMin())
+      .append(" us, mean ").append(Math.round(getMean()))
+      .append(" us, 99% ").append(getPercentile(99.0))
+      .append(" us, max ").append(getMax()).append(" us");
+    long most = 0;
+    for (long bucket : buckets) {
+      most = Math.max(most, bucket);
+    }
+    for (int i = 0; i < buckets.length; i++) {
+      if (buckets[i] == 0) {
+        continue;
+      }
+      text.append('\n');
+      if (i == buckets.length - 1) {
+        text.append(String.format("%8d+ us ", i * bucketMicros));
+      } else {
+        text.append(String.format("%8d-%d us ", i * bucketMicros, (i + 1) * bucketMicros));
+      }
+      text.append(String.format("%8d ", buckets[i]));
+      for (long n = 0; n < Math.max(1, buckets[i] * 40 / most); n++) {
+        text.append('#');
+      }
+    }
+    return text.toString();
+  }
+}
@@ -50,6 +50,7 @@ import javax.sound.midi.Transmitter;
 public abstract class MidiCommunication implements Receiver {
 
   private Receiver midiReceiver;
+  private MidiScheduler midiScheduler;
   private boolean waitingToSetup = true;
 
   /**
@@ -138,6 +139,45 @@ public abstract class MidiCommunication implements Receiver {
 
   }
 
+  /**
+   * Construct a MIDI message and pass it to the designated MIDI output at
+   * a later time. The message is sent by the scheduler's own thread, with
+   * a timestamp if the output device keeps time, so callers need not sleep
+   * until it is due.
+   *
+   * @param status  The MIDI status type. 11 = Controller, 144 = Note on, 128 = Note Off, 192 =
+   *                Program Change, etc.
+   * @param channel The MIDi channel this message is sent on.
+   * @param data1   The first byte of data in the message. Often controller number of Note pitch.
+   * @param data2   The second byte of data. Usually the controller value or Note velocity.
+   * @param time    When to send the message, in microseconds of the
+   *                scheduler's getMicrosecondPosition().
+   * @throws IllegalStateException if no MIDI output has been opened
+   */
+  public void sendMidiOutput(int status, int channel, int data1, int data2, long time) {
+    MidiScheduler scheduler = getMidiScheduler();
+    if (scheduler == null) {
+      throw new IllegalStateException("jMusic MidiCommunication error: "
+        + "no MIDI output has been opened");
+    }
+    try {
+      ShortMessage message = new ShortMessage();
+      message.setMessage(status, channel, data1, data2);
+      scheduler.schedule(message, time);
+    } catch (InvalidMidiDataException e) {
+    }
+  }
+
+  /**
+   * Returns the scheduler of the MIDI output, which is made when the
+   * output is opened, or null if no output has been opened. Its clock
+   * gives the times for scheduled messages and its jitter histogram how
+   * late they were sent.
+   */
+  public synchronized MidiScheduler getMidiScheduler() {
+    return midiScheduler;
+  }
+
   /**
    * The method required by the recieve interface - It has a stupid name so we
    * pass data for short messages to handleMidiInput (a better name).
@@ -207,6 +247,7 @@ public abstract class MidiCommunication implements Receiver {
   }
 
   public void close() {
+    setMidiScheduler(null);
   }
 
   //--------------------------------------
@@ -313,6 +354,16 @@ public abstract class MidiCommunication implements Receiver {
     }
   }
 
+  /*
+   * Replace the scheduler of the MIDI output, closing the old one
+   */
+  private synchronized void setMidiScheduler(MidiScheduler scheduler) {
+    if (midiScheduler != null) {
+      midiScheduler.close();
+    }
+    midiScheduler = scheduler;
+  }
+
   /*
    * Set up the MIDI output
    */
@@ -323,6 +374,8 @@ public abstract class MidiCommunication implements Receiver {
       outputPort.open();
       this.midiReceiver = outputPort.getReceiver();
       //System.out.println("setMR = " + midiReceiver);
+      setMidiScheduler(new MidiScheduler(midiReceiver, outputPort,
+        MidiScheduler.DEFAULT_TICK, MidiScheduler.DEFAULT_SLOTS));
     } catch (Exception e) {
       // Oops! Should never get here
       System.out.println("Exception in PlumStone main ()");
@@ -25,10 +25,17 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 
 package jm.midi;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Enumeration;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MetaMessage;
@@ -40,6 +47,7 @@ import jm.midi.event.CChange;
 import jm.midi.event.EndTrack;
 import jm.midi.event.Event;
 import jm.midi.event.KeySig;
+import jm.midi.event.NoteOff;
 import jm.midi.event.NoteOn;
 import jm.midi.event.PChange;
 import jm.midi.event.TempoEvent;
@@ -48,6 +56,7 @@ import jm.music.data.Note;
 import jm.music.data.Part;
 import jm.music.data.Phrase;
 import jm.music.data.Score;
+import jm.music.data.TempoMap;
 
 /**
  * A MIDI parser
@@ -63,33 +72,95 @@ public final class MidiParser implements JMC {
   private static double tickRemainder = 0.0;
 
   /**
-   * Convert a SMF into the jMusic data type
+   * Convert a SMF into the jMusic data type. The tracks are converted to
+   * Parts at the same time on the common fork/join pool, then added to
+   * the score, and their time and key signatures set on it, in track
+   * order. The tempo events of all the tracks make the score's tempo map
+   * if the tempo changes, otherwise they set its tempo.
    */
-  public static void SMFToScore(Score score, SMF smf) {
+  public static void SMFToScore(Score score, final SMF smf) {
     System.out.println("Convert SMF to JM");
-    Enumeration aEnum = smf.getTrackList().elements();
-    //Go through tracks
-    while (aEnum.hasMoreElements()) {
-      Part part = new Part();
-      Track smfTrack = (Track) aEnum.nextElement();
-      Vector evtList = smfTrack.getEvtList();
-      Vector phrVct = new Vector();
-      sortEvents(score, evtList, phrVct, smf, part);
-      for (int i = 0; i < phrVct.size(); i++) {
-        part.addPhrase((Phrase) phrVct.elementAt(i));
+    Vector trackList = smf.getTrackList();
+    List<Callable<ConvertedTrack>> tasks = new ArrayList<>(trackList.size());
+    for (int i = 0; i < trackList.size(); i++) {
+      final Vector evtList = ((Track) trackList.elementAt(i)).getEvtList();
+      tasks.add(() -> sortEvents(evtList, smf));
+    }
+    List<ConvertedTrack> tracks = new ArrayList<>(tasks.size());
+    if (tasks.size() == 1) {
+      tracks.add(sortEvents(((Track) trackList.elementAt(0)).getEvtList(), smf));
+    } else {
+      for (Future<ConvertedTrack> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+        try {
+          tracks.add(future.get());
+        } catch (InterruptedException | ExecutionException e) {
+          Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          throw new IllegalStateException(cause);
+        }
       }
-      score.addPart(part);
+    }
+    //Go through tracks
+    TempoMap tempoMap = null;
+    for (ConvertedTrack track : tracks) {
+      track.applyTo(score);
+      score.addPart(track.part);
       score.clean();
+      for (double[] change : track.tempos) {
+        if (tempoMap == null) {
+          //before any tempo event MIDI files play at 120 bpm
+          tempoMap = new TempoMap(change[0] == 0.0 ? change[1] : 120.0);
+        }
+        tempoMap.setTempo(change[0], change[1]);
+      }
+    }
+    if (tempoMap != null) {
+      score.setTempo(tempoMap.getTempo(0.0));
+      if (tempoMap.size() > 1) {
+        score.setTempoMap(tempoMap);
+      }
     }
   }
 
-  private static void sortEvents(Score score, Vector evtList, Vector phrVct, SMF smf, Part part) {
+  /**
+   * A track converted into a Part, with the score settings its
+   * events set, which are set on the score in track order.
+   */
+  private static final class ConvertedTrack {
+    final Part part = new Part();
+    /**
+     * The beat and tempo of each tempo event
+     */
+    final List<double[]> tempos = new ArrayList<>(1);
+    boolean timeSig = false;
+    int numerator;
+    int denominator;
+    boolean keySig = false;
+    int keySignature;
+    int keyQuality;
+
+    void applyTo(Score score) {
+      if (timeSig) {
+        score.setNumerator(numerator);
+        score.setDenominator(denominator);
+      }
+      if (keySig) {
+        score.setKeySignature(keySignature);
+        score.setKeyQuality(keyQuality);
+      }
+    }
+  }
+
+  private static ConvertedTrack sortEvents(Vector evtList, SMF smf) {
+    ConvertedTrack track = new ConvertedTrack();
+    Part part = track.part;
+    Vector phrVct = new Vector();
     double startTime = 0.0;
-    double[] currentLength = new double[100];
-    Note[] curNote = new Note[100];
-    int numOfPhrases = 0;
-    double oldTime = 0.0;
-    int phrIndex = 0;
+    double[] lengths = noteLengths(evtList);
+    Voices voices = new Voices();
+    Vector curNote = new Vector();
     //Go through evts
     for (int i = 0; i < evtList.size(); i++) {
       Event evt = (Event) evtList.elementAt(i);
@@ -100,7 +171,7 @@ public final class MidiParser implements JMC {
         //if this event is a NoteOn event go on
       } else if (evt.getID() == 020) {
         TempoEvent t = (TempoEvent) evt;
-        score.setTempo(t.getTempo());
+        track.tempos.add(new double[]{startTime, t.getTempo()});
       } else if (evt.getID() == 005) {
         NoteOn noteOn = (NoteOn) evt;
         part.setChannel(noteOn.getMidiChannel());
@@ -109,41 +180,94 @@ public final class MidiParser implements JMC {
         short midiChannel = noteOn.getMidiChannel();
         //if you're a true NoteOn
         if (dynamic > 0) {
-          noteOn(phrIndex, curNote, smf, i,
-            currentLength, startTime,
-            phrVct, midiChannel,
-            pitch, dynamic, evtList);
+          noteOn(voices, curNote, lengths[i] / (double) smf.getPPQN(), startTime,
+            phrVct, midiChannel, pitch, dynamic);
         }
       } else if (evt instanceof TimeSig) {
         TimeSig timeSig = (TimeSig) evt;
-        score.setNumerator(timeSig.getNumerator());
-        score.setDenominator(timeSig.getDenominator());
+        track.timeSig = true;
+        track.numerator = timeSig.getNumerator();
+        track.denominator = timeSig.getDenominator();
       } else if (evt instanceof KeySig) {
         KeySig keySig = (KeySig) evt;
-        score.setKeySignature(keySig.getKeySig());
-        score.setKeyQuality(keySig.getKeyQuality());
+        track.keySig = true;
+        track.keySignature = keySig.getKeySig();
+        track.keyQuality = keySig.getKeyQuality();
       }
-//                        else
-//                        {
-//                            System.out.printf( "Unused event: %o\n", evt.getID() );
-//                            if( evt instanceof CChange )
-//                            {
-//                                CChange cChange = (CChange)evt;
-//                                System.out.printf( "\tUnused event: %d\t%d\t%d\t%d\n",
-//                                        cChange.getControllerNum(),
-//                                        cChange.getMidiChannel(),
-//                                        cChange.getTime(),
-//                                        cChange.getValue() );
-//                            }
-//                            else if( evt.getID() == 027)
-//                            {
-//                                System.out.printf( "\tUnused event: %d\t%X\t%o\n",
-//                                        evt.getTime(),
-//                                        evt.getTime(),
-//                                        evt.getTime() );
-//                            }
-//                        }
     }
+    for (int i = 0; i < phrVct.size(); i++) {
+      part.addPhrase((Phrase) phrVct.elementAt(i));
+    }
+    return track;
+  }
+
+  /**
+   * Finds the length in ticks of every note in a track, by pairing each
+   * NoteOn with the first NoteOff (or NoteOn of velocity 0) of the same
+   * pitch after it that has not already ended an earlier note and that
+   * is at a later tick. Each pitch keeps a queue of its sounding NoteOns
+   * in the order they started, so the whole track is paired in one pass
+   * and its events are left as they are.
+   *
+   * @param evtList the events of the track
+   * @return the length of the note started by each event, by event
+   * index, 0.0 for events that do not start a note or whose note never ends
+   */
+  private static double[] noteLengths(Vector evtList) {
+    int size = evtList.size();
+    double[] lengths = new double[size];
+    long[] ticks = new long[size];
+    // the queue of sounding NoteOns for each pitch, linked through next
+    int[] head = new int[256];
+    int[] tail = new int[256];
+    int[] next = new int[size];
+    Arrays.fill(head, -1);
+    boolean[] started = new boolean[size];
+    long tick = 0;
+    for (int i = 0; i < size; i++) {
+      Event evt = (Event) evtList.elementAt(i);
+      tick += evt.getTime();
+      ticks[i] = tick;
+      int pitch;
+      boolean on;
+      if (evt.getID() == 005) {
+        NoteOn noteOn = (NoteOn) evt;
+        pitch = noteOn.getPitch();
+        on = noteOn.getVelocity() > 0;
+      } else if (evt.getID() == 004) {
+        pitch = ((NoteOff) evt).getPitch();
+        on = false;
+      } else {
+        continue;
+      }
+      if (pitch < 0 || pitch > 255) {
+        continue;
+      }
+      if (on) {
+        started[i] = true;
+        next[i] = -1;
+        if (head[pitch] == -1) {
+          head[pitch] = i;
+        } else {
+          next[tail[pitch]] = i;
+        }
+        tail[pitch] = i;
+      } else if (head[pitch] != -1 && ticks[head[pitch]] < tick) {
+        // the queue is in tick order, if its first NoteOn is
+        // at this tick all of them are and none of them end here
+        int start = head[pitch];
+        lengths[start] = (double) (tick - ticks[start]);
+        started[start] = false;
+        head[pitch] = next[start];
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      if (started[i]) {
+        System.out.println("Error reading file - sorry!");
+        System.out.println("Try to continue reading anyway");
+      }
+    }
+    return lengths;
   }
 
   //------------------------------------------------------------------
@@ -152,35 +276,26 @@ public final class MidiParser implements JMC {
   // MODIFIED 6/12/2003 Ron Legere to avoid use of magic note values for Program CHanges
   // Etc.
 
-  private static void noteOn(int phrIndex, Note[] curNote, SMF smf, int i,
-                             double[] currentLength, double startTime, Vector phrVct,
-                             short midiChannel, short pitch, int dynamic, Vector evtList) {
-
-    phrIndex = -1;
+  private static void noteOn(Voices voices, Vector curNote, double time, double startTime,
+                             Vector phrVct, short midiChannel, short pitch, int dynamic) {
     //work out what phrase is ready to accept a note
-    for (int p = 0; p < phrVct.size(); p++) {
-      //Warning 0.02 should really be fixed
-      if (currentLength[p] <= (startTime + 0.08)) {
-        phrIndex = p;
-        break;
-      }
-    }
+    //Warning 0.02 should really be fixed
+    int phrIndex = voices.firstFree(startTime + 0.08);
     //need to create new phrase for a new voice?
     if (phrIndex == -1) {
-      phrIndex = phrVct.size();
       phrVct.addElement(new Phrase(startTime));
-      currentLength[phrIndex] = startTime;
+      curNote.addElement(null);
+      phrIndex = voices.add(startTime);
     }
+    double currentLength = voices.getEnd(phrIndex);
+    Note lastNote = (Note) curNote.elementAt(phrIndex);
     //Do we need to add a rest ?
-    if ((startTime > currentLength[phrIndex]) &&
-      (curNote[phrIndex] != null)) {
-      double newTime = startTime - currentLength[phrIndex];
+    if ((startTime > currentLength) && (lastNote != null)) {
+      double newTime = startTime - currentLength;
       //perform a level of quantisation first
       if (newTime < 0.25) {
-        double length =
-          curNote[phrIndex].getRhythm();
-        curNote[phrIndex].setRhythm(
-          length + newTime);
+        double length = lastNote.getRhythm();
+        lastNote.setRhythm(length + newTime);
       } else {
         Note restNote = Note.newBuilder()
           .rest()
@@ -193,11 +308,8 @@ public final class MidiParser implements JMC {
         ((Phrase) phrVct.elementAt(phrIndex)).
           addNote(restNote);
       }
-      currentLength[phrIndex] += newTime;
+      currentLength += newTime;
     }
-    // get end time
-    double time = MidiUtil.getEndEvt(pitch, evtList, i) /
-      (double) smf.getPPQN();
     // create the new note
     Note tempNote = Note.newBuilder()
       .pitch(pitch)
@@ -205,9 +317,65 @@ public final class MidiParser implements JMC {
       .dynamic(dynamic)
       .build();
     tempNote.setDuration(time);
-    curNote[phrIndex] = tempNote;
-    ((Phrase) phrVct.elementAt(phrIndex)).addNote(curNote[phrIndex]);
-    currentLength[phrIndex] += curNote[phrIndex].getRhythm();
+    curNote.setElementAt(tempNote, phrIndex);
+    ((Phrase) phrVct.elementAt(phrIndex)).addNote(tempNote);
+    voices.setEnd(phrIndex, currentLength + tempNote.getRhythm());
+  }
+
+  /**
+   * The end times of the phrases (voices) of a part being read from a
+   * SMF, held in a tree of minimums so that the first phrase free for a
+   * new note is found in O(log n) rather than by trying every phrase.
+   */
+  private static final class Voices {
+    /* The tree, node n has children 2n and 2n + 1, voice v is at leaf capacity + v */
+    private double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+    private int capacity = 1;
+    private int count = 0;
+
+    /**
+     * Returns the first voice whose phrase ends at or before the time, or -1.
+     */
+    int firstFree(double time) {
+      if (count == 0 || min[1] > time) {
+        return -1;
+      }
+      int node = 1;
+      while (node < capacity) {
+        node = (min[2 * node] <= time) ? 2 * node : 2 * node + 1;
+      }
+      return node - capacity;
+    }
+
+    /**
+     * Adds a voice whose phrase ends at end, returning its number.
+     */
+    int add(double end) {
+      if (count == capacity) {
+        double[] grown = new double[capacity * 4];
+        Arrays.fill(grown, Double.POSITIVE_INFINITY);
+        System.arraycopy(min, capacity, grown, capacity * 2, capacity);
+        capacity *= 2;
+        min = grown;
+        for (int node = capacity - 1; node > 0; node--) {
+          min[node] = Math.min(min[2 * node], min[2 * node + 1]);
+        }
+      }
+      setEnd(count, end);
+      return count++;
+    }
+
+    double getEnd(int voice) {
+      return min[capacity + voice];
+    }
+
+    void setEnd(int voice, double end) {
+      int node = capacity + voice;
+      min[node] = end;
+      for (node /= 2; node > 0; node /= 2) {
+        min[node] = Math.min(min[2 * node], min[2 * node + 1]);
+      }
+    }
   }
 
 
@@ -404,8 +572,6 @@ public final class MidiParser implements JMC {
     double scoreTempo = score.getTempo();
     double partTempoMultiplier = 1.0;
     double phraseTempoMultiplier = 1.0;
-    int phraseNumb;
-    Phrase phrase1, phrase2;
 
     //Add a tempo track at the start of top of the list
     //Add time sig to the tempo track
@@ -413,6 +579,16 @@ public final class MidiParser implements JMC {
     smfT.addEvent(new TempoEvent(0, score.getTempo()));
     smfT.addEvent(new TimeSig(0, score.getNumerator(), score.getDenominator()));
     smfT.addEvent(new KeySig(0, score.getKeySignature()));
+    //Add any tempo changes to the tempo track
+    TempoMap tempoMap = score.getTempoMap();
+    if (tempoMap != null) {
+      long lastTick = 0;
+      for (int i = 1; i < tempoMap.size(); i++) {
+        long tick = Math.round(tempoMap.getSegmentBeat(i) * smf.getPPQN());
+        smfT.addEvent(new TempoEvent((int) (tick - lastTick), tempoMap.getSegmentTempo(i)));
+        lastTick = tick;
+      }
+    }
     smfT.addEvent(new EndTrack());
     smf.getTrackList().addElement(smfT);
     //---------------------------------------------------
@@ -421,8 +597,8 @@ public final class MidiParser implements JMC {
     while (aEnum.hasMoreElements()) {
       Track smfTrack = new Track();
       Part inst = (Part) aEnum.nextElement();
-      System.out.print("Part " + partCount + " '" + inst.getTitle() +
-        "' to SMF Track on Channel. " + inst.getChannel() + ": ");
+      System.out.println("Part " + partCount + " '" + inst.getTitle() +
+        "' to SMF Track on Channel. " + inst.getChannel());
       partCount++;
 
       // set up tempo difference between score and track - if any
@@ -432,65 +608,41 @@ public final class MidiParser implements JMC {
       } else {
         partTempoMultiplier = 1.0;
       }
-      //System.out.println("partTempoMultiplier = " + partTempoMultiplier);
-
-      //order phrases based on their startTimes
-      phraseNumb = inst.getPhraseList().size();
-      for (int i = 0; i < phraseNumb; i++) {
-        phrase1 = (Phrase) inst.getPhraseList().elementAt(i);
-        for (int j = 0; j < phraseNumb; j++) {
-          phrase2 = (Phrase) inst.getPhraseList().elementAt(j);
-          if (phrase2.getStartTime() > phrase1.getStartTime()) {
-            inst.getPhraseList().setElementAt(phrase2, i);
-            inst.getPhraseList().setElementAt(phrase1, j);
-            break;
-          }
-        }
-      }
-      //break Note objects into NoteStart's and NoteEnd's
-      //as well as combining all phrases into one list
-//			HashMap midiEvents = new HashMap();
-
-      class EventPair {
 
-        public double time;
-        public Event ev;
-
-        public EventPair(double t, Event e) {
-          time = t;
-          ev = e;
-        }
-      }
+      //order phrases based on their startTimes,
+      //phrases starting together stay in the part's order
+      Phrase[] phrases = inst.getPhraseArray();
+      Arrays.sort(phrases, Comparator.comparingDouble(Phrase::getStartTime));
 
-      LinkedList<EventPair> midiEvents = new LinkedList<>();
+      //break Note objects into NoteStart's and NoteEnd's,
+      //a stream of events for the part and one for each phrase
+      List<EventStream> streams = new ArrayList<>(phrases.length + 1);
+      EventStream partEvents = new EventStream(4);
+      streams.add(partEvents);
 
       //if this part has a Program Change value then set it
       if (inst.getInstrument() != NO_INSTRUMENT) {
-        //System.out.println("Instrument change no. " + inst.getInstrument());
-        midiEvents.add(new EventPair(0,
-          new PChange((short) inst.getInstrument(), (short) inst.getChannel(), 0)));
+        partEvents.add(0,
+          new PChange((short) inst.getInstrument(), (short) inst.getChannel(), 0));
       }
 
       if (inst.getNumerator() != NO_NUMERATOR) {
-        midiEvents.add(new EventPair(0, new TimeSig(inst.getNumerator(), inst.getDenominator())));
+        partEvents.add(0, new TimeSig(inst.getNumerator(), inst.getDenominator()));
       }
 
       if (inst.getKeySignature() != NO_KEY_SIGNATURE) {
-        midiEvents.add(new EventPair(0, new KeySig(inst.getKeySignature(), inst.getKeyQuality())));
+        partEvents.add(0, new KeySig(inst.getKeySignature(), inst.getKeyQuality()));
       }
 
-      Enumeration partEnum = inst.getPhraseList().elements();
-      double max = 0;
-      double startTime = 0.0;
-      double offsetValue = 0.0;
-      int phraseCounter = 0;
-      while (partEnum.hasMoreElements()) {
-        Phrase phrase = (Phrase) partEnum.nextElement();
+      int eventCount = partEvents.size();
+      for (Phrase phrase : phrases) {
+        EventStream phraseEvents = new EventStream(phrase.size() * 2 + 2);
+        streams.add(phraseEvents);
 
-        startTime = phrase.getStartTime() * partTempoMultiplier;
+        double startTime = phrase.getStartTime() * partTempoMultiplier;
         if (phrase.getInstrument() != NO_INSTRUMENT) {
-          midiEvents.add(new EventPair(0,
-            new PChange((short) phrase.getInstrument(), (short) inst.getChannel(), 0)));
+          phraseEvents.add(0,
+            new PChange((short) phrase.getInstrument(), (short) inst.getChannel(), 0));
         }
         if (phrase.getTempo() != Phrase.DEFAULT_TEMPO) {
           phraseTempoMultiplier = scoreTempo / phrase
@@ -499,80 +651,171 @@ public final class MidiParser implements JMC {
           phraseTempoMultiplier = partTempoMultiplier;
         }
 
-        int noteCounter = 0;
-        System.out.print(" Phrase " + phraseCounter++ + ":");
         // set a silly starting value to force and initial pan cc event
         double pan = -1.0;
         resetTicker(); // zero the ppqn error calculator
 
         for (Note note : phrase.getNoteList()) {
-          offsetValue = note.getOffset();
+          double offsetValue = note.getOffset();
           // add a pan control change if required
           if (note.getPan() != pan) {
             pan = note.getPan();
-            midiEvents.add(new EventPair(startTime + offsetValue,
-              new CChange((short) 10, (short) (pan * 127), (short) inst.getChannel(), 0)));
+            phraseEvents.add(startTime + offsetValue,
+              new CChange((short) 10, (short) (pan * 127), (short) inst.getChannel(), 0));
           }
           //check for frequency rather than MIDI notes
           int pitch = note.getPitch();
 
           if (pitch != REST) {
-            midiEvents.add(new EventPair(startTime + offsetValue,
+            phraseEvents.add(startTime + offsetValue,
               new NoteOn((short) pitch, (short) note.getDynamic(), (short) inst.getChannel(),
-                0)));
+                0));
 
             // Add a NoteOn for the END of the note with 0 dynamic, as recommended.
             //create a timing event at the end of the notes duration
             double endTime = startTime + (note.getDuration() * phraseTempoMultiplier);
             // Add the note-off time to the list
-            midiEvents.add(new EventPair(endTime + offsetValue,
-              new NoteOn((short) pitch, (short) 0, (short) inst.getChannel(), 0)));
+            phraseEvents.add(endTime + offsetValue,
+              new NoteOn((short) pitch, (short) 0, (short) inst.getChannel(), 0));
           }
           // move the note-on time forward by the rhythmic value
           startTime += tickRounder(
             note.getRhythm() * phraseTempoMultiplier); //time between start times
-          System.out.print("."); // completed a note
         }
+        phraseEvents.sort();
+        eventCount += phraseEvents.size();
       }
 
-      //Sort the hashmap by starttime (key value)
-      class CompareKey implements Comparator {
-
-        public int compare(Object a, Object b) {
-          EventPair ae = (EventPair) a;
-          EventPair be = (EventPair) b;
-          if (ae.time - be.time < 0) {
-            return -1;
-          } else if (ae.time - be.time > 0) {
-            return 1;
-          } else {
-            return 0;
-          }
+      //Merge the streams by start time, events at the same time
+      //stay in the order they were made in
+      PriorityQueue<EventStream> heap = new PriorityQueue<>(streams.size() + 1,
+        EventStream.ORDER);
+      for (int i = 0; i < streams.size(); i++) {
+        EventStream stream = streams.get(i);
+        stream.number = i;
+        if (stream.hasNext()) {
+          heap.add(stream);
         }
       }
-      midiEvents.sort(new CompareKey());
       //Add times to events, now that things are sorted
+      smfTrack.getEvtList().ensureCapacity(eventCount + 1);
       double st = 0.0; //start time
       double sortStart; // start time from list of notes ons and offs.
       int time; // the start time as ppqn value
       resetTicker();
 
-      for (int index = 0; index < midiEvents.size(); index++) {
-        EventPair ep = midiEvents.get(index);
-        Event event = ep.ev;
-        sortStart = ep.time;
+      while (!heap.isEmpty()) {
+        EventStream stream = heap.poll();
+        sortStart = stream.time();
+        Event event = stream.next();
         time = (int) (((((sortStart - st) * (double) smf.getPPQN()))) + 0.5);
         st = sortStart;
         event.setTime(time);
         smfTrack.addEvent(event);
+        if (stream.hasNext()) {
+          heap.add(stream);
+        }
       }
       smfTrack.addEvent(new EndTrack());
       //add this track to the SMF
       smf.getTrackList().addElement(smfTrack);
-      System.out.println();
     }
   }
 
+  /**
+   * A part's or phrase's events and the times they start at, in beats,
+   * which are sorted by start time before they are merged with the
+   * other streams of the part.
+   */
+  private static final class EventStream {
+    /**
+     * Orders streams by the time of their next event, then by number
+     */
+    static final Comparator<EventStream> ORDER = (a, b) -> {
+      int order = compareTimes(a.time(), b.time());
+      return (order != 0) ? order : Integer.compare(a.number, b.number);
+    };
+
+    /**
+     * Compares start times, with no difference between 0.0 and -0.0
+     */
+    static int compareTimes(double a, double b) {
+      return (a < b) ? -1 : ((a > b) ? 1 : 0);
+    }
+
+    private double[] times;
+    private Event[] events;
+    private int size;
+    private int next;
+    private boolean sorted = true;
+    /**
+     * The stream's place in the part, for events at the same time
+     */
+    int number;
+
+    EventStream(int capacity) {
+      times = new double[Math.max(capacity, 1)];
+      events = new Event[times.length];
+    }
+
+    void add(double time, Event event) {
+      if (size == times.length) {
+        times = Arrays.copyOf(times, size * 2);
+        events = Arrays.copyOf(events, size * 2);
+      }
+      if (size > 0 && time < times[size - 1]) {
+        sorted = false;
+      }
+      times[size] = time;
+      events[size] = event;
+      size++;
+    }
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * Sorts the events by start time, keeping the order of events at the
+     * same time. Notes overlapping or with offsets leave them out of order.
+     */
+    void sort() {
+      if (sorted) {
+        return;
+      }
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      final double[] unsorted = times;
+      Arrays.sort(order, (a, b) -> compareTimes(unsorted[a], unsorted[b]));
+      double[] sortedTimes = new double[size];
+      Event[] sortedEvents = new Event[size];
+      for (int i = 0; i < size; i++) {
+        sortedTimes[i] = times[order[i]];
+        sortedEvents[i] = events[order[i]];
+      }
+      times = sortedTimes;
+      events = sortedEvents;
+      sorted = true;
+    }
+
+    boolean hasNext() {
+      return next < size;
+    }
+
+    double time() {
+      return times[next];
+    }
+
+    Event next() {
+      Event event = events[next];
+      events[next++] = null;
+      return event;
+    }
+  }
+
+
 //  public Sequence scoreToSeq(Score score)
 //      throws InvalidMidiDataException {
 //
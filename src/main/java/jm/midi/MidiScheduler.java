@@ -0,0 +1,366 @@
+/*
+
+<This Java Class is part of the jMusic API version 1.5, March 2004.>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+package jm.midi;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+
+/**
+ * Sends MIDI messages to a Receiver at times given in advance, from a
+ * thread of its own, so the timing does not depend on how the callers'
+ * threads are woken.
+ * <p/>
+ * Messages wait on a timing wheel, a ring of slots a millisecond (by
+ * default) wide that the thread steps through as time passes, with
+ * messages further ahead than a turn of the ring staying in their slot
+ * until its turn comes. The thread sleeps until a slot with messages in
+ * it comes round, spins for the last moment before each message's time
+ * and sends the message.
+ * <p/>
+ * When the messages go to a MidiDevice that keeps time, they are given
+ * the device's timestamp for their time, and can be sent a lookahead
+ * early to let the device place them itself. How late each message was
+ * sent, against its time less the lookahead, is kept in a
+ * JitterHistogram.
+ * <p/>
+ * Times are in microseconds from when the scheduler was made, as given
+ * by getMicrosecondPosition().
+ */
+public class MidiScheduler {
+
+  /**
+   * The default width of a slot of the wheel, in microseconds
+   */
+  public static final long DEFAULT_TICK = 1000;
+  /**
+   * The default number of slots in the wheel
+   */
+  public static final int DEFAULT_SLOTS = 1024;
+  /**
+   * How long before a message's time the thread stops sleeping and spins
+   */
+  private static final long SPIN_MICROS = 250;
+
+  /**
+   * Sent messages come first by time, then in the order they were scheduled
+   */
+  private static final Comparator<Entry> ORDER = (a, b) -> a.time != b.time
+    ? Long.compare(a.time, b.time) : Long.compare(a.order, b.order);
+
+  /**
+   * A message waiting in a slot of the wheel.
+   */
+  private static final class Entry {
+    final MidiMessage message;
+    final long time;
+    final long order;
+    /**
+     * The turn of the wheel the message is sent in, counted in slots
+     */
+    long tick;
+    Entry next;
+
+    Entry(MidiMessage message, long time, long order) {
+      this.message = message;
+      this.time = time;
+      this.order = order;
+    }
+  }
+
+  private final Receiver receiver;
+  /**
+   * The device whose clock timestamps messages, or null
+   */
+  private final MidiDevice device;
+  private final long tickMicros;
+  /**
+   * The first message of each slot
+   */
+  private final Entry[] wheel;
+  private final int mask;
+  /**
+   * Messages scheduled and not yet put on the wheel
+   */
+  private final ConcurrentLinkedQueue<Entry> incoming = new ConcurrentLinkedQueue<>();
+  private final AtomicLong scheduled = new AtomicLong();
+  private final JitterHistogram jitter = new JitterHistogram();
+  private final long startNanos = System.nanoTime();
+  private final Thread thread;
+  private volatile boolean running = true;
+  private volatile long lookahead = 0;
+  /**
+   * The next slot to be sent, counted from the start; used by the thread only
+   */
+  private long wheelTick = 0;
+  /**
+   * The number of messages on the wheel; used by the thread only
+   */
+  private int pending = 0;
+  /**
+   * The messages of the slot being sent; used by the thread only
+   */
+  private final ArrayList<Entry> due = new ArrayList<>();
+
+  /**
+   * Sends messages to a receiver without timestamps.
+   *
+   * @param receiver where the messages are sent
+   */
+  public MidiScheduler(Receiver receiver) {
+    this(receiver, null, DEFAULT_TICK, DEFAULT_SLOTS);
+  }
+
+  /**
+   * Sends messages to a device, with timestamps if it keeps time.
+   *
+   * @param device an open device
+   */
+  public MidiScheduler(MidiDevice device) throws MidiUnavailableException {
+    this(device.getReceiver(), device, DEFAULT_TICK, DEFAULT_SLOTS);
+  }
+
+  /**
+   * @param receiver   where the messages are sent
+   * @param device     the device whose clock timestamps the messages,
+   *                   or null to send them without timestamps
+   * @param tickMicros the width of a slot of the wheel, in microseconds
+   * @param slots      the number of slots, rounded up to a power of two
+   */
+  public MidiScheduler(Receiver receiver, MidiDevice device, long tickMicros, int slots) {
+    if (receiver == null) {
+      throw new IllegalArgumentException("jMusic MidiScheduler error: no receiver");
+    }
+    if (tickMicros <= 0 || slots <= 0) {
+      throw new IllegalArgumentException("jMusic MidiScheduler error: "
+        + "the slot width and number of slots must be positive");
+    }
+    this.receiver = receiver;
+    this.device = (device != null && device.getMicrosecondPosition() != -1) ? device : null;
+    this.tickMicros = tickMicros;
+    int size = Integer.highestOneBit(Math.max(slots - 1, 1)) << 1;
+    this.wheel = new Entry[size];
+    this.mask = size - 1;
+    this.thread = new Thread(this::run, "jMusic MIDI scheduler");
+    this.thread.setDaemon(true);
+    this.thread.setPriority(Thread.MAX_PRIORITY);
+    this.thread.start();
+  }
+
+  /**
+   * Returns the time now, in microseconds from when the scheduler was made.
+   */
+  public long getMicrosecondPosition() {
+    return (System.nanoTime() - startNanos) / 1000;
+  }
+
+  /**
+   * Sends a copy of a message at a time. Messages for the same time are
+   * sent in the order they were scheduled, and those whose time has
+   * passed are sent straight away.
+   *
+   * @param message the message
+   * @param time    when to send it, in microseconds of getMicrosecondPosition()
+   */
+  public void schedule(MidiMessage message, long time) {
+    if (!running) {
+      throw new IllegalStateException("jMusic MidiScheduler error: the scheduler is closed");
+    }
+    incoming.add(new Entry((MidiMessage) message.clone(), time, scheduled.getAndIncrement()));
+    LockSupport.unpark(thread);
+  }
+
+  /**
+   * Returns true if messages are given timestamps of the device's clock.
+   */
+  public boolean isTimestamped() {
+    return device != null;
+  }
+
+  /**
+   * Sets how early timestamped messages are sent to the device, which
+   * plays them at their timestamps. It has no effect without timestamps.
+   *
+   * @param micros the lookahead, in microseconds
+   */
+  public void setLookahead(long micros) {
+    this.lookahead = Math.max(micros, 0);
+  }
+
+  public long getLookahead() {
+    return lookahead;
+  }
+
+  /**
+   * Returns a copy of the lateness of the messages sent so far.
+   */
+  public JitterHistogram getJitter() {
+    return jitter.copy();
+  }
+
+  /**
+   * Forgets the lateness of the messages sent so far.
+   */
+  public void clearJitter() {
+    jitter.clear();
+  }
+
+  /**
+   * Stops the thread, dropping the messages not yet sent. The receiver
+   * is left open.
+   */
+  public void close() {
+    running = false;
+    LockSupport.unpark(thread);
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private long ahead() {
+    return device != null ? lookahead : 0;
+  }
+
+  private void run() {
+    while (running) {
+      if (pending == 0) {
+        // nothing is waiting, so the wheel can move on to now
+        wheelTick = Math.max(wheelTick, (getMicrosecondPosition() + ahead()) / tickMicros);
+      }
+      for (Entry entry; (entry = incoming.poll()) != null; ) {
+        insert(entry);
+      }
+      long nowTick = (getMicrosecondPosition() + ahead()) / tickMicros;
+      while (running && wheelTick <= nowTick) {
+        sendSlot(wheelTick);
+        wheelTick++;
+      }
+      if (!running) {
+        break;
+      }
+      if (pending == 0) {
+        if (incoming.isEmpty()) {
+          LockSupport.park(this);
+        }
+        continue;
+      }
+      long remaining = wheelTick * tickMicros - ahead() - getMicrosecondPosition();
+      if (hasMessages(wheelTick)) {
+        // wake a little early for the start of a slot with messages in it
+        remaining -= SPIN_MICROS;
+      }
+      if (remaining > 0) {
+        LockSupport.parkNanos(this, remaining * 1000);
+      } else {
+        Thread.yield();
+      }
+    }
+  }
+
+  private void insert(Entry entry) {
+    entry.tick = Math.max(Math.floorDiv(entry.time - ahead(), tickMicros), wheelTick);
+    int slot = (int) (entry.tick & mask);
+    entry.next = wheel[slot];
+    wheel[slot] = entry;
+    pending++;
+  }
+
+  private boolean hasMessages(long tick) {
+    for (Entry entry = wheel[(int) (tick & mask)]; entry != null; entry = entry.next) {
+      if (entry.tick <= tick) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Sends the messages of a slot that are due in this turn of the wheel,
+   * each at its time.
+   */
+  private void sendSlot(long tick) {
+    int slot = (int) (tick & mask);
+    Entry kept = null;
+    for (Entry entry = wheel[slot]; entry != null; ) {
+      Entry next = entry.next;
+      if (entry.tick <= tick) {
+        due.add(entry);
+      } else {
+        entry.next = kept;
+        kept = entry;
+      }
+      entry = next;
+    }
+    wheel[slot] = kept;
+    if (due.isEmpty()) {
+      return;
+    }
+    pending -= due.size();
+    due.sort(ORDER);
+    long ahead = ahead();
+    for (Entry entry : due) {
+      long sendTime = entry.time - ahead;
+      waitUntil(sendTime);
+      if (!running) {
+        break;
+      }
+      long now = getMicrosecondPosition();
+      long timeStamp = -1L;
+      if (device != null) {
+        timeStamp = device.getMicrosecondPosition() + Math.max(entry.time - now, 0);
+      }
+      jitter.record(now - sendTime);
+      try {
+        receiver.send(entry.message, timeStamp);
+      } catch (RuntimeException e) {
+        System.err.println("jMusic MidiScheduler error: " + e);
+      }
+    }
+    due.clear();
+  }
+
+  /**
+   * Sleeps until just before a time, then spins until it.
+   */
+  private void waitUntil(long time) {
+    while (running) {
+      long remaining = time - getMicrosecondPosition();
+      if (remaining <= 0) {
+        return;
+      }
+      if (remaining > SPIN_MICROS) {
+        LockSupport.parkNanos(this, (remaining - SPIN_MICROS) * 1000);
+      } else {
+        Thread.yield();
+      }
+    }
+  }
+}
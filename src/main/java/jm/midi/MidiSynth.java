@@ -21,26 +21,33 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 */
 package jm.midi;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Stack;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MetaEventListener;
 import javax.sound.midi.MetaMessage;
 import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Sequence;
 import javax.sound.midi.Sequencer;
 import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Receiver;
 import javax.sound.midi.Synthesizer;
 import javax.sound.midi.Track;
+import javax.sound.midi.Transmitter;
 
 import jm.JMC;
 import jm.music.data.Note;
 import jm.music.data.Part;
 import jm.music.data.Phrase;
 import jm.music.data.Score;
+import jm.music.data.TempoMap;
 
 /**
  * MidiSynth.java
@@ -53,6 +60,30 @@ import jm.music.data.Score;
 public class MidiSynth implements JMC, MetaEventListener {
 
   private static final int STOP_TYPE = 47; // End of track
+  private static final int TEMPO_TYPE = 0x51; // Tempo change
+  /**
+   * The order of the events of a track: by tick, then tempo changes,
+   * program changes, control changes, note offs and note ons, so a
+   * note's program and pan are set before it starts and a note ends
+   * before the same pitch starts again, then by their bytes.
+   */
+  private static final Comparator<MidiEvent> EVENT_ORDER = (a, b) -> {
+    int order = Long.compare(a.getTick(), b.getTick());
+    if (order == 0) {
+      order = Integer.compare(rank(a), rank(b));
+    }
+    if (order == 0) {
+      byte[] aBytes = a.getMessage().getMessage();
+      byte[] bBytes = b.getMessage().getMessage();
+      for (int i = 0; order == 0 && i < Math.min(aBytes.length, bBytes.length); i++) {
+        order = Integer.compare(aBytes[i] & 0xFF, bBytes[i] & 0xFF);
+      }
+      if (order == 0) {
+        order = Integer.compare(aBytes.length, bBytes.length);
+      }
+    }
+    return order;
+  };
   /**
    * Pulses per quarter note value
    */
@@ -89,6 +120,10 @@ public class MidiSynth implements JMC, MetaEventListener {
    * The diff. between the score and phrase tempi
    */
   private double elementTempoRatio = 1.0;
+  /**
+   * The tempo changes of the score being played, for seeking
+   */
+  private TempoMap m_tempoMap;
   /**
    * The name of the jMusic score
    */
@@ -98,8 +133,18 @@ public class MidiSynth implements JMC, MetaEventListener {
    */
   private boolean isPlaying = false;
   private Boolean msCycle = false;
-  private Boolean update = false;
-  private Score updateScore;
+  /**
+   * The events of each track of the sequence, in EVENT_ORDER
+   */
+  private List<List<MidiEvent>> m_trackEvents = new ArrayList<>();
+  /**
+   * The tick the sequence ends at, where cycle playback loops
+   */
+  private long m_endTick;
+  /**
+   * The track the end of the sequence is on
+   */
+  private int m_endTrack = -1;
 
 
   public MidiSynth() {
@@ -190,10 +235,86 @@ public class MidiSynth implements JMC, MetaEventListener {
     return evt;
   }
 
+  /**
+   * Create a Tempo Change event
+   *
+   * @param double tempo is the new tempo in beats per minute
+   * @param long tick is the time this event occurs
+   */
+  protected static MidiEvent createTempoEvent(double tempo, long tick)
+    throws InvalidMidiDataException {
+
+    int mpq = (int) Math.round(60000000.0 / tempo);
+    byte[] data = {(byte) (mpq >> 16), (byte) (mpq >> 8), (byte) mpq};
+    MetaMessage msg = new MetaMessage();
+    msg.setMessage(TEMPO_TYPE, data, data.length);
+    return new MidiEvent(msg, tick);
+  }
+
+  /**
+   * Create the meta event that marks the end of the sequence
+   *
+   * @param long tick is the time this event occurs
+   */
+  private static MidiEvent createStopEvent(long tick)
+    throws InvalidMidiDataException {
+
+    MetaMessage msg = new MetaMessage();
+    msg.setMessage(STOP_TYPE, new byte[0], 0);
+    return new MidiEvent(msg, tick);
+  }
+
+  /**
+   * Where an event goes among those of the same tick in EVENT_ORDER.
+   */
+  private static int rank(MidiEvent evt) {
+    int status = evt.getMessage().getStatus();
+    if (status == 0xFF) {
+      return 0;
+    }
+    switch (status & 0xF0) {
+      case ShortMessage.PROGRAM_CHANGE:
+        return 1;
+      case ShortMessage.CONTROL_CHANGE:
+        return 2;
+      case ShortMessage.NOTE_OFF:
+        return 3;
+      case ShortMessage.NOTE_ON:
+        return 4;
+      default:
+        return 5;
+    }
+  }
+
   public boolean isPlaying() {
     return isPlaying;
   }
 
+  /**
+   * Returns the playback position, in seconds from the start of the score.
+   */
+  public double getPosition() {
+    if (m_sequencer == null || m_tempoMap == null) {
+      return 0.0;
+    }
+    return m_tempoMap.getSeconds((double) m_sequencer.getTickPosition() / m_ppqn);
+  }
+
+  /**
+   * Moves playback to a time, found from the score's tempo
+   * changes without going through the sequence.
+   *
+   * @param seconds the time from the start of the score
+   */
+  public void setPosition(double seconds) {
+    if (m_sequencer == null || m_tempoMap == null) {
+      return;
+    }
+    double beat = m_tempoMap.getBeat(Math.max(seconds, 0.0));
+    m_sequencer.setTickPosition(Math.round(beat * m_ppqn));
+    m_sequencer.setTempoInBPM((float) m_tempoMap.getTempo(beat));
+  }
+
   /**
    * Plays the jMusic score data via the JavaSound MIDI synthesizer
    *
@@ -229,6 +350,7 @@ public class MidiSynth implements JMC, MetaEventListener {
       m_sequencer.addMetaEventListener(this);
       m_sequencer.setMicrosecondPosition(0l);
       m_sequencer.setTempoInBPM(m_masterTempo);
+      setLoopPoints();
 
       //printSeqInfo(seq);
       m_sequencer.start();
@@ -236,13 +358,64 @@ public class MidiSynth implements JMC, MetaEventListener {
     }
   }
 
+  /**
+   * Changes the score being played. Only the events that differ from
+   * those of the score playing are taken out of or put into the playing
+   * sequence, so playback carries on from where it is without a break.
+   * Notes which are sounding when their end is taken out are ended at once.
+   *
+   * @param score the new score
+   */
   public void updateSeq(Score score) throws InvalidMidiDataException {
-    update = true;
-    updateScore = score;
+    if (null == m_seq) {
+      return;
+    }
+    float tempo = m_masterTempo;
+    boolean playing = null != m_sequencer && m_sequencer.getSequence() == m_seq
+      && m_sequencer.isRunning();
+    List<ShortMessage> noteOffs = new ArrayList<>();
+    int changed = patchSeq(m_seq, score, playing ? m_sequencer.getTickPosition() : -1L,
+      noteOffs);
+    System.out.println("Updating playback sequence: " + changed + " events changed");
+    scoreTitle = score.getTitle();
+    if (null != m_sequencer && m_sequencer.getSequence() == m_seq) {
+      // setting the same sequence again makes the sequencer find its
+      // place in the changed tracks without moving or stopping notes
+      m_sequencer.setSequence(m_seq);
+      for (Transmitter transmitter : m_sequencer.getTransmitters()) {
+        Receiver receiver = transmitter.getReceiver();
+        for (int i = 0; receiver != null && i < noteOffs.size(); i++) {
+          receiver.send(noteOffs.get(i), -1L);
+        }
+      }
+      if (score.getTempoMap() == null && m_masterTempo != tempo) {
+        m_sequencer.setTempoInBPM(m_masterTempo);
+      }
+      setLoopPoints();
+    }
   }
 
   public void setCycle(Boolean val) {
     msCycle = val;
+    setLoopPoints();
+  }
+
+  /**
+   * Loops the sequencer over the whole sequence while cycling, so it
+   * goes back to the start without waiting for the end of track event.
+   * When cycling is turned off the sequence plays on to its end.
+   */
+  private void setLoopPoints() {
+    if (null == m_sequencer || null == m_seq || m_sequencer.getSequence() != m_seq) {
+      return;
+    }
+    if (msCycle && m_endTick > 0) {
+      m_sequencer.setLoopStartPoint(0);
+      m_sequencer.setLoopEndPoint(Math.min(m_endTick, m_seq.getTickLength()));
+      m_sequencer.setLoopCount(Sequencer.LOOP_CONTINUOUSLY);
+    } else {
+      m_sequencer.setLoopCount(0);
+    }
   }
 
   /**
@@ -254,26 +427,6 @@ public class MidiSynth implements JMC, MetaEventListener {
         return;
       }
     }
-    if (update) {
-      System.out.println("Updating playback sequence");
-      //Sequence seq;
-      try {
-        m_seq = scoreToSeq(updateScore);
-        if (null != m_seq) {
-          try {
-            m_sequencer.open();
-          } catch (MidiUnavailableException e) {
-            System.err.println("MIDI System Unavailable:" + e);
-            return;
-          }
-          m_sequencer.setSequence(m_seq);
-        }
-      } catch (InvalidMidiDataException e) {
-        System.err.println("MIDISynth updating sequence error:" + e);
-        return;
-      }
-      update = false;
-    }
     m_sequencer.setMicrosecondPosition(0l);
     m_sequencer.setTempoInBPM(m_masterTempo);
     m_sequencer.start();
@@ -322,7 +475,8 @@ public class MidiSynth implements JMC, MetaEventListener {
   public void meta(MetaMessage metaEvent) {
     //System.out.println("JavaSound sequencer sent meta event");
     if (metaEvent.getType() == STOP_TYPE) {
-      if (msCycle) {
+      // with loop points set the sequencer cycles by itself
+      if (msCycle && m_sequencer.getLoopCount() == 0) {
         rePlay();
       } else {
         stop();
@@ -353,14 +507,241 @@ public class MidiSynth implements JMC, MetaEventListener {
     System.out.println("PPQN = " + m_ppqn);
     Sequence sequence = new Sequence(Sequence.PPQ, m_ppqn);
 
+    m_trackEvents = scoreToEvents(score);
+    for (List<MidiEvent> events : m_trackEvents) {
+      Track track = sequence.createTrack();
+      for (MidiEvent evt : events) {
+        track.add(evt);
+      }
+    }
+
+    // add a meta event to indicate the end of the sequence.
+    if (m_endTick > 0) {
+      sequence.getTracks()[m_endTrack].add(createStopEvent(m_endTick));
+    }
+
+    System.out.println(
+      "[SEQUENCE] Length: " + sequence.getMicrosecondLength() + " tick length " + sequence
+        .getTickLength());
+
+    for (Track track : sequence.getTracks()) {
+      System.out.println("  [TRACK] ticks: " + track.ticks());
+
+      for (int i = 0; i < track.size(); i++) {
+        MidiEvent event = track.get(i);
+        System.out.println("    [EVENT] ticks: " + event.getTick());
+        System.out.println("    [EVENT-MESSAGE] length: " + event.getMessage().getLength());
+        System.out.println("     |||Butes: " + bytesToHex(event.getMessage().getMessage()));
+      }
+    }
+
+    return sequence;
+  }
+
+  /**
+   * Changes a sequence made by scoreToSeq into that of another score.
+   * The events of each track are compared with the new score's, tick by
+   * tick, and only the ticks whose events differ are taken out and put
+   * back, so the events of unchanged parts, and the unchanged events of
+   * changed parts, stay as they are. Tracks are added or deleted when
+   * the number of parts changes.
+   *
+   * @param sequence the sequence last made from a score by this MidiSynth
+   * @param score    the new score
+   * @return the number of events taken out and put in
+   */
+  protected int patchSeq(Sequence sequence, Score score)
+    throws InvalidMidiDataException {
+    return patchSeq(sequence, score, -1L, null);
+  }
+
+  /**
+   * Changes a sequence made by scoreToSeq into that of another score, as
+   * patchSeq(sequence, score) does, while the sequence is being played.
+   * A note which has started by the tick being played but whose end is
+   * no longer the next event of its pitch would be left sounding, so a
+   * NoteOff for it is added to noteOffs, to be sent straight away.
+   *
+   * @param sequence the sequence last made from a score by this MidiSynth
+   * @param score    the new score
+   * @param position the tick being played, or -1 if the sequence is not playing
+   * @param noteOffs the list to add the NoteOffs of notes left sounding to,
+   *                 or null
+   * @return the number of events taken out and put in
+   */
+  protected int patchSeq(Sequence sequence, Score score, long position,
+                         List<ShortMessage> noteOffs) throws InvalidMidiDataException {
+    List<List<MidiEvent>> newEvents = scoreToEvents(score);
+    int changed = 0;
+    Track[] tracks = sequence.getTracks();
+    for (int t = newEvents.size(); t < tracks.length; t++) {
+      changed += m_trackEvents.get(t).size();
+      addHangingNotes(m_trackEvents.get(t), new ArrayList<MidiEvent>(), position, noteOffs);
+      sequence.deleteTrack(tracks[t]);
+    }
+    for (int t = 0; t < newEvents.size(); t++) {
+      Track track = t < tracks.length ? tracks[t] : sequence.createTrack();
+      List<MidiEvent> oldEvents = t < m_trackEvents.size()
+        ? m_trackEvents.get(t) : new ArrayList<MidiEvent>();
+      addHangingNotes(oldEvents, newEvents.get(t), position, noteOffs);
+      changed += patchTrack(track, oldEvents, newEvents.get(t));
+      // the end of the track follows its last event, which may be earlier now
+      MidiEvent end = track.get(track.size() - 1);
+      long last = track.size() > 1 ? track.get(track.size() - 2).getTick() : 0;
+      end.setTick(t == m_endTrack ? Math.max(last, m_endTick) : last);
+    }
+    m_trackEvents = newEvents;
+    return changed;
+  }
+
+  /**
+   * Adds a NoteOff to noteOffs for each note of oldEvents sounding at
+   * tick position whose next event after position in newEvents is not
+   * a NoteOff, so that the patched track would leave it sounding.
+   */
+  private static void addHangingNotes(List<MidiEvent> oldEvents, List<MidiEvent> newEvents,
+                                      long position, List<ShortMessage> noteOffs)
+    throws InvalidMidiDataException {
+    if (position < 0 || noteOffs == null) {
+      return;
+    }
+    int[] sounding = new int[16 * 128];
+    for (MidiEvent event : oldEvents) {
+      if (event.getTick() > position) {
+        break;
+      }
+      int key = noteKey(event);
+      if (key >= 0 && isNoteOn(event)) {
+        sounding[key]++;
+      } else if (key >= 0 && sounding[key] > 0) {
+        sounding[key]--;
+      }
+    }
+    boolean[] seen = new boolean[16 * 128];
+    boolean[] ended = new boolean[16 * 128];
+    for (MidiEvent event : newEvents) {
+      int key = noteKey(event);
+      if (event.getTick() > position && key >= 0 && !seen[key]) {
+        seen[key] = true;
+        ended[key] = !isNoteOn(event);
+      }
+    }
+    for (int key = 0; key < sounding.length; key++) {
+      if (sounding[key] > 0 && !ended[key]) {
+        ShortMessage noteOff = new ShortMessage();
+        noteOff.setMessage(ShortMessage.NOTE_OFF, key / 128, key % 128, 0);
+        noteOffs.add(noteOff);
+      }
+    }
+  }
+
+  /**
+   * Returns the channel and pitch of a NoteOn or NoteOff event
+   * as channel * 128 + pitch, or -1 for other events.
+   */
+  private static int noteKey(MidiEvent event) {
+    MidiMessage message = event.getMessage();
+    if (!(message instanceof ShortMessage)) {
+      return -1;
+    }
+    ShortMessage shortMessage = (ShortMessage) message;
+    int command = shortMessage.getCommand();
+    if (command != ShortMessage.NOTE_ON && command != ShortMessage.NOTE_OFF) {
+      return -1;
+    }
+    return shortMessage.getChannel() * 128 + shortMessage.getData1();
+  }
+
+  /**
+   * Is the event a NoteOn with a velocity, rather than a NoteOff?
+   */
+  private static boolean isNoteOn(MidiEvent event) {
+    ShortMessage message = (ShortMessage) event.getMessage();
+    return message.getCommand() == ShortMessage.NOTE_ON && message.getData2() > 0;
+  }
+
+  /**
+   * Brings a track's events from one sorted list of events to another,
+   * replacing the events of each tick where the two lists differ.
+   *
+   * @return the number of events taken out and put in
+   */
+  private static int patchTrack(Track track, List<MidiEvent> oldEvents,
+                                List<MidiEvent> newEvents) {
+    int changed = 0;
+    int i = 0;
+    int j = 0;
+    while (i < oldEvents.size() || j < newEvents.size()) {
+      long tick = Math.min(
+        i < oldEvents.size() ? oldEvents.get(i).getTick() : Long.MAX_VALUE,
+        j < newEvents.size() ? newEvents.get(j).getTick() : Long.MAX_VALUE);
+      int oldEnd = i;
+      while (oldEnd < oldEvents.size() && oldEvents.get(oldEnd).getTick() == tick) {
+        oldEnd++;
+      }
+      int newEnd = j;
+      while (newEnd < newEvents.size() && newEvents.get(newEnd).getTick() == tick) {
+        newEnd++;
+      }
+      boolean same = oldEnd - i == newEnd - j;
+      for (int k = 0; same && k < oldEnd - i; k++) {
+        same = EVENT_ORDER.compare(oldEvents.get(i + k), newEvents.get(j + k)) == 0;
+      }
+      if (same) {
+        // keep the events already in the track
+        for (int k = 0; k < newEnd - j; k++) {
+          newEvents.set(j + k, oldEvents.get(i + k));
+        }
+      } else {
+        // a track puts an event after those of the same tick,
+        // so the whole tick is put back in order
+        for (int k = i; k < oldEnd; k++) {
+          track.remove(oldEvents.get(k));
+        }
+        for (int k = j; k < newEnd; k++) {
+          track.add(newEvents.get(k));
+        }
+        changed += (oldEnd - i) + (newEnd - j);
+      }
+      i = oldEnd;
+      j = newEnd;
+    }
+    return changed;
+  }
+
+  /**
+   * Converts jmusic score data into the events of each track of a
+   * sequence, sorted by EVENT_ORDER, with a first track of tempo
+   * changes when the score has a tempo map. The end of the sequence
+   * is left in m_endTick and the track it is on in m_endTrack.
+   *
+   * @param Score score - data to play
+   * @return the events of each track
+   */
+  private List<List<MidiEvent>> scoreToEvents(Score score)
+    throws InvalidMidiDataException {
+    List<List<MidiEvent>> trackEvents = new ArrayList<>();
+
     m_masterTempo = m_currentTempo =
       new Float(score.getTempo()).floatValue();
 
     System.out.println("Начальный темп: master " + m_masterTempo + " текущий " + m_currentTempo);
 
-    Track longestTrack = null;
+    //the score's tempo changes go on a track of their own
+    m_tempoMap = score.getTempoMap();
+    if (m_tempoMap != null) {
+      List<MidiEvent> tempoTrack = new ArrayList<>();
+      for (int i = 0; i < m_tempoMap.size(); i++) {
+        tempoTrack.add(createTempoEvent(m_tempoMap.getSegmentTempo(i),
+          Math.round(m_tempoMap.getSegmentBeat(i) * m_ppqn)));
+      }
+      trackEvents.add(tempoTrack);
+    } else {
+      m_tempoMap = new TempoMap(score.getTempo());
+    }
+
+    int longestTrack = -1;
     double longestTime = 0.0;
-    double longestRatio = 1.0;
 
     Enumeration parts = score.getPartList().elements();
     System.out.println("Начинаю обработку частей: ");
@@ -400,7 +781,8 @@ public class MidiSynth implements JMC, MetaEventListener {
       double max = 0;
       double currentTime = 0.0;
 
-      Track currTrack = sequence.createTrack();
+      List<MidiEvent> currTrack = new ArrayList<>();
+      trackEvents.add(currTrack);
       System.out.println("Начинаю обработку фраз ... ");
       while (phrases.hasMoreElements()) {
         /////////////////////////////////////////////////
@@ -410,8 +792,6 @@ public class MidiSynth implements JMC, MetaEventListener {
         // ////////////////////////////
         Phrase phrase = (Phrase) phrases.nextElement();
 
-        //Track currTrack = sequence.createTrack();
-
         currentTime = phrase.getStartTime();
         long phraseTick = (long) (currentTime * m_ppqn * trackTempoRatio);
         MidiEvent evt;
@@ -473,8 +853,7 @@ public class MidiSynth implements JMC, MetaEventListener {
           //	       " length * ppq = " + (m_ppqn * score.getEndTime()));
           if ((double) offTick > longestTime) {
             longestTime = (double) offTick;
-            longestTrack = currTrack;
-            //longestRatio = trackTempoRatio;
+            longestTrack = trackEvents.size() - 1;
           }
         }
 
@@ -485,36 +864,12 @@ public class MidiSynth implements JMC, MetaEventListener {
       Float d = (Float) m_tempoHistory.pop();
       m_currentTempo = d.floatValue();
 
+      currTrack.sort(EVENT_ORDER);
     }
 
-    // add a meta event to indicate the end of the sequence.
-    if (longestTime > 0.0 && longestTrack != null) {
-      MetaMessage msg = new MetaMessage();
-      byte[] data = new byte[0];
-      msg.setMessage(STOP_TYPE, data, 0);
-      MidiEvent evt = new MidiEvent(msg,
-        (long) longestTime); //+ 100 if you want leave some space for reverb tail
-      longestTrack.add(evt);
-    }
-
-    //sequence.
-
-    System.out.println(
-      "[SEQUENCE] Length: " + sequence.getMicrosecondLength() + " tick length " + sequence
-        .getTickLength());
-
-    for (Track track : sequence.getTracks()) {
-      System.out.println("  [TRACK] ticks: " + track.ticks());
-
-      for (int i = 0; i < track.size(); i++) {
-        MidiEvent event = track.get(i);
-        System.out.println("    [EVENT] ticks: " + event.getTick());
-        System.out.println("    [EVENT-MESSAGE] length: " + event.getMessage().getLength());
-        System.out.println("     |||Butes: " + bytesToHex(event.getMessage().getMessage()));
-      }
-    }
-
-    return sequence;
+    m_endTick = (long) longestTime; //+ 100 if you want leave some space for reverb tail
+    m_endTrack = longestTrack;
+    return trackEvents;
   }
 
 
@@ -0,0 +1,125 @@
+/*
+
+<This Java Class is part of the jMusic API version 1.5, March 2004.>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+package jm.midi;
+
+/**
+ * A note read from a MIDI file, made of a note on event and the note
+ * off event which ends it, with its times in ticks and in seconds.
+ * NoteEventReader reads them one at a time.
+ */
+public final class NoteEvent {
+
+  private final int track;
+  private final int channel;
+  private final int pitch;
+  private final int velocity;
+  private final long startTick;
+  private final long durationTicks;
+  private final double startSeconds;
+  private final double durationSeconds;
+
+  /**
+   * Creates a note.
+   *
+   * @param track           the number of the track the note is in, from 0
+   * @param channel         the MIDI channel, 0 to 15
+   * @param pitch           the MIDI pitch, 0 to 127
+   * @param velocity        the note on velocity, 1 to 127
+   * @param startTick       when the note starts, in ticks from the start of the file
+   * @param durationTicks   how long the note lasts, in ticks
+   * @param startSeconds    when the note starts, in seconds from the start of the file
+   * @param durationSeconds how long the note lasts, in seconds
+   */
+  public NoteEvent(int track, int channel, int pitch, int velocity, long startTick,
+                   long durationTicks, double startSeconds, double durationSeconds) {
+    this.track = track;
+    this.channel = channel;
+    this.pitch = pitch;
+    this.velocity = velocity;
+    this.startTick = startTick;
+    this.durationTicks = durationTicks;
+    this.startSeconds = startSeconds;
+    this.durationSeconds = durationSeconds;
+  }
+
+  /**
+   * Returns the number of the track the note is in, from 0.
+   */
+  public int getTrack() {
+    return track;
+  }
+
+  /**
+   * Returns the MIDI channel, 0 to 15.
+   */
+  public int getChannel() {
+    return channel;
+  }
+
+  /**
+   * Returns the MIDI pitch, 0 to 127.
+   */
+  public int getPitch() {
+    return pitch;
+  }
+
+  /**
+   * Returns the note on velocity.
+   */
+  public int getVelocity() {
+    return velocity;
+  }
+
+  /**
+   * Returns when the note starts, in ticks from the start of the file.
+   */
+  public long getStartTick() {
+    return startTick;
+  }
+
+  /**
+   * Returns how long the note lasts, in ticks.
+   */
+  public long getDurationTicks() {
+    return durationTicks;
+  }
+
+  /**
+   * Returns when the note starts, in seconds from the start of the file.
+   */
+  public double getStartSeconds() {
+    return startSeconds;
+  }
+
+  /**
+   * Returns how long the note lasts, in seconds.
+   */
+  public double getDurationSeconds() {
+    return durationSeconds;
+  }
+
+  public String toString() {
+    return "NoteEvent[track = " + track + ", channel = " + channel + ", pitch = " + pitch
+      + ", velocity = " + velocity + ", start = " + startTick + " ticks, " + startSeconds
+      + " s, duration = " + durationTicks + " ticks, " + durationSeconds + " s]";
+  }
+}
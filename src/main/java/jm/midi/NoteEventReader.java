@@ -0,0 +1,348 @@
+/*
+
+<This Java Class is part of the jMusic API version 1.5, March 2004.>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+package jm.midi;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads the notes of a standard MIDI file one at a time, without making
+ * Tracks, Events or a Score, for when only the notes and their times are
+ * wanted. The tracks are read together in tick order, and each note on is
+ * paired with the note off that ends it, first in first out for each
+ * track, channel and pitch. Notes come out in the order they start, with
+ * their times in seconds worked out from the tempo events read so far.
+ * <p>
+ * Besides the file data, which is mapped rather than copied when read
+ * from a file, only the notes still sounding and those started after
+ * them are held, so the memory used does not grow with the length of
+ * the file. Notes never ended end with the last track.
+ * <p>
+ * Problems with the data found while reading notes are thrown as
+ * UncheckedIOExceptions.
+ */
+public final class NoteEventReader implements Iterator<NoteEvent> {
+
+  /**
+   * The tempo until a file sets one, in microseconds per quarter note
+   */
+  private static final int DEFAULT_TEMPO = 500000;
+
+  /**
+   * The tracks with events left, by the tick of their next event
+   */
+  private final PriorityQueue<TrackReader> tracks;
+  /**
+   * Notes started and not yet returned, in the order they start
+   */
+  private final ArrayDeque<Pending> started = new ArrayDeque<>();
+  /**
+   * True if the file's ticks are frames of SMPTE time, which tempo
+   * events do not change
+   */
+  private final boolean smpte;
+  /**
+   * The ticks per quarter note, if not SMPTE
+   */
+  private final int ppqn;
+  /**
+   * The tick and time in seconds the tempo last changed at
+   */
+  private long tempoTick;
+  private double tempoSeconds;
+  private double secondsPerTick;
+  /**
+   * The tick of the last event read
+   */
+  private long lastTick;
+
+  /**
+   * Reads the notes of a MIDI file, mapping it into memory.
+   *
+   * @param file the file to read
+   * @throws IOException if the file can not be read or is not a MIDI file
+   */
+  public NoteEventReader(File file) throws IOException {
+    this(map(file));
+  }
+
+  /**
+   * Reads the notes of standard MIDI file data, from the buffer's
+   * position to its limit.
+   *
+   * @param buffer the MIDI file data
+   * @throws IOException if the data is not a MIDI file, or a track's
+   *                     first event can not be read
+   */
+  public NoteEventReader(ByteBuffer buffer) throws IOException {
+    SMF smf = new SMF();
+    List<ByteBuffer> chunks = smf.readChunks(buffer);
+    int division = smf.getPPQN();
+    if (division < 0) {
+      // frames per second and ticks per frame
+      int fps = -(division >> 8);
+      double frames = (fps == 29) ? 29.97 : fps;
+      this.smpte = true;
+      this.ppqn = 0;
+      this.secondsPerTick = 1.0 / (frames * (division & 0xFF));
+    } else {
+      this.smpte = false;
+      this.ppqn = division;
+      this.secondsPerTick = DEFAULT_TEMPO / 1000000.0 / division;
+    }
+    this.tracks = new PriorityQueue<>(Math.max(chunks.size(), 1),
+      (a, b) -> (a.tick != b.tick) ? Long.compare(a.tick, b.tick)
+        : Integer.compare(a.number, b.number));
+    for (int i = 0; i < chunks.size(); i++) {
+      TrackReader track = new TrackReader(chunks.get(i), i);
+      try {
+        if (track.advance()) {
+          tracks.add(track);
+        }
+      } catch (UncheckedIOException uioe) {
+        throw uioe.getCause();
+      }
+    }
+  }
+
+  private static ByteBuffer map(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  /**
+   * Returns the notes as an ordered Stream.
+   */
+  public Stream<NoteEvent> stream() {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+      Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  public boolean hasNext() {
+    while (started.isEmpty() || started.peekFirst().endTick < 0) {
+      if (!step()) {
+        // the notes never ended end with the last track
+        for (Pending note : started) {
+          if (note.endTick < 0) {
+            note.end(lastTick, seconds(lastTick));
+          }
+        }
+        break;
+      }
+    }
+    return !started.isEmpty();
+  }
+
+  public NoteEvent next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return started.pollFirst().toNoteEvent();
+  }
+
+  /**
+   * Reads the next event of all the tracks.
+   *
+   * @return false if there are none left
+   */
+  private boolean step() {
+    TrackReader track = tracks.poll();
+    if (track == null) {
+      return false;
+    }
+    long tick = track.tick;
+    lastTick = tick;
+    int status = track.status;
+    if (status < 0xF0) {
+      int command = status & 0xF0;
+      int channel = status & 0x0F;
+      if (command == 0x90 && track.data2 > 0) {
+        Pending note = new Pending(track.number, channel, track.data1, track.data2,
+          tick, seconds(tick));
+        track.sounding(channel, track.data1).addLast(note);
+        started.addLast(note);
+      } else if (command == 0x80 || command == 0x90) {
+        ArrayDeque<Pending> sounding = track.sounding(channel, track.data1);
+        if (!sounding.isEmpty()) {
+          sounding.pollFirst().end(tick, seconds(tick));
+        }
+      }
+    } else if (status == 0xFF && track.data1 == 0x51 && track.payloadLength >= 3 && !smpte) {
+      ByteBuffer chunk = track.chunk;
+      int at = track.payloadStart;
+      int tempo = ((chunk.get(at) & 0xFF) << 16) | ((chunk.get(at + 1) & 0xFF) << 8)
+        | (chunk.get(at + 2) & 0xFF);
+      tempoSeconds = seconds(tick);
+      tempoTick = tick;
+      secondsPerTick = tempo / 1000000.0 / ppqn;
+    }
+    if (track.advance()) {
+      tracks.add(track);
+    }
+    return true;
+  }
+
+  /**
+   * The time of a tick no earlier than the last tempo change, in seconds
+   */
+  private double seconds(long tick) {
+    return tempoSeconds + (tick - tempoTick) * secondsPerTick;
+  }
+
+  /**
+   * A note that has started, and may have ended
+   */
+  private static final class Pending {
+    final int track;
+    final int channel;
+    final int pitch;
+    final int velocity;
+    final long startTick;
+    final double startSeconds;
+    long endTick = -1;
+    double endSeconds;
+
+    Pending(int track, int channel, int pitch, int velocity, long startTick,
+            double startSeconds) {
+      this.track = track;
+      this.channel = channel;
+      this.pitch = pitch;
+      this.velocity = velocity;
+      this.startTick = startTick;
+      this.startSeconds = startSeconds;
+    }
+
+    void end(long tick, double seconds) {
+      this.endTick = tick;
+      this.endSeconds = seconds;
+    }
+
+    NoteEvent toNoteEvent() {
+      return new NoteEvent(track, channel, pitch, velocity, startTick, endTick - startTick,
+        startSeconds, endSeconds - startSeconds);
+    }
+  }
+
+  /**
+   * Reads the events of a track chunk one at a time, keeping only
+   * the one last read.
+   */
+  private static final class TrackReader {
+    final ByteBuffer chunk;
+    final int number;
+    /**
+     * The notes sounding, by channel and pitch
+     */
+    private final ArrayDeque<Pending>[] sounding;
+    private int runningStatus;
+    long tick;
+    int status;
+    /**
+     * The data bytes of a voice event, or a meta event's type
+     */
+    int data1;
+    int data2;
+    /**
+     * Where the data of a meta or system exclusive event is in the chunk
+     */
+    int payloadStart;
+    int payloadLength;
+
+    @SuppressWarnings("unchecked")
+    TrackReader(ByteBuffer chunk, int number) {
+      this.chunk = chunk;
+      this.number = number;
+      this.sounding = new ArrayDeque[16 * 128];
+    }
+
+    ArrayDeque<Pending> sounding(int channel, int pitch) {
+      int key = channel * 128 + pitch;
+      if (sounding[key] == null) {
+        sounding[key] = new ArrayDeque<>(4);
+      }
+      return sounding[key];
+    }
+
+    /**
+     * Reads the next event.
+     *
+     * @return false if the track has no more
+     */
+    boolean advance() {
+      if (!chunk.hasRemaining()) {
+        return false;
+      }
+      try {
+        tick += PackedTrack.readVarLength(chunk);
+        int next = chunk.get(chunk.position()) & 0xFF;
+        if (next < 0x80) {
+          if (runningStatus == 0) {
+            throw new UncheckedIOException(new IOException("jMusic SMF error: track "
+              + number + " has data where an event should start"));
+          }
+          next = runningStatus;
+        } else {
+          chunk.get();
+        }
+        status = next;
+        if (status >= 0xF0) {
+          data1 = (status == 0xFF) ? chunk.get() & 0xFF : 0;
+          payloadLength = PackedTrack.readVarLength(chunk);
+          payloadStart = chunk.position();
+          if (payloadLength > chunk.remaining()) {
+            throw new BufferUnderflowException();
+          }
+          chunk.position(payloadStart + payloadLength);
+          if (status == 0xFF && data1 == 0x2F) {
+            // nothing after the end of the track is read
+            chunk.position(chunk.limit());
+          }
+        } else {
+          data1 = chunk.get() & 0x7F;
+          int command = status & 0xF0;
+          data2 = (command == 0xC0 || command == 0xD0) ? 0 : chunk.get() & 0x7F;
+          runningStatus = status;
+        }
+        return true;
+      } catch (BufferUnderflowException bue) {
+        throw new UncheckedIOException(new EOFException("jMusic SMF error: track " + number
+          + " ends in the middle of an event"));
+      }
+    }
+  }
+}
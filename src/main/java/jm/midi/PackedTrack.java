@@ -0,0 +1,653 @@
+/*
+
+<This Java Class is part of the jMusic API version 1.5, March 2004.>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+package jm.midi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Enumeration;
+
+import jm.midi.event.Event;
+import jm.midi.event.VoiceEvt;
+
+/**
+ * A MIDI track's events held in arrays of primitives rather than as an
+ * Event object each, for tracks too long to hold as Event objects. Each
+ * event keeps its delta time, status byte and two data bytes. Meta and
+ * system exclusive events keep their data in one shared array, the arena,
+ * with a meta event's type as its first data byte. Events there is no
+ * Event class for, such as text events, are kept as well.
+ * <p>
+ * A Cursor steps through the events without making any objects,
+ * getEvent and toTrack make Event objects for code that works with those.
+ */
+public final class PackedTrack {
+
+  /**
+   * The status byte of meta events
+   */
+  public static final int META = 0xFF;
+
+  /**
+   * The number of events
+   */
+  private int size;
+  /**
+   * The delta time of each event, in ticks
+   */
+  private int[] times;
+  /**
+   * The status byte of each event
+   */
+  private byte[] status;
+  /**
+   * The first data byte of each event, a meta event's type
+   */
+  private byte[] data1;
+  /**
+   * The second data byte of each event
+   */
+  private byte[] data2;
+  /**
+   * The index of each event with a payload, in order
+   */
+  private int[] payloadEvents;
+  /**
+   * Where the payload of each of those events starts in the arena,
+   * it ends where the next starts
+   */
+  private int[] payloadStarts;
+  /**
+   * The number of events with a payload
+   */
+  private int payloads;
+  /**
+   * The meta and system exclusive event data
+   */
+  private byte[] arena;
+  /**
+   * The number of bytes of the arena used
+   */
+  private int arenaSize;
+
+  /**
+   * Creates an empty track.
+   */
+  public PackedTrack() {
+    this(16);
+  }
+
+  /**
+   * Creates an empty track with room for a number of events.
+   *
+   * @param capacity the number of events to make room for
+   */
+  public PackedTrack(int capacity) {
+    capacity = Math.max(capacity, 1);
+    this.times = new int[capacity];
+    this.status = new byte[capacity];
+    this.data1 = new byte[capacity];
+    this.data2 = new byte[capacity];
+    this.payloadEvents = new int[4];
+    this.payloadStarts = new int[4];
+    this.arena = new byte[64];
+  }
+
+  /**
+   * Packs the events of a Track.
+   *
+   * @param track the track to pack
+   * @throws IOException if an event can not be written
+   */
+  public static PackedTrack of(Track track) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(baos);
+    Enumeration aEnum = track.getEvtList().elements();
+    while (aEnum.hasMoreElements()) {
+      ((Event) aEnum.nextElement()).write(dos);
+    }
+    dos.flush();
+    return read(ByteBuffer.wrap(baos.toByteArray()));
+  }
+
+  /**
+   * Reads the events of a MIDI file track chunk, from the buffer's position
+   * to its limit, up to the end of track event.
+   *
+   * @param chunk the track's data, without the chunk's type and length
+   * @throws IOException if the data is not a track or is cut short
+   */
+  public static PackedTrack read(ByteBuffer chunk) throws IOException {
+    return read(chunk, 0);
+  }
+
+  /**
+   * Reads a track chunk.
+   *
+   * @param chunk  the track's data
+   * @param number the track's number, for error messages
+   */
+  static PackedTrack read(ByteBuffer chunk, int number) throws IOException {
+    // an event takes three bytes or more
+    PackedTrack track = new PackedTrack(chunk.remaining() / 4 + 16);
+    try {
+      int runningStatus = 0;
+      while (chunk.hasRemaining()) {
+        int deltaTime = readVarLength(chunk);
+        int status = chunk.get(chunk.position()) & 0xFF;
+        if (status < 0x80) {
+          if (runningStatus == 0) {
+            throw new IOException("jMusic SMF error: track " + number
+              + " has data where an event should start");
+          }
+          status = runningStatus;
+        } else {
+          chunk.get();
+        }
+        if (status >= 0xF0) {
+          int type = (status == META) ? chunk.get() & 0xFF : 0;
+          int length = readVarLength(chunk);
+          if (length > chunk.remaining()) {
+            throw new EOFException("jMusic SMF error: track " + number
+              + " ends in the middle of an event");
+          }
+          track.addPayloadEvent(deltaTime, status, type, length);
+          chunk.get(track.arena, track.arenaSize - length, length);
+          if (status == META && type == 0x2F) {
+            break;
+          }
+        } else {
+          int first = chunk.get();
+          int second = (dataLength(status) == 2) ? chunk.get() : 0;
+          track.addEvent(deltaTime, status, first, second);
+          runningStatus = status;
+        }
+      }
+    } catch (BufferUnderflowException bue) {
+      throw new EOFException("jMusic SMF error: track " + number
+        + " ends in the middle of an event");
+    }
+    return track;
+  }
+
+  /**
+   * Reads a variable length value
+   */
+  static int readVarLength(ByteBuffer buffer) {
+    int c = buffer.get() & 0xFF;
+    int value = c & 0x7F;
+    while ((c & 0x80) != 0) {
+      c = buffer.get() & 0xFF;
+      value = (value << 7) + (c & 0x7F);
+    }
+    return value;
+  }
+
+  /**
+   * The number of data bytes of a voice event
+   */
+  private static int dataLength(int status) {
+    int command = status & 0xF0;
+    return (command == 0xC0 || command == 0xD0) ? 1 : 2;
+  }
+
+  //----------------------------------------------
+  // Adding events
+  //----------------------------------------------
+
+  /**
+   * Adds a voice event, such as a note on or a control change.
+   *
+   * @param time   the time since the last event, in ticks
+   * @param status the status byte, 0x80 to 0xEF
+   * @param data1  the first data byte
+   * @param data2  the second data byte, 0 if the event has only one
+   */
+  public void addEvent(int time, int status, int data1, int data2) {
+    if (status < 0x80 || status >= 0xF0) {
+      throw new IllegalArgumentException("jMusic PackedTrack error: "
+        + Integer.toHexString(status) + " is not the status of a voice event");
+    }
+    add(time, status, data1, data2);
+  }
+
+  /**
+   * Adds a meta event.
+   *
+   * @param time    the time since the last event, in ticks
+   * @param type    the meta event's type, such as 0x51 for tempo
+   * @param payload the event's data
+   * @param offset  where the data starts in payload
+   * @param length  the number of bytes of data
+   */
+  public void addMetaEvent(int time, int type, byte[] payload, int offset, int length) {
+    addPayloadEvent(time, META, type, length);
+    System.arraycopy(payload, offset, arena, arenaSize - length, length);
+  }
+
+  /**
+   * Adds a system exclusive event.
+   *
+   * @param time    the time since the last event, in ticks
+   * @param status  the status byte, 0xF0 or 0xF7
+   * @param payload the event's data, without its length
+   * @param offset  where the data starts in payload
+   * @param length  the number of bytes of data
+   */
+  public void addSysExEvent(int time, int status, byte[] payload, int offset, int length) {
+    if (status < 0xF0 || status == META) {
+      throw new IllegalArgumentException("jMusic PackedTrack error: "
+        + Integer.toHexString(status) + " is not the status of a system exclusive event");
+    }
+    addPayloadEvent(time, status, 0, length);
+    System.arraycopy(payload, offset, arena, arenaSize - length, length);
+  }
+
+  /**
+   * Adds an event with room for its payload at the end of the arena
+   */
+  private void addPayloadEvent(int time, int status, int type, int length) {
+    if (payloads == payloadEvents.length) {
+      payloadEvents = Arrays.copyOf(payloadEvents, payloads * 2);
+      payloadStarts = Arrays.copyOf(payloadStarts, payloads * 2);
+    }
+    if (arenaSize + length > arena.length) {
+      arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+    }
+    payloadEvents[payloads] = size;
+    payloadStarts[payloads] = arenaSize;
+    payloads++;
+    arenaSize += length;
+    add(time, status, type, 0);
+  }
+
+  private void add(int time, int status, int first, int second) {
+    if (size == times.length) {
+      int capacity = size * 2;
+      times = Arrays.copyOf(times, capacity);
+      this.status = Arrays.copyOf(this.status, capacity);
+      data1 = Arrays.copyOf(data1, capacity);
+      data2 = Arrays.copyOf(data2, capacity);
+    }
+    times[size] = time;
+    this.status[size] = (byte) status;
+    data1[size] = (byte) first;
+    data2[size] = (byte) second;
+    size++;
+  }
+
+  /**
+   * Lets go of any room kept for events that were never added.
+   */
+  public void trimToSize() {
+    times = Arrays.copyOf(times, Math.max(size, 1));
+    status = Arrays.copyOf(status, times.length);
+    data1 = Arrays.copyOf(data1, times.length);
+    data2 = Arrays.copyOf(data2, times.length);
+    payloadEvents = Arrays.copyOf(payloadEvents, Math.max(payloads, 1));
+    payloadStarts = Arrays.copyOf(payloadStarts, payloadEvents.length);
+    arena = Arrays.copyOf(arena, arenaSize);
+  }
+
+  //----------------------------------------------
+  // Reading events
+  //----------------------------------------------
+
+  /**
+   * Returns the number of events.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns an event's time since the event before it, in ticks.
+   */
+  public int getTime(int index) {
+    check(index);
+    return times[index];
+  }
+
+  /**
+   * Returns an event's status byte, 0xFF for meta events.
+   */
+  public int getStatus(int index) {
+    check(index);
+    return status[index] & 0xFF;
+  }
+
+  /**
+   * Returns an event's first data byte, or a meta event's type.
+   */
+  public int getData1(int index) {
+    check(index);
+    return data1[index] & 0xFF;
+  }
+
+  /**
+   * Returns an event's second data byte.
+   */
+  public int getData2(int index) {
+    check(index);
+    return data2[index] & 0xFF;
+  }
+
+  /**
+   * Returns the data of a meta or system exclusive event, which is
+   * not copied, or an empty buffer for other events.
+   */
+  public ByteBuffer getPayload(int index) {
+    check(index);
+    int slot = payloadSlot(index);
+    if (slot < 0) {
+      return ByteBuffer.allocate(0);
+    }
+    return ByteBuffer.wrap(arena, payloadStarts[slot], payloadLength(slot)).slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Makes an Event object of an event.
+   *
+   * @return the event, or null if there is no Event class for it
+   * @throws IOException if the event's data is too short for its Event class
+   */
+  public Event getEvent(int index) throws IOException {
+    check(index);
+    return event(index, payloadSlot(index), new PayloadReader());
+  }
+
+  /**
+   * Makes a Track of the events there are Event classes for. The time
+   * of any event left out is added to the event after it.
+   *
+   * @throws IOException if an event's data is too short for its Event class
+   */
+  public Track toTrack() throws IOException {
+    Track track = new Track();
+    PayloadReader reader = new PayloadReader();
+    int slot = 0;
+    int skipped = 0;
+    for (int i = 0; i < size; i++) {
+      boolean hasPayload = slot < payloads && payloadEvents[slot] == i;
+      Event event = event(i, hasPayload ? slot : -1, reader);
+      if (hasPayload) {
+        slot++;
+      }
+      if (event == null) {
+        skipped += times[i];
+        continue;
+      }
+      event.setTime(event.getTime() + skipped);
+      skipped = 0;
+      track.addEvent(event);
+    }
+    return track;
+  }
+
+  /**
+   * Returns a cursor before the first event.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  private Event event(int index, int slot, PayloadReader reader) throws IOException {
+    int eventStatus = status[index] & 0xFF;
+    Event event;
+    if (eventStatus == META) {
+      event = MidiUtil.createMetaEvent(data1[index] & 0xFF);
+      if (event == null) {
+        return null;
+      }
+      reader.set(arena, payloadStarts[slot], payloadLength(slot));
+    } else if (eventStatus >= 0xF0) {
+      return null;
+    } else {
+      VoiceEvt evt = (VoiceEvt) MidiUtil.createVoiceEvent(eventStatus >> 4);
+      evt.setMidiChannel((short) (eventStatus & 0x0F));
+      event = evt;
+      reader.set(data1[index], data2[index]);
+    }
+    event.setTime(times[index]);
+    event.read(reader.dis);
+    return event;
+  }
+
+  private int payloadSlot(int index) {
+    int slot = Arrays.binarySearch(payloadEvents, 0, payloads, index);
+    return (slot < 0) ? -1 : slot;
+  }
+
+  private int payloadLength(int slot) {
+    return ((slot + 1 < payloads) ? payloadStarts[slot + 1] : arenaSize) - payloadStarts[slot];
+  }
+
+  private void check(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("jMusic PackedTrack error: event " + index
+        + " of " + size);
+    }
+  }
+
+  /**
+   * Feeds an event's data to Event.read, reused from event to event.
+   */
+  private static final class PayloadReader extends InputStream {
+    private final byte[] voice = new byte[2];
+    private byte[] bytes;
+    private int position;
+    private int end;
+    final DataInputStream dis = new DataInputStream(this);
+
+    void set(byte[] bytes, int offset, int length) {
+      this.bytes = bytes;
+      this.position = offset;
+      this.end = offset + length;
+    }
+
+    void set(byte first, byte second) {
+      voice[0] = first;
+      voice[1] = second;
+      set(voice, 0, 2);
+    }
+
+    public int read() {
+      return (position < end) ? bytes[position++] & 0xFF : -1;
+    }
+
+    public int read(byte[] b, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (position == end) {
+        return -1;
+      }
+      int count = Math.min(length, end - position);
+      System.arraycopy(bytes, position, b, offset, count);
+      position += count;
+      return count;
+    }
+  }
+
+  /**
+   * Steps through the events of the track, one at a time, without making
+   * any objects. The getters describe the event the cursor is on.
+   */
+  public final class Cursor {
+    private int index = -1;
+    private long tick;
+    /**
+     * The first event with a payload at or after the cursor
+     */
+    private int slot;
+
+    private Cursor() {
+    }
+
+    /**
+     * Moves on to the next event.
+     *
+     * @return false if there are no more events
+     */
+    public boolean next() {
+      if (index + 1 >= size) {
+        index = size;
+        return false;
+      }
+      index++;
+      tick += times[index];
+      while (slot < payloads && payloadEvents[slot] < index) {
+        slot++;
+      }
+      return true;
+    }
+
+    /**
+     * Moves back to before the first event.
+     */
+    public void reset() {
+      index = -1;
+      tick = 0;
+      slot = 0;
+    }
+
+    /**
+     * Returns the index of the event.
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    /**
+     * Returns the event's time since the event before it, in ticks.
+     */
+    public int getTime() {
+      on();
+      return times[index];
+    }
+
+    /**
+     * Returns the event's time since the start of the track, in ticks.
+     */
+    public long getTick() {
+      on();
+      return tick;
+    }
+
+    /**
+     * Returns the event's status byte, 0xFF for meta events.
+     */
+    public int getStatus() {
+      on();
+      return status[index] & 0xFF;
+    }
+
+    /**
+     * Returns the event's status without its channel, such as 0x90 for
+     * note on, or the whole status byte for meta and system exclusive events.
+     */
+    public int getCommand() {
+      int eventStatus = getStatus();
+      return (eventStatus >= 0xF0) ? eventStatus : eventStatus & 0xF0;
+    }
+
+    /**
+     * Returns the MIDI channel of a voice event.
+     */
+    public int getChannel() {
+      return getStatus() & 0x0F;
+    }
+
+    /**
+     * Returns the first data byte, or a meta event's type.
+     */
+    public int getData1() {
+      on();
+      return data1[index] & 0xFF;
+    }
+
+    /**
+     * Returns the second data byte.
+     */
+    public int getData2() {
+      on();
+      return data2[index] & 0xFF;
+    }
+
+    /**
+     * Returns true if the event is a meta event.
+     */
+    public boolean isMeta() {
+      return getStatus() == META;
+    }
+
+    /**
+     * Returns the length of a meta or system exclusive event's data,
+     * 0 for other events.
+     */
+    public int getPayloadLength() {
+      on();
+      return hasPayload() ? payloadLength(slot) : 0;
+    }
+
+    /**
+     * Copies a meta or system exclusive event's data.
+     *
+     * @param bytes  where to copy the data to
+     * @param offset where in bytes to start
+     * @return the number of bytes copied
+     */
+    public int getPayload(byte[] bytes, int offset) {
+      int length = getPayloadLength();
+      if (length > 0) {
+        System.arraycopy(arena, payloadStarts[slot], bytes, offset, length);
+      }
+      return length;
+    }
+
+    /**
+     * Makes an Event object of the event.
+     *
+     * @return the event, or null if there is no Event class for it
+     */
+    public Event getEvent() throws IOException {
+      on();
+      return event(index, hasPayload() ? slot : -1, new PayloadReader());
+    }
+
+    private boolean hasPayload() {
+      return slot < payloads && payloadEvents[slot] == index;
+    }
+
+    private void on() {
+      if (index < 0 || index >= size) {
+        throw new IllegalStateException("jMusic PackedTrack error: the cursor is not on an event");
+      }
+    }
+  }
+}
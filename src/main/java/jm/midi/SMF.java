@@ -24,21 +24,34 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 
 package jm.midi;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import jm.JMC;
-import jm.midi.event.EndTrack;
 import jm.midi.event.Event;
-import jm.midi.event.VoiceEvt;
 
 /**
  * @author Andrew Sorensen and Sean Hayes
@@ -47,6 +60,7 @@ import jm.midi.event.VoiceEvt;
 public final class SMF implements JMC {
 
   public static final int MTHD = 0x4D546864;
+  public static final int MTRK = 0x4D54726B;
   public static final int STANDART_HEADER_LENGTH = 6;
   public static final int MIDI_FILE_TYPE = 1;
 
@@ -127,63 +141,194 @@ public final class SMF implements JMC {
   //------------------------------------------
 
   /**
-   * Read from a standard MIDI file
+   * Read from a standard MIDI file. The whole stream is read before
+   * it is parsed, however little of it is available at a time.
    *
-   * @throws IOException - any IO problems
+   * @throws IOException - any IO problems, or data that is not a MIDI file
    * @params InputStream - the datasource to read from
-   * @params Score score - the score to place jMusic data translation into
    */
   public void read(InputStream is)
     throws IOException {
-    //Given the small size of MIDI files read all
-    //data into a ByteArrayStream for further processing
-    byte[] fileData = new byte[is.available()];
-    is.read(fileData);
-    ByteArrayInputStream bais =
-      new ByteArrayInputStream(fileData);
-    DataInputStream dis = new DataInputStream(bais);
-    //clear any SMF data
-    if (!this.trackList.isEmpty()) {
-      this.trackList.removeAllElements(); //remove any previous tracks
+    try {
+      //Given the small size of MIDI files read all
+      //data into a buffer for further processing
+      byte[] fileData = new byte[Math.max(is.available(), 4096)];
+      int length = 0;
+      int count;
+      while ((count = is.read(fileData, length, fileData.length - length)) != -1) {
+        length += count;
+        if (length == fileData.length) {
+          fileData = Arrays.copyOf(fileData, fileData.length * 2);
+        }
+      }
+      read(ByteBuffer.wrap(fileData, 0, length));
+    } finally {
+      is.close();
     }
+  }
+
+  /**
+   * Read from a standard MIDI file, mapping it into memory
+   * rather than copying it.
+   *
+   * @param file the file to read
+   * @throws IOException - any IO problems, or data that is not a MIDI file
+   */
+  public void read(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Read standard MIDI file data, from the buffer's position to its
+   * limit. The data is read a chunk at a time, using the length each
+   * chunk declares. Track chunks are read into Tracks, chunks of any
+   * other type are skipped.
+   *
+   * @param buffer the MIDI file data
+   * @throws IOException - data that is not a MIDI file, or is cut short
+   */
+  public void read(ByteBuffer buffer) throws IOException {
+    List<Track> tracks = readTracks(readChunks(buffer),
+      (chunk, number) -> PackedTrack.read(chunk, number).toTrack());
+    for (Track track : tracks) {
+      this.trackList.addElement(track);
+    }
+    this.numOfTracks = (short) trackList.size();
+  }
+
+  /**
+   * Read from a standard MIDI file into PackedTracks, which take much
+   * less memory than Tracks of Event objects. The file is mapped into
+   * memory rather than copied.
+   *
+   * @param file the file to read
+   * @return the file's tracks, in order
+   * @throws IOException - any IO problems, or data that is not a MIDI file
+   */
+  public List<PackedTrack> readPacked(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return readPacked(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Read standard MIDI file data into PackedTracks, from the buffer's
+   * position to its limit. The header is read into this SMF, which is
+   * left with no Tracks.
+   *
+   * @param buffer the MIDI file data
+   * @return the file's tracks, in order
+   * @throws IOException - data that is not a MIDI file, or is cut short
+   */
+  public List<PackedTrack> readPacked(ByteBuffer buffer) throws IOException {
+    List<PackedTrack> tracks = readTracks(readChunks(buffer), PackedTrack::read);
+    this.numOfTracks = (short) tracks.size();
+    return tracks;
+  }
+
+  /**
+   * Reads the header of standard MIDI file data and finds its track
+   * chunks, skipping chunks of any other type.
+   *
+   * @return the data of each track chunk, in order
+   */
+  List<ByteBuffer> readChunks(ByteBuffer buffer) throws IOException {
+    ByteBuffer data = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+    //clear any SMF data
+    clearTracks();
     //check header for MIDIfile validity
-    if (dis.readInt() != 0x4D546864) {//Check for MIDI track validity
+    if (data.remaining() < 8 || data.getInt() != MTHD) {
       throw new IOException("This is NOT a MIDI file !!!");
-    } else {//If MIDI file passes skip length bytes
-      dis.readInt(); //skip over Length info
+    }
+    int headerLength = data.getInt();
+    if (headerLength < STANDART_HEADER_LENGTH || headerLength > data.remaining()) {
+      throw new IOException("jMusic SMF error: the MIDI file header is "
+        + headerLength + " bytes long");
     }
     //get SMF Class data
-    try {
-      fileType = dis.readShort();
-      if (VERBOSE) {
-        System.out.println("MIDI file type = " + fileType);
+    fileType = data.getShort();
+    if (VERBOSE) {
+      System.out.println("MIDI file type = " + fileType);
+    }
+    this.numOfTracks = data.getShort();
+    if (VERBOSE) {
+      System.out.println("Number of tracks = " + numOfTracks);
+    }
+    this.ppqn = data.getShort();
+    if (VERBOSE) {
+      System.out.println("ppqn = " + ppqn);
+    }
+    data.position(8 + headerLength);
+    //Find all the track chunks
+    List<ByteBuffer> chunks = new ArrayList<>(Math.max(numOfTracks, 1));
+    while (data.hasRemaining()) {
+      if (data.remaining() < 8) {
+        //a few zeros left over at the end are padding
+        while (data.hasRemaining()) {
+          if (data.get() != 0) {
+            throw new EOFException("jMusic SMF error: a chunk is cut short in its header");
+          }
+        }
+        break;
       }
-      this.numOfTracks = dis.readShort();
-      if (VERBOSE) {
-        System.out.println("Number of tracks = " + numOfTracks);
+      int type = data.getInt();
+      long length = data.getInt() & 0xFFFFFFFFL;
+      if (length > data.remaining()) {
+        throw new EOFException("jMusic SMF error: a chunk of " + length
+          + " bytes is cut short at " + data.remaining() + " bytes");
       }
-      this.ppqn = dis.readShort();
-      if (VERBOSE) {
-        System.out.println("ppqn = " + ppqn);
+      if (type == MTRK) {
+        ByteBuffer chunk = data.slice();
+        chunk.limit((int) length);
+        chunks.add(chunk);
+      } else if (VERBOSE) {
+        System.out.println("Skipping a chunk of " + length + " bytes");
       }
-    } catch (IOException e) {
-      System.out.println(e);
-      e.printStackTrace();
+      data.position(data.position() + (int) length);
     }
+    return chunks;
+  }
+
+  /**
+   * Reads a track chunk, throwing IOException if it can not.
+   */
+  private interface ChunkReader<T> {
+    T read(ByteBuffer chunk, int number) throws IOException;
+  }
 
-    // skip the tempo track fro type 1 files
-        /*
-    if(fileType == 1) {
-		    skipATrack(dis);
-		    numOfTracks--;
-		}
-		*/
-    //Read all track chunks
-    for (int i = 0; i < numOfTracks; i++) {
-      readTrackChunk(dis);
+  /**
+   * Reads the track chunks, at the same time if there are several.
+   *
+   * @return what each chunk was read into, in order
+   */
+  private <T> List<T> readTracks(List<ByteBuffer> chunks, ChunkReader<T> reader)
+    throws IOException {
+    List<T> tracks = new ArrayList<>(chunks.size());
+    if (chunks.size() == 1) {
+      tracks.add(reader.read(chunks.get(0), 0));
+      return tracks;
+    }
+    List<Callable<T>> tasks = new ArrayList<>(chunks.size());
+    for (int i = 0; i < chunks.size(); i++) {
+      final ByteBuffer chunk = chunks.get(i);
+      final int number = i;
+      tasks.add(() -> reader.read(chunk, number));
+    }
+    for (Future<T> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+      try {
+        tracks.add(future.get());
+      } catch (InterruptedException ie) {
+        throw new InterruptedIOException("jMusic SMF error: reading interrupted");
+      } catch (ExecutionException ee) {
+        if (ee.getCause() instanceof IOException) {
+          throw (IOException) ee.getCause();
+        }
+        throw new IOException(ee.getCause());
+      }
     }
-    is.close();
-    dis.close();
+    return tracks;
   }
 
   //------------------------------------
@@ -191,37 +336,54 @@ public final class SMF implements JMC {
   //-------------------------------------
 
   /**
-   * Write to a standard MIDI file
+   * Write to a standard MIDI file. The stream is closed afterwards.
    *
    * @param os the datasource to write to
    * @throws IOException did the write go ok
    */
   public void write(OutputStream os)
     throws IOException {
-    //IO Stream stuff
-    DataOutputStream dos = new DataOutputStream(os);
+    try {
+      write(Channels.newChannel(os));
+      os.flush();
+    } finally {
+      os.close();
+    }
+  }
+
+  /**
+   * Write to a standard MIDI file through a channel, which is left open.
+   * Voice events are written with running status, leaving out status
+   * bytes that repeat the one before. The file is written through one
+   * buffer. If the channel can seek, such as a FileChannel, the buffer is
+   * written out whenever it fills and each track's length is filled in
+   * after it, so any length of file can be written. Otherwise the buffer
+   * grows to hold the longest track.
+   *
+   * @param channel the channel to write to
+   * @throws IOException did the write go ok
+   */
+  public void write(WritableByteChannel channel) throws IOException {
     //find number of tracks
     this.numOfTracks = (short) trackList.size();
+    ChunkWriter writer = new ChunkWriter(channel);
     //write header chunk
-    try {
-      dos.writeInt(MTHD);    //MThd
-      dos.writeInt(STANDART_HEADER_LENGTH);        //Length
-      dos.writeShort(1);        //Midi File Type
-      dos.writeShort(numOfTracks);    //Number of tracks
-      dos.writeShort(ppqn);        //Pulses Per Quarter Note
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+    writer.putInt(MTHD);    //MThd
+    writer.putInt(STANDART_HEADER_LENGTH);        //Length
+    writer.putShort(MIDI_FILE_TYPE);        //Midi File Type
+    writer.putShort(numOfTracks);    //Number of tracks
+    writer.putShort(ppqn);        //Pulses Per Quarter Note
     //write all tracks
     Enumeration aEnum = trackList.elements();
     while (aEnum.hasMoreElements()) {
       Track smfTrack = (Track) aEnum.nextElement();
-      writeTrackChunk(dos, smfTrack);
+      if (VERBOSE) {
+        System.out.println("Writing MIDI Track");
+      }
+      writer.writeTrack(smfTrack);
     }
-    os.flush();
-    os.close();
-    dos.flush();
-    dos.close();
+    writer.flush();
+    this.numOfBytes = (int) writer.offset();
   }
 
   /**
@@ -231,19 +393,7 @@ public final class SMF implements JMC {
    */
   public OutputStream toStream() throws IOException {
     DataOutputStream stream = new DataOutputStream(new ByteArrayOutputStream());
-    numOfTracks = (short) trackList.size();
-    stream.writeInt(MTHD);    //MThd
-    stream.writeInt(STANDART_HEADER_LENGTH);        //Length
-    stream.writeShort(MIDI_FILE_TYPE);        //Midi File Type
-    stream.writeShort(numOfTracks);    //Number of tracks
-    stream.writeShort(ppqn);        //Pulses Per Quarter Note
-    Enumeration aEnum = trackList.elements();
-    while (aEnum.hasMoreElements()) {
-      Track smfTrack = (Track) aEnum.nextElement();
-      writeTrackChunk(stream, smfTrack);
-    }
-    stream.flush();
-    stream.close();
+    write(stream);
     return stream;
   }
 
@@ -270,115 +420,198 @@ public final class SMF implements JMC {
   }
 
   //----------------------------------------
-  //SMF Track Reads and Writes
+  //SMF Track Writes
   //----------------------------------------
 
   /**
-   * Reads a MIDI track chunk
-   *
-   * @param DataInputStream dis - the input stream to read from
+   * Writes chunks to a channel through one buffer, filling in each
+   * track chunk's length once its events are written.
    */
-  private void readTrackChunk(DataInputStream dis)
-    throws IOException {
-    //local variables for Track class
-    Track track = new Track();
-    //Insert new Track into a list of tracks
-    this.trackList.addElement(track);
-    int deltaTime = 0;
-    if (VERBOSE) {
-      System.out.println("Reading Track ..........");
+  private static final class ChunkWriter {
+    /**
+     * The size the buffer starts at
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    /**
+     * The channel if it can seek, otherwise null
+     */
+    private final SeekableByteChannel seekable;
+    /**
+     * Where in the channel the file starts, if it can seek
+     */
+    private final long base;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /**
+     * The number of bytes written to the channel so far
+     */
+    private long written;
+    /**
+     * Where the length of the track being written goes, or -1
+     */
+    private long lengthAt = -1;
+    /**
+     * Each event is written here first to find its status byte
+     */
+    private final EventBytes event = new EventBytes();
+    private final DataOutputStream eventOut = new DataOutputStream(event);
+
+    ChunkWriter(WritableByteChannel channel) throws IOException {
+      this.channel = channel;
+      this.seekable = (channel instanceof SeekableByteChannel)
+        ? (SeekableByteChannel) channel : null;
+      this.base = (seekable != null) ? seekable.position() : 0;
     }
-    //Read track header
-    if (dis.readInt() != 0x4D54726B) {//If MTrk read is wrong
-      throw new IOException
-        ("Track started in wrong place!!!!  ABORTING");
-    } else {//If MTrk read ok get bytesRemaining
-      dis.readInt();
+
+    /**
+     * The number of bytes written to the writer
+     */
+    long offset() {
+      return written + buffer.position();
     }
-    //loop variables
-    int status, oldStatus = 0, eventLength = 0;
-    //Start gathering event data
-    Event event = null;
-    while (true) {
-      try {
-        //get variable length timestamp
-        deltaTime = MidiUtil.readVarLength(dis);
-        //mark stream so we can return if we need running status
-        dis.mark(2);
-        status = dis.readUnsignedByte();
-        //decide on running status
-        if (status < 0x80) { //set running status
-          status = oldStatus;
-          //return stream to before status read
-          dis.reset();
+
+    void putInt(int value) throws IOException {
+      room(4);
+      buffer.putInt(value);
+    }
+
+    void putShort(int value) throws IOException {
+      room(2);
+      buffer.putShort((short) value);
+    }
+
+    void put(byte[] bytes, int offset, int length) throws IOException {
+      while (length > 0) {
+        room(1);
+        int count = Math.min(length, buffer.remaining());
+        buffer.put(bytes, offset, count);
+        offset += count;
+        length -= count;
+      }
+    }
+
+    /**
+     * Writes a track chunk, with running status for voice events.
+     * Meta and system exclusive events end running status.
+     */
+    void writeTrack(Track track) throws IOException {
+      putInt(MTRK);
+      lengthAt = offset();
+      putInt(0);
+      int runningStatus = 0;
+      Enumeration aEnum = track.getEvtList().elements();
+      while (aEnum.hasMoreElements()) {
+        Event evt = (Event) aEnum.nextElement();
+        event.reset();
+        evt.write(eventOut);
+        if (DEBUG) {
+          evt.print();
         }
-        //create default event of correct type
-        if (status >= 0xFF) { //Meta Event
-          int type = dis.readUnsignedByte();
-          eventLength = MidiUtil.readVarLength(dis);
-          event = MidiUtil.createMetaEvent(type);
-        } else if (status >= 0xF0) { //System Exclusive --- NOT SUPPORTED
-          System.out.println("SysEX---");
-          eventLength = MidiUtil.readVarLength(dis);
-        } else if (status >= 0x80) { //MIDI voice event
-          short selection = (short) (status / 0x10);
-          short midiChannel = (short) (status - (selection * 0x10));
-          VoiceEvt evt = (VoiceEvt) MidiUtil.createVoiceEvent(selection);
-          assert evt != null;
-          evt.setMidiChannel(midiChannel);
-          event = evt;
+        byte[] bytes = event.bytes();
+        int length = event.size();
+        //find the status byte after the delta time
+        int status = 0;
+        int at = 0;
+        while (at < length && (bytes[at] & 0x80) != 0) {
+          at++;
         }
-        oldStatus = status;
-      } catch (Exception e) {
-        e.printStackTrace();
-        System.exit(1);
-      }
-      if (event != null) {
-        //read data into the new event and
-        //add the new event to the Track object
-        event.setTime(deltaTime);
-        event.read(dis);
-        //if (VERBOSE) event.print();
-        track.addEvent(event);
-        //event.print();
-        if (event instanceof EndTrack) {
-          break;
+        at++;
+        if (at < length) {
+          status = bytes[at] & 0xFF;
+        }
+        if (status >= 0x80 && status < 0xF0) {
+          if (status == runningStatus) {
+            put(bytes, 0, at);
+            put(bytes, at + 1, length - at - 1);
+          } else {
+            put(bytes, 0, length);
+            runningStatus = status;
+          }
+        } else {
+          put(bytes, 0, length);
+          runningStatus = 0;
         }
+      }
+      long chunkLength = offset() - lengthAt - 4;
+      if (lengthAt >= written) {
+        buffer.putInt((int) (lengthAt - written), (int) chunkLength);
       } else {
-        //skip the stream ahead to next valid event
-        dis.skipBytes(eventLength);
+        //the length has already gone out, go back to it
+        ByteBuffer patch = ByteBuffer.allocate(4);
+        patch.putInt(0, (int) chunkLength);
+        long here = seekable.position();
+        seekable.position(base + lengthAt);
+        while (patch.hasRemaining()) {
+          seekable.write(patch);
+        }
+        seekable.position(here);
       }
+      lengthAt = -1;
+    }
+
+    /**
+     * Makes room in the buffer, writing it out unless it holds the
+     * length of a track that can not be gone back to.
+     */
+    private void room(int count) throws IOException {
+      if (buffer.remaining() >= count) {
+        return;
+      }
+      if (seekable != null || lengthAt < written) {
+        flush();
+      }
+      if (buffer.remaining() < count) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(
+          Math.max(buffer.capacity() * 2, buffer.position() + count));
+        buffer.flip();
+        bigger.put(buffer);
+        buffer = bigger;
+      }
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        written += channel.write(buffer);
+      }
+      buffer.clear();
     }
   }
 
   /**
-   * Write the Track Chunk
-   *
-   * @param track - track to write
+   * A reusable stream for an event's bytes, without the locking
+   * of a ByteArrayOutputStream
    */
-  private void writeTrackChunk(final DataOutputStream odos, final Track track)
-    throws IOException {
-    if (VERBOSE) {
-      System.out.println("Writing MIDI Track");
+  private static final class EventBytes extends OutputStream {
+    private byte[] bytes = new byte[16];
+    private int size;
+
+    public void write(int b) {
+      if (size == bytes.length) {
+        bytes = Arrays.copyOf(bytes, size * 2);
+      }
+      bytes[size++] = (byte) b;
     }
-    //Write to temporary stream to buffer disk writes and
-    //calculate the number of bytes written to the stream
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    DataOutputStream dos = new DataOutputStream(baos);
-    int header = 0x4D54726B;
-    Enumeration aEnum = track.getEvtList().elements();
-    aEnum = track.getEvtList().elements();
-    //At this stage Except that all events are NoteOn events
-    while (aEnum.hasMoreElements()) {
-      Event evt = (Event) aEnum.nextElement();
-      evt.write(dos);
-      if (DEBUG) {
-        evt.print();
+
+    public void write(byte[] b, int offset, int length) {
+      if (size + length > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
       }
+      System.arraycopy(b, offset, bytes, size, length);
+      size += length;
+    }
+
+    void reset() {
+      size = 0;
+    }
+
+    int size() {
+      return size;
+    }
+
+    byte[] bytes() {
+      return bytes;
     }
-    //Write to the real stream
-    odos.writeInt(header);
-    odos.writeInt(baos.size());
-    odos.write(baos.toByteArray(), 0, baos.size());
   }
 }
@@ -23,6 +23,7 @@ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
 package jm.music.data;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Vector;
@@ -97,6 +98,10 @@ public class Part implements Cloneable, Serializable, JMC {
    * the speed for this part
    */
   private double tempo;
+  /**
+   * The send level to each effect bus, by bus number
+   */
+  private double[] sends = null;
   /**
    * break points
    */
@@ -615,6 +620,36 @@ public class Part implements Cloneable, Serializable, JMC {
     this.tempo = tempo;
   }
 
+  /**
+   * Returns how much of the Part is sent to an effect bus
+   * when it is rendered to an audio file.
+   *
+   * @param int the bus number
+   * @return double the send level, 0.0 if the Part is not sent to the bus
+   */
+  public double getSend(int bus) {
+    if (this.sends == null || bus >= this.sends.length) {
+      return 0.0;
+    }
+    return this.sends[bus];
+  }
+
+  /**
+   * Sets how much of the Part is sent to an effect bus when it is
+   * rendered to an audio file, see jm.audio.EffectBus. Phrases which
+   * set their own send level to the bus override this one.
+   *
+   * @param int    the bus number, its place in the list of buses
+   * @param double the send level, from 0.0 (none) up
+   */
+  public void setSend(int bus, double level) {
+    if (this.sends == null || bus >= this.sends.length) {
+      this.sends = this.sends == null ? new double[bus + 1]
+        : Arrays.copyOf(this.sends, bus + 1);
+    }
+    this.sends[bus] = level;
+  }
+
   /**
    * '
    * Returns the Parts key signature
@@ -755,6 +790,7 @@ public class Part implements Cloneable, Serializable, JMC {
     i.setChannel(this.getChannel());
     i.setTitle(this.getTitle() + " copy");
     i.setTempo(this.tempo);
+    i.sends = (this.sends == null) ? null : this.sends.clone();
     i.setPoints(this.points);
     i.setTime(this.time);
     i.setTimeIndex(this.timeIndex);
@@ -25,6 +25,7 @@ package jm.music.data;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import jm.JMC;
@@ -98,6 +99,10 @@ public class Phrase implements JMC, Cloneable, Serializable {
    * speed in beats per minute for this phrase
    */
   private double tempo;
+  /**
+   * The send level to each effect bus, by bus number
+   */
+  private double[] sends = null;
   /**
    * Setting the phrase to append when added to a part
    * rather than use its start time.
@@ -852,6 +857,38 @@ public class Phrase implements JMC, Cloneable, Serializable {
     this.tempo = newTempo;
   }
 
+  /**
+   * Returns how much of the phrase is sent to an effect bus
+   * when it is rendered to an audio file.
+   *
+   * @param bus the bus number
+   * @return the send level, or NO_SEND if the phrase uses its part's
+   */
+  public double getSend(int bus) {
+    if (this.sends == null || bus >= this.sends.length) {
+      return NO_SEND;
+    }
+    return this.sends[bus];
+  }
+
+  /**
+   * Sets how much of the phrase is sent to an effect bus when it is
+   * rendered to an audio file, in place of its part's send level,
+   * see jm.audio.EffectBus.
+   *
+   * @param bus   the bus number, its place in the list of buses
+   * @param level the send level, from 0.0 (none) up, or NO_SEND to use the part's
+   */
+  public void setSend(int bus, double level) {
+    if (this.sends == null || bus >= this.sends.length) {
+      int from = (this.sends == null) ? 0 : this.sends.length;
+      this.sends = (this.sends == null) ? new double[bus + 1]
+        : Arrays.copyOf(this.sends, bus + 1);
+      Arrays.fill(this.sends, from, bus + 1, NO_SEND);
+    }
+    this.sends[bus] = level;
+  }
+
   /**
    * Get an individual note object by its number
    *
@@ -972,6 +1009,7 @@ public class Phrase implements JMC, Cloneable, Serializable {
     phr.setLinkedPhrase(this.linkedPhrase);
     phr.setMyPart(this.getMyPart());
     phr.setTempo(this.tempo);
+    phr.sends = (this.sends == null) ? null : this.sends.clone();
     phr.setNumerator(this.numerator);
     phr.setDenominator(this.denominator);
   }
@@ -1234,6 +1272,7 @@ public class Phrase implements JMC, Cloneable, Serializable {
   public Phrase alias() {
     Phrase phr = new Phrase(this.title + " alias", this.getStartTime(), this.instrument);
     phr.setTempo(this.tempo);
+    phr.sends = (this.sends == null) ? null : this.sends.clone();
     phr.setAppend(this.append);
     phr.noteList = this.noteList;
     return phr;
@@ -76,6 +76,10 @@ public class Score implements JMC, Cloneable, Serializable {
    * the speed for this score
    */
   private double tempo;
+  /**
+   * the tempo changes of this score, or null if it keeps one tempo
+   */
+  private TempoMap tempoMap;
 
   // Possible Alternative:
   //      Consider using the jm.music.data.KeySignature class and modifying
@@ -411,6 +415,32 @@ public class Score implements JMC, Cloneable, Serializable {
    */
   public void setTempo(double tempo) {
     this.tempo = tempo;
+    if (tempoMap != null) {
+      tempoMap.setTempo(0.0, tempo);
+    }
+  }
+
+  /**
+   * Returns the Score's tempo changes
+   *
+   * @return TempoMap the tempo changes, or null if the score keeps to its tempo
+   */
+  public TempoMap getTempoMap() {
+    return this.tempoMap;
+  }
+
+  /**
+   * Sets the Score's tempo changes, which are used in place of its tempo
+   * when it is played, rendered or written. The score's tempo becomes
+   * the map's tempo at beat 0.
+   *
+   * @param tempoMap the tempo changes, or null to keep to one tempo
+   */
+  public void setTempoMap(TempoMap tempoMap) {
+    this.tempoMap = tempoMap;
+    if (tempoMap != null) {
+      this.tempo = tempoMap.getTempo(0.0);
+    }
   }
 
   /**
@@ -521,6 +551,9 @@ public class Score implements JMC, Cloneable, Serializable {
   public Score copy() {
     Score newScore = new Score(title + " copy");
     newScore.setTempo(this.tempo);
+    if (this.tempoMap != null) {
+      newScore.setTempoMap(this.tempoMap.copy());
+    }
     newScore.setTimeSignature(this.numerator, this.denominator);
     Enumeration enum1 = this.partList.elements();
     while (enum1.hasMoreElements()) {
@@ -0,0 +1,212 @@
+/*
+
+<This Java Class is part of the jMusic API version 1.5, March 2004.>
+
+Copyright (C) 2000 Andrew Sorensen & Andrew Brown
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or any
+later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+
+*/
+
+package jm.music.data;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The tempo changes of a score, for converting between beats and
+ * seconds when the tempo is not the same all the way through. The map is
+ * made of segments of one tempo each, the first starting at beat 0. The
+ * time in seconds each segment starts at is kept, so a conversion is a
+ * binary search for the segment and a multiplication, whatever the
+ * number of changes. A MIDI file's ticks are beats times its pulses per
+ * quarter note.
+ */
+public class TempoMap implements Serializable {
+
+  /**
+   * The beat each segment starts at, in order, the first is 0
+   */
+  private double[] beats;
+  /**
+   * The time each segment starts at, in seconds
+   */
+  private double[] seconds;
+  /**
+   * The tempo of each segment, in beats per minute
+   */
+  private double[] tempos;
+  /**
+   * The number of segments
+   */
+  private int size;
+
+  /**
+   * Creates a map of one tempo.
+   *
+   * @param tempo the tempo from beat 0, in beats per minute
+   */
+  public TempoMap(double tempo) {
+    checkTempo(tempo);
+    beats = new double[4];
+    seconds = new double[4];
+    tempos = new double[4];
+    tempos[0] = tempo;
+    size = 1;
+  }
+
+  /**
+   * Changes the tempo from a beat on, until the next change after it.
+   * Changes are quickest to add in order.
+   *
+   * @param beat  the beat the tempo changes at, 0 or more
+   * @param tempo the new tempo, in beats per minute
+   */
+  public void setTempo(double beat, double tempo) {
+    checkTempo(tempo);
+    if (!(beat >= 0.0)) {
+      throw new IllegalArgumentException("jMusic TempoMap error: a tempo change at beat "
+        + beat);
+    }
+    int segment = segmentAtBeat(beat);
+    if (beats[segment] == beat) {
+      tempos[segment] = tempo;
+    } else {
+      if (size == beats.length) {
+        beats = Arrays.copyOf(beats, size * 2);
+        seconds = Arrays.copyOf(seconds, size * 2);
+        tempos = Arrays.copyOf(tempos, size * 2);
+      }
+      segment++;
+      System.arraycopy(beats, segment, beats, segment + 1, size - segment);
+      System.arraycopy(tempos, segment, tempos, segment + 1, size - segment);
+      beats[segment] = beat;
+      tempos[segment] = tempo;
+      size++;
+    }
+    // the segments from the change on start at new times
+    for (int i = Math.max(segment, 1); i < size; i++) {
+      seconds[i] = seconds[i - 1] + (beats[i] - beats[i - 1]) * 60.0 / tempos[i - 1];
+    }
+  }
+
+  private static void checkTempo(double tempo) {
+    if (!(tempo > 0.0) || Double.isInfinite(tempo)) {
+      throw new IllegalArgumentException("jMusic TempoMap error: a tempo of " + tempo);
+    }
+  }
+
+  /**
+   * Returns the tempo at a beat, in beats per minute.
+   */
+  public double getTempo(double beat) {
+    return tempos[segmentAtBeat(beat)];
+  }
+
+  /**
+   * Returns the time of a beat, in seconds from beat 0.
+   * Beats before 0 are at the first tempo.
+   */
+  public double getSeconds(double beat) {
+    int segment = segmentAtBeat(beat);
+    return seconds[segment] + (beat - beats[segment]) * 60.0 / tempos[segment];
+  }
+
+  /**
+   * Returns the beat at a time, in seconds from beat 0.
+   */
+  public double getBeat(double time) {
+    int segment = search(seconds, time);
+    return beats[segment] + (time - seconds[segment]) * tempos[segment] / 60.0;
+  }
+
+  /**
+   * Returns how long a number of beats lasts from a beat, in seconds.
+   *
+   * @param beat   where the beats start
+   * @param length the number of beats
+   */
+  public double getDuration(double beat, double length) {
+    return getSeconds(beat + length) - getSeconds(beat);
+  }
+
+  /**
+   * Returns the number of segments of one tempo, one more than the
+   * number of changes.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the beat a segment starts at.
+   *
+   * @param segment the segment, from 0 to size() - 1
+   */
+  public double getSegmentBeat(int segment) {
+    checkSegment(segment);
+    return beats[segment];
+  }
+
+  /**
+   * Returns the tempo of a segment, in beats per minute.
+   *
+   * @param segment the segment, from 0 to size() - 1
+   */
+  public double getSegmentTempo(int segment) {
+    checkSegment(segment);
+    return tempos[segment];
+  }
+
+  private void checkSegment(int segment) {
+    if (segment < 0 || segment >= size) {
+      throw new IndexOutOfBoundsException("jMusic TempoMap error: segment " + segment
+        + " of " + size);
+    }
+  }
+
+  /**
+   * Returns a copy of the map.
+   */
+  public TempoMap copy() {
+    TempoMap copy = new TempoMap(tempos[0]);
+    copy.beats = Arrays.copyOf(beats, size);
+    copy.seconds = Arrays.copyOf(seconds, size);
+    copy.tempos = Arrays.copyOf(tempos, size);
+    copy.size = size;
+    return copy;
+  }
+
+  private int segmentAtBeat(double beat) {
+    return search(beats, beat);
+  }
+
+  /**
+   * The last segment starting at or before a value, or the first
+   */
+  private int search(double[] starts, double value) {
+    int low = 0;
+    int high = size - 1;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (starts[middle] <= value) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+}
@@ -26,9 +26,9 @@ package jm.util;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.StreamCorruptedException;
 
@@ -77,8 +77,7 @@ public abstract class AbstractReadButton extends Button {
     try {
       SMF smf = new SMF();
       score = new Score(fileName);
-      InputStream is = new FileInputStream(directoryName + fileName);
-      smf.read(is);
+      smf.read(new File(directoryName + fileName));
       jm.midi.MidiParser.SMFToScore(score, smf);
     } catch (IOException e1) {
       message = e1.getMessage();
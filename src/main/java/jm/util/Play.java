@@ -297,8 +297,8 @@ public class Play implements JMC {
 
   /**
    * Refresh the default JavaSound MIDI playback with a new score.
-   * Only works when midiCycle() is operating and
-   * updates take effect at the start of the next cycle.
+   * Only works when midiCycle() is operating. Only the notes that
+   * changed are updated and playback carries on without a break.
    *
    * @param s The score to be used as the update.
    */
@@ -308,8 +308,8 @@ public class Play implements JMC {
 
   /**
    * Refresh the JavaSound MIDI playback with a new score.
-   * Only works when midiCycle() is operating and
-   * updates take effect at the start of the next cycle.
+   * Only works when midiCycle() is operating. Only the notes that
+   * changed are updated and playback carries on without a break.
    *
    * @param s     The score to be used as the update.
    * @param index The id of the MidiSynth to update.
@@ -35,9 +35,11 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.StreamCorruptedException;
 
+import javax.sound.sampled.UnsupportedAudioFileException;
 import javax.swing.*;
 
 import jm.JMC;
+import jm.audio.io.AudioBlockListener;
 import jm.audio.io.AudioFileIn;
 import jm.midi.SMF;
 import jm.music.data.CPhrase;
@@ -94,8 +96,7 @@ public class Read implements JMC {
     smf.setVerbose(true);
     try {
       System.out.println("--------------------- Reading MIDI File ---------------------");
-      InputStream is = new FileInputStream(fileName);
-      smf.read(is);
+      smf.read(new File(fileName));
       jm.midi.MidiParser.SMFToScore(s, smf);
       System.out.println(
         "MIDI file '" + fileName + "' read into score '" + s.getTitle() + "' Tempo = " + s
@@ -383,6 +384,28 @@ public class Read implements JMC {
     return sampleData;
   }
 
+  /**
+   * Read an audio file a block at a time, passing each block of
+   * interleaved samples to the listener. Unlike audio(String) the
+   * whole file is never held in memory, so any length of file can be read.
+   *
+   * @param fileName  the name of the audio file to read
+   * @param blockSize the number of samples in each block
+   * @param listener  receives each block as it is read
+   */
+  public static void audio(String fileName, int blockSize, AudioBlockListener listener) {
+    AudioFileIn afi = new AudioFileIn(fileName);
+    try {
+      afi.read(blockSize, listener);
+    } catch (UnsupportedAudioFileException uafe) {
+      System.err.println("jMusic Read.audio error: '" + fileName
+        + "' is not a supported audio file.");
+    } catch (IOException ioe) {
+      System.err.println("jMusic Read.audio error: Could not read '" + fileName
+        + "': " + ioe.getMessage());
+    }
+  }
+
   public static void audio(float[] sampleData, String fileName) {
     System.out.println("-------------------- Reading Audio File ---------------------");
     AudioFileIn afi = new AudioFileIn(fileName);
@@ -648,12 +671,10 @@ public class Read implements JMC {
         score.setTitle(filename);
         SMF smf = new SMF();
         if (directory == null) {
-          InputStream is = new FileInputStream(filename);
-          smf.read(is);
+          smf.read(new File(filename));
           jm.midi.MidiParser.SMFToScore(score, smf);
         } else {
-          InputStream is = new FileInputStream(directory + filename);
-          smf.read(is);
+          smf.read(new File(directory + filename));
           jm.midi.MidiParser.SMFToScore(score, smf);
         }
       } catch (IOException e1) {
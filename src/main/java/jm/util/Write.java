@@ -31,12 +31,18 @@ import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Enumeration;
 
+import javax.sound.sampled.AudioFormat;
+
 import jm.JMC;
 import jm.audio.Audio;
+import jm.audio.EffectBus;
 import jm.audio.Instrument;
 import jm.audio.io.AudioFileOut;
+import jm.audio.io.MixFile;
 import jm.midi.SMF;
 import jm.music.data.CPhrase;
 import jm.music.data.Note;
@@ -97,8 +103,11 @@ public class Write implements JMC {
         "----------------------------- Writing MIDI File ------------------------------");
       smf.clearTracks();
       jm.midi.MidiParser.scoreToSMF(scr, smf);
-      OutputStream os = new FileOutputStream(fileName);
-      smf.write(os);
+      try (FileChannel channel = FileChannel.open(new File(fileName).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE)) {
+        smf.write(channel);
+      }
       double time2 = System.currentTimeMillis();
       System.out.println("MIDI file '" + fileName + "' written from score '" +
         scr.getTitle() + "' in " + ((time2 - time1) / 1000) + " seconds.");
@@ -361,6 +370,18 @@ public class Write implements JMC {
    * @param Instrument[] - the list of jMusic instruments to use
    */
   public static void au(Score s, String fileName, Instrument[] instList) {
+    au(s, fileName, instList, null);
+  }
+
+  /**
+   * Save the jMusic Score to an audio file, sending its parts and
+   * phrases to shared effect buses at their send levels.
+   *
+   * @param String       - the file name to write to
+   * @param Instrument[] - the list of jMusic instruments to use
+   * @param EffectBus[]  - the list of effect buses, by bus number
+   */
+  public static void au(Score s, String fileName, Instrument[] instList, EffectBus[] busList) {
     double time1 = System.currentTimeMillis();
     System.out
       .println("------------------------------ Writing AU File --------------------------------");
@@ -370,7 +391,7 @@ public class Write implements JMC {
     if (f.exists()) {
       f.delete();
     }
-    Audio.processScore(s, instList, jpfFile);
+    Audio.processScore(s, instList, busList, jpfFile);
     // the last two arguments are used to delete temp and addUp files
     Audio.combine(jpfFile, tmpFile, fileName, true, true);
     double time2 = System.currentTimeMillis();
@@ -381,6 +402,66 @@ public class Write implements JMC {
       .println("-------------------------------------------------------------------------------");
   }
 
+  /**
+   * Save the jMusic Score to an audio file, and each of its parts to
+   * a stem file of its own, rendering every note only once.
+   *
+   * @param String       - the file name to write the whole score to
+   * @param Instrument[] - the list of jMusic instruments to use
+   * @param boolean      - normalise the stems by the same peak, so that they add up to the whole
+   *                     score, or each by its own peak
+   */
+  public static void auStems(Score s, String fileName, Instrument[] instList,
+                             boolean sharedPeak) {
+    auStems(s, fileName, instList, null, sharedPeak);
+  }
+
+  /**
+   * Save the jMusic Score to an audio file, and each of its parts to
+   * a stem file of its own, rendering every note only once. The stem of
+   * part n of "song.au" is written to "song_n.au". The effect bus
+   * returns are in the whole score's file only.
+   *
+   * @param String       - the file name to write the whole score to
+   * @param Instrument[] - the list of jMusic instruments to use
+   * @param EffectBus[]  - the list of effect buses, by bus number
+   * @param boolean      - normalise the stems by the same peak, so that they add up to the whole
+   *                     score, or each by its own peak
+   */
+  public static void auStems(Score s, String fileName, Instrument[] instList,
+                             EffectBus[] busList, boolean sharedPeak) {
+    double time1 = System.currentTimeMillis();
+    System.out
+      .println("------------------------------ Writing AU Stems -------------------------------");
+    String jpfFile = fileName + ".jpf";
+    String tmpFile = "jmusic.tmp";
+    File f = new File(tmpFile);
+    if (f.exists()) {
+      f.delete();
+    }
+    String base = fileName.endsWith(".au") ? fileName.substring(0, fileName.length() - 3)
+      : fileName;
+    MixFile[] stems = new MixFile[s.size()];
+    String[] stemFiles = new String[s.size()];
+    try {
+      for (int i = 0; i < stems.length; i++) {
+        stems[i] = new MixFile("jmusic_" + i + ".tmp");
+        stemFiles[i] = base + "_" + i + ".au";
+      }
+    } catch (IOException ioe) {
+      ioe.printStackTrace();
+      return;
+    }
+    Audio.processScore(s, instList, busList, stems, jpfFile);
+    Audio.combineStems(tmpFile, fileName, stems, stemFiles, sharedPeak);
+    double time2 = System.currentTimeMillis();
+    System.out.println(
+      "AU file '" + fileName + "' and " + stems.length + " stems written from score '"
+        + s.getTitle() + "' in " + ((time2 - time1) / 1000) + " seconds.");
+    System.out
+      .println("-------------------------------------------------------------------------------");
+  }
+
   /**
    * Save the jMusic Part to an audio file
    *
@@ -518,8 +599,16 @@ public class Write implements JMC {
     double time1 = System.currentTimeMillis();
     System.out
       .println("---------------------------- Writing Audio File -------------------------------");
-    AudioFileOut afo = new AudioFileOut(sampleData, fileName, channels,
-      sampleRate, sampleSizeInBits);
+    AudioFileOut afo = new AudioFileOut(fileName);
+    try {
+      afo.open(new AudioFormat(sampleRate, sampleSizeInBits, channels, true, true));
+      afo.write(sampleData, 0, sampleData.length);
+      afo.close();
+    } catch (IOException ioe) {
+      System.err.println("jMusic Write.audio error: Could not write '" + fileName
+        + "': " + ioe.getMessage());
+      return;
+    }
     double time2 = System.currentTimeMillis();
     System.out.println(
       "Audio file '" + fileName + "' written in " + ((time2 - time1) / 1000) + " seconds.");
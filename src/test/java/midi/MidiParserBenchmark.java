@@ -0,0 +1,68 @@
+package midi;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.midi.MidiParser;
+import jm.midi.SMF;
+import jm.midi.Track;
+import jm.midi.event.NoteOn;
+import jm.music.data.Score;
+
+/**
+ * Reads a dense piano track, a run of overlapping chords with each
+ * note ended by a NoteOn of velocity 0, into a Score.
+ * Run with {@code gradle jmh -Pargs=MidiParserBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MidiParserBenchmark {
+
+  @Param({"2000", "20000", "200000"})
+  public int events;
+
+  private SMF smf;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(1L);
+    Track track = new Track();
+    int chord = 4;
+    short[] pitches = new short[chord];
+    for (int i = 0; i + 2 * chord <= events; i += 2 * chord) {
+      for (int n = 0; n < chord; n++) {
+        pitches[n] = (short) (36 + random.nextInt(60));
+        track.addEvent(new NoteOn(pitches[n], (short) 90, (short) 0, n == 0 ? 120 : 0));
+      }
+      for (int n = 0; n < chord; n++) {
+        track.addEvent(new NoteOn(pitches[n], (short) 0, (short) 0, n == 0 ? 240 : 0));
+      }
+    }
+    smf = new SMF();
+    smf.clearTracks();
+    smf.getTrackList().add(track);
+  }
+
+  @Benchmark
+  public Score read() {
+    Score score = new Score();
+    MidiParser.SMFToScore(score, smf);
+    return score;
+  }
+}
@@ -0,0 +1,255 @@
+package midi;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.Vector;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+
+import org.testng.annotations.Test;
+
+import jm.midi.MidiParser;
+import jm.midi.MidiUtil;
+import jm.midi.SMF;
+import jm.midi.Track;
+import jm.midi.event.Event;
+import jm.midi.event.NoteOff;
+import jm.midi.event.NoteOn;
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+import jm.music.data.TempoMap;
+
+public class MidiParserTest {
+
+  /**
+   * A track of overlapping notes with some NoteOns of velocity 0 for
+   * ends, some repeated pitches, ends at the same tick as their starts
+   * and notes that never end.
+   */
+  private static Track randomTrack(long seed, int notes) {
+    Random random = new Random(seed);
+    Vector<long[]> events = new Vector<>();
+    for (int n = 0; n < notes; n++) {
+      long start = random.nextInt(notes * 60);
+      int pitch = 60 + random.nextInt(8);
+      events.add(new long[]{start, pitch, 1 + random.nextInt(126), n});
+      if (random.nextInt(50) != 0) {
+        long end = start + (random.nextInt(20) == 0 ? 0 : random.nextInt(480));
+        events.add(new long[]{end, pitch, random.nextInt(2) == 0 ? -1 : 0, n});
+      }
+    }
+    events.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[3], b[3]));
+    Track track = new Track();
+    long tick = 0;
+    for (long[] e : events) {
+      int delta = (int) (e[0] - tick);
+      tick = e[0];
+      if (e[2] == -1) {
+        track.addEvent(new NoteOff((short) e[1], (short) 64, (short) 0, delta));
+      } else {
+        track.addEvent(new NoteOn((short) e[1], (short) e[2], (short) 0, delta));
+      }
+    }
+    return track;
+  }
+
+  private static SMF smf(Track track) {
+    SMF smf = new SMF();
+    smf.clearTracks();
+    smf.getTrackList().add(track);
+    return smf;
+  }
+
+  /**
+   * How SMFToScore read a track's notes before it paired them in one pass,
+   * finding each note's end with MidiUtil.getEndEvt and trying every
+   * phrase for one free for it.
+   */
+  private static Part referencePart(SMF smf, Track track) {
+    Vector evtList = track.getEvtList();
+    Vector<Phrase> phrVct = new Vector<>();
+    double[] currentLength = new double[100];
+    Note[] curNote = new Note[100];
+    double startTime = 0.0;
+    for (int i = 0; i < evtList.size(); i++) {
+      Event evt = (Event) evtList.elementAt(i);
+      startTime += (double) evt.getTime() / (double) smf.getPPQN();
+      if (evt.getID() != 005 || ((NoteOn) evt).getVelocity() == 0) {
+        continue;
+      }
+      NoteOn noteOn = (NoteOn) evt;
+      int phrIndex = -1;
+      for (int p = 0; p < phrVct.size(); p++) {
+        if (currentLength[p] <= (startTime + 0.08)) {
+          phrIndex = p;
+          break;
+        }
+      }
+      if (phrIndex == -1) {
+        phrIndex = phrVct.size();
+        phrVct.addElement(new Phrase(startTime));
+        currentLength[phrIndex] = startTime;
+      }
+      if ((startTime > currentLength[phrIndex]) && (curNote[phrIndex] != null)) {
+        double newTime = startTime - currentLength[phrIndex];
+        if (newTime < 0.25) {
+          curNote[phrIndex].setRhythm(curNote[phrIndex].getRhythm() + newTime);
+        } else {
+          Note restNote = Note.newBuilder().rest().rhythm(newTime).dynamic(0).build();
+          restNote.setPan(noteOn.getMidiChannel());
+          restNote.setDuration(newTime);
+          restNote.setOffset(0.0);
+          phrVct.elementAt(phrIndex).addNote(restNote);
+        }
+        currentLength[phrIndex] += newTime;
+      }
+      double time = MidiUtil.getEndEvt(noteOn.getPitch(), evtList, i) / (double) smf.getPPQN();
+      Note tempNote = Note.newBuilder().pitch(noteOn.getPitch()).rhythm(time)
+        .dynamic(noteOn.getVelocity()).build();
+      tempNote.setDuration(time);
+      curNote[phrIndex] = tempNote;
+      phrVct.elementAt(phrIndex).addNote(tempNote);
+      currentLength[phrIndex] += tempNote.getRhythm();
+    }
+    Part part = new Part();
+    for (Phrase phrase : phrVct) {
+      part.addPhrase(phrase);
+    }
+    return part;
+  }
+
+  private static void assertSameNotes(Part actual, Part expected) {
+    assertEquals(actual.size(), expected.size(), "phrases");
+    for (int p = 0; p < expected.size(); p++) {
+      Phrase a = actual.getPhrase(p);
+      Phrase e = expected.getPhrase(p);
+      assertEquals(a.getStartTime(), e.getStartTime(), "phrase " + p);
+      assertEquals(a.size(), e.size(), "phrase " + p);
+      for (int n = 0; n < e.size(); n++) {
+        Note an = a.getNote(n);
+        Note en = e.getNote(n);
+        String where = "phrase " + p + " note " + n;
+        assertEquals(an.getPitch(), en.getPitch(), where);
+        assertEquals(an.getRhythm(), en.getRhythm(), where);
+        assertEquals(an.getDuration(), en.getDuration(), where);
+        assertEquals(an.getDynamic(), en.getDynamic(), where);
+      }
+    }
+  }
+
+  @Test
+  public void matchesReferenceTest() {
+    for (long seed = 0; seed < 20; seed++) {
+      Score score = new Score();
+      MidiParser.SMFToScore(score, smf(randomTrack(seed, 300)));
+      Track track = randomTrack(seed, 300);
+      Part expected = referencePart(smf(track), track);
+      assertSameNotes(score.getPart(0), expected);
+    }
+  }
+
+  @Test
+  public void eventsUnchangedTest() {
+    Track track = randomTrack(7L, 200);
+    Vector evtList = track.getEvtList();
+    short[] pitches = new short[evtList.size()];
+    for (int i = 0; i < pitches.length; i++) {
+      Event evt = (Event) evtList.elementAt(i);
+      pitches[i] = (evt instanceof NoteOn) ? ((NoteOn) evt).getPitch()
+        : ((NoteOff) evt).getPitch();
+    }
+    SMF smf = smf(track);
+    Score first = new Score();
+    MidiParser.SMFToScore(first, smf);
+    for (int i = 0; i < pitches.length; i++) {
+      Event evt = (Event) evtList.elementAt(i);
+      short pitch = (evt instanceof NoteOn) ? ((NoteOn) evt).getPitch()
+        : ((NoteOff) evt).getPitch();
+      assertEquals(pitch, pitches[i], "event " + i);
+    }
+    // reading it again gives the same notes
+    Score second = new Score();
+    MidiParser.SMFToScore(second, smf);
+    assertSameNotes(second.getPart(0), first.getPart(0));
+  }
+
+  @Test
+  public void manyVoicesTest() {
+    // more notes sounding at once than there used to be room for
+    Track track = new Track();
+    for (int n = 0; n < 300; n++) {
+      track.addEvent(new NoteOn((short) (n % 128), (short) 100, (short) 0, 0));
+    }
+    for (int n = 0; n < 300; n++) {
+      track.addEvent(new NoteOff((short) (n % 128), (short) 0, (short) 0, n == 0 ? 480 : 0));
+    }
+    Score score = new Score();
+    MidiParser.SMFToScore(score, smf(track));
+    Part part = score.getPart(0);
+    assertEquals(part.size(), 300);
+    for (int p = 0; p < part.size(); p++) {
+      assertEquals(part.getPhrase(p).getNote(0).getDuration(), 1.0);
+    }
+  }
+
+  private static Score tempoScore() {
+    Phrase phrase = new Phrase(0.0);
+    for (int i = 0; i < 12; i++) {
+      phrase.addNote(Note.newBuilder().pitch(60 + i).rhythm(1.0).duration(1.0).build());
+    }
+    Score score = new Score(new Part(phrase));
+    TempoMap map = new TempoMap(60.0);
+    map.setTempo(4.0, 120.0);
+    map.setTempo(8.0, 90.0);
+    score.setTempoMap(map);
+    return score;
+  }
+
+  @Test
+  public void tempoMapRoundTripTest() throws Exception {
+    Score score = tempoScore();
+    SMF smf = new SMF();
+    smf.clearTracks();
+    MidiParser.scoreToSMF(score, smf);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    smf.write(out);
+    byte[] data = out.toByteArray();
+
+    // Java Sound times the file by the same tempo changes
+    Sequence sequence = MidiSystem.getSequence(new ByteArrayInputStream(data));
+    double beats = (double) sequence.getTickLength() / sequence.getResolution();
+    assertEquals(sequence.getMicrosecondLength() / 1e6,
+      score.getTempoMap().getSeconds(beats), 0.001);
+
+    SMF read = new SMF();
+    read.read(ByteBuffer.wrap(data));
+    Score back = new Score();
+    MidiParser.SMFToScore(back, read);
+    TempoMap map = back.getTempoMap();
+    assertEquals(back.getTempo(), 60.0, 0.01);
+    assertEquals(map.size(), 3);
+    assertEquals(map.getSegmentBeat(1), 4.0);
+    assertEquals(map.getSegmentTempo(1), 120.0, 0.01);
+    assertEquals(map.getSegmentBeat(2), 8.0);
+    assertEquals(map.getSegmentTempo(2), 90.0, 0.01);
+  }
+
+  @Test
+  public void oneTempoTest() {
+    SMF smf = new SMF();
+    smf.clearTracks();
+    MidiParser.scoreToSMF(new Score(new Part(new Phrase(Note.defaultNote())), "", 100.0), smf);
+    Score back = new Score();
+    MidiParser.SMFToScore(back, smf);
+    assertEquals(back.getTempo(), 100.0, 0.01);
+    assertNull(back.getTempoMap());
+  }
+}
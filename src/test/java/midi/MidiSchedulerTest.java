@@ -0,0 +1,227 @@
+package midi;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Transmitter;
+
+import org.testng.annotations.Test;
+
+import jm.midi.JitterHistogram;
+import jm.midi.MidiScheduler;
+
+public class MidiSchedulerTest {
+
+  /**
+   * Keeps what it is sent, with the scheduler's time it arrived.
+   */
+  private static class LoopbackReceiver implements Receiver {
+    MidiScheduler scheduler;
+    final List<ShortMessage> messages = new ArrayList<>();
+    final List<Long> arrivals = new ArrayList<>();
+    final List<Long> timeStamps = new ArrayList<>();
+
+    public synchronized void send(MidiMessage message, long timeStamp) {
+      arrivals.add(scheduler.getMicrosecondPosition());
+      messages.add((ShortMessage) message);
+      timeStamps.add(timeStamp);
+      notifyAll();
+    }
+
+    synchronized void await(int count, long millis) throws InterruptedException {
+      long end = System.currentTimeMillis() + millis;
+      while (messages.size() < count && System.currentTimeMillis() < end) {
+        wait(10);
+      }
+    }
+
+    public void close() {
+    }
+  }
+
+  /**
+   * A device whose clock is a second ahead of the scheduler's.
+   */
+  private static class ClockDevice implements MidiDevice {
+    final LoopbackReceiver receiver = new LoopbackReceiver();
+
+    public Info getDeviceInfo() {
+      return null;
+    }
+
+    public void open() {
+    }
+
+    public void close() {
+    }
+
+    public boolean isOpen() {
+      return true;
+    }
+
+    public long getMicrosecondPosition() {
+      return receiver.scheduler == null ? 0 : receiver.scheduler.getMicrosecondPosition() + 1000000;
+    }
+
+    public int getMaxReceivers() {
+      return 1;
+    }
+
+    public int getMaxTransmitters() {
+      return 0;
+    }
+
+    public Receiver getReceiver() {
+      return receiver;
+    }
+
+    public List<Receiver> getReceivers() {
+      List<Receiver> receivers = new ArrayList<>();
+      receivers.add(receiver);
+      return receivers;
+    }
+
+    public Transmitter getTransmitter() {
+      return null;
+    }
+
+    public List<Transmitter> getTransmitters() {
+      return new ArrayList<>();
+    }
+  }
+
+  private static ShortMessage note(int pitch) throws Exception {
+    ShortMessage message = new ShortMessage();
+    message.setMessage(ShortMessage.NOTE_ON, 0, pitch, 100);
+    return message;
+  }
+
+  @Test
+  public void onTimeTest() throws Exception {
+    LoopbackReceiver loopback = new LoopbackReceiver();
+    MidiScheduler scheduler = new MidiScheduler(loopback);
+    loopback.scheduler = scheduler;
+    try {
+      long start = scheduler.getMicrosecondPosition() + 20000;
+      int count = 100;
+      // scheduled backwards, sent forwards
+      for (int i = count - 1; i >= 0; i--) {
+        scheduler.schedule(note(i), start + i * 2500);
+      }
+      loopback.await(count, 5000);
+      assertEquals(loopback.messages.size(), count);
+      long latest = 0;
+      for (int i = 0; i < count; i++) {
+        assertEquals(loopback.messages.get(i).getData1(), i);
+        assertEquals((long) loopback.timeStamps.get(i), -1L);
+        long late = loopback.arrivals.get(i) - (start + i * 2500);
+        assertTrue(late >= 0, "message " + i + " early by " + -late);
+        latest = Math.max(latest, late);
+      }
+      JitterHistogram jitter = scheduler.getJitter();
+      System.out.println("MidiScheduler jitter\n" + jitter);
+      assertEquals(jitter.getCount(), count);
+      assertTrue(jitter.getMin() >= 0);
+      assertTrue(jitter.getMax() <= latest);
+    } finally {
+      scheduler.close();
+    }
+  }
+
+  @Test
+  public void sameTimeAndPastTest() throws Exception {
+    LoopbackReceiver loopback = new LoopbackReceiver();
+    MidiScheduler scheduler = new MidiScheduler(loopback);
+    loopback.scheduler = scheduler;
+    try {
+      long time = scheduler.getMicrosecondPosition() + 5000;
+      for (int i = 0; i < 10; i++) {
+        scheduler.schedule(note(i), time);
+      }
+      scheduler.schedule(note(100), -1000000);
+      loopback.await(11, 5000);
+      assertEquals(loopback.messages.size(), 11);
+      assertEquals(loopback.messages.get(0).getData1(), 100);
+      for (int i = 0; i < 10; i++) {
+        assertEquals(loopback.messages.get(i + 1).getData1(), i);
+      }
+    } finally {
+      scheduler.close();
+    }
+  }
+
+  @Test
+  public void aroundTheWheelTest() throws Exception {
+    // 16 slots of half a millisecond, a turn every 8 milliseconds
+    LoopbackReceiver loopback = new LoopbackReceiver();
+    MidiScheduler scheduler = new MidiScheduler(loopback, null, 500, 16);
+    loopback.scheduler = scheduler;
+    try {
+      long start = scheduler.getMicrosecondPosition();
+      long[] times = {start + 41000, start + 1000, start + 9000, start + 25000};
+      for (int i = 0; i < times.length; i++) {
+        scheduler.schedule(note(i), times[i]);
+      }
+      loopback.await(times.length, 5000);
+      int[] order = {1, 2, 3, 0};
+      for (int i = 0; i < order.length; i++) {
+        assertEquals(loopback.messages.get(i).getData1(), order[i]);
+        assertTrue(loopback.arrivals.get(i) >= times[order[i]]);
+      }
+    } finally {
+      scheduler.close();
+    }
+  }
+
+  @Test
+  public void timeStampTest() throws Exception {
+    ClockDevice device = new ClockDevice();
+    MidiScheduler scheduler = new MidiScheduler(device);
+    LoopbackReceiver loopback = device.receiver;
+    loopback.scheduler = scheduler;
+    try {
+      assertTrue(scheduler.isTimestamped());
+      scheduler.setLookahead(10000);
+      long time = scheduler.getMicrosecondPosition() + 30000;
+      scheduler.schedule(note(60), time);
+      loopback.await(1, 5000);
+      // sent no earlier than the lookahead, stamped with the device's time for it
+      assertTrue(loopback.arrivals.get(0) >= time - 10000);
+      assertEquals((long) loopback.timeStamps.get(0), time + 1000000, 1000);
+    } finally {
+      scheduler.close();
+    }
+  }
+
+  @Test
+  public void histogramTest() {
+    JitterHistogram histogram = new JitterHistogram(100, 10);
+    for (int i = 0; i < 90; i++) {
+      histogram.record(50);
+    }
+    for (int i = 0; i < 9; i++) {
+      histogram.record(450);
+    }
+    histogram.record(5000);
+    histogram.record(-20);
+    assertEquals(histogram.getCount(), 101);
+    assertEquals(histogram.getMin(), -20);
+    assertEquals(histogram.getMax(), 5000);
+    assertEquals(histogram.getBucket(0), 91);
+    assertEquals(histogram.getBucket(4), 9);
+    assertEquals(histogram.getBucket(10), 1);
+    assertEquals(histogram.getPercentile(50), 100);
+    assertEquals(histogram.getPercentile(99), 500);
+    assertEquals(histogram.getPercentile(100), 5000);
+    histogram.clear();
+    assertEquals(histogram.getCount(), 0);
+    assertEquals(histogram.getPercentile(99), 0);
+  }
+}
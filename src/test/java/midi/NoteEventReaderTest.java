@@ -0,0 +1,192 @@
+package midi;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.testng.annotations.Test;
+
+import jm.midi.MidiParser;
+import jm.midi.NoteEvent;
+import jm.midi.NoteEventReader;
+import jm.midi.SMF;
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+
+public class NoteEventReaderTest {
+
+  private static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+
+  private static byte[] file(int division, byte[]... tracks) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(bytes('M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 1, 0, tracks.length,
+      division >> 8, division), 0, 14);
+    for (byte[] track : tracks) {
+      int length = track.length;
+      out.write(bytes('M', 'T', 'r', 'k', length >>> 24, length >>> 16, length >>> 8, length), 0, 8);
+      out.write(track, 0, length);
+    }
+    return out.toByteArray();
+  }
+
+  private static List<NoteEvent> notes(byte[] data) throws IOException {
+    return new NoteEventReader(ByteBuffer.wrap(data)).stream().collect(Collectors.toList());
+  }
+
+  @Test
+  public void tracksMergedTest() throws IOException {
+    byte[] tempo = bytes(
+      0x00, 0xFF, 0x51, 0x03, 0x07, 0xA1, 0x20,   // 120 bpm
+      0x83, 0x60, 0xFF, 0x51, 0x03, 0x0F, 0x42, 0x40, // 60 bpm at tick 480
+      0x00, 0xFF, 0x2F, 0x00);
+    byte[] first = bytes(
+      0x00, 0x90, 60, 100,
+      0x83, 0x60, 60, 0,            // running status note off at 480
+      0x00, 64, 90,                 // at 480
+      0x83, 0x60, 0x80, 64, 0,      // note off at 960
+      0x00, 0xFF, 0x2F, 0x00);
+    byte[] second = bytes(
+      0x81, 0x70, 0x91, 62, 80,     // at 240, channel 1
+      0x00, 0xFF, 0x01, 0x01, 'x',  // text, skipped
+      0x82, 0x68, 62, 0,            // at 600
+      0x00, 0xFF, 0x2F, 0x00);
+    List<NoteEvent> notes = notes(file(480, tempo, first, second));
+    assertEquals(notes.size(), 3);
+    NoteEvent a = notes.get(0);
+    assertEquals(a.getPitch(), 60);
+    assertEquals(a.getTrack(), 1);
+    assertEquals(a.getStartTick(), 0);
+    assertEquals(a.getDurationTicks(), 480);
+    assertEquals(a.getDurationSeconds(), 0.5, 1e-9);
+    NoteEvent b = notes.get(1);
+    assertEquals(b.getPitch(), 62);
+    assertEquals(b.getTrack(), 2);
+    assertEquals(b.getChannel(), 1);
+    assertEquals(b.getVelocity(), 80);
+    assertEquals(b.getStartSeconds(), 0.25, 1e-9);
+    // a quarter at 120 bpm, then a quarter of a beat at 60
+    assertEquals(b.getDurationSeconds(), 0.25 + 0.25, 1e-9);
+    NoteEvent c = notes.get(2);
+    assertEquals(c.getPitch(), 64);
+    assertEquals(c.getStartTick(), 480);
+    assertEquals(c.getStartSeconds(), 0.5, 1e-9);
+    assertEquals(c.getDurationSeconds(), 1.0, 1e-9);
+  }
+
+  @Test
+  public void sameKeyFirstInFirstOutTest() throws IOException {
+    byte[] track = bytes(
+      0x00, 0x90, 60, 100,
+      0x10, 0x90, 60, 50,
+      0x10, 0x90, 60, 0,            // ends the first
+      0x10, 0x90, 60, 0,            // ends the second
+      0x00, 0x90, 61, 10,           // never ended
+      0x20, 0xFF, 0x2F, 0x00);
+    List<NoteEvent> notes = notes(file(96, track));
+    assertEquals(notes.size(), 3);
+    assertEquals(notes.get(0).getVelocity(), 100);
+    assertEquals(notes.get(0).getDurationTicks(), 0x20);
+    assertEquals(notes.get(1).getVelocity(), 50);
+    assertEquals(notes.get(1).getDurationTicks(), 0x20);
+    assertEquals(notes.get(2).getStartTick(), 0x30);
+    assertEquals(notes.get(2).getDurationTicks(), 0x20);
+  }
+
+  @Test
+  public void smpteTest() throws IOException {
+    // 25 frames a second of 40 ticks, tempo does not count
+    byte[] track = bytes(
+      0x00, 0xFF, 0x51, 0x03, 0x0F, 0x42, 0x40,
+      0x00, 0x90, 60, 100,
+      0x81, 0x48, 60, 0,
+      0x00, 0xFF, 0x2F, 0x00);
+    List<NoteEvent> notes = notes(file(0xE728, track));
+    assertEquals(notes.get(0).getDurationSeconds(), 0.2, 1e-9);
+  }
+
+  @Test
+  public void matchesScoreTest() throws IOException {
+    Random random = new Random(5L);
+    Score score = new Score(90.0);
+    for (int p = 0; p < 4; p++) {
+      Phrase phrase = new Phrase(p * 0.5);
+      for (int n = 0; n < 100; n++) {
+        phrase.addNote(Note.newBuilder().pitch(40 + random.nextInt(40))
+          .rhythm(0.25 * (1 + random.nextInt(4))).dynamic(1 + random.nextInt(126)).build());
+      }
+      Part part = new Part(phrase);
+      part.setChannel(p);
+      score.addPart(part);
+    }
+    SMF smf = new SMF();
+    smf.clearTracks();
+    MidiParser.scoreToSMF(score, smf);
+    File file = File.createTempFile("jmusic", ".mid");
+    file.deleteOnExit();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      smf.write(out);
+    }
+    List<NoteEvent> notes = new NoteEventReader(file).stream().collect(Collectors.toList());
+    assertEquals(notes.size(), 400);
+    for (int i = 1; i < notes.size(); i++) {
+      assertTrue(notes.get(i - 1).getStartTick() <= notes.get(i).getStartTick(), "note " + i);
+    }
+    for (int p = 0; p < 4; p++) {
+      final int channel = p;
+      List<NoteEvent> part = notes.stream().filter(n -> n.getChannel() == channel)
+        .collect(Collectors.toList());
+      Phrase phrase = score.getPart(p).getPhrase(0);
+      assertEquals(part.size(), phrase.size());
+      for (int n = 0; n < part.size(); n++) {
+        Note note = phrase.getNote(n);
+        NoteEvent event = part.get(n);
+        assertEquals(event.getTrack(), p + 1);
+        assertEquals(event.getPitch(), note.getPitch());
+        assertEquals(event.getVelocity(), note.getDynamic());
+        assertEquals(event.getStartSeconds(), phrase.getNoteStartTime(n) * 60.0 / 90.0, 0.002);
+        assertEquals(event.getDurationSeconds(), note.getDuration() * 60.0 / 90.0, 0.002);
+      }
+    }
+  }
+
+  @Test
+  public void cutShortTest() throws IOException {
+    byte[] track = bytes(0x00, 0x90, 60, 100, 0x10, 0x90);
+    NoteEventReader reader = new NoteEventReader(ByteBuffer.wrap(file(96, track)));
+    try {
+      reader.hasNext();
+      fail();
+    } catch (UncheckedIOException e) {
+      assertTrue(e.getCause() instanceof EOFException);
+    }
+  }
+
+  @Test
+  public void emptyTest() throws IOException {
+    NoteEventReader reader = new NoteEventReader(
+      ByteBuffer.wrap(file(96, bytes(0x00, 0xFF, 0x2F, 0x00), new byte[0])));
+    assertFalse(reader.hasNext());
+    assertEquals(new ArrayList<>(), reader.stream().collect(Collectors.toList()));
+  }
+}
@@ -0,0 +1,93 @@
+package midi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.midi.PackedTrack;
+import jm.midi.SMF;
+import jm.midi.Track;
+import jm.midi.event.Event;
+import jm.midi.event.NoteOn;
+
+/**
+ * Reads a one track MIDI file of many note events and counts its
+ * sounding notes, either as a Track of Event objects or as a
+ * PackedTrack stepped through with a cursor. Add {@code -prof gc}
+ * to the arguments to see how much memory each allocates.
+ * Run with {@code gradle jmh -Pargs=PackedTrackBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackedTrackBenchmark {
+
+  @Param({"10000", "1000000"})
+  public int events;
+
+  private byte[] data;
+
+  @Setup
+  public void setUp() throws IOException {
+    Random random = new Random(1L);
+    Track track = new Track();
+    for (int i = 0; i < events; i++) {
+      int pitch = 36 + random.nextInt(60);
+      track.addEvent(new NoteOn((short) pitch, (short) (i % 2 == 0 ? 100 : 0), (short) 0,
+        random.nextInt(240)));
+    }
+    SMF smf = new SMF();
+    smf.clearTracks();
+    smf.getTrackList().add(track);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    smf.write(out);
+    data = out.toByteArray();
+  }
+
+  @Benchmark
+  public int events() throws IOException {
+    SMF smf = new SMF();
+    smf.read(ByteBuffer.wrap(data));
+    int notes = 0;
+    Vector evtList = ((Track) smf.getTrackList().get(0)).getEvtList();
+    for (int i = 0; i < evtList.size(); i++) {
+      Event event = (Event) evtList.get(i);
+      if (event instanceof NoteOn && ((NoteOn) event).getVelocity() > 0) {
+        notes++;
+      }
+    }
+    return notes;
+  }
+
+  @Benchmark
+  public int packed() throws IOException {
+    List<PackedTrack> tracks = new SMF().readPacked(ByteBuffer.wrap(data));
+    int notes = 0;
+    PackedTrack.Cursor cursor = tracks.get(0).cursor();
+    while (cursor.next()) {
+      if (cursor.getCommand() == 0x90 && cursor.getData2() > 0) {
+        notes++;
+      }
+    }
+    return notes;
+  }
+}
@@ -0,0 +1,195 @@
+package midi;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Vector;
+
+import org.testng.annotations.Test;
+
+import jm.midi.MidiParser;
+import jm.midi.PackedTrack;
+import jm.midi.SMF;
+import jm.midi.Track;
+import jm.midi.event.CChange;
+import jm.midi.event.EndTrack;
+import jm.midi.event.Event;
+import jm.midi.event.NoteOn;
+import jm.midi.event.PChange;
+import jm.midi.event.TempoEvent;
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+
+public class PackedTrackTest {
+
+  private static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+
+  /**
+   * A track with running status, a text event and a system exclusive
+   * event, which there are no Event classes for, and a tempo.
+   */
+  private static final byte[] TRACK = bytes(
+    0x00, 0xFF, 0x51, 0x03, 0x07, 0xA1, 0x20,   // tempo, 120 bpm
+    0x00, 0xC1, 0x05,                           // program change, channel 1
+    0x10, 0x91, 0x3C, 0x40,                     // note on
+    0x20, 0xFF, 0x01, 0x02, 'h', 'i',           // text
+    0x30, 0x3C, 0x00,                           // running status note off
+    0x05, 0xF0, 0x03, 0x43, 0x10, 0xF7,         // system exclusive
+    0x00, 0xFF, 0x2F, 0x00,                     // end of track
+    0x00, 0x91, 0x3E, 0x40);                    // after the end, not read
+
+  @Test
+  public void cursorTest() throws IOException {
+    PackedTrack track = PackedTrack.read(ByteBuffer.wrap(TRACK));
+    assertEquals(track.size(), 7);
+    PackedTrack.Cursor cursor = track.cursor();
+    assertTrue(cursor.next());
+    assertTrue(cursor.isMeta());
+    assertEquals(cursor.getData1(), 0x51);
+    assertEquals(cursor.getPayloadLength(), 3);
+    assertTrue(cursor.next());
+    assertEquals(cursor.getCommand(), 0xC0);
+    assertEquals(cursor.getChannel(), 1);
+    assertEquals(cursor.getData1(), 5);
+    assertEquals(cursor.getPayloadLength(), 0);
+    assertTrue(cursor.next());
+    assertEquals(cursor.getStatus(), 0x91);
+    assertEquals(cursor.getData2(), 0x40);
+    assertEquals(cursor.getTick(), 0x10);
+    assertTrue(cursor.next());
+    byte[] text = new byte[4];
+    assertEquals(cursor.getPayload(text, 1), 2);
+    assertEquals(text[1], 'h');
+    assertEquals(text[2], 'i');
+    assertNull(cursor.getEvent());
+    assertTrue(cursor.next());
+    assertEquals(cursor.getStatus(), 0x91);
+    assertEquals(cursor.getData2(), 0);
+    assertEquals(cursor.getTime(), 0x30);
+    assertEquals(cursor.getTick(), 0x60);
+    assertTrue(cursor.next());
+    assertEquals(cursor.getStatus(), 0xF0);
+    assertEquals(cursor.getPayloadLength(), 3);
+    assertTrue(cursor.next());
+    assertTrue(cursor.getEvent() instanceof EndTrack);
+    assertFalse(cursor.next());
+    cursor.reset();
+    assertTrue(cursor.next());
+    assertEquals(cursor.getIndex(), 0);
+    assertEquals(cursor.getPayloadLength(), 3);
+  }
+
+  @Test
+  public void eventViewTest() throws IOException {
+    PackedTrack track = PackedTrack.read(ByteBuffer.wrap(TRACK));
+    assertEquals(((TempoEvent) track.getEvent(0)).getTempo(), 120.0, 0.01);
+    assertEquals(((PChange) track.getEvent(1)).getValue(), 5);
+    assertNull(track.getEvent(5));
+    assertEquals(track.getPayload(3), ByteBuffer.wrap(bytes('h', 'i')));
+    assertEquals(track.getPayload(2).remaining(), 0);
+    // the text and system exclusive events are left out, their times are kept
+    Vector evtList = track.toTrack().getEvtList();
+    assertEquals(evtList.size(), 5);
+    NoteOn off = (NoteOn) evtList.get(3);
+    assertEquals(off.getTime(), 0x50);
+    assertEquals(off.getMidiChannel(), 1);
+    assertEquals(((Event) evtList.get(4)).getTime(), 0x05);
+  }
+
+  @Test
+  public void addTest() throws IOException {
+    PackedTrack track = new PackedTrack(1);
+    for (int i = 0; i < 100; i++) {
+      track.addEvent(10, 0xB2, 7, i);
+      track.addMetaEvent(0, 0x01, bytes('a' + i % 26, 'b'), 0, i % 3);
+    }
+    track.addMetaEvent(0, 0x2F, new byte[0], 0, 0);
+    track.trimToSize();
+    assertEquals(track.size(), 201);
+    PackedTrack.Cursor cursor = track.cursor();
+    for (int i = 0; i < 100; i++) {
+      assertTrue(cursor.next());
+      CChange cChange = (CChange) cursor.getEvent();
+      assertEquals(cChange.getControllerNum(), 7);
+      assertEquals(cChange.getValue(), i);
+      assertEquals(cChange.getMidiChannel(), 2);
+      assertTrue(cursor.next());
+      assertEquals(cursor.getPayloadLength(), i % 3);
+      assertEquals(track.getPayload(cursor.getIndex()).remaining(), i % 3);
+    }
+    assertEquals(track.toTrack().getEvtList().size(), 101);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void notVoiceEventTest() {
+    new PackedTrack().addEvent(0, 0xFF, 0, 0);
+  }
+
+  @Test(expectedExceptions = EOFException.class)
+  public void cutShortTest() throws IOException {
+    PackedTrack.read(ByteBuffer.wrap(bytes(0x00, 0xFF, 0x01, 0x05, 'a')));
+  }
+
+  @Test
+  public void sameAsTracksTest() throws IOException {
+    Score score = new Score();
+    for (int p = 0; p < 3; p++) {
+      Phrase phrase = new Phrase();
+      for (int i = 0; i < 30; i++) {
+        phrase.addNote(Note.newBuilder().pitch(40 + p + i).rhythm(0.5).dynamic(60 + i).build());
+      }
+      score.addPart(new Part(phrase));
+    }
+    SMF written = new SMF();
+    written.clearTracks();
+    MidiParser.scoreToSMF(score, written);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    written.write(out);
+    byte[] data = out.toByteArray();
+
+    SMF smf = new SMF();
+    smf.read(ByteBuffer.wrap(data));
+    List<PackedTrack> packed = new SMF().readPacked(ByteBuffer.wrap(data));
+    assertEquals(packed.size(), smf.getTrackList().size());
+    for (int t = 0; t < packed.size(); t++) {
+      Vector expected = ((Track) smf.getTrackList().get(t)).getEvtList();
+      assertSameEvents(packed.get(t).toTrack().getEvtList(), expected);
+      // and back again from the Track
+      assertSameEvents(PackedTrack.of((Track) smf.getTrackList().get(t)).toTrack().getEvtList(),
+        expected);
+    }
+  }
+
+  private static void assertSameEvents(Vector actual, Vector expected) throws IOException {
+    assertEquals(actual.size(), expected.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Event a = (Event) actual.get(i);
+      Event e = (Event) expected.get(i);
+      assertEquals(a.getClass(), e.getClass(), "event " + i);
+      assertEquals(a.getTime(), e.getTime(), "event " + i);
+      assertEquals(written(a), written(e), "event " + i);
+    }
+  }
+
+  private static byte[] written(Event event) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    event.write(new DataOutputStream(out));
+    return out.toByteArray();
+  }
+}
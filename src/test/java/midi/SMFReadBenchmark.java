@@ -0,0 +1,136 @@
+package midi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.midi.MidiParser;
+import jm.midi.NoteEvent;
+import jm.midi.NoteEventReader;
+import jm.midi.SMF;
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+
+/**
+ * Reads a corpus of MIDI files, of four to sixty four parts of a few
+ * hundred notes each, one file per operation, so the score is in files
+ * per second. The files are either mapped into memory from disk or
+ * read from streams which give a kilobyte at a time, and either left as
+ * SMF data or converted into a Score too. The notes are also read with
+ * a NoteEventReader, from the file or the file's bytes.
+ * Run with {@code gradle jmh -Pargs=SMFReadBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SMFReadBenchmark {
+
+  private static final int FILES = 32;
+
+  @Param({"file", "stream"})
+  public String source;
+
+  private File[] files;
+  private byte[][] data;
+  private int next;
+
+  @Setup
+  public void setUp() throws IOException {
+    Random random = new Random(1L);
+    files = new File[FILES];
+    data = new byte[FILES][];
+    for (int f = 0; f < FILES; f++) {
+      Score score = new Score();
+      int parts = 4 + random.nextInt(61);
+      for (int p = 0; p < parts; p++) {
+        Phrase phrase = new Phrase();
+        for (int n = 0; n < 200 + random.nextInt(400); n++) {
+          phrase.addNote(Note.newBuilder().pitch(36 + random.nextInt(60))
+            .rhythm(0.25 * (1 + random.nextInt(4))).dynamic(40 + random.nextInt(80)).build());
+        }
+        Part part = new Part(phrase);
+        part.setChannel(p % 16);
+        score.addPart(part);
+      }
+      SMF smf = new SMF();
+      smf.clearTracks();
+      MidiParser.scoreToSMF(score, smf);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      smf.write(out);
+      data[f] = out.toByteArray();
+      files[f] = File.createTempFile("jmusic", ".mid");
+      try (FileOutputStream fos = new FileOutputStream(files[f])) {
+        fos.write(data[f]);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  @Benchmark
+  public SMF read() throws IOException {
+    return readNext();
+  }
+
+  @Benchmark
+  public Score readScore() throws IOException {
+    Score score = new Score();
+    MidiParser.SMFToScore(score, readNext());
+    return score;
+  }
+
+  @Benchmark
+  public long readNotes() throws IOException {
+    int f = next++ % FILES;
+    NoteEventReader reader = source.equals("file") ? new NoteEventReader(files[f])
+      : new NoteEventReader(ByteBuffer.wrap(data[f]));
+    return reader.stream().mapToLong(NoteEvent::getDurationTicks).sum();
+  }
+
+  private SMF readNext() throws IOException {
+    int f = next++ % FILES;
+    SMF smf = new SMF();
+    if (source.equals("file")) {
+      smf.read(files[f]);
+    } else {
+      smf.read(new ByteArrayInputStream(data[f]) {
+        public synchronized int available() {
+          return 0;
+        }
+
+        public synchronized int read(byte[] b, int off, int len) {
+          return super.read(b, off, Math.min(len, 1024));
+        }
+      });
+    }
+    return smf;
+  }
+}
@@ -0,0 +1,320 @@
+package midi;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Vector;
+
+import org.testng.annotations.Test;
+
+import jm.midi.MidiParser;
+import jm.midi.SMF;
+import jm.midi.Track;
+import jm.midi.event.EndTrack;
+import jm.midi.event.NoteOn;
+import jm.midi.event.PChange;
+import jm.midi.event.TempoEvent;
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+
+public class SMFTest {
+
+  private static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+
+  private static byte[] concat(byte[]... arrays) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] array : arrays) {
+      out.write(array, 0, array.length);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] header(int tracks) {
+    return bytes('M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 1, 0, tracks, 0x01, 0xE0);
+  }
+
+  private static byte[] chunk(String type, byte[] data) {
+    int length = data.length;
+    return concat(type.getBytes(), bytes(length >>> 24, length >>> 16, length >>> 8, length), data);
+  }
+
+  private static byte[] scoreBytes() throws IOException {
+    Phrase phrase = new Phrase();
+    for (int i = 0; i < 50; i++) {
+      phrase.addNote(Note.newBuilder().pitch(48 + i % 24).rhythm(0.5).duration(0.4).build());
+    }
+    Score score = new Score(new Part(phrase));
+    SMF smf = new SMF();
+    smf.clearTracks();
+    MidiParser.scoreToSMF(score, smf);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    smf.write(out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Gives a few bytes at a time and never says any are available,
+   * as a network or decompressing stream may.
+   */
+  private static InputStream trickle(byte[] bytes) {
+    return new ByteArrayInputStream(bytes) {
+      public synchronized int available() {
+        return 0;
+      }
+
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 7));
+      }
+    };
+  }
+
+  @Test
+  public void runningStatusTest() throws IOException {
+    byte[] track = bytes(
+      0x00, 0xC1, 0x05,            // program change, channel 1
+      0x00, 0x91, 0x3C, 0x40,      // note on
+      0x60, 0x3C, 0x00,            // running status note off
+      0x00, 0x3E, 0x50,            // running status note on
+      0x00, 0xFF, 0x01, 0x02, 'h', 'i', // text, skipped
+      0x60, 0x3E, 0x00,            // running status carries over the text
+      0x00, 0xFF, 0x2F, 0x00);
+    SMF smf = new SMF();
+    smf.read(ByteBuffer.wrap(concat(header(1), chunk("MTrk", track))));
+    assertEquals(smf.getPPQN(), 480);
+    assertEquals(smf.getTrackList().size(), 1);
+    Track read = (Track) smf.getTrackList().get(0);
+    assertEquals(read.getEvtList().size(), 6);
+    PChange pChange = (PChange) read.getEvtList().get(0);
+    assertEquals(pChange.getValue(), 5);
+    NoteOn off = (NoteOn) read.getEvtList().get(2);
+    assertEquals(off.getTime(), 0x60);
+    assertEquals(off.getVelocity(), 0);
+    assertEquals(off.getMidiChannel(), 1);
+    NoteOn second = (NoteOn) read.getEvtList().get(4);
+    assertEquals(second.getPitch(), 0x3E);
+    assertEquals(second.getTime(), 0x60);
+    assertTrue(read.getEvtList().get(5) instanceof EndTrack);
+  }
+
+  @Test
+  public void unknownChunkTest() throws IOException {
+    byte[] track = bytes(0x00, 0x90, 0x3C, 0x40, 0x10, 0x3C, 0x00, 0x00, 0xFF, 0x2F, 0x00);
+    byte[] data = concat(header(1), chunk("XFIH", bytes(1, 2, 3, 4, 5)),
+      chunk("MTrk", track), bytes(0, 0));
+    SMF smf = new SMF();
+    smf.read(ByteBuffer.wrap(data));
+    assertEquals(smf.getTrackList().size(), 1);
+    assertEquals(((Track) smf.getTrackList().get(0)).getEvtList().size(), 3);
+  }
+
+  @Test
+  public void streamTest() throws IOException {
+    byte[] data = scoreBytes();
+    SMF whole = new SMF();
+    whole.read(ByteBuffer.wrap(data));
+    SMF trickled = new SMF();
+    trickled.read(trickle(data));
+    assertEquals(trickled.getTrackList().size(), whole.getTrackList().size());
+    for (int t = 0; t < whole.getTrackList().size(); t++) {
+      assertEquals(((Track) trickled.getTrackList().get(t)).getEvtList().size(),
+        ((Track) whole.getTrackList().get(t)).getEvtList().size());
+    }
+    Score score = new Score();
+    MidiParser.SMFToScore(score, trickled);
+    assertEquals(score.getPart(score.size() - 1).getPhrase(0).size(), 50);
+  }
+
+  @Test
+  public void fileTest() throws IOException {
+    File file = File.createTempFile("jmusic", ".mid");
+    file.deleteOnExit();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(scoreBytes());
+    }
+    SMF smf = new SMF();
+    smf.read(file);
+    Score score = new Score();
+    MidiParser.SMFToScore(score, smf);
+    assertEquals(score.getPart(score.size() - 1).getPhrase(0).size(), 50);
+  }
+
+  @Test
+  public void notMidiTest() {
+    try {
+      new SMF().read(ByteBuffer.wrap("RIFF....WAVEfmt ".getBytes()));
+      fail();
+    } catch (IOException e) {
+      assertEquals(e.getMessage(), "This is NOT a MIDI file !!!");
+    }
+  }
+
+  @Test
+  public void truncatedTest() throws IOException {
+    byte[] data = scoreBytes();
+    for (int length : new int[]{20, data.length / 2, data.length - 3}) {
+      try {
+        new SMF().read(ByteBuffer.wrap(Arrays.copyOf(data, length)));
+        fail("read " + length + " bytes");
+      } catch (EOFException e) {
+        // expected
+      }
+    }
+    byte[] cutEvent = concat(header(1), chunk("MTrk", bytes(0x00, 0x90, 0x3C)));
+    try {
+      new SMF().read(ByteBuffer.wrap(cutEvent));
+      fail();
+    } catch (EOFException e) {
+      // expected
+    }
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void noStatusTest() throws IOException {
+    new SMF().read(ByteBuffer.wrap(concat(header(1), chunk("MTrk", bytes(0x00, 0x3C, 0x40)))));
+  }
+
+  private static byte[] orchestraBytes(int parts) throws IOException {
+    Score score = new Score();
+    for (int p = 0; p < parts; p++) {
+      Phrase phrase = new Phrase();
+      for (int i = 0; i < 40; i++) {
+        phrase.addNote(Note.newBuilder().pitch(30 + p).rhythm(0.5).build());
+      }
+      Part part = new Part(phrase);
+      part.setChannel(p % 16);
+      part.setInstrument(p);
+      score.addPart(part);
+    }
+    SMF smf = new SMF();
+    smf.clearTracks();
+    MidiParser.scoreToSMF(score, smf);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    smf.write(out);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void trackOrderTest() throws IOException {
+    byte[] data = orchestraBytes(60);
+    for (int run = 0; run < 5; run++) {
+      SMF smf = new SMF();
+      smf.read(ByteBuffer.wrap(data));
+      Score score = new Score();
+      MidiParser.SMFToScore(score, smf);
+      assertEquals(score.size(), 60);
+      for (int p = 0; p < 60; p++) {
+        assertEquals(score.getPart(p).getInstrument(), p);
+        assertEquals(score.getPart(p).getPhrase(0).getNote(0).getPitch(), 30 + p);
+      }
+    }
+  }
+
+  @Test
+  public void badTrackAmongManyTest() throws IOException {
+    byte[] good = bytes(0x00, 0x90, 0x3C, 0x40, 0x10, 0x3C, 0x00, 0x00, 0xFF, 0x2F, 0x00);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(header(20));
+    for (int t = 0; t < 20; t++) {
+      byte[] track = (t == 13) ? bytes(0x00, 0x3C, 0x40) : good;
+      out.write(chunk("MTrk", track));
+    }
+    SMF smf = new SMF();
+    try {
+      smf.read(ByteBuffer.wrap(out.toByteArray()));
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("track 13"), e.getMessage());
+    }
+    assertEquals(smf.getTrackList().size(), 0);
+  }
+
+  @Test
+  public void runningStatusWriteTest() throws IOException {
+    Track track = new Track();
+    track.addEvent(new NoteOn((short) 60, (short) 100, (short) 0, 0));
+    track.addEvent(new NoteOn((short) 62, (short) 100, (short) 0, 0x10));
+    track.addEvent(new TempoEvent(0, 120.0));
+    track.addEvent(new NoteOn((short) 60, (short) 0, (short) 0, 0));
+    track.addEvent(new NoteOn((short) 62, (short) 0, (short) 1, 0));
+    track.addEvent(new NoteOn((short) 64, (short) 0, (short) 1, 0));
+    track.addEvent(new EndTrack());
+    SMF smf = new SMF();
+    smf.getTrackList().add(track);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    smf.write(out);
+    byte[] expected = concat(header(1), chunk("MTrk", bytes(
+      0x00, 0x90, 60, 100,
+      0x10, 62, 100,                    // running status
+      0x00, 0xFF, 0x51, 0x03, 0x07, 0xA1, 0x20,
+      0x00, 0x90, 60, 0,                // after a meta event the status is written
+      0x00, 0x91, 62, 0,
+      0x00, 64, 0,
+      0x00, 0xFF, 0x2F, 0x00)));
+    assertEquals(out.toByteArray(), expected);
+  }
+
+  @Test
+  public void channelWriteTest() throws IOException {
+    // a track longer than the write buffer
+    Track track = new Track();
+    for (int i = 0; i < 40000; i++) {
+      track.addEvent(new NoteOn((short) (i % 128), (short) (i % 2 * 100), (short) 0, i % 3));
+    }
+    track.addEvent(new EndTrack());
+    SMF smf = new SMF();
+    smf.getTrackList().add(track);
+    smf.getTrackList().add(track);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    smf.write(out);
+    byte[] streamed = out.toByteArray();
+    ByteArrayOutputStream unseekable = new ByteArrayOutputStream();
+    smf.write(Channels.newChannel(unseekable));
+    assertEquals(unseekable.toByteArray(), streamed);
+    File file = File.createTempFile("jmusic", ".mid");
+    file.deleteOnExit();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      // the file need not start at the start of the channel
+      channel.write(ByteBuffer.wrap(bytes(1, 2, 3)));
+      smf.write(channel);
+    }
+    byte[] written = Files.readAllBytes(file.toPath());
+    assertEquals(Arrays.copyOfRange(written, 3, written.length), streamed);
+
+    // a delta time and two data bytes for each note, with one status byte
+    assertEquals(streamed.length, 14 + 2 * (8 + 1 + 40000 * 3 + 4));
+    SMF read = new SMF();
+    read.read(ByteBuffer.wrap(streamed));
+    assertEquals(read.getTrackList().size(), 2);
+    for (int t = 0; t < 2; t++) {
+      Vector evtList = ((Track) read.getTrackList().get(t)).getEvtList();
+      assertEquals(evtList.size(), 40001);
+      NoteOn last = (NoteOn) evtList.get(39999);
+      assertEquals(last.getPitch(), 39999 % 128);
+      assertEquals(last.getVelocity(), 100);
+      assertEquals(last.getTime(), 39999 % 3);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package midi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.midi.MidiParser;
+import jm.midi.SMF;
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+
+/**
+ * Writes the SMF of a score of sixteen parts to memory.
+ * Run with {@code gradle jmh -Pargs=SMFWriteBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SMFWriteBenchmark {
+
+  @Param({"1000", "100000"})
+  public int notes;
+
+  private SMF smf;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(1L);
+    Score score = new Score();
+    for (int p = 0; p < 16; p++) {
+      Phrase phrase = new Phrase();
+      for (int n = 0; n < notes / 16; n++) {
+        phrase.addNote(Note.newBuilder().pitch(36 + random.nextInt(60))
+          .rhythm(0.25 * (1 + random.nextInt(4))).dynamic(40 + random.nextInt(80)).build());
+      }
+      Part part = new Part(phrase);
+      part.setChannel(p);
+      score.addPart(part);
+    }
+    smf = new SMF();
+    smf.clearTracks();
+    MidiParser.scoreToSMF(score, smf);
+  }
+
+  @Benchmark
+  public int write() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    smf.write(out);
+    return out.size();
+  }
+}
@@ -0,0 +1,69 @@
+package midi;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.midi.MidiParser;
+import jm.midi.SMF;
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+
+/**
+ * Converts a score of four parts of eight phrases each, with the
+ * notes shared out between them, into a SMF.
+ * Run with {@code gradle jmh -Pargs=ScoreToSMFBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoreToSMFBenchmark {
+
+  @Param({"1000", "100000"})
+  public int notes;
+
+  private Score score;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(1L);
+    score = new Score();
+    for (int p = 0; p < 4; p++) {
+      Part part = new Part();
+      part.setChannel(p);
+      for (int f = 0; f < 8; f++) {
+        Phrase phrase = new Phrase(random.nextInt(8) * 4.0);
+        for (int n = 0; n < notes / 32; n++) {
+          phrase.addNote(Note.newBuilder().pitch(36 + random.nextInt(60))
+            .rhythm(0.25 * (1 + random.nextInt(4))).duration(0.5).build());
+        }
+        part.addPhrase(phrase);
+      }
+      score.addPart(part);
+    }
+  }
+
+  @Benchmark
+  public SMF scoreToSMF() {
+    SMF smf = new SMF();
+    smf.clearTracks();
+    MidiParser.scoreToSMF(score, smf);
+    return smf;
+  }
+}
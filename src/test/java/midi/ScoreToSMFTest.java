@@ -0,0 +1,183 @@
+package midi;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+import org.testng.annotations.Test;
+
+import jm.JMC;
+import jm.midi.MidiParser;
+import jm.midi.SMF;
+import jm.midi.Track;
+import jm.midi.event.CChange;
+import jm.midi.event.EndTrack;
+import jm.midi.event.Event;
+import jm.midi.event.NoteOn;
+import jm.midi.event.PChange;
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+
+public class ScoreToSMFTest implements JMC {
+
+  /**
+   * A part of phrases, some starting together, of notes which overlap,
+   * have offsets, pan changes, rests and ends at the same time as other
+   * notes' starts.
+   */
+  private static Part randomPart(Random random, int channel) {
+    Part part = new Part();
+    part.setChannel(channel);
+    part.setInstrument(random.nextInt(128));
+    for (int p = 0; p < 1 + random.nextInt(5); p++) {
+      Phrase phrase = new Phrase(random.nextInt(4) * 2.0);
+      if (random.nextInt(3) == 0) {
+        phrase.setInstrument(random.nextInt(128));
+      }
+      for (int n = 0; n < 20 + random.nextInt(80); n++) {
+        Note note = Note.newBuilder().pitch(random.nextInt(10) == 0 ? REST : 40 + random.nextInt(40))
+          .rhythm(0.25 * (1 + random.nextInt(4))).dynamic(1 + random.nextInt(126)).build();
+        note.setDuration(note.getRhythm() * (0.5 + random.nextInt(3) * 0.5));
+        if (random.nextInt(5) == 0) {
+          note.setOffset(random.nextInt(3) * 0.1 - 0.1);
+        }
+        if (random.nextInt(8) == 0) {
+          note.setPan(random.nextDouble());
+        }
+        phrase.addNote(note);
+      }
+      part.addPhrase(phrase);
+    }
+    return part;
+  }
+
+  private static double tickRemainder;
+
+  /**
+   * MidiParser's rounding of rhythm values to whole ticks
+   */
+  private static double tickRounder(double timeValue) {
+    final double tick = 1. / 480.;
+    final double halfTick = 1. / 960.;
+    int ticks = (int) (timeValue * 480.);
+    double rounded = ((double) ticks) * tick;
+    tickRemainder += timeValue - rounded;
+    if (tickRemainder > halfTick) {
+      rounded += tick;
+      tickRemainder -= tick;
+    }
+    return rounded;
+  }
+
+  /**
+   * How scoreToSMF wrote a part's track before it merged its phrases:
+   * every event in one list, sorted by start time, keeping the order
+   * of events at the same time, with its phrases in start time order.
+   */
+  private static Track referenceTrack(Part inst, int ppqn) {
+    List<Object[]> pairs = new ArrayList<>();
+    if (inst.getInstrument() != NO_INSTRUMENT) {
+      pairs.add(new Object[]{0.0, new PChange((short) inst.getInstrument(),
+        (short) inst.getChannel(), 0)});
+    }
+    Phrase[] phrases = inst.getPhraseArray();
+    Arrays.sort(phrases, Comparator.comparingDouble(Phrase::getStartTime));
+    for (Phrase phrase : phrases) {
+      double startTime = phrase.getStartTime();
+      if (phrase.getInstrument() != NO_INSTRUMENT) {
+        pairs.add(new Object[]{0.0, new PChange((short) phrase.getInstrument(),
+          (short) inst.getChannel(), 0)});
+      }
+      double pan = -1.0;
+      tickRemainder = 0.0;
+      for (Note note : phrase.getNoteList()) {
+        double offset = note.getOffset();
+        if (note.getPan() != pan) {
+          pan = note.getPan();
+          pairs.add(new Object[]{startTime + offset, new CChange((short) 10,
+            (short) (pan * 127), (short) inst.getChannel(), 0)});
+        }
+        if (note.getPitch() != REST) {
+          pairs.add(new Object[]{startTime + offset, new NoteOn(
+            (short) note.getPitch(), (short) note.getDynamic(), (short) inst.getChannel(), 0)});
+          pairs.add(new Object[]{startTime + note.getDuration() + offset,
+            new NoteOn((short) note.getPitch(), (short) 0,
+              (short) inst.getChannel(), 0)});
+        }
+        startTime += tickRounder(note.getRhythm());
+      }
+    }
+    pairs.sort((a, b) -> {
+      double d = (Double) a[0] - (Double) b[0];
+      return (d < 0) ? -1 : ((d > 0) ? 1 : 0);
+    });
+    Track track = new Track();
+    double st = 0.0;
+    for (Object[] pair : pairs) {
+      double sortStart = (Double) pair[0];
+      Event event = (Event) pair[1];
+      event.setTime((int) (((sortStart - st) * (double) ppqn) + 0.5));
+      st = sortStart;
+      track.addEvent(event);
+    }
+    track.addEvent(new EndTrack());
+    return track;
+  }
+
+  private static byte[] written(Vector evtList) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(out);
+    for (Object event : evtList) {
+      ((Event) event).write(dos);
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void matchesReferenceTest() throws IOException {
+    Random random = new Random(3L);
+    for (int run = 0; run < 10; run++) {
+      Score score = new Score();
+      for (int p = 0; p < 4; p++) {
+        score.addPart(randomPart(random, p));
+      }
+      SMF smf = new SMF();
+      smf.clearTracks();
+      MidiParser.scoreToSMF(score, smf);
+      assertEquals(smf.getTrackList().size(), 5);
+      for (int p = 0; p < 4; p++) {
+        Track track = (Track) smf.getTrackList().get(p + 1);
+        Track expected = referenceTrack(score.getPart(p), smf.getPPQN());
+        assertEquals(written(track.getEvtList()), written(expected.getEvtList()),
+          "run " + run + " part " + p);
+      }
+    }
+  }
+
+  @Test
+  public void phrasesLeftInOrderTest() {
+    Part part = new Part();
+    Phrase late = new Phrase(8.0);
+    late.addNote(Note.newBuilder().pitch(60).rhythm(1.0).build());
+    Phrase early = new Phrase(0.0);
+    early.addNote(Note.newBuilder().pitch(62).rhythm(1.0).build());
+    part.addPhrase(late);
+    part.addPhrase(early);
+    SMF smf = new SMF();
+    smf.clearTracks();
+    MidiParser.scoreToSMF(new Score(part), smf);
+    assertSame(part.getPhrase(0), late);
+    assertSame(part.getPhrase(1), early);
+  }
+}
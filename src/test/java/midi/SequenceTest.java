@@ -6,11 +6,16 @@ import org.testng.annotations.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
+import javax.sound.midi.MidiEvent;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
 
 import jm.midi.MidiParser;
+import jm.midi.MidiSynth;
 import jm.midi.SMF;
 import jm.midi.Track;
 import jm.midi.event.Event;
@@ -18,6 +23,7 @@ import jm.music.data.Note;
 import jm.music.data.Part;
 import jm.music.data.Phrase;
 import jm.music.data.Score;
+import jm.music.data.TempoMap;
 import jm.util.ConvertUtils;
 
 import static org.testng.Assert.*;
@@ -262,4 +268,154 @@ public class SequenceTest {
     score.add(new Part(new Phrase(Note.defaultNote())));
 
   }
+
+  /**
+   * Gives the tests the sequence a MidiSynth would play.
+   */
+  private static class SequenceSynth extends MidiSynth {
+    Sequence sequence(Score score) throws Exception {
+      return scoreToSeq(score);
+    }
+
+    int patch(Sequence sequence, Score score) throws Exception {
+      return patchSeq(sequence, score);
+    }
+
+    List<ShortMessage> patch(Sequence sequence, Score score, long position) throws Exception {
+      List<ShortMessage> noteOffs = new ArrayList<>();
+      patchSeq(sequence, score, position, noteOffs);
+      return noteOffs;
+    }
+  }
+
+  @Test
+  public void tempoMapSequenceTest() throws Exception {
+    Phrase phrase = new Phrase(0.0);
+    for (int i = 0; i < 8; i++) {
+      phrase.addNote(Note.newBuilder().pitch(60 + i).rhythm(1.0).duration(1.0).build());
+    }
+    Score score = new Score(new Part(phrase));
+    TempoMap map = new TempoMap(60.0);
+    map.setTempo(2.0, 240.0);
+    map.setTempo(6.0, 30.0);
+    score.setTempoMap(map);
+    Sequence sq = new SequenceSynth().sequence(score);
+    double beats = (double) sq.getTickLength() / sq.getResolution();
+    assertEquals(sq.getMicrosecondLength() / 1e6, map.getSeconds(beats), 0.001);
+  }
+
+  private static Part cyclePart(int channel, int... pitches) {
+    Phrase phrase = new Phrase(0.0);
+    for (int pitch : pitches) {
+      phrase.addNote(Note.newBuilder().pitch(pitch).rhythm(0.5).duration(0.5).build());
+    }
+    Part part = new Part(phrase);
+    part.setChannel(channel);
+    return part;
+  }
+
+  private static Score cycleScore(Part... parts) {
+    Score score = new Score(120.0);
+    for (Part part : parts) {
+      score.addPart(part);
+    }
+    return score;
+  }
+
+  /**
+   * The ticks and bytes of the events of each track.
+   */
+  private static List<List<String>> contents(Sequence sequence) {
+    List<List<String>> contents = new ArrayList<>();
+    for (javax.sound.midi.Track track : sequence.getTracks()) {
+      List<String> events = new ArrayList<>();
+      for (int i = 0; i < track.size(); i++) {
+        MidiEvent event = track.get(i);
+        events.add(event.getTick() + ":"
+          + ConvertUtils.byteArrayToString(event.getMessage().getMessage()));
+      }
+      contents.add(events);
+    }
+    return contents;
+  }
+
+  @Test
+  public void patchSequenceTest() throws Exception {
+    SequenceSynth synth = new SequenceSynth();
+    Sequence sq = synth.sequence(
+      cycleScore(cyclePart(0, 60, 62, 64, 65), cyclePart(1, 48, 50, 52, 53)));
+    javax.sound.midi.Track first = sq.getTracks()[0];
+    List<MidiEvent> firstEvents = new ArrayList<>();
+    for (int i = 0; i < first.size(); i++) {
+      firstEvents.add(first.get(i));
+    }
+    MidiEvent firstOfSecond = sq.getTracks()[1].get(0);
+
+    // one note of the second part changes
+    Score changed = cycleScore(cyclePart(0, 60, 62, 64, 65), cyclePart(1, 48, 51, 52, 53));
+    int events = synth.patch(sq, changed);
+    // the note's start and end, with the ends and starts at the same ticks
+    assertEquals(events, 8);
+    assertEquals(contents(sq), contents(new SequenceSynth().sequence(changed)));
+    for (int i = 0; i < first.size(); i++) {
+      assertTrue(first.get(i) == firstEvents.get(i), "event " + i);
+    }
+    assertTrue(sq.getTracks()[1].get(0) == firstOfSecond);
+
+    // a part more, then shorter and a part less
+    Score longer = cycleScore(cyclePart(0, 60, 62, 64, 65), cyclePart(1, 48, 51, 52, 53),
+      cyclePart(2, 72, 74, 76, 77, 79, 81));
+    synth.patch(sq, longer);
+    assertEquals(contents(sq), contents(new SequenceSynth().sequence(longer)));
+    assertEquals(sq.getTickLength(), 6 * 240);
+    Score shorter = cycleScore(cyclePart(0, 60, 62), cyclePart(1, 48));
+    synth.patch(sq, shorter);
+    assertEquals(contents(sq), contents(new SequenceSynth().sequence(shorter)));
+    assertEquals(sq.getTickLength(), 2 * 240);
+    assertEquals(synth.patch(sq, shorter), 0);
+  }
+
+  @Test
+  public void patchWhilePlayingTest() throws Exception {
+    SequenceSynth synth = new SequenceSynth();
+    Sequence sq = synth.sequence(
+      cycleScore(cyclePart(0, 60, 62, 64, 65), cyclePart(1, 48, 50, 52, 53)));
+    // half way through the second notes, which sound from tick 240 to 480
+    long position = 360;
+
+    // a note yet to be played changes, nothing is left sounding
+    Score later = cycleScore(cyclePart(0, 60, 62, 64, 67), cyclePart(1, 48, 50, 52, 53));
+    assertTrue(synth.patch(sq, later, position).isEmpty());
+
+    // the sounding note changes pitch, so its end is taken out
+    Score changed = cycleScore(cyclePart(0, 60, 63, 64, 67), cyclePart(1, 48, 50, 52, 53));
+    List<ShortMessage> noteOffs = synth.patch(sq, changed, position);
+    assertEquals(contents(sq), contents(new SequenceSynth().sequence(changed)));
+    assertEquals(noteOffs.size(), 1);
+    assertEquals(noteOffs.get(0).getCommand(), ShortMessage.NOTE_OFF);
+    assertEquals(noteOffs.get(0).getChannel(), 0);
+    assertEquals(noteOffs.get(0).getData1(), 62);
+
+    // the second part is removed along with its sounding note
+    noteOffs = synth.patch(sq, cycleScore(cyclePart(0, 60, 63, 64, 67)), position);
+    assertEquals(noteOffs.size(), 1);
+    assertEquals(noteOffs.get(0).getChannel(), 1);
+    assertEquals(noteOffs.get(0).getData1(), 50);
+
+    // not playing, nothing to end
+    assertTrue(synth.patch(sq, later, -1L).isEmpty());
+  }
+
+  @Test
+  public void patchTempoTest() throws Exception {
+    SequenceSynth synth = new SequenceSynth();
+    Score score = cycleScore(cyclePart(0, 60, 62, 64, 65));
+    Sequence sq = synth.sequence(score);
+    TempoMap map = new TempoMap(120.0);
+    map.setTempo(1.0, 60.0);
+    score.setTempoMap(map);
+    synth.patch(sq, score);
+    assertEquals(contents(sq), contents(new SequenceSynth().sequence(score)));
+    assertEquals(sq.getMicrosecondLength(), 500000 + 1000000);
+  }
 }
@@ -0,0 +1,82 @@
+package test.jm.audio;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.audio.AOException;
+import jm.audio.AudioObject;
+import jm.audio.Instrument;
+import jm.audio.synth.Add;
+import jm.audio.synth.Comb;
+import jm.audio.synth.Envelope;
+import jm.audio.synth.Filter;
+import jm.audio.synth.Oscillator;
+import jm.audio.synth.StereoPan;
+import jm.audio.synth.Volume;
+import jm.music.data.Note;
+
+/**
+ * Renders one second notes through a chain shaped like SimpleReverbInst's,
+ * four combs into a pair of filters, either with one source shared by all
+ * the combs or with a copy of the source for each comb as the chain was
+ * built before it was compiled.
+ * Run with {@code gradle jmh -Pargs=AudioGraphBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AudioGraphBenchmark {
+
+  @Param({"true", "false"})
+  public boolean shared;
+
+  private Instrument inst;
+  private Note note;
+
+  @Setup
+  public void setUp() throws AOException {
+    inst = new Instrument() {
+      public void createChain() {
+        AudioObject[] combs = new AudioObject[4];
+        int[] delays = {20, 100, 70, 50};
+        double[] decays = {0.5, 0.4, 0.6, 0.5};
+        Oscillator osc = shared ? new Oscillator(this, Oscillator.SAWTOOTH_WAVE, 44100) : null;
+        for (int i = 0; i < combs.length; i++) {
+          AudioObject source = shared ? osc : new Oscillator(this, Oscillator.SAWTOOTH_WAVE, 44100);
+          combs[i] = new Comb(source, delays[i], decays[i]);
+        }
+        Filter filter = new Filter(new Add(combs), 2000.0, Filter.LOW_PASS);
+        Filter filter2 = new Filter(filter, 2000.0, Filter.HIGH_PASS);
+        Envelope env = new Envelope(new Volume(filter2),
+          new double[]{0.0, 0.0, 0.05, 1.0, 0.8, 0.5, 1.0, 0.0});
+        new StereoPan(env);
+      }
+    };
+    inst.createChain();
+    inst.setBlock(false);
+    note = Note.newBuilder().frequency(220.0).rhythm(1.0).duration(1.0).build();
+  }
+
+  @Benchmark
+  public int renderNote() {
+    inst.setFinished(true);
+    inst.renderNote(note, 0.0);
+    inst.setFinished(false);
+    inst.iterateChain();
+    return inst.iterations;
+  }
+}
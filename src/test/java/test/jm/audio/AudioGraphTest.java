@@ -0,0 +1,278 @@
+package test.jm.audio;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import jm.audio.AOException;
+import jm.audio.AudioGraph;
+import jm.audio.AudioObject;
+import jm.audio.Instrument;
+import jm.audio.synth.Add;
+import jm.audio.synth.Splitter;
+import jm.music.data.Note;
+
+public class AudioGraphTest {
+
+  /**
+   * Makes a rising ramp, one step per sample, and counts its blocks.
+   */
+  private static class Ramp extends AudioObject {
+    int blocks = 0;
+    private int position = 0;
+
+    Ramp(Instrument inst) {
+      super(inst, 1000, "[Ramp]");
+      this.channels = 1;
+    }
+
+    public void build() {
+      position = 0;
+    }
+
+    public int work(float[] buffer) {
+      blocks++;
+      for (int i = 0; i < buffer.length; i++) {
+        buffer[i] = position++;
+      }
+      return buffer.length;
+    }
+  }
+
+  /**
+   * Keeps every sample that reaches the end of the chain.
+   */
+  private static class Capture extends AudioObject {
+    float[] samples = new float[0];
+
+    Capture(AudioObject ao) {
+      super(ao, "[Capture]");
+    }
+
+    public int work(float[] buffer) throws AOException {
+      int returned = this.previous[0].nextWork(buffer);
+      float[] tmp = Arrays.copyOf(samples, samples.length + returned);
+      System.arraycopy(buffer, 0, tmp, samples.length, returned);
+      samples = tmp;
+      return returned;
+    }
+  }
+
+  /**
+   * Passes its input on, and can be made to read from a later object.
+   */
+  private static class Pass extends AudioObject {
+    Pass(AudioObject ao) {
+      super(ao, "[Pass]");
+    }
+
+    void readFrom(AudioObject ao) {
+      this.previous = new AudioObject[]{ao};
+    }
+
+    public int work(float[] buffer) throws AOException {
+      return this.previous[0].nextWork(buffer);
+    }
+  }
+
+  /**
+   * Keeps every sample it reads, reading its input the given number of
+   * times per block and passing on the first read.
+   */
+  private static class Reader extends AudioObject {
+    final int reads;
+    float[] samples = new float[0];
+
+    Reader(AudioObject ao, int reads) {
+      super(ao, "[Reader]");
+      this.reads = reads;
+    }
+
+    public int work(float[] buffer) throws AOException {
+      float[] in = new float[buffer.length];
+      int returned = 0;
+      for (int r = 0; r < reads; r++) {
+        int read = this.previous[0].nextWork(in);
+        float[] tmp = Arrays.copyOf(samples, samples.length + read);
+        System.arraycopy(in, 0, tmp, samples.length, read);
+        samples = tmp;
+        if (r == 0) {
+          System.arraycopy(in, 0, buffer, 0, buffer.length);
+          returned = read;
+        }
+      }
+      return returned;
+    }
+  }
+
+  private static class TestInst extends Instrument {
+    Ramp ramp;
+    Capture capture;
+    AudioObject[] chain;
+
+    public void createChain() {
+    }
+
+    void render(double seconds) {
+      setBlock(false);
+      setBufSize(64);
+      setFinished(true);
+      renderNote(Note.newBuilder().pitch(60).rhythm(seconds).duration(seconds).build(), 0.0);
+      setFinished(false);
+      iterateChain();
+    }
+  }
+
+  /**
+   * A ramp split into both inputs of an Add.
+   */
+  private static TestInst splitInst() {
+    TestInst inst = new TestInst();
+    inst.ramp = new Ramp(inst);
+    Splitter split = new Splitter(inst.ramp);
+    Add add = new Add(new AudioObject[]{split, split});
+    inst.capture = new Capture(add);
+    inst.chain = new AudioObject[]{inst.ramp, split, add, inst.capture};
+    return inst;
+  }
+
+  @Test
+  public void sharedObjectIsWorkedOncePerBlock() {
+    TestInst inst = splitInst();
+    inst.render(1.0);
+    float[] samples = inst.capture.samples;
+    assertEquals(samples.length, 1000);
+    for (int i = 0; i < samples.length; i++) {
+      assertEquals(samples[i], 2.0f * i, 0.0f);
+    }
+    assertEquals(inst.ramp.blocks, (1000 + 63) / 64);
+  }
+
+  @Test
+  public void notesStartAgain() {
+    TestInst inst = splitInst();
+    inst.render(0.5);
+    float[] first = inst.capture.samples;
+    inst.capture.samples = new float[0];
+    inst.render(0.5);
+    assertEquals(inst.capture.samples, first);
+  }
+
+  @Test
+  public void scheduleHasInputsFirst() throws AOException {
+    TestInst inst = splitInst();
+    AudioGraph graph = inst.compileChain();
+    List<AudioObject> schedule = Arrays.asList(graph.getSchedule());
+    assertEquals(schedule, Arrays.asList(inst.chain));
+    assertEquals(graph.getFinalAO(), inst.capture);
+    assertEquals(graph.getSharedCount(), 1);
+    assertEquals(graph.getReaderCount(inst.chain[1]), 2);
+    assertEquals(graph.getOnlyInput(inst.chain[1]), inst.ramp);
+    assertEquals(graph.getOnlyInput(inst.chain[2]), null);
+  }
+
+  @Test
+  public void sharedObjectsOneAfterAnother() throws AOException {
+    TestInst inst = new TestInst();
+    inst.ramp = new Ramp(inst);
+    Splitter split = new Splitter(inst.ramp);
+    Splitter split2 = new Splitter(new Add(new AudioObject[]{split, split}));
+    inst.capture = new Capture(new Add(new AudioObject[]{split2, split2}));
+    AudioGraph graph = inst.compileChain();
+    assertEquals(graph.getSharedCount(), 2);
+
+    inst.render(0.3);
+    float[] samples = inst.capture.samples;
+    assertEquals(samples.length, 300);
+    for (int i = 0; i < samples.length; i++) {
+      assertEquals(samples[i], 4.0f * i, 0.0f);
+    }
+    assertEquals(inst.ramp.blocks, (300 + 63) / 64);
+  }
+
+  @Test
+  public void loopsAreRejected() {
+    TestInst inst = new TestInst();
+    inst.ramp = new Ramp(inst);
+    Pass a = new Pass(inst.ramp);
+    Pass b = new Pass(a);
+    a.readFrom(b);
+    try {
+      inst.compileChain();
+      fail("a chain that loops should not compile");
+    } catch (AOException aoe) {
+      assertTrue(aoe.getMessage().contains("loop"), aoe.getMessage());
+    }
+  }
+
+  @Test
+  public void readersReadingMoreThanOncePerBlock() {
+    TestInst inst = new TestInst();
+    inst.ramp = new Ramp(inst);
+    Splitter split = new Splitter(inst.ramp);
+    Reader twice = new Reader(split, 2);
+    Reader once = new Reader(split, 1);
+    inst.capture = new Capture(new Add(new AudioObject[]{twice, once}));
+    inst.render(0.3);
+    // each reader gets every sample once and in order
+    assertEquals(twice.samples.length, 600);
+    for (int i = 0; i < twice.samples.length; i++) {
+      assertEquals(twice.samples[i], (float) i, 0.0f);
+    }
+    assertEquals(once.samples.length, 300);
+    for (int i = 0; i < once.samples.length; i++) {
+      assertEquals(once.samples[i], (float) i, 0.0f);
+    }
+    // the ramp is only worked for what the faster reader reads
+    assertEquals(inst.ramp.position, 600);
+  }
+
+  @Test
+  public void laggingReadersLoseTheirOldestSamples() {
+    TestInst inst = new TestInst();
+    inst.ramp = new Ramp(inst);
+    Splitter split = new Splitter(inst.ramp);
+    Reader twice = new Reader(split, 2);
+    Reader once = new Reader(split, 1);
+    inst.capture = new Capture(new Add(new AudioObject[]{twice, once}));
+    inst.render(80.0);
+    assertEquals(twice.samples.length, 160000);
+    assertEquals(once.samples.length, 80000);
+    // the slower reader is moved on rather than keeping every sample for it
+    float last = once.samples[once.samples.length - 1];
+    assertTrue(last >= 160000 - AudioGraph.MAX_LAG - 2 * 64, "last sample " + last);
+    for (int i = 1; i < once.samples.length; i++) {
+      assertTrue(once.samples[i] > once.samples[i - 1]);
+    }
+  }
+
+  @Test
+  public void noAllocationPerBlock() throws AOException {
+    if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+      throw new SkipException("allocation counting is not supported");
+    }
+    com.sun.management.ThreadMXBean bean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    TestInst inst = splitInst();
+    inst.render(0.1);
+    AudioObject add = inst.chain[2];
+    float[] buffer = new float[1024];
+    add.nextWork(buffer);
+    add.nextWork(buffer);
+    long id = Thread.currentThread().getId();
+    long before = bean.getThreadAllocatedBytes(id);
+    for (int block = 0; block < 100; block++) {
+      add.nextWork(buffer);
+    }
+    long allocated = bean.getThreadAllocatedBytes(id) - before;
+    // one block of samples is 4KB
+    assertTrue(allocated < 4 * 1024, allocated + " bytes allocated");
+  }
+}
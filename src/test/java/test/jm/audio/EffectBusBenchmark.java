@@ -0,0 +1,111 @@
+package test.jm.audio;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.audio.AOException;
+import jm.audio.Audio;
+import jm.audio.AudioObject;
+import jm.audio.EffectBus;
+import jm.audio.Instrument;
+import jm.audio.io.SampleOut;
+import jm.audio.synth.Add;
+import jm.audio.synth.Comb;
+import jm.audio.synth.Envelope;
+import jm.audio.synth.Filter;
+import jm.audio.synth.Oscillator;
+import jm.instruments.SineInst;
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+
+/**
+ * Renders a score of short sine notes through a four comb reverb,
+ * either built into the instrument and so run for every note, or on an
+ * effect bus that every note is sent to and which is run once.
+ * Run with {@code gradle jmh -Pargs=EffectBusBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EffectBusBenchmark {
+
+  @Param({"16", "128"})
+  public int notes;
+
+  @Param({"instrument", "bus"})
+  public String reverb;
+
+  private Score score;
+
+  private static AudioObject reverb(AudioObject input) {
+    AudioObject[] combs = {
+      new Comb(input, 20, 0.5), new Comb(input, 100, 0.4),
+      new Comb(input, 70, 0.6), new Comb(input, 50, 0.5)};
+    return new Filter(new Add(combs), 2000.0, Filter.LOW_PASS);
+  }
+
+  /**
+   * A sine wave through the reverb, the reverb is run for every note.
+   */
+  static class ReverbSineInst extends Instrument {
+    public void createChain() throws AOException {
+      Oscillator osc = new Oscillator(this, Oscillator.SINE_WAVE, 44100, 1);
+      Envelope env = new Envelope(osc, new double[]{0.0, 0.0, 0.15, 1.0, 0.3, 0.5, 1.0, 0.0});
+      new SampleOut(reverb(env));
+    }
+  }
+
+  static class ReverbBus extends EffectBus {
+    ReverbBus() {
+      super(44100, 1);
+      setTail(0.0);
+    }
+
+    protected AudioObject createEffects(AudioObject input) {
+      return reverb(input);
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    Phrase phrase = new Phrase(0.0);
+    for (int i = 0; i < notes; i++) {
+      phrase.addNote(Note.newBuilder().pitch(60 + i % 12).rhythm(0.25).duration(1.0).build());
+    }
+    Part part = new Part();
+    part.addPhrase(phrase);
+    part.setSend(0, 0.5);
+    score = new Score(120.0);
+    score.addPart(part);
+  }
+
+  @Benchmark
+  public float render() {
+    new File("jmusic.tmp").delete();
+    if (reverb.equals("bus")) {
+      Instrument[] insts = {new SineInst(44100, 1)};
+      Audio.processScore(score, insts, new EffectBus[]{new ReverbBus()}, "bench.jpf");
+    } else {
+      Instrument[] insts = {new ReverbSineInst()};
+      Audio.processScore(score, insts, "bench.jpf");
+    }
+    return SampleOut.max;
+  }
+}
@@ -0,0 +1,149 @@
+package test.jm.audio;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import jm.JMC;
+import jm.audio.AOException;
+import jm.audio.Audio;
+import jm.audio.AudioObject;
+import jm.audio.EffectBus;
+import jm.audio.Instrument;
+import jm.instruments.SineInst;
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+
+public class EffectBusTest {
+
+  /**
+   * Passes its input through, counting the notes it is built for.
+   */
+  static class Counter extends AudioObject {
+    int builds;
+
+    Counter(AudioObject ao) {
+      super(ao, "[Counter]");
+    }
+
+    public void build() {
+      builds++;
+    }
+
+    public int work(float[] buffer) throws AOException {
+      return previous[0].nextWork(buffer);
+    }
+  }
+
+  static class CountingBus extends EffectBus {
+    Counter counter;
+
+    CountingBus() {
+      super(44100, 1);
+      setTail(0.0);
+    }
+
+    protected AudioObject createEffects(AudioObject input) {
+      counter = new Counter(input);
+      return counter;
+    }
+  }
+
+  private static Score score(int notes) {
+    Phrase phrase = new Phrase(0.0);
+    for (int i = 0; i < notes; i++) {
+      phrase.addNote(Note.newBuilder().pitch(60 + i).rhythm(0.5).duration(0.5).build());
+    }
+    Part part = new Part();
+    part.addPhrase(phrase);
+    Score score = new Score(120.0);
+    score.addPart(part);
+    return score;
+  }
+
+  /**
+   * Renders the score to the mix file and returns the mix.
+   */
+  private static float[] render(Score score, EffectBus[] buses) throws IOException {
+    File mix = new File("jmusic.tmp");
+    mix.delete();
+    try {
+      Instrument[] insts = {new SineInst(44100, 1)};
+      Audio.processScore(score, insts, buses, "test.jpf");
+      List<Float> samples = new ArrayList<>();
+      try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(mix)))) {
+        while (true) {
+          samples.add(in.readFloat());
+        }
+      } catch (EOFException eof) {
+        // the end of the mix
+      }
+      float[] result = new float[samples.size()];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = samples.get(i);
+      }
+      return result;
+    } finally {
+      mix.delete();
+    }
+  }
+
+  @Test
+  public void sendLevelTest() {
+    Part part = new Part();
+    Phrase phrase = new Phrase();
+    part.addPhrase(phrase);
+    assertEquals(part.getSend(0), 0.0);
+    assertEquals(phrase.getSend(0), JMC.NO_SEND);
+    part.setSend(1, 0.5);
+    phrase.setSend(2, 0.25);
+    assertEquals(part.getSend(0), 0.0);
+    assertEquals(part.getSend(1), 0.5);
+    assertEquals(phrase.getSend(1), JMC.NO_SEND);
+    assertEquals(phrase.getSend(2), 0.25);
+    assertEquals(part.copy().getSend(1), 0.5);
+    assertEquals(phrase.copy().getSend(2), 0.25);
+  }
+
+  @Test
+  public void busRendersOnceTest() throws IOException {
+    Score score = score(8);
+    score.getPart(0).setSend(0, 1.0);
+    float[] dry = render(score, null);
+    CountingBus bus = new CountingBus();
+    float[] wet = render(score, new EffectBus[]{bus});
+    assertEquals(bus.counter.builds, 1);
+    assertEquals(bus.getLength(), 0);
+    // like a note's chain the bus's runs on a block or two past its end
+    assertTrue(wet.length >= dry.length);
+    for (int i = 0; i < wet.length; i++) {
+      float expected = (i < dry.length) ? 2.0f * dry[i] : 0.0f;
+      assertEquals(wet[i], expected, 1.0e-6f, "sample " + i);
+    }
+  }
+
+  @Test
+  public void phraseOverridesPartTest() throws IOException {
+    Score score = score(4);
+    score.getPart(0).setSend(0, 1.0);
+    score.getPart(0).getPhrase(0).setSend(0, 0.0);
+    float[] dry = render(score, null);
+    CountingBus bus = new CountingBus();
+    float[] wet = render(score, new EffectBus[]{bus});
+    assertEquals(bus.counter, null);
+    assertEquals(wet, dry);
+  }
+}
@@ -0,0 +1,127 @@
+package test.jm.audio;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+
+import org.testng.annotations.Test;
+
+import jm.audio.Instrument;
+import jm.audio.io.AudioFileIn;
+import jm.instruments.SineInst;
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+import jm.util.Write;
+
+public class StemsTest {
+
+  private static Part part(int pitch, int instrument) {
+    return part(pitch, instrument, 4);
+  }
+
+  private static Part part(int pitch, int instrument, int notes) {
+    Phrase phrase = new Phrase(0.0);
+    for (int i = 0; i < notes; i++) {
+      phrase.addNote(Note.newBuilder().pitch(pitch + i).rhythm(0.5).duration(0.5).build());
+    }
+    Part part = new Part();
+    part.setInstrument(instrument);
+    part.addPhrase(phrase);
+    return part;
+  }
+
+  private static float[] read(File file) {
+    return new AudioFileIn(file.getPath()).getSampleData();
+  }
+
+  @Test
+  public void sharedPeakStemsAddUpTest() throws Exception {
+    Score score = new Score(120.0);
+    score.addPart(part(60, 0));
+    score.addPart(part(67, 1));
+    File dir = new File(System.getProperty("java.io.tmpdir"));
+    File master = new File(dir, "jmusic-stems.au");
+    File[] stemFiles = {new File(dir, "jmusic-stems_0.au"), new File(dir, "jmusic-stems_1.au")};
+    Instrument[] insts = {new SineInst(44100, 1), new SineInst(44100, 1)};
+    try {
+      Write.auStems(score, master.getPath(), insts, true);
+      float[] mix = read(master);
+      float[] stem0 = read(stemFiles[0]);
+      float[] stem1 = read(stemFiles[1]);
+      assertTrue(mix.length > 0);
+      assertEquals(stem0.length, mix.length);
+      assertEquals(stem1.length, mix.length);
+      for (int i = 0; i < mix.length; i++) {
+        // each file is rounded to 16 bits on its own
+        assertEquals(stem0[i] + stem1[i], mix[i], 3.0f / 32768, "sample " + i);
+      }
+    } finally {
+      master.delete();
+      for (File file : stemFiles) {
+        file.delete();
+      }
+    }
+  }
+
+  @Test
+  public void shorterPartStemsLineUpTest() throws Exception {
+    Score score = new Score(120.0);
+    score.addPart(part(60, 0, 4));
+    score.addPart(part(67, 1, 1));
+    File dir = new File(System.getProperty("java.io.tmpdir"));
+    File master = new File(dir, "jmusic-short.au");
+    File[] stemFiles = {new File(dir, "jmusic-short_0.au"), new File(dir, "jmusic-short_1.au")};
+    Instrument[] insts = {new SineInst(44100, 1), new SineInst(44100, 1)};
+    try {
+      Write.auStems(score, master.getPath(), insts, true);
+      float[] mix = read(master);
+      float[] stem0 = read(stemFiles[0]);
+      float[] stem1 = read(stemFiles[1]);
+      assertEquals(stem0.length, mix.length);
+      assertEquals(stem1.length, mix.length);
+      // the short part's stem is silent after its one note
+      for (int i = mix.length / 2; i < mix.length; i++) {
+        assertEquals(stem1[i], 0.0f, "sample " + i);
+        assertEquals(stem0[i], mix[i], 3.0f / 32768, "sample " + i);
+      }
+    } finally {
+      master.delete();
+      for (File file : stemFiles) {
+        file.delete();
+      }
+    }
+  }
+
+  @Test
+  public void ownPeakStemsTest() throws Exception {
+    Score score = new Score(120.0);
+    score.addPart(part(60, 0));
+    Part quiet = part(67, 1);
+    for (Note note : quiet.getPhrase(0).getNoteList()) {
+      note.setDynamic(20);
+    }
+    score.addPart(quiet);
+    File dir = new File(System.getProperty("java.io.tmpdir"));
+    File master = new File(dir, "jmusic-own.au");
+    File[] stemFiles = {new File(dir, "jmusic-own_0.au"), new File(dir, "jmusic-own_1.au")};
+    Instrument[] insts = {new SineInst(44100, 1), new SineInst(44100, 1)};
+    try {
+      Write.auStems(score, master.getPath(), insts, false);
+      for (File file : stemFiles) {
+        float peak = 0.0f;
+        for (float sample : read(file)) {
+          peak = Math.max(peak, Math.abs(sample));
+        }
+        assertEquals(peak, 1.0f, 2.0f / 32768, file.getName());
+      }
+    } finally {
+      master.delete();
+      for (File file : stemFiles) {
+        file.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package test.jm.audio;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+
+import org.testng.annotations.Test;
+
+import jm.audio.Instrument;
+import jm.audio.io.AudioFileIn;
+import jm.instruments.SineInst;
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+import jm.music.data.TempoMap;
+import jm.util.Write;
+
+public class TempoMapRenderTest {
+
+  private static Score score(double... rhythms) {
+    Phrase phrase = new Phrase(0.0);
+    for (int i = 0; i < rhythms.length; i++) {
+      phrase.addNote(Note.newBuilder().pitch(60 + i).rhythm(rhythms[i])
+        .duration(rhythms[i]).build());
+    }
+    Score score = new Score(60.0);
+    score.addPart(new Part(phrase));
+    return score;
+  }
+
+  private static float[] render(Score score, String name) {
+    File file = new File(System.getProperty("java.io.tmpdir"), name);
+    try {
+      Write.au(score, file.getPath(), new Instrument[]{new SineInst(8000, 1)});
+      return new AudioFileIn(file.getPath()).getSampleData();
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void tempoChangesTest() {
+    // a beat a second, then two, then one again
+    Score changing = score(1.0, 1.0, 1.0, 1.0, 1.0, 1.0);
+    TempoMap map = new TempoMap(60.0);
+    map.setTempo(2.0, 120.0);
+    map.setTempo(4.0, 60.0);
+    changing.setTempoMap(map);
+    // the same notes written out at one tempo
+    Score fixed = score(1.0, 1.0, 0.5, 0.5, 1.0, 1.0);
+    float[] expected = render(fixed, "jmusic-tempo-fixed.au");
+    float[] actual = render(changing, "jmusic-tempo-map.au");
+    assertTrue(expected.length > 0);
+    assertEquals(actual.length, expected.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(actual[i], expected[i], 1.0f / 32768, "sample " + i);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package test.jm.audio.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.testng.annotations.Test;
+
+import jm.audio.io.AudioBlockListener;
+import jm.audio.io.AudioFileIn;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class AudioFileInTest {
+
+  @Test
+  public void blocksMatchWholeFileTest() throws Exception {
+    File file = writeSaw(10000, true);
+    AudioFileIn afi = new AudioFileIn(file.getPath());
+    final float[] whole = afi.getSampleData();
+    assertEquals(whole.length, 20000);
+    final int[] count = {0};
+    afi.read(1000, new AudioBlockListener() {
+      public void audioBlock(float[] buffer, int length, long position) {
+        assertEquals(position, (long) count[0]);
+        for (int i = 0; i < length; i++) {
+          assertEquals(buffer[i], whole[count[0]++]);
+        }
+      }
+    });
+    assertEquals(count[0], 20000);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void blockSmallerThanFrameTest() throws Exception {
+    AudioFileIn afi = new AudioFileIn(writeSaw(100, true).getPath());
+    afi.read(1, new AudioBlockListener() {
+      public void audioBlock(float[] buffer, int length, long position) {
+        fail("no block should be read");
+      }
+    });
+  }
+
+  @Test
+  public void oddBlockSizeTest() throws Exception {
+    AudioFileIn afi = new AudioFileIn(writeSaw(100, true).getPath());
+    final int[] count = {0};
+    afi.read(3, new AudioBlockListener() {
+      public void audioBlock(float[] buffer, int length, long position) {
+        assertEquals(length % 2, 0);
+        count[0] += length;
+      }
+    });
+    assertEquals(count[0], 200);
+  }
+
+  @Test
+  public void headerLengthTest() throws Exception {
+    File file = writeSaw(3000, false);
+    assertEquals(readQuietly(file), "");
+    assertEquals(new AudioFileIn(file.getPath()).getSampleData().length, 6000);
+  }
+
+  @Test
+  public void truncatedFileTest() throws Exception {
+    File file = writeSaw(3000, false);
+    // cut off the last 1000 frames the header says are there
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(raf.length() - 4000);
+    raf.close();
+    assertTrue(readQuietly(file).contains("Ran out of samples to read"));
+    float[] data = new AudioFileIn(file.getPath()).getSampleData();
+    assertEquals(data.length, 4000);
+    assertEquals(data[2 * 1999], (float) (999 * 8 - 2000) / Short.MAX_VALUE, 1e-6f);
+  }
+
+  /**
+   * Reads a whole file, returning what was printed while reading it.
+   */
+  private static String readQuietly(File file) throws Exception {
+    PrintStream out = System.out;
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(printed, true));
+    try {
+      new AudioFileIn(file.getPath()).getSampleData();
+    } finally {
+      System.setOut(out);
+    }
+    return printed.toString();
+  }
+
+  @Test
+  public void byteOrderTest() throws Exception {
+    float[] big = new AudioFileIn(writeSaw(500, true).getPath()).getSampleData();
+    float[] little = new AudioFileIn(writeSaw(500, false).getPath()).getSampleData();
+    assertEquals(big, little);
+    assertEquals(big[2 * 100], (float) (100 * 8 - 2000) / Short.MAX_VALUE, 1e-6f);
+  }
+
+  @Test
+  public void rawFileTest() throws Exception {
+    File file = File.createTempFile("jmusic", ".raw");
+    file.deleteOnExit();
+    java.io.FileOutputStream fos = new java.io.FileOutputStream(file);
+    fos.write(new byte[]{0, 51, (byte) 255});
+    fos.close();
+    float[] data = new AudioFileIn(file.getPath()).getSampleData();
+    assertEquals(data, new float[]{0.0f, 0.2f, 1.0f});
+  }
+
+  private static File writeSaw(int frames, boolean bigEndian) throws Exception {
+    byte[] bytes = new byte[frames * 4];
+    for (int i = 0; i < frames; i++) {
+      short value = (short) ((i % 1000) * 8 - 2000);
+      for (int c = 0; c < 2; c++) {
+        int at = 4 * i + 2 * c;
+        bytes[at + (bigEndian ? 0 : 1)] = (byte) (value >> 8);
+        bytes[at + (bigEndian ? 1 : 0)] = (byte) value;
+      }
+    }
+    AudioFormat format = new AudioFormat(44100f, 16, 2, true, bigEndian);
+    File file = File.createTempFile("jmusic", bigEndian ? ".aif" : ".wav");
+    file.deleteOnExit();
+    AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(bytes), format, frames),
+      bigEndian ? AudioFileFormat.Type.AIFF : AudioFileFormat.Type.WAVE, file);
+    return file;
+  }
+}
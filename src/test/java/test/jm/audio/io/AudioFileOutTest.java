@@ -0,0 +1,85 @@
+package test.jm.audio.io;
+
+import java.io.File;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+
+import org.testng.annotations.Test;
+
+import jm.audio.io.AudioFileIn;
+import jm.audio.io.AudioFileOut;
+
+import static org.testng.Assert.assertEquals;
+
+public class AudioFileOutTest {
+
+  @Test
+  public void blocksReadBackTest() throws Exception {
+    String[] suffixes = {".wav", ".aif", ".au"};
+    int[] bits = {8, 16, 24, 32};
+    for (String suffix : suffixes) {
+      for (int b : bits) {
+        // an odd number of samples checks the chunk padding
+        float[] saw = saw(2001);
+        File file = File.createTempFile("jmusic", suffix);
+        file.deleteOnExit();
+        AudioFileOut afo = new AudioFileOut(file.getPath());
+        afo.open(new AudioFormat(22050, b, 1, true, true));
+        for (int i = 0; i < saw.length; i += 300) {
+          afo.write(saw, i, Math.min(300, saw.length - i));
+        }
+        afo.close();
+        assertEquals(afo.getDuration(), 2001L);
+
+        AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file);
+        assertEquals(fileFormat.getFrameLength(), 2001, suffix + " " + b);
+        assertEquals(fileFormat.getFormat().getSampleRate(), 22050f, suffix + " " + b);
+        float[] back = new AudioFileIn(file.getPath()).getSampleData();
+        assertEquals(back.length, saw.length, suffix + " " + b);
+        float tolerance = 1.5f / (1L << (b - 1));
+        for (int i = 0; i < saw.length; i++) {
+          assertEquals(back[i], saw[i], tolerance, suffix + " " + b + " bit sample " + i);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void wholeArrayTest() throws Exception {
+    File file = File.createTempFile("jmusic", ".wav");
+    file.deleteOnExit();
+    float[] saw = saw(1000);
+    new AudioFileOut(saw, file.getPath(), 2, 44100, 16);
+    AudioFileIn afi = new AudioFileIn(file.getPath());
+    assertEquals(afi.getChannels(), 2);
+    assertEquals(afi.getSampleRate(), 44100);
+    float[] back = afi.getSampleData();
+    assertEquals(back.length, 1000);
+    for (int i = 0; i < saw.length; i++) {
+      assertEquals(back[i], saw[i], 1e-4f);
+    }
+  }
+
+  @Test
+  public void floatWaveTest() throws Exception {
+    File file = File.createTempFile("jmusic", ".wav");
+    file.deleteOnExit();
+    float[] saw = saw(500);
+    AudioFileOut afo = new AudioFileOut(file.getPath());
+    afo.open(new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100, 32, 1, 4, 44100, false));
+    afo.write(saw, 0, saw.length);
+    afo.close();
+    assertEquals(file.length(), 44L + 500 * 4);
+    assertEquals(new AudioFileIn(file.getPath()).getSampleData(), saw);
+  }
+
+  private static float[] saw(int length) {
+    float[] saw = new float[length];
+    for (int i = 0; i < length; i++) {
+      saw[i] = (i % 200) / 100f - 1f;
+    }
+    return saw;
+  }
+}
@@ -0,0 +1,48 @@
+package test.jm.audio.io;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+
+import org.testng.annotations.Test;
+
+import jm.audio.io.MixFile;
+
+public class MixFileTest {
+
+  @Test
+  public void addTest() throws Exception {
+    File file = File.createTempFile("jmusic", ".tmp");
+    file.deleteOnExit();
+    MixFile mix = new MixFile(file.getPath());
+    mix.add(2, new float[]{1.0f, 2.0f, 3.0f}, 3);
+    // overlaps the first block and runs past its end
+    mix.add(3, new float[]{0.5f, -4.0f, 0.25f, 9.0f}, 3);
+    mix.close();
+    assertEquals(mix.getMax(), 3.0f);
+    assertEquals(file.length(), 6 * 4L);
+    float[] expected = {0.0f, 0.0f, 1.0f, 2.5f, -1.0f, 0.25f};
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals(in.readFloat(), expected[i], "sample " + i);
+      }
+    }
+  }
+
+  @Test
+  public void readTest() throws Exception {
+    File file = File.createTempFile("jmusic", ".tmp");
+    file.deleteOnExit();
+    MixFile mix = new MixFile(file.getPath());
+    mix.add(1, new float[]{1.0f, 2.0f, 3.0f}, 3);
+    float[] buffer = {7.0f, 7.0f, 7.0f, 7.0f};
+    // runs past the end of the file, the rest is silence
+    assertEquals(mix.read(2, buffer, 4), 2);
+    assertEquals(buffer, new float[]{2.0f, 3.0f, 0.0f, 0.0f});
+    assertEquals(mix.read(10, buffer, 2), 0);
+    assertEquals(buffer, new float[]{0.0f, 0.0f, 0.0f, 0.0f});
+    mix.close();
+  }
+}
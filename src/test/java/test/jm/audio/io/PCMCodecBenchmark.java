@@ -0,0 +1,69 @@
+package test.jm.audio.io;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.audio.io.PCMCodec;
+
+/**
+ * Throughput of PCMCodec for each sample format, one 4096 sample block
+ * per operation. Run with {@code gradle jmh -Pargs=PCMCodecBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PCMCodecBenchmark {
+
+  @Param({"8", "16", "24", "32", "float"})
+  public String sampleFormat;
+
+  @Param({"true", "false"})
+  public boolean bigEndian;
+
+  private AudioFormat format;
+  private float[] samples;
+  private byte[] bytes;
+
+  @Setup
+  public void setUp() {
+    if ("float".equals(sampleFormat)) {
+      format = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100, 32, 1, 4, 44100, bigEndian);
+    } else {
+      format = new AudioFormat(44100, Integer.parseInt(sampleFormat), 1, true, bigEndian);
+    }
+    samples = new float[4096];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = (float) Math.sin(i * 0.01);
+    }
+    bytes = new byte[samples.length * format.getSampleSizeInBits() / 8];
+    PCMCodec.encode(format, samples, 0, bytes, 0, samples.length);
+  }
+
+  @Benchmark
+  public float[] decode() {
+    PCMCodec.decode(format, bytes, 0, samples, 0, samples.length);
+    return samples;
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    PCMCodec.encode(format, samples, 0, bytes, 0, samples.length);
+    return bytes;
+  }
+}
@@ -0,0 +1,94 @@
+package test.jm.audio.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.testng.annotations.Test;
+
+import jm.audio.io.PCMCodec;
+
+import static org.testng.Assert.assertEquals;
+
+public class PCMCodecTest {
+
+  private static final float[] RAMP = new float[201];
+
+  static {
+    for (int i = 0; i < RAMP.length; i++) {
+      RAMP[i] = (i - 100) / 100f;
+    }
+  }
+
+  @Test
+  public void roundTripTest() {
+    int[] bits = {8, 16, 24, 32};
+    for (int b : bits) {
+      for (boolean bigEndian : new boolean[]{true, false}) {
+        for (boolean signed : new boolean[]{true, false}) {
+          AudioFormat format = new AudioFormat(44100, b, 1, signed, bigEndian);
+          float tolerance = 1.5f / (1L << (b - 1));
+          assertRoundTrip(format, tolerance);
+        }
+      }
+      AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100, 32, 1, 4,
+        44100, b % 16 == 0);
+      assertRoundTrip(format, 0f);
+    }
+  }
+
+  @Test
+  public void byteLayoutTest() {
+    byte[] bytes = new byte[6];
+    AudioFormat big = new AudioFormat(44100, 24, 1, true, true);
+    PCMCodec.encode(big, new float[]{0.5f, -1f}, 0, bytes, 0, 2);
+    assertEquals(bytes, new byte[]{0x40, 0, 0, (byte) 0x80, 0, 0});
+    AudioFormat little = new AudioFormat(44100, 16, 1, true, false);
+    PCMCodec.encode(little, new float[]{1f, -1f, 0f}, 0, bytes, 0, 3);
+    assertEquals(bytes, new byte[]{(byte) 0xFF, 0x7F, 0x01, (byte) 0x80, 0, 0});
+    AudioFormat unsigned = new AudioFormat(44100, 8, 1, false, false);
+    PCMCodec.encode(unsigned, new float[]{0f}, 0, bytes, 0, 1);
+    assertEquals(bytes[0], (byte) 0x80);
+  }
+
+  @Test
+  public void clipTest() {
+    float[] loud = {2f, -2f, 1.5f};
+    for (int b = 8; b <= 32; b += 8) {
+      AudioFormat format = new AudioFormat(44100, b, 1, true, true);
+      byte[] bytes = new byte[3 * b / 8];
+      float[] back = new float[3];
+      PCMCodec.encode(format, loud, 0, bytes, 0, 3);
+      PCMCodec.decode(format, bytes, 0, back, 0, 3);
+      assertEquals(back[0], 1f, 1e-6f, "clipped high at " + b + " bits");
+      assertEquals(back[1], -1f, 0.01f, "clipped low at " + b + " bits");
+      assertEquals(back[2], 1f, 1e-6f, "clipped high at " + b + " bits");
+    }
+  }
+
+  @Test
+  public void bufferPositionTest() {
+    ByteBuffer bb = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+    bb.position(1);
+    PCMCodec.encode(RAMP, 0, 5, bb, AudioFormat.Encoding.PCM_SIGNED, 3);
+    assertEquals(bb.position(), 16);
+    bb.position(1);
+    float[] back = new float[5];
+    PCMCodec.decode(bb, AudioFormat.Encoding.PCM_SIGNED, 3, back, 0, 5);
+    assertEquals(bb.position(), 16);
+    for (int i = 0; i < 5; i++) {
+      assertEquals(back[i], RAMP[i], 1e-6f);
+    }
+  }
+
+  private void assertRoundTrip(AudioFormat format, float tolerance) {
+    byte[] bytes = new byte[3 + RAMP.length * format.getSampleSizeInBits() / 8];
+    float[] back = new float[RAMP.length + 2];
+    PCMCodec.encode(format, RAMP, 0, bytes, 3, RAMP.length);
+    PCMCodec.decode(format, bytes, 3, back, 2, RAMP.length);
+    for (int i = 0; i < RAMP.length; i++) {
+      assertEquals(back[i + 2], RAMP[i], tolerance, format + " sample " + i);
+    }
+  }
+}
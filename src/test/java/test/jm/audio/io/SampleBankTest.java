@@ -0,0 +1,133 @@
+package test.jm.audio.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import jm.audio.Instrument;
+import jm.audio.io.SampleBank;
+import jm.audio.io.SampleIn;
+import jm.music.data.Note;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+public class SampleBankTest {
+
+  @Test
+  public void decodeOnceTest() throws Exception {
+    File file = writeRamp(1000);
+    SampleBank.Sample first = SampleBank.getSample(file);
+    SampleBank.Sample second = SampleBank.getSample(file);
+    assertSame(second, first);
+    assertEquals(first.getChannels(), 2);
+    assertEquals(first.getFrames(), 1000);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(first.getData()[2 * i], (float) (i * 16) / Short.MAX_VALUE, 1e-6f);
+      assertEquals(first.getData()[2 * i + 1], (float) (-i * 16) / Short.MAX_VALUE, 1e-6f);
+    }
+  }
+
+  @Test
+  public void decodeDoesNotBlockTest() throws Exception {
+    File cachedFile = writeRamp(10);
+    SampleBank.Sample cached = SampleBank.getSample(cachedFile);
+    // decoding a named pipe waits until something is written to it
+    File pipe = new File(System.getProperty("java.io.tmpdir"), "jmusic" + System.nanoTime());
+    try {
+      if (new ProcessBuilder("mkfifo", pipe.getPath()).start().waitFor() != 0) {
+        throw new SkipException("named pipes are not supported");
+      }
+    } catch (IOException ioe) {
+      throw new SkipException("named pipes are not supported");
+    }
+    Thread decoder = daemon(() -> {
+      try {
+        SampleBank.getSample(pipe);
+      } catch (Exception e) {
+        // the pipe is closed without any audio in it
+      }
+    });
+    try {
+      Thread.sleep(100);
+      FutureTask<SampleBank.Sample> lookup =
+        new FutureTask<SampleBank.Sample>(() -> SampleBank.getSample(cachedFile));
+      daemon(lookup);
+      assertSame(lookup.get(5, TimeUnit.SECONDS), cached);
+    } finally {
+      // let the decoder see the end of the pipe, each time it opens it
+      daemon(() -> {
+        for (int i = 0; i < 10 && decoder.isAlive(); i++) {
+          try {
+            new FileOutputStream(pipe).close();
+          } catch (IOException ioe) {
+            return;
+          }
+        }
+        pipe.delete();
+      });
+    }
+  }
+
+  private static Thread daemon(Runnable runnable) {
+    Thread thread = new Thread(runnable);
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  @Test
+  public void sampleInLoopTest() throws Exception {
+    File file = writeRamp(100);
+    Instrument inst = new Instrument() {
+      public void createChain() {
+      }
+    };
+    SampleIn in = new SampleIn(inst, file.getPath(), false, true, 2, 10, 20);
+    in.newNote(Note.defaultNote(), 0.0, 44100);
+    float[] buffer = new float[2 * 200];
+    in.work(buffer);
+    // frames 0 to 19, then 10 to 99, then silence
+    int[] expected = new int[110];
+    for (int i = 0; i < 110; i++) {
+      expected[i] = (i < 20) ? i : i - 10;
+    }
+    for (int i = 0; i < 200; i++) {
+      float value = (i < 110) ? (float) (expected[i] * 16) / Short.MAX_VALUE : 0.0f;
+      assertEquals(buffer[2 * i], value, 1e-6f, "frame " + i);
+    }
+  }
+
+  /**
+   * Writes a stereo 16 bit wav file with a rising ramp on the left
+   * and a falling one on the right.
+   */
+  private static File writeRamp(int frames) throws Exception {
+    byte[] bytes = new byte[frames * 4];
+    for (int i = 0; i < frames; i++) {
+      short left = (short) (i * 16);
+      short right = (short) (-i * 16);
+      bytes[4 * i] = (byte) left;
+      bytes[4 * i + 1] = (byte) (left >> 8);
+      bytes[4 * i + 2] = (byte) right;
+      bytes[4 * i + 3] = (byte) (right >> 8);
+    }
+    AudioFormat format = new AudioFormat(44100f, 16, 2, true, false);
+    File file = File.createTempFile("jmusic", ".wav");
+    file.deleteOnExit();
+    AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(bytes), format, frames),
+      AudioFileFormat.Type.WAVE, file);
+    return file;
+  }
+}
@@ -0,0 +1,91 @@
+package test.jm.audio.synth;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import jm.audio.AOException;
+import jm.audio.AudioObject;
+import jm.audio.Instrument;
+import jm.audio.synth.Add;
+import jm.audio.synth.Multiply;
+import jm.audio.synth.Value;
+import jm.music.data.Note;
+
+public class CombinerTest {
+
+  private static AudioObject[] values(Instrument inst, float... values) {
+    AudioObject[] aos = new AudioObject[values.length];
+    for (int i = 0; i < values.length; i++) {
+      aos[i] = new Value(inst, 44100, 1, values[i]);
+    }
+    return aos;
+  }
+
+  private static void start(AudioObject[] sources) {
+    for (AudioObject source : sources) {
+      source.newNote(Note.defaultNote(), 0.0, 44100);
+    }
+  }
+
+  @Test
+  public void addTest() throws AOException {
+    AudioObject[] sources = values(DenormalsTest.newInstrument(), 0.5f, 3.0f, -2.0f);
+    Add add = new Add(sources);
+    start(sources);
+    float[] buffer = new float[512];
+    for (int block = 0; block < 3; block++) {
+      Arrays.fill(buffer, 0.0f);
+      assertEquals(add.work(buffer), buffer.length);
+      for (float sample : buffer) {
+        assertEquals(sample, 1.5f);
+      }
+    }
+  }
+
+  @Test
+  public void multiplyTest() throws AOException {
+    AudioObject[] sources = values(DenormalsTest.newInstrument(), 0.5f, 3.0f, -2.0f);
+    Multiply multiply = new Multiply(sources);
+    start(sources);
+    float[] buffer = new float[512];
+    for (int block = 0; block < 3; block++) {
+      assertEquals(multiply.work(buffer), buffer.length);
+      for (float sample : buffer) {
+        assertEquals(sample, -3.0f);
+      }
+    }
+  }
+
+  @Test
+  public void noAllocationPerBlockTest() throws AOException {
+    if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+      throw new SkipException("allocation counting is not supported");
+    }
+    com.sun.management.ThreadMXBean bean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    AudioObject[] addSources = values(DenormalsTest.newInstrument(), 0.5f, 3.0f);
+    AudioObject[] multiplySources = values(DenormalsTest.newInstrument(), -2.0f, 1.0f);
+    Add add = new Add(addSources);
+    Multiply multiply = new Multiply(multiplySources);
+    start(addSources);
+    start(multiplySources);
+    float[] buffer = new float[4096];
+    add.work(buffer);
+    multiply.work(buffer);
+    long id = Thread.currentThread().getId();
+    long before = bean.getThreadAllocatedBytes(id);
+    for (int block = 0; block < 100; block++) {
+      add.work(buffer);
+      multiply.work(buffer);
+    }
+    long allocated = bean.getThreadAllocatedBytes(id) - before;
+    // one block of samples is 16KB, the old code made several per call
+    assertTrue(allocated < 16 * 1024, allocated + " bytes allocated");
+  }
+}
@@ -0,0 +1,111 @@
+package test.jm.audio.synth;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.audio.AOException;
+import jm.audio.AudioObject;
+import jm.audio.Instrument;
+import jm.audio.synth.AllPass;
+import jm.audio.synth.Comb;
+import jm.audio.synth.Filter;
+import jm.audio.synth.Pluck;
+import jm.music.data.Note;
+
+/**
+ * Renders four seconds of silent tail through the feedback units, after
+ * either a full scale click or one so quiet that the unit's state is
+ * nearly subnormal from the start, as it is late in a long tail.
+ * Both should cost the same; without denormal flushing the quiet tails
+ * are many times slower. Pluck is played high so that its own tail dies
+ * away within the four seconds, the click level does not apply to it.
+ * Run with {@code gradle jmh -Pargs=DenormalsBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DenormalsBenchmark {
+
+  @Param({"comb", "allpass", "filter", "pluck"})
+  public String unit;
+
+  @Param({"1.0", "1.0E-30"})
+  public float click;
+
+  private AudioObject source;
+  private AudioObject last;
+  private Note note;
+  private float[] buffer;
+
+  /**
+   * A single click followed by silence.
+   */
+  static class Click extends AudioObject {
+    private final float level;
+    private boolean clicked;
+
+    Click(Instrument inst, float level) {
+      super(inst, 44100, "[Click]");
+      this.channels = 2;
+      this.level = level;
+    }
+
+    public void build() {
+      clicked = false;
+    }
+
+    public int work(float[] buffer) {
+      if (!clicked) {
+        buffer[0] = level;
+        buffer[1] = level;
+        clicked = true;
+      }
+      return buffer.length;
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    Instrument inst = DenormalsTest.newInstrument();
+    note = Note.newBuilder().pitch(100).build();
+    if (unit.equals("pluck")) {
+      source = new Pluck(inst, 44100, 2);
+      last = source;
+    } else {
+      source = new Click(inst, click);
+      if (unit.equals("comb")) {
+        last = new Comb(source, 10, 0.9);
+      } else if (unit.equals("allpass")) {
+        last = new AllPass(source, 10, 0.9);
+      } else {
+        last = new Filter(source, 1000.0, Filter.LOW_PASS, 0.5, 6.0);
+      }
+    }
+    buffer = new float[4096];
+  }
+
+  @Benchmark
+  public float[] renderTail() throws AOException {
+    source.newNote(note, 0.0, Integer.MAX_VALUE);
+    for (int i = 0; i < 4 * 44100 * 2; i += buffer.length) {
+      Arrays.fill(buffer, 0.0f);
+      last.work(buffer);
+    }
+    return buffer;
+  }
+}
@@ -0,0 +1,107 @@
+package test.jm.audio.synth;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import jm.audio.AudioObject;
+import jm.audio.Instrument;
+import jm.audio.math.Denormals;
+import jm.audio.synth.AllPass;
+import jm.audio.synth.Comb;
+import jm.audio.synth.Filter;
+import jm.audio.synth.Pluck;
+import jm.music.data.Note;
+
+public class DenormalsTest {
+
+  /**
+   * A single click followed by silence.
+   */
+  static class Impulse extends AudioObject {
+    private boolean clicked;
+
+    Impulse(Instrument inst) {
+      super(inst, 44100, "[Impulse]");
+      this.channels = 1;
+    }
+
+    public void build() {
+      clicked = false;
+    }
+
+    public int work(float[] buffer) {
+      if (!clicked) {
+        buffer[0] = 1.0f;
+        clicked = true;
+      }
+      return buffer.length;
+    }
+  }
+
+  static Instrument newInstrument() {
+    return new Instrument() {
+      public void createChain() {
+      }
+    };
+  }
+
+  /**
+   * Renders the tail of a unit, checking that it never makes a
+   * subnormal sample and that it ends in silence.
+   */
+  private static void assertTailFlushed(AudioObject source, AudioObject unit, int seconds)
+    throws Exception {
+    source.newNote(Note.defaultNote(), 0.0, Integer.MAX_VALUE);
+    float[] buffer = new float[1024];
+    for (int block = 0; block < seconds * 44100 / buffer.length; block++) {
+      java.util.Arrays.fill(buffer, 0.0f);
+      unit.work(buffer);
+      for (float sample : buffer) {
+        assertTrue(sample == 0.0f || Math.abs(sample) >= Float.MIN_NORMAL,
+          "subnormal sample " + sample + " in block " + block);
+      }
+    }
+    for (float sample : buffer) {
+      assertEquals(sample, 0.0f);
+    }
+  }
+
+  @Test
+  public void flushTest() {
+    assertEquals(Denormals.flush(Float.MIN_VALUE), 0.0f);
+    assertEquals(Denormals.flush(-1.0e-20f), 0.0f);
+    assertEquals(Denormals.flush(Double.MIN_VALUE), 0.0);
+    assertEquals(Denormals.flush(1.0e-6f), 1.0e-6f);
+    assertEquals(Denormals.flush(-0.5), -0.5);
+    double[] state = {1.0e-300, 0.25, -1.0e-20};
+    Denormals.flush(state, 0, state.length);
+    assertEquals(state, new double[]{0.0, 0.25, 0.0});
+  }
+
+  @Test
+  public void combTailTest() throws Exception {
+    Impulse impulse = new Impulse(newInstrument());
+    assertTailFlushed(impulse, new Comb(impulse, 10, 0.9), 6);
+  }
+
+  @Test
+  public void allPassTailTest() throws Exception {
+    Impulse impulse = new Impulse(newInstrument());
+    assertTailFlushed(impulse, new AllPass(impulse, 10, 0.9), 2);
+  }
+
+  @Test
+  public void filterTailTest() throws Exception {
+    Impulse impulse = new Impulse(newInstrument());
+    assertTailFlushed(impulse, new Filter(impulse, 1000.0, Filter.LOW_PASS, 0.5, 6.0), 2);
+  }
+
+  @Test
+  public void pluckTailTest() throws Exception {
+    Pluck pluck = new Pluck(newInstrument(), 44100, 1);
+    pluck.setSeed(3L);
+    assertTailFlushed(pluck, pluck, 10);
+  }
+}
@@ -0,0 +1,77 @@
+package test.jm.audio.synth;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.audio.AOException;
+import jm.audio.Instrument;
+import jm.audio.synth.ADSR;
+import jm.audio.synth.Envelope;
+import jm.music.data.Note;
+
+/**
+ * Renders whole notes through Envelope and ADSR, one note per operation.
+ * Run with {@code gradle jmh -Pargs='EnvelopeBenchmark -prof gc'} to see
+ * the bytes allocated per note, which should not grow with the note length.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvelopeBenchmark {
+
+  @Param({"1", "30"})
+  public int seconds;
+
+  private Envelope envelope;
+  private ADSR adsr;
+  private Note note;
+  private int numOfSamples;
+  private float[] buffer;
+
+  @Setup
+  public void setUp() {
+    Instrument inst = new Instrument() {
+      public void createChain() {
+      }
+    };
+    inst.iterations = 1;
+    envelope = new Envelope(inst, 44100, 2,
+      new double[]{0.0, 0.0, 0.05, 1.0, 0.2, 0.6, 0.8, 0.5, 1.0, 0.0});
+    adsr = new ADSR(inst, 44100, 2, 50, 200, 0.6, 500);
+    note = Note.defaultNote();
+    numOfSamples = 44100 * seconds;
+    buffer = new float[4096];
+  }
+
+  @Benchmark
+  public float[] envelope() throws AOException {
+    envelope.newNote(note, 0.0, numOfSamples);
+    for (int i = 0; i < numOfSamples * 2; i += buffer.length) {
+      envelope.work(buffer);
+    }
+    return buffer;
+  }
+
+  @Benchmark
+  public float[] adsr() throws AOException {
+    adsr.newNote(note, 0.0, numOfSamples);
+    for (int i = 0; i < numOfSamples * 2; i += buffer.length) {
+      adsr.work(buffer);
+    }
+    return buffer;
+  }
+}
@@ -0,0 +1,138 @@
+package test.jm.audio.synth;
+
+import org.testng.annotations.Test;
+
+import jm.audio.Instrument;
+import jm.audio.synth.ADSR;
+import jm.audio.synth.Envelope;
+import jm.music.data.Note;
+
+import static org.testng.Assert.assertEquals;
+
+public class EnvelopeTest {
+
+  private static final double[][] BREAK_POINTS = {
+    {0.0, 0.0, 0.1, 1.0, 0.3, 0.4, 0.8, 0.3, 1.0, 0.0},
+    {0.0, 1.0, 1.0, 0.0},
+    {0.0, 0.0, 0.5, 1.0, 0.5, 0.2, 0.9, 0.0},
+    {0.2, 0.5, 0.6, 1.0}
+  };
+
+  @Test
+  public void envelopeMatchesTableTest() throws Exception {
+    int[] lengths = {10, 1000, 44100, 44101};
+    for (double[] points : BREAK_POINTS) {
+      for (int length : lengths) {
+        Instrument inst = newInstrument();
+        Envelope env = new Envelope(inst, 44100, 2, points);
+        env.newNote(Note.defaultNote(), 0.0, length);
+        float[] expected = envelopeTable(points, length);
+        float[] buffer = new float[2 * length + 100];
+        env.work(buffer);
+        for (int i = 0; i < buffer.length; i++) {
+          float value = (i / 2 < expected.length) ? expected[i / 2] : 0.0f;
+          assertEquals(buffer[i], value, 1e-6f, "sample " + i + " of " + length);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void exponentialEnvelopeTest() throws Exception {
+    Instrument inst = newInstrument();
+    Envelope env = new Envelope(inst, 44100, 1, new double[]{0.0, 1.0, 1.0, 0.0});
+    env.setExponential(true);
+    env.newNote(Note.defaultNote(), 0.0, 1001);
+    float[] buffer = new float[1001];
+    env.work(buffer);
+    // the curve runs from sample -1 to sample 1000
+    double ratio = Math.pow(0.001 / 1.001, 1.0 / 1001);
+    for (int i = 0; i < buffer.length; i++) {
+      assertEquals(buffer[i], (float) (1.001 * Math.pow(ratio, i + 1) - 0.001), 1e-5f);
+    }
+    assertEquals(buffer[1000], 0.0f, 1e-6f);
+  }
+
+  @Test
+  public void adsrMatchesTableTest() throws Exception {
+    Instrument inst = newInstrument();
+    ADSR adsr = new ADSR(inst, 44100, 1, 10, 20, 0.6, 50);
+    int length = 44100;
+    adsr.newNote(Note.defaultNote(), 0.0, length);
+    float[] expected = adsrTable(length, 441, 882, 0.6, 2205);
+    float[] buffer = new float[expected.length + 100];
+    adsr.work(buffer);
+    for (int i = 0; i < buffer.length; i++) {
+      float value = (i < expected.length) ? expected[i] : 0.0f;
+      assertEquals(buffer[i], value, 1e-6f, "sample " + i);
+    }
+  }
+
+  private static Instrument newInstrument() {
+    Instrument inst = new Instrument() {
+      public void createChain() {
+      }
+    };
+    inst.iterations = 1;
+    return inst;
+  }
+
+  /**
+   * The envelope as it used to be rendered into a table for each note.
+   */
+  private static float[] envelopeTable(double[] points, int numOfSamples) {
+    int count = points.length / 2;
+    float[] shape = new float[numOfSamples];
+    if (numOfSamples <= count * 4) {
+      java.util.Arrays.fill(shape, 1.0f);
+      return shape;
+    }
+    int[] xs = new int[count];
+    float[] ys = new float[count];
+    for (int i = 0; i < count; i++) {
+      xs[i] = ((int) ((float) numOfSamples * (float) points[2 * i])) - 1;
+      ys[i] = (float) points[2 * i + 1];
+    }
+    int j = 0;
+    for (int i = 0; i < count - 1; i++) {
+      float gradient = (ys[i] - ys[i + 1]) / (xs[i] - xs[i + 1]);
+      float yintercept = ys[i + 1] - (gradient * xs[i + 1]);
+      for (; ; ) {
+        shape[j] = (gradient * (float) j) + yintercept;
+        if (j >= xs[i + 1]) {
+          break;
+        }
+        j++;
+      }
+    }
+    return shape;
+  }
+
+  /**
+   * The ADSR shape as it used to be rendered into a table for each note.
+   */
+  private static float[] adsrTable(int numOfSamples, double attackSamps, double decaySamps,
+                                   double sustain, double releaseSamps) {
+    int totalSamples = numOfSamples + (int) releaseSamps;
+    float[] shape = new float[totalSamples];
+    int maxAttackCount = Math.min((int) attackSamps, numOfSamples);
+    double inc = 1.0 / (double) maxAttackCount;
+    for (int i = 0; i < maxAttackCount; i++) {
+      shape[i] = (float) (inc * i);
+    }
+    int maxDecayCount = Math.min((int) attackSamps + (int) decaySamps, numOfSamples);
+    double diff = (1.0 - sustain) / (double) (maxDecayCount - maxAttackCount);
+    for (int i = maxAttackCount; i < maxDecayCount; i++) {
+      shape[i] = (float) (1.0 - diff * (i - maxAttackCount));
+    }
+    for (int i = maxDecayCount; i < numOfSamples; i++) {
+      shape[i] = (float) (sustain);
+    }
+    double startVal = (double) shape[numOfSamples - 1];
+    double inc2 = startVal / releaseSamps;
+    for (int i = numOfSamples; i < totalSamples; i++) {
+      shape[i] = (float) (startVal - inc2 * (i - numOfSamples));
+    }
+    return shape;
+  }
+}
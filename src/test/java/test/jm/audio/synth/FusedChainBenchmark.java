@@ -0,0 +1,71 @@
+package test.jm.audio.synth;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.audio.AOException;
+import jm.audio.Instrument;
+import jm.instruments.SawtoothInst;
+import jm.instruments.SimpleFMInst;
+import jm.instruments.SineInst;
+import jm.music.data.Note;
+
+/**
+ * Renders one second stereo notes with SineInst, SimpleFMInst and
+ * SawtoothInst, with their Oscillator, Envelope, Volume and StereoPan
+ * chains fused into one loop or worked an AudioObject at a time.
+ * Run with {@code gradle jmh -Pargs=FusedChainBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FusedChainBenchmark {
+
+  @Param({"sine", "fm", "sawtooth"})
+  public String instrument;
+
+  @Param({"true", "false"})
+  public boolean fuse;
+
+  private Instrument inst;
+  private Note note;
+
+  @Setup
+  public void setUp() throws AOException {
+    if (instrument.equals("sine")) {
+      inst = new SineInst(44100, 2);
+    } else if (instrument.equals("fm")) {
+      inst = new SimpleFMInst(44100, 800, 3.5, 2);
+    } else {
+      inst = new SawtoothInst(44100);
+    }
+    inst.setOutput(Instrument.REALTIME);
+    inst.setFuseChains(fuse);
+    inst.setBlock(false);
+    inst.createChain();
+    note = Note.newBuilder().pitch(60).rhythm(1.0).duration(1.0).build();
+  }
+
+  @Benchmark
+  public int renderNote() {
+    inst.setFinished(true);
+    inst.renderNote(note, 0.0);
+    inst.setFinished(false);
+    inst.iterateChain();
+    return inst.iterations;
+  }
+}
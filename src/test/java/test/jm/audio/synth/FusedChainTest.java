@@ -0,0 +1,88 @@
+package test.jm.audio.synth;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+import jm.audio.AOException;
+import jm.audio.AudioChainListener;
+import jm.audio.Instrument;
+import jm.instruments.SawtoothInst;
+import jm.instruments.SimpleFMInst;
+import jm.instruments.SineInst;
+import jm.music.data.Note;
+
+public class FusedChainTest {
+
+  /**
+   * Renders a few notes and returns every full block passed to listeners.
+   */
+  private static float[] render(Instrument inst, boolean fuse) throws AOException {
+    final float[][] samples = {new float[0]};
+    inst.setOutput(Instrument.REALTIME);
+    inst.setFuseChains(fuse);
+    inst.setBlock(false);
+    inst.setBufSize(1000);
+    inst.createChain();
+    assertEquals(inst.compileChain().getFusedCount(), fuse ? 1 : 0);
+    inst.addAudioChainListener(new AudioChainListener() {
+      public void controlChange(float[] buffer, int returned, boolean finished) {
+        int length = samples[0].length;
+        samples[0] = Arrays.copyOf(samples[0], length + buffer.length);
+        System.arraycopy(buffer, 0, samples[0], length, buffer.length);
+      }
+    });
+    double[] pans = {0.5, 0.1, 0.9};
+    int[] pitches = {60, 67, 48};
+    for (int n = 0; n < pans.length; n++) {
+      Note note = Note.newBuilder().pitch(pitches[n]).rhythm(0.25).duration(0.25)
+        .dynamic(70 + 20 * n).pan(pans[n]).build();
+      inst.setFinished(true);
+      inst.renderNote(note, 0.0);
+      inst.setFinished(false);
+      inst.iterateChain();
+    }
+    return samples[0];
+  }
+
+  private static void assertSame(Instrument fused, Instrument plain) throws AOException {
+    float[] expected = render(plain, false);
+    float[] actual = render(fused, true);
+    assertEquals(actual.length, expected.length);
+    assertEquals(actual.length, 3 * 11025 * plain.getChannels() / 1000 * 1000);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(Float.floatToIntBits(actual[i]), Float.floatToIntBits(expected[i]),
+        "sample " + i);
+    }
+  }
+
+  @Test
+  public void notFusedByDefault() throws AOException {
+    Instrument inst = new SineInst(44100, 2);
+    inst.setOutput(Instrument.REALTIME);
+    inst.createChain();
+    assertEquals(inst.compileChain().getFusedCount(), 0);
+  }
+
+  @Test
+  public void sineIsUnchanged() throws AOException {
+    assertSame(new SineInst(44100, 2), new SineInst(44100, 2));
+  }
+
+  @Test
+  public void monoSineIsUnchanged() throws AOException {
+    assertSame(new SineInst(44100, 1), new SineInst(44100, 1));
+  }
+
+  @Test
+  public void sawtoothIsUnchanged() throws AOException {
+    assertSame(new SawtoothInst(44100), new SawtoothInst(44100));
+  }
+
+  @Test
+  public void frequencyModulationIsUnchanged() throws AOException {
+    assertSame(new SimpleFMInst(44100, 800, 3.5, 2), new SimpleFMInst(44100, 800, 3.5, 2));
+  }
+}
@@ -0,0 +1,122 @@
+package test.jm.audio.synth;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import jm.audio.AOException;
+import jm.audio.AudioObject;
+import jm.audio.synth.Granulator;
+import jm.audio.synth.Value;
+import jm.music.data.Note;
+
+public class GranulatorTest {
+
+  /**
+   * A granulator of a constant input of one, making ten grains per
+   * block of a thousand samples, so each grain is just its envelope.
+   */
+  private static Granulator newGranulator(int grainDuration) {
+    AudioObject source = new Value(DenormalsTest.newInstrument(), 1000, 1, 1.0f);
+    source.newNote(Note.defaultNote(), 0.0, Integer.MAX_VALUE);
+    return new Granulator(source, 1000, 1, grainDuration, 10);
+  }
+
+  private static float envelope(int type, int length, int i) {
+    if (type == 3) {
+      return (i < length / 2) ? 2.0f : 0.0f;
+    }
+    if (type == 1) {
+      return (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / length));
+    }
+    return (float) Math.sin(Math.PI * i / length);
+  }
+
+  private static void assertBlock(Granulator granulator, int type, int length)
+    throws AOException {
+    float[] buffer = new float[1000];
+    assertEquals(granulator.work(buffer), buffer.length);
+    for (int i = 0; i < buffer.length; i++) {
+      int j = i % 100;
+      float expected = (j < length) ? envelope(type, length, j) : 0.0f;
+      assertEquals(buffer[i], expected, 1e-6f, "type " + type + " length " + length
+        + " sample " + i);
+    }
+  }
+
+  @Test
+  public void envelopeTest() throws AOException {
+    for (int type = 1; type <= 3; type++) {
+      Granulator granulator = newGranulator(100);
+      granulator.setEnvelopeType(type);
+      for (int block = 0; block < 3; block++) {
+        assertBlock(granulator, type, 100);
+      }
+    }
+  }
+
+  @Test
+  public void grainDurationChangeTest() throws AOException {
+    // more durations than the granulator keeps envelope tables for,
+    // then back to the first ones
+    int[] durations = {50, 100, 60, 70, 80, 90, 55, 65, 75, 85, 50, 100};
+    Granulator granulator = newGranulator(durations[0]);
+    for (int duration : durations) {
+      granulator.setGrainDuration(duration);
+      assertBlock(granulator, 1, duration);
+    }
+    granulator.setEnvelopeType(2);
+    assertBlock(granulator, 2, 100);
+    granulator.setEnvelopeType(1);
+    assertBlock(granulator, 1, 100);
+  }
+
+  @Test
+  public void sameSeedSameGrainsTest() throws AOException {
+    float[][] blocks = new float[2][];
+    for (int n = 0; n < blocks.length; n++) {
+      Granulator granulator = newGranulator(100);
+      granulator.setSeed(42);
+      granulator.setRandomGrainDuration(true);
+      granulator.setRandomGrainBottom(20);
+      granulator.setRandomGrainTop(80);
+      granulator.setRandomDist(30);
+      blocks[n] = new float[0];
+      float[] buffer = new float[1000];
+      for (int block = 0; block < 5; block++) {
+        Arrays.fill(buffer, 0.0f);
+        granulator.work(buffer);
+        int length = blocks[n].length;
+        blocks[n] = Arrays.copyOf(blocks[n], length + buffer.length);
+        System.arraycopy(buffer, 0, blocks[n], length, buffer.length);
+      }
+    }
+    assertEquals(blocks[0], blocks[1]);
+  }
+
+  @Test
+  public void noAllocationPerBlockTest() throws AOException {
+    if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+      throw new SkipException("allocation counting is not supported");
+    }
+    com.sun.management.ThreadMXBean bean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Granulator granulator = newGranulator(150);
+    float[] buffer = new float[1000];
+    granulator.work(buffer);
+    granulator.work(buffer);
+    long id = Thread.currentThread().getId();
+    long before = bean.getThreadAllocatedBytes(id);
+    for (int block = 0; block < 100; block++) {
+      granulator.work(buffer);
+    }
+    long allocated = bean.getThreadAllocatedBytes(id) - before;
+    // one block of samples is 4KB, grains and envelopes are reused
+    assertTrue(allocated < 4 * 1000, allocated + " bytes allocated");
+  }
+}
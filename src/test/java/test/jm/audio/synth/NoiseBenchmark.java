@@ -0,0 +1,56 @@
+package test.jm.audio.synth;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.audio.AOException;
+import jm.audio.Instrument;
+import jm.audio.synth.Noise;
+
+/**
+ * Throughput of every Noise type, one 4096 sample buffer per operation.
+ * Run with {@code gradle jmh -Pargs=NoiseBenchmark}, add {@code -t 4} to
+ * see how the noise generators scale over several render threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoiseBenchmark {
+
+  @Param({"0", "1", "2", "3", "4", "5", "6", "7"})
+  public int noiseType;
+
+  private Noise noise;
+  private float[] buffer;
+
+  @Setup
+  public void setUp() {
+    Instrument inst = new Instrument() {
+      public void createChain() {
+      }
+    };
+    noise = new Noise(inst, noiseType, 44100, 2);
+    noise.setSeed(42L);
+    buffer = new float[4096];
+  }
+
+  @Benchmark
+  public float[] work() throws AOException {
+    noise.work(buffer);
+    return buffer;
+  }
+}
@@ -0,0 +1,69 @@
+package test.jm.audio.synth;
+
+import org.testng.annotations.Test;
+
+import jm.audio.Instrument;
+import jm.audio.math.XorShiftRandom;
+import jm.audio.synth.Noise;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+public class NoiseTest {
+
+  @Test
+  public void sameSeedSameNoiseTest() throws Exception {
+    int[] types = {Noise.WHITE_NOISE, Noise.STEP_NOISE, Noise.SMOOTH_NOISE,
+      Noise.BROWN_NOISE, Noise.FRACTAL_NOISE, Noise.GAUSSIAN_NOISE, Noise.WALK_NOISE,
+      Noise.GENDYN_NOISE};
+    for (int type : types) {
+      assertEquals(render(type, 7L), render(type, 7L), "noise type " + type);
+    }
+  }
+
+  @Test
+  public void seedsDifferTest() throws Exception {
+    for (int type : new int[]{Noise.FRACTAL_NOISE, Noise.GENDYN_NOISE}) {
+      assertNotEquals(render(type, 7L), render(type, 8L), "noise type " + type);
+    }
+  }
+
+  @Test
+  public void whiteNoiseRangeTest() throws Exception {
+    for (float sample : render(Noise.WHITE_NOISE, 1L)) {
+      assertTrue(sample >= -1.0f && sample < 1.0f);
+    }
+  }
+
+  @Test
+  public void randomRangeTest() {
+    XorShiftRandom random = new XorShiftRandom(0L);
+    for (int i = 0; i < 10000; i++) {
+      double d = random.nextDouble();
+      assertTrue(d >= 0.0 && d < 1.0);
+      float f = random.nextFloat();
+      assertTrue(f >= 0.0f && f < 1.0f);
+      int n = random.nextInt(10);
+      assertTrue(n >= 0 && n < 10);
+    }
+  }
+
+  private static float[] render(int type, long seed) throws Exception {
+    Instrument inst = new Instrument() {
+      public void createChain() {
+      }
+    };
+    Noise noise = new Noise(inst, type, 44100, 2);
+    noise.setSeed(seed);
+    float[] buffer = new float[1024];
+    noise.work(buffer);
+    // a second, longer block so gendyn noise makes several waves
+    float[] more = new float[8192];
+    noise.work(more);
+    float[] all = new float[buffer.length + more.length];
+    System.arraycopy(buffer, 0, all, 0, buffer.length);
+    System.arraycopy(more, 0, all, buffer.length, more.length);
+    return all;
+  }
+}
@@ -0,0 +1,58 @@
+package test.jm.audio.synth;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.audio.AOException;
+import jm.audio.Instrument;
+import jm.audio.synth.ReSample;
+import jm.music.data.Note;
+
+/**
+ * Throughput of ReSample at each quality, one 4096 sample stereo buffer
+ * per operation, pitching the input up a fifth. The aliasing of each
+ * quality is checked by ReSampleTest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReSampleBenchmark {
+
+  @Param({"0", "1", "2", "3"})
+  public int quality;
+
+  private ReSample reSample;
+  private float[] buffer;
+
+  @Setup
+  public void setUp() {
+    Instrument inst = new Instrument() {
+      public void createChain() {
+      }
+    };
+    ReSampleTest.SineSource sine = new ReSampleTest.SineSource(inst, 2, 440.0);
+    reSample = new ReSample(sine, 440.0, quality);
+    sine.newNote(Note.newBuilder().frequency(660.0).build(), 0.0, Integer.MAX_VALUE);
+    buffer = new float[4096];
+  }
+
+  @Benchmark
+  public float[] work() throws AOException {
+    reSample.nextWork(buffer);
+    return buffer;
+  }
+}
@@ -0,0 +1,121 @@
+package test.jm.audio.synth;
+
+import java.lang.reflect.Field;
+
+import org.testng.annotations.Test;
+
+import jm.audio.AudioObject;
+import jm.audio.Instrument;
+import jm.audio.synth.ReSample;
+import jm.music.data.Note;
+
+import static org.testng.Assert.assertTrue;
+
+public class ReSampleTest {
+
+  private static final int SAMPLE_RATE = 44100;
+
+  @Test
+  public void pitchShiftAcrossBlocksTest() throws Exception {
+    int[] qualities = {ReSample.LINEAR, ReSample.CUBIC, ReSample.SINC_8, ReSample.SINC_32};
+    double[] maxError = {0.02, 0.005, 0.005, 0.002};
+    for (int q = 0; q < qualities.length; q++) {
+      float[] out = render(qualities[q], 440.0, 440.0, 660.0, 2, 5);
+      // the output is a 660Hz sine on both channels, with no jumps between blocks
+      double error = 0.0;
+      for (int f = 64; f < out.length / 2; f++) {
+        double expected = Math.sin(2 * Math.PI * 660.0 * f / SAMPLE_RATE);
+        error = Math.max(error, Math.abs(out[2 * f] - expected));
+        error = Math.max(error, Math.abs(out[2 * f + 1] - expected));
+      }
+      assertTrue(error < maxError[q], "quality " + qualities[q] + " error " + error);
+    }
+  }
+
+  @Test
+  public void aliasingTest() throws Exception {
+    // an octave up moves a 0.35 fs input to 0.7 fs, which can only alias
+    double input = 0.35 * SAMPLE_RATE;
+    double linear = rms(render(ReSample.LINEAR, input, 440.0, 880.0, 1, 4));
+    double sinc8 = rms(render(ReSample.SINC_8, input, 440.0, 880.0, 1, 4));
+    double sinc32 = rms(render(ReSample.SINC_32, input, 440.0, 880.0, 1, 4));
+    assertTrue(sinc8 < linear / 2, "sinc 8 " + sinc8 + " linear " + linear);
+    assertTrue(sinc32 < 0.01, "sinc 32 " + sinc32);
+  }
+
+  @Test
+  public void phaseJustBelowOneTest() throws Exception {
+    // a position just below a whole frame has a phase which rounds to one as a float
+    int[] qualities = {ReSample.LINEAR, ReSample.CUBIC, ReSample.SINC_8, ReSample.SINC_32};
+    for (int quality : qualities) {
+      Instrument inst = new Instrument() {
+        public void createChain() {
+        }
+      };
+      SineSource sine = new SineSource(inst, 1, 440.0);
+      ReSample reSample = new ReSample(sine, 440.0, quality);
+      sine.newNote(Note.newBuilder().frequency(440.0).build(), 0.0, SAMPLE_RATE);
+      Field field = ReSample.class.getDeclaredField("position");
+      field.setAccessible(true);
+      field.setDouble(reSample, Math.nextDown(field.getDouble(reSample) + 1.0));
+      float[] buffer = new float[4096];
+      reSample.nextWork(buffer);
+      // starts one input frame on and carries on at the same rate
+      for (int f = 0; f < buffer.length; f++) {
+        double expected = Math.sin(2 * Math.PI * 440.0 * (f + 1) / SAMPLE_RATE);
+        assertTrue(Math.abs(buffer[f] - expected) < 0.02,
+          "quality " + quality + " frame " + f + " " + buffer[f]);
+      }
+    }
+  }
+
+  private static double rms(float[] buffer) {
+    double sum = 0.0;
+    for (int i = 256; i < buffer.length; i++) {
+      sum += buffer[i] * buffer[i];
+    }
+    return Math.sqrt(sum / (buffer.length - 256));
+  }
+
+  private static float[] render(int quality, double inputFreq, double baseFreq,
+                                double noteFreq, int channels, int blocks) throws Exception {
+    Instrument inst = new Instrument() {
+      public void createChain() {
+      }
+    };
+    SineSource sine = new SineSource(inst, channels, inputFreq);
+    ReSample reSample = new ReSample(sine, baseFreq, quality);
+    sine.newNote(Note.newBuilder().frequency(noteFreq).build(), 0.0, SAMPLE_RATE);
+    float[] out = new float[blocks * 4096];
+    float[] buffer = new float[4096];
+    for (int b = 0; b < blocks; b++) {
+      reSample.nextWork(buffer);
+      System.arraycopy(buffer, 0, out, b * 4096, 4096);
+    }
+    return out;
+  }
+
+  /**
+   * A sine wave generator which carries on from block to block.
+   */
+  static class SineSource extends AudioObject {
+    private final double freq;
+    private long frame = 0;
+
+    SineSource(Instrument inst, int channels, double freq) {
+      super(inst, SAMPLE_RATE, "[SineSource]");
+      this.channels = channels;
+      this.freq = freq;
+    }
+
+    public int work(float[] buffer) {
+      for (int i = 0; i < buffer.length; i += channels) {
+        float value = (float) Math.sin(2 * Math.PI * freq * frame++ / SAMPLE_RATE);
+        for (int c = 0; c < channels; c++) {
+          buffer[i + c] = value;
+        }
+      }
+      return buffer.length;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package test.jm.gui.wave;
+
+import java.io.File;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.testng.annotations.Test;
+
+import jm.audio.io.AudioFileIn;
+import jm.audio.io.AudioFileOut;
+import jm.gui.wave.WaveFileReader;
+
+import static org.testng.Assert.assertEquals;
+
+public class WaveFileReaderTest {
+
+  @Test
+  public void randomAccessTest() throws Exception {
+    String[] suffixes = {".wav", ".aif", ".au"};
+    int[] bits = {8, 16, 24};
+    for (String suffix : suffixes) {
+      for (int b : bits) {
+        File file = writeSaw(suffix, b, 2, 5001);
+        float[] whole = new AudioFileIn(file.getPath()).getSampleData();
+        WaveFileReader reader = new WaveFileReader(file.getPath());
+        assertEquals(reader.getSampleCount(), 10002L, suffix + " " + b);
+        assertEquals(reader.getWaveSize(), 5001, suffix + " " + b);
+        int[] starts = {7777, 0, 9990, 123};
+        for (int start : starts) {
+          float[] samples = reader.getSamples(100, start);
+          for (int i = 0; i < 100; i++) {
+            float expected = start + i < whole.length ? whole[start + i] : 0.0f;
+            assertEquals(samples[i], expected, suffix + " " + b + " sample " + (start + i));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void readPastEndTest() throws Exception {
+    File file = writeSaw(".wav", 16, 1, 100);
+    WaveFileReader reader = new WaveFileReader(file.getPath());
+    float[] samples = new float[50];
+    assertEquals(reader.read(samples, 0, 50, 80), 20);
+    assertEquals(reader.read(samples, 0, 50, 100), 0);
+  }
+
+  static File writeSaw(String suffix, int bits, int channels, int frames) throws Exception {
+    File file = File.createTempFile("jmusic", suffix);
+    file.deleteOnExit();
+    float[] saw = new float[frames * channels];
+    for (int i = 0; i < saw.length; i++) {
+      saw[i] = ((i * 7) % 2000) / 1000f - 1f;
+    }
+    AudioFileOut afo = new AudioFileOut(file.getPath());
+    afo.open(new AudioFormat(44100, bits, channels, true, true));
+    afo.write(saw, 0, saw.length);
+    afo.close();
+    return file;
+  }
+}
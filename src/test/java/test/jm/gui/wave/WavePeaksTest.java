@@ -0,0 +1,76 @@
+package test.jm.gui.wave;
+
+import java.io.File;
+
+import org.testng.annotations.Test;
+
+import jm.gui.wave.WaveFileReader;
+import jm.gui.wave.WavePeaks;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class WavePeaksTest {
+
+  @Test
+  public void peaksMatchSamplesTest() throws Exception {
+    File file = WaveFileReaderTest.writeSaw(".wav", 16, 2, 100000);
+    WaveFileReader reader = new WaveFileReader(file.getPath());
+    float[] samples = reader.getSamples(200000, 0);
+    WavePeaks peaks = new WavePeaks(reader);
+    assertEquals(peaks.getFrames(), 100000L);
+    int[] resolutions = {1, 16, 256, 1024, 2048, 3000};
+    for (int resolution : resolutions) {
+      for (int channel = 0; channel < 2; channel++) {
+        long start = 4096;
+        int pixels = 20;
+        float[] min = new float[pixels];
+        float[] max = new float[pixels];
+        peaks.getPeaks(channel, start, resolution, min, max, pixels);
+        for (int p = 0; p < pixels; p++) {
+          float low = 0.0f;
+          float high = 0.0f;
+          for (long f = start + p * resolution; f < start + (p + 1) * resolution; f++) {
+            low = Math.min(low, samples[(int) (2 * f + channel)]);
+            high = Math.max(high, samples[(int) (2 * f + channel)]);
+          }
+          String message = "resolution " + resolution + " pixel " + p;
+          if (resolution % WavePeaks.BLOCK_SIZE == 0 || resolution < WavePeaks.BLOCK_SIZE) {
+            // pixels line up with the blocks
+            assertEquals(min[p], low, 1e-4f, message);
+            assertEquals(max[p], high, 1e-4f, message);
+          } else {
+            // may take in part of a block either side
+            assertTrue(min[p] <= low + 1e-4f, message);
+            assertTrue(max[p] >= high - 1e-4f, message);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void sidecarTest() throws Exception {
+    File file = WaveFileReaderTest.writeSaw(".aif", 24, 1, 50000);
+    WaveFileReader reader = new WaveFileReader(file.getPath());
+    File sidecar = WavePeaks.getSidecar(file);
+    sidecar.deleteOnExit();
+    assertNull(WavePeaks.load(reader, sidecar));
+    WavePeaks computed = WavePeaks.forFile(reader, true);
+    assertTrue(sidecar.exists());
+    WavePeaks loaded = WavePeaks.load(reader, sidecar);
+    assertNotNull(loaded);
+    assertEquals(loaded.getLevels(), computed.getLevels());
+    float[][] a = new float[2][100];
+    float[][] b = new float[2][100];
+    computed.getPeaks(0, 300, 512, a[0], a[1], 100);
+    loaded.getPeaks(0, 300, 512, b[0], b[1], 100);
+    assertEquals(b[0], a[0]);
+    assertEquals(b[1], a[1]);
+    // a changed audio file makes the sidecar stale
+    assertTrue(file.setLastModified(file.lastModified() - 10000));
+    assertNull(WavePeaks.load(reader, sidecar));
+  }
+}
@@ -0,0 +1,76 @@
+package test.jm.music.data;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jm.music.data.TempoMap;
+
+/**
+ * Converts a thousand beats to seconds and back with a map of many tempo
+ * changes, against adding up the segments before each beat.
+ * Run with {@code gradle jmh -Pargs=TempoMapBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TempoMapBenchmark {
+
+  @Param({"16", "4096"})
+  public int changes;
+
+  private TempoMap map;
+  private double[] queries;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(1L);
+    map = new TempoMap(120.0);
+    for (int i = 1; i <= changes; i++) {
+      map.setTempo(i * 2.0, 60.0 + random.nextInt(120));
+    }
+    queries = new double[1000];
+    for (int i = 0; i < queries.length; i++) {
+      queries[i] = random.nextDouble() * changes * 2.0;
+    }
+  }
+
+  @Benchmark
+  public double map() {
+    double sum = 0.0;
+    for (double beat : queries) {
+      sum += map.getBeat(map.getSeconds(beat));
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double scan() {
+    double sum = 0.0;
+    for (double beat : queries) {
+      double seconds = 0.0;
+      int segment = 0;
+      while (segment + 1 < map.size() && map.getSegmentBeat(segment + 1) <= beat) {
+        seconds += (map.getSegmentBeat(segment + 1) - map.getSegmentBeat(segment)) * 60.0
+          / map.getSegmentTempo(segment);
+        segment++;
+      }
+      sum += seconds + (beat - map.getSegmentBeat(segment)) * 60.0 / map.getSegmentTempo(segment);
+    }
+    return sum;
+  }
+}
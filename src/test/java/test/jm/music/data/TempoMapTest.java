@@ -0,0 +1,83 @@
+package test.jm.music.data;
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
+import jm.music.data.Score;
+import jm.music.data.TempoMap;
+
+public class TempoMapTest {
+
+  @Test
+  public void conversionTest() {
+    TempoMap map = new TempoMap(60.0);
+    map.setTempo(4.0, 120.0);
+    map.setTempo(8.0, 30.0);
+    assertEquals(map.size(), 3);
+    assertEquals(map.getSeconds(0.0), 0.0);
+    assertEquals(map.getSeconds(2.0), 2.0);
+    assertEquals(map.getSeconds(4.0), 4.0);
+    assertEquals(map.getSeconds(6.0), 5.0);
+    assertEquals(map.getSeconds(9.0), 8.0);
+    assertEquals(map.getSeconds(-1.0), -1.0);
+    assertEquals(map.getBeat(5.0), 6.0);
+    assertEquals(map.getBeat(8.0), 9.0);
+    assertEquals(map.getTempo(3.9), 60.0);
+    assertEquals(map.getTempo(4.0), 120.0);
+    assertEquals(map.getDuration(3.0, 2.0), 1.5);
+    for (double beat = 0.0; beat < 12.0; beat += 0.125) {
+      assertEquals(map.getBeat(map.getSeconds(beat)), beat, 1e-9);
+    }
+  }
+
+  @Test
+  public void outOfOrderTest() {
+    TempoMap inOrder = new TempoMap(100.0);
+    TempoMap outOfOrder = new TempoMap(100.0);
+    double[] beats = {1.0, 2.5, 3.0, 7.0, 9.5};
+    double[] tempos = {80.0, 140.0, 90.0, 200.0, 60.0};
+    for (int i = 0; i < beats.length; i++) {
+      inOrder.setTempo(beats[i], tempos[i]);
+    }
+    for (int i = beats.length - 1; i >= 0; i--) {
+      outOfOrder.setTempo(beats[i], tempos[i]);
+    }
+    // changing a tempo again replaces it
+    outOfOrder.setTempo(3.0, 50.0);
+    outOfOrder.setTempo(3.0, 90.0);
+    assertEquals(outOfOrder.size(), inOrder.size());
+    for (int i = 0; i < inOrder.size(); i++) {
+      assertEquals(outOfOrder.getSegmentBeat(i), inOrder.getSegmentBeat(i));
+      assertEquals(outOfOrder.getSegmentTempo(i), inOrder.getSegmentTempo(i));
+    }
+    for (double beat = 0.0; beat < 12.0; beat += 0.25) {
+      assertEquals(outOfOrder.getSeconds(beat), inOrder.getSeconds(beat), 1e-9);
+    }
+  }
+
+  @Test
+  public void scoreTest() {
+    Score score = new Score(90.0);
+    TempoMap map = new TempoMap(100.0);
+    map.setTempo(2.0, 50.0);
+    score.setTempoMap(map);
+    assertEquals(score.getTempo(), 100.0);
+    score.setTempo(120.0);
+    assertEquals(map.getTempo(0.0), 120.0);
+    Score copy = score.copy();
+    assertEquals(copy.getTempoMap().size(), 2);
+    map.setTempo(2.0, 80.0);
+    assertEquals(copy.getTempoMap().getTempo(2.0), 50.0);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void badTempoTest() {
+    new TempoMap(120.0).setTempo(1.0, 0.0);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void negativeBeatTest() {
+    new TempoMap(120.0).setTempo(-1.0, 60.0);
+  }
+}